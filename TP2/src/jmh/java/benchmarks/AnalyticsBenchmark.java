@@ -0,0 +1,91 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.analytics.AnalyticsResult;
+import server.analytics.EnrollmentAnalytics;
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+import server.registration.RegistrationRecord;
+
+/**
+ * Latency of the ANALYSER queries over the columnar table, once it has caught up with a large journal.
+ * Run with -p rows=20000000 for the sizes the feature is meant for; the default keeps the setup short.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class AnalyticsBenchmark {
+
+    @Param({"2000000"})
+    public int rows;
+
+    private Path dir;
+    private RegistrationJournal journal;
+    private EnrollmentAnalytics analytics;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("bench-analytics");
+        Path file = dir.resolve("inscription.txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < rows; i++) {
+                writer.write(new RegistrationRecord(Fixtures.SESSIONS[i % 3], "IFT" + (1000 + i % 500), String.valueOf(20000000 + i % (rows / 5)),
+                        "Prenom", "Nom", "etudiant@umontreal.ca").toLine());
+            }
+        }
+        journal = new RegistrationJournal(file);
+        analytics = new EnrollmentAnalytics(journal, (session, code) -> 1000, Runtime.getRuntime().availableProcessors());
+        while (analytics.getRows() < rows) {
+            Thread.sleep(50);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        analytics.close();
+        journal.close();
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public AnalyticsResult bySession() throws Exception {
+        return analytics.query("sessions").get();
+    }
+
+    @Benchmark
+    public AnalyticsResult topCourses() throws Exception {
+        return analytics.query("top Hiver 10").get();
+    }
+
+    @Benchmark
+    public AnalyticsResult nearlyFull() throws Exception {
+        return analytics.query("presque-complets Automne 0.9").get();
+    }
+
+    @Benchmark
+    public AnalyticsResult schedule() throws Exception {
+        return analytics.query("horaire 20000042").get();
+    }
+}
@@ -0,0 +1,76 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.catalog.CourseCatalog;
+import server.catalog.ResponseCache;
+import server.exceptions.InvalidLineFormatException;
+import server.models.Course;
+import server.protocol.WireFormat;
+
+/**
+ * The three ways a CHARGER reply can be produced: parsing cours.txt (what every request used to do, and what
+ * a catalog reload still does), filtering the in-memory catalog, and taking the cached encoded reply.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CatalogBenchmark {
+
+    @Param({"6", "5000"})
+    public int courses;
+
+    private Path dir;
+    private Path file;
+    private CourseCatalog catalog;
+    private ResponseCache cache;
+
+    @Setup
+    public void setup() throws IOException, InvalidLineFormatException {
+        dir = Files.createTempDirectory("bench-catalog");
+        file = Fixtures.writeCourses(dir, courses);
+        catalog = new CourseCatalog(file);
+        cache = new ResponseCache(catalog, WireFormat.OBJECT_STREAM);
+    }
+
+    @TearDown
+    public void tearDown() {
+        catalog.close();
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public CourseCatalog parseFile() throws IOException, InvalidLineFormatException {
+        return new CourseCatalog(file);
+    }
+
+    @Benchmark
+    public List<Course> lookupSession() {
+        return catalog.getCourses("Automne");
+    }
+
+    @Benchmark
+    public byte[] cachedReply() throws IOException {
+        return cache.get("Automne");
+    }
+}
@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.Command;
+import server.CommandLine;
+import server.Server;
+import server.ServerExecutors;
+import server.catalog.CourseCatalog;
+import server.exceptions.InvalidLineFormatException;
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+
+/**
+ * Cost of splitting a command line into command and argument and finding its handler, paid once per request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandLineBenchmark {
+
+    @Param({"CHARGER Automne", "INSCRIRE", "CHARGER Automne Hiver Ete"})
+    public String line;
+
+    private Path dir;
+    private Server server;
+    private final CommandLine reused = new CommandLine();
+
+    @Setup
+    public void setup() throws IOException, InvalidLineFormatException {
+        dir = Files.createTempDirectory("bench-command");
+        server = new Server(0, 1, ServerExecutors.virtualThreads(), new CourseCatalog(Fixtures.writeCourses(dir, 6)),
+                new RegistrationJournal(dir.resolve("inscription.txt")), new RegistrationIndex(RegistrationIndex.UNLIMITED));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public CommandLine processCommandLine() {
+        return server.processCommandLine(line);
+    }
+
+    /**
+     * What a session does: parse into its own descriptor, then look up the handler. Run with
+     * {@code -prof gc} to check that the allocation rate stays near zero.
+     */
+    @Benchmark
+    public Command parseReused() {
+        return Command.of(reused.parse(line).getName());
+    }
+}
@@ -0,0 +1,87 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.models.Course;
+import server.protocol.BinaryCodec;
+import server.protocol.PayloadCompressor;
+
+/**
+ * CPU cost of compressing a CHARGER reply of {@code courses} entries, with and without the catalog dictionary,
+ * and of decompressing it on the client. The setup prints the frame sizes, which give the bytes saved on the wire.
+ * The server compresses a reply once per catalog version, so the client-side decompression is the per-request cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    @Param({"50", "500", "5000"})
+    public int courses;
+
+    private byte[] frame;
+    private PayloadCompressor withDictionary;
+    private PayloadCompressor withoutDictionary;
+    private BinaryCodec.Frame compressed;
+    private byte[] dictionary;
+    private int dictionaryId;
+
+    @Setup
+    public void setup() throws IOException {
+        List<Course> list = new ArrayList<>();
+        String[] sessions = {"Automne", "Hiver", "Ete"};
+        String[] subjects = {"Programmation", "Genie_Logiciel", "Base_de_donnees", "Architecture_des_ordinateurs", "Analyse"};
+        for (int i = 0; i < courses; i++) {
+            list.add(new Course(subjects[i % subjects.length] + "_" + (i / subjects.length), "IFT" + (1000 + i), sessions[i % 3]));
+        }
+        frame = BinaryCodec.encodeCourses(list);
+        withDictionary = PayloadCompressor.forCourses(list, 0);
+        withoutDictionary = new PayloadCompressor(new byte[0], 0);
+        byte[] bytes = withDictionary.compress(frame);
+        compressed = new BinaryCodec.Frame(bytes[4], copyOfPayload(bytes));
+        dictionary = PayloadCompressor.decodeDictionary(new BinaryCodec.Frame(BinaryCodec.OP_DICTIONARY,
+                copyOfPayload(withDictionary.getDictionaryFrame())));
+        dictionaryId = PayloadCompressor.dictionaryId(dictionary);
+        System.out.printf("%n%d courses: %d bytes, %d compressed, %d without dictionary, dictionary %d bytes%n",
+                courses, frame.length, bytes.length, withoutDictionary.compress(frame).length, dictionary.length);
+    }
+
+    private static byte[] copyOfPayload(byte[] frame) {
+        byte[] payload = new byte[frame.length - 5];
+        System.arraycopy(frame, 5, payload, 0, payload.length);
+        return payload;
+    }
+
+    @Benchmark
+    public byte[] compressWithDictionary() {
+        return withDictionary.compress(frame);
+    }
+
+    @Benchmark
+    public byte[] compressWithoutDictionary() {
+        return withoutDictionary.compress(frame);
+    }
+
+    @Benchmark
+    public BinaryCodec.Frame decompress() throws IOException {
+        return PayloadCompressor.decompress(compressed, id -> id == dictionaryId ? dictionary : null);
+    }
+}
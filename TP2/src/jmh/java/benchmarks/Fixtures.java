@@ -0,0 +1,49 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Temporary data files shared by the benchmarks, so that no benchmark touches the files under src/main.
+ */
+final class Fixtures {
+
+    static final String[] SESSIONS = {"Automne", "Hiver", "Ete"};
+
+    private Fixtures() {
+    }
+
+    /**
+     * Write a cours.txt with {@code courses} lines spread evenly over the three sessions.
+     */
+    static Path writeCourses(Path dir, int courses) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < courses; i++) {
+            sb.append("IFT").append(1000 + i).append('\t')
+                    .append("Cours_numero_").append(i).append('\t')
+                    .append(SESSIONS[i % SESSIONS.length]).append('\n');
+        }
+        Path file = dir.resolve("cours.txt");
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    static void deleteRecursively(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
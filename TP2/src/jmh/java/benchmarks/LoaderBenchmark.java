@@ -0,0 +1,119 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.exceptions.InvalidLineFormatException;
+import server.io.MappedTabFile;
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationRecord;
+
+/**
+ * Startup cost of rebuilding the registration index from a large inscription.txt: the memory-mapped
+ * loader against line-by-line reading with split, and against the Scanner loop the server started with.
+ * The CountOneCourse pair isolates the scanning itself, materializing nothing for rows that do not match.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class LoaderBenchmark {
+
+    @Param({"1000000"})
+    public int rows;
+
+    private Path dir;
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("bench-loader");
+        file = dir.resolve("inscription.txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < rows; i++) {
+                writer.write(new RegistrationRecord(Fixtures.SESSIONS[i % 3], "IFT" + (1000 + i % 500), String.valueOf(20000000 + i),
+                        "Prenom" + i, "Nom" + i, "etudiant" + i + "@umontreal.ca").toLine());
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public RegistrationIndex mapped() throws IOException, InvalidLineFormatException {
+        return RegistrationIndex.load(file, RegistrationIndex.UNLIMITED);
+    }
+
+    @Benchmark
+    public RegistrationIndex readLineAndSplit() throws IOException, InvalidLineFormatException {
+        RegistrationIndex index = new RegistrationIndex(RegistrationIndex.UNLIMITED);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                index.restore(RegistrationRecord.parse(line));
+            }
+        }
+        return index;
+    }
+
+    @Benchmark
+    public int mappedCountOneCourse() throws IOException, InvalidLineFormatException {
+        int[] count = new int[1];
+        MappedTabFile.scan(file, 6, RegistrationRecord.SESSION_ERROR_MSG, row -> {
+            if (row.fieldEquals(1, "IFT1042")) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    public int readLineAndSplitCountOneCourse() throws IOException, InvalidLineFormatException {
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (RegistrationRecord.parse(line).getCourseCode().equals("IFT1042")) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public RegistrationIndex scanner() throws IOException, InvalidLineFormatException {
+        RegistrationIndex index = new RegistrationIndex(RegistrationIndex.UNLIMITED);
+        try (Scanner scanner = new Scanner(new File(file.toString()), "UTF-8")) {
+            while (scanner.hasNextLine()) {
+                index.restore(RegistrationRecord.parse(scanner.nextLine()));
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,130 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import client.ServerConnection;
+import server.Server;
+import server.ServerExecutors;
+import server.catalog.CourseCatalog;
+import server.exceptions.InvalidLineFormatException;
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.protocol.WireFormat;
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+
+/**
+ * The real CHARGER/INSCRIRE protocol over loopback, with one connection per benchmark thread.
+ * Throughput mode gives requests per second; sample mode gives the latency distribution, including
+ * p50 and p99. The number of concurrent clients is the thread count: 8 by default, change it with {@code -t}.
+ * INSCRIRE has no reply, so {@code registerThenLoad} follows it with a CHARGER on the same connection:
+ * the reply cannot arrive before the registration has been handled.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class LoopbackBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ServerState {
+
+        /** The server mode and the wire format; the selector mode only speaks the binary protocol. */
+        @Param({"socket-object", "socket-binary", "selector-binary"})
+        public String transport;
+
+        @Param({"60"})
+        public int courses;
+
+        final AtomicLong matricules = new AtomicLong();
+        Path dir;
+        Server server;
+        WireFormat format;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException, InvalidLineFormatException {
+            dir = Files.createTempDirectory("bench-loopback");
+            format = transport.endsWith("binary") ? WireFormat.BINARY : WireFormat.OBJECT_STREAM;
+            server = new Server(0, 256, ServerExecutors.virtualThreads(), new CourseCatalog(Fixtures.writeCourses(dir, courses)),
+                    new RegistrationJournal(dir.resolve("inscription.txt")), new RegistrationIndex(RegistrationIndex.UNLIMITED));
+            boolean selector = transport.startsWith("selector");
+            Thread acceptor = new Thread(() -> {
+                try {
+                    if (selector) {
+                        server.runSelector(2);
+                    } else {
+                        server.run();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "bench-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws IOException {
+            server.close();
+            Fixtures.deleteRecursively(dir);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ClientState {
+
+        ServerConnection connection;
+        Course course;
+
+        @Setup(Level.Trial)
+        public void open(ServerState state) throws IOException {
+            connection = ServerConnection.open("localhost", state.server.getPort(), state.format);
+            course = connection.loadCourses("Automne").get(0);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            try {
+                connection.quit();
+            } catch (IOException e) {
+                // JMH may already have stopped the shared server
+            } finally {
+                connection.close();
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Course> load(ClientState client) throws IOException {
+        return client.connection.loadCourses("Automne");
+    }
+
+    @Benchmark
+    public List<Course> registerThenLoad(ServerState state, ClientState client) throws IOException {
+        String matricule = String.valueOf(state.matricules.incrementAndGet());
+        client.connection.register(new RegistrationForm("Ada", "Lovelace", "ada@umontreal.ca", matricule, client.course));
+        return client.connection.loadCourses("Hiver");
+    }
+}
@@ -0,0 +1,93 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.registration.RegistrationJournal;
+import server.registration.RegistrationRecord;
+
+/**
+ * Formatting an INSCRIRE form into an inscription.txt line, and making that line durable.
+ * The journal benchmarks wait for the returned future, so they include the fsync; with several threads
+ * the writes share batches, which is what the group commit is for. {@code appendReopeningFile} is the
+ * original approach (open, append, close per registration, no fsync) for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistrationBenchmark {
+
+    private final AtomicLong matricules = new AtomicLong();
+    private RegistrationForm form;
+    private RegistrationRecord record;
+    private Path dir;
+    private RegistrationJournal journal;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        form = new RegistrationForm("Michalis", "Famelis", "mfamelis@iro.umontreal.ca", "12345678",
+                new Course("Genie_Logiciel", "IFT2255", "Automne"));
+        record = RegistrationRecord.of(form);
+        dir = Files.createTempDirectory("bench-registration");
+        journal = new RegistrationJournal(dir.resolve("journal.txt"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        Fixtures.deleteRecursively(dir);
+    }
+
+    private RegistrationRecord nextRecord() {
+        return new RegistrationRecord("Automne", "IFT2255", String.valueOf(matricules.incrementAndGet()),
+                "Michalis", "Famelis", "mfamelis@iro.umontreal.ca");
+    }
+
+    @Benchmark
+    public String formatLine() {
+        return RegistrationRecord.of(form).toLine();
+    }
+
+    @Benchmark
+    public Long appendAndAwait() throws InterruptedException, ExecutionException {
+        return journal.append(nextRecord()).get();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Long appendAndAwaitContended() throws InterruptedException, ExecutionException {
+        return journal.append(nextRecord()).get();
+    }
+
+    @Benchmark
+    public void appendReopeningFile() throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(dir.resolve("inscription.txt").toFile(), true))) {
+            writer.write(record.toLine());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.protocol.BinaryCodec;
+
+/**
+ * Compares the original object-stream protocol with the binary codec, for a CHARGER reply of
+ * {@code courses} entries and for one INSCRIRE form.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WireFormatBenchmark {
+
+    @Param({"6", "500"})
+    public int courses;
+
+    private List<Course> list;
+    private RegistrationForm form;
+    private byte[] serializedList;
+    private byte[] binaryList;
+    private byte[] serializedForm;
+    private byte[] binaryForm;
+
+    @Setup
+    public void setup() throws IOException {
+        list = new ArrayList<>();
+        String[] sessions = {"Automne", "Hiver", "Ete"};
+        for (int i = 0; i < courses; i++) {
+            list.add(new Course("Cours_numero_" + i, "IFT" + (1000 + i), sessions[i % 3]));
+        }
+        form = new RegistrationForm("Michalis", "Famelis", "mfamelis@iro.umontreal.ca", "12345678", list.get(0));
+        serializedList = serialize(list);
+        binaryList = BinaryCodec.encodeCourses(list);
+        serializedForm = serialize(form);
+        binaryForm = BinaryCodec.encodeRegistration(form);
+    }
+
+    static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(obj);
+        }
+        return buffer.toByteArray();
+    }
+
+    static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeCoursesObjectStream() throws IOException {
+        return serialize(new ArrayList<>(list));
+    }
+
+    @Benchmark
+    public byte[] encodeCoursesBinary() throws IOException {
+        return BinaryCodec.encodeCourses(list);
+    }
+
+    @Benchmark
+    public Object decodeCoursesObjectStream() throws IOException, ClassNotFoundException {
+        return deserialize(serializedList);
+    }
+
+    @Benchmark
+    public List<Course> decodeCoursesBinary() throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(binaryList));
+        return BinaryCodec.decodeCourses(BinaryCodec.readFrame(in, BinaryCodec.MAX_RESPONSE_FRAME));
+    }
+
+    @Benchmark
+    public byte[] encodeFormObjectStream() throws IOException {
+        return serialize(form);
+    }
+
+    @Benchmark
+    public byte[] encodeFormBinary() throws IOException {
+        return BinaryCodec.encodeRegistration(form);
+    }
+
+    @Benchmark
+    public Object decodeFormObjectStream() throws IOException, ClassNotFoundException {
+        return deserialize(serializedForm);
+    }
+
+    @Benchmark
+    public RegistrationForm decodeFormBinary() throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(binaryForm));
+        return BinaryCodec.decodeRegistration(BinaryCodec.readFrame(in, BinaryCodec.MAX_REQUEST_FRAME));
+    }
+}
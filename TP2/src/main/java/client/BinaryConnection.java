@@ -0,0 +1,85 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.List;
+
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.protocol.BinaryCodec;
+import server.protocol.PayloadCompressor;
+
+/**
+ * Connexion en mode binaire, voir {@link BinaryCodec}.
+ * Avec la compression, le serveur peut envoyer un dictionnaire avant une réponse compressée; le dernier reçu
+ * est gardé pour lire les suivantes, voir {@link PayloadCompressor}.
+ */
+public class BinaryConnection implements ServerConnection {
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final DataInputStream in;
+    private byte[] dictionary;
+    private int dictionaryId;
+
+    public BinaryConnection(String host, int port) throws IOException {
+        this(host, port, false);
+    }
+
+    /**
+     * @param host l'hôte du serveur
+     * @param port le port du serveur
+     * @param compressed vrai pour demander la compression des grandes réponses
+     */
+    public BinaryConnection(String host, int port, boolean compressed) throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        BinaryCodec.writeMagic(out, compressed ? BinaryCodec.MAGIC_COMPRESSED : BinaryCodec.MAGIC);
+        BinaryCodec.readMagic(in);
+    }
+
+    @Override
+    public List<Course> loadCourses(String semester) throws IOException {
+        send(BinaryCodec.encodeCommand(Client.LOAD_COMMAND, semester));
+        return BinaryCodec.decodeCourses(readResponse());
+    }
+
+    private BinaryCodec.Frame readResponse() throws IOException {
+        BinaryCodec.Frame frame = BinaryCodec.readFrame(in, BinaryCodec.MAX_RESPONSE_FRAME);
+        if (frame.getOpcode() == BinaryCodec.OP_DICTIONARY) {
+            dictionary = PayloadCompressor.decodeDictionary(frame);
+            dictionaryId = PayloadCompressor.dictionaryId(dictionary);
+            frame = BinaryCodec.readFrame(in, BinaryCodec.MAX_RESPONSE_FRAME);
+        }
+        if (frame.getOpcode() == BinaryCodec.OP_COMPRESSED) {
+            frame = PayloadCompressor.decompress(frame, id -> dictionary != null && id == dictionaryId ? dictionary : null);
+        }
+        return frame;
+    }
+
+    @Override
+    public void register(RegistrationForm form) throws IOException {
+        send(BinaryCodec.encodeRegistration(form));
+    }
+
+    @Override
+    public void quit() throws IOException {
+        send(BinaryCodec.encodeCommand(Client.QUIT_COMMAND, ""));
+    }
+
+    private void send(byte[] frame) throws IOException {
+        out.write(frame);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -1,13 +1,14 @@
 package client;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 import server.models.Course;
 import server.models.RegistrationForm;
+import server.protocol.WireFormat;
 
 /**
  * Classe Client: console-based client
@@ -16,6 +17,9 @@ import server.models.RegistrationForm;
  * 1- L'utilisateur doit d'abord choisir son semestre.
  * 2- Par la suite, les cours associés à ce semestre seront affichés à l'écran.
  * 3- L'utilisateur a ensuite l'option de choisir de s'inscrire à un des cours du semestre en entrant les informations demandées, ou il peut retourner à 1-
+ *
+ * Le client parle le protocole binaire si on le lance avec -Dclient.protocol=binary, sinon le mode objets d'origine.
+ * En mode binaire, -Dclient.compression=true demande en plus la compression de la liste des cours.
  */
 public class Client {
     public final static String REGISTER_COMMAND = "INSCRIRE";
@@ -24,9 +28,12 @@ public class Client {
 
     private final String host;
     private final int port;
+    private final WireFormat format;
+    private final boolean compressed;
 
     private String semester;
     private List<Course> courses;
+    private Map<String, Course> coursesByCode;
 
     /**
      * Constructeur pour le Client.
@@ -34,8 +41,31 @@ public class Client {
      * @param port, le port à choisir pour établir la connection
      */
     public Client(String host, int port) {
+        this(host, port, WireFormat.OBJECT_STREAM);
+    }
+
+    /**
+     * Constructeur pour le Client.
+     * @param host, l'hôte pour la connection
+     * @param port, le port à choisir pour établir la connection
+     * @param format, le format de transmission à négocier avec le serveur
+     */
+    public Client(String host, int port, WireFormat format) {
+        this(host, port, format, false);
+    }
+
+    /**
+     * Constructeur pour le Client.
+     * @param host, l'hôte pour la connection
+     * @param port, le port à choisir pour établir la connection
+     * @param format, le format de transmission à négocier avec le serveur
+     * @param compressed, vrai pour demander la compression des grandes réponses en mode binaire
+     */
+    public Client(String host, int port, WireFormat format, boolean compressed) {
         this.host = host;
         this.port = port;
+        this.format = format;
+        this.compressed = compressed;
     }
 
     // Liste des semestres
@@ -50,9 +80,7 @@ public class Client {
      * Fonction principale du client, qui exécute une boucle infinie pour voir les semestres et les cours associés, et pour s'inscrire aux cours.
      */
     public void start() {
-        try (Socket socket = new Socket(host, port);
-            ObjectOutputStream outputStream = new ObjectOutputStream(socket.getOutputStream());
-            ObjectInputStream inputStream = new ObjectInputStream(socket.getInputStream())) {
+        try (ServerConnection connection = ServerConnection.open(host, port, format, compressed)) {
 
             Scanner scanner = new Scanner(System.in);
             boolean running = true;
@@ -64,20 +92,22 @@ public class Client {
                 String choice = this.chooseSemester(scanner);
 
                 if (choice.equalsIgnoreCase("q")) {
-                    outputStream.writeObject(QUIT_COMMAND);
+                    connection.quit();
                     break;
                 }
 
                 this.semester = SEMESTERS.get(choice);
-                outputStream.writeObject(LOAD_COMMAND + " " + this.semester);
-                outputStream.flush();
 
                 // Return or choose a course
-                this.courses = (List<Course>) inputStream.readObject();
+                this.courses = connection.loadCourses(this.semester);
+                this.coursesByCode = new HashMap<>();
+                for (Course course : this.courses) {
+                    this.coursesByCode.putIfAbsent(course.getCode(), course);
+                }
                 choice = this.chooseRegOrBack(scanner);
 
                 if (choice.equalsIgnoreCase("q")) {
-                    outputStream.writeObject(QUIT_COMMAND);
+                    connection.quit();
                     break;
                 }
                 
@@ -89,14 +119,11 @@ public class Client {
                 RegistrationForm form = this.chooseCourse(scanner);
 
                 if (form == null) {
-                    outputStream.writeObject(QUIT_COMMAND);
+                    connection.quit();
                     break;
                 }
 
-                outputStream.writeObject(REGISTER_COMMAND);
-                outputStream.flush();
-                outputStream.writeObject(form);
-                outputStream.flush();
+                connection.register(form);
                 System.out.printf("Félicitations! Inscription réussie de %s au cours de %s.%n",
                 form.getPrenom(), form.getCourse().getCode());
 
@@ -109,7 +136,7 @@ public class Client {
                     System.out.println();
                 }
             }
-        } catch (ClassNotFoundException | IOException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
@@ -119,7 +146,9 @@ public class Client {
      * @param args, pas utilisé
      */
     public static void main(String[] args) {
-        Client client = new Client("localhost", 1337);
+        WireFormat format = "binary".equals(System.getProperty("client.protocol"))
+            ? WireFormat.BINARY : WireFormat.OBJECT_STREAM;
+        Client client = new Client("localhost", 1337, format, Boolean.getBoolean("client.compression"));
         client.start();
     }
 
@@ -189,11 +218,9 @@ public class Client {
             String courseCode = scanner.nextLine();
             
             // Verify that course code is valid
-            for (Course course: this.courses) {
-                if (course.getCode().equals(courseCode)) {
-                    RegistrationForm form = new RegistrationForm(firstName, lastName, email, studentNumber, course);
-                    return form;
-                }
+            Course course = this.coursesByCode.get(courseCode);
+            if (course != null) {
+                return new RegistrationForm(firstName, lastName, email, studentNumber, course);
             }
 
             // Course not found
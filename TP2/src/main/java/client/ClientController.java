@@ -1,5 +1,6 @@
 package client;
 
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
@@ -7,9 +8,38 @@ import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import client.pipeline.CourseListCache;
+import server.ServerExecutors;
 import server.models.Course;
+import server.push.CatalogDelta;
 
+/**
+ * Le contrôleur de main_view.fxml.
+ *
+ * Les listes de cours viennent d'un {@link CourseListCache}: une session déjà chargée s'affiche tout de suite,
+ * et les changements que pousse le serveur sont appliqués un à un à la table. Le chargement d'une nouvelle
+ * session, qui peut attendre le réseau, se fait sur un thread à part; changer de session annule celui qui n'a
+ * pas encore commencé, et la réponse d'une session qui n'est plus affichée ne touche pas la table.
+ * Tout ce qui touche aux contrôles se fait sur le thread de JavaFX.
+ */
 public class ClientController {
+    private static final String HOST = "localhost";
+    private static final int PORT = 1337;
+
+    private final ObservableList<Course> courses = FXCollections.observableArrayList();
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(ServerExecutors.daemonThreads("course-loader"));
+    private final CourseListCache cache = new CourseListCache(HOST, PORT, Boolean.getBoolean("client.compression"),
+            delta -> Platform.runLater(() -> applyDelta(delta)));
+    private String displayed;
+    private Future<?> pending;
+
     @FXML
     private TableView<Course> coursesTable;
     @FXML
@@ -31,17 +61,86 @@ public class ClientController {
     public void initialize() {
         courseCodeColumn.setCellValueFactory(new PropertyValueFactory<>("code"));
         courseNameColumn.setCellValueFactory(new PropertyValueFactory<>("name"));
+        coursesTable.setItems(courses);
+        semesterComboBox.valueProperty().addListener((observable, previous, semester) -> {
+            if (semester != null) {
+                show(semester);
+            }
+        });
     }
 
     @FXML
     protected void loadCourses(ActionEvent event) {
-        // Send "CHARGER" request to the server and update the table.
-        // Sample list of courses for demonstration
-        ObservableList<Course> courses = FXCollections.observableArrayList(
-            new Course("Introduction to Computer Science", "COMP-101", "Automne"),
-            new Course("Data Structures and Algorithms", "COMP-102", "Hiver")
-        );
-        coursesTable.setItems(courses);
+        String semester = semesterComboBox.getValue();
+        if (semester == null) {
+            showError("Erreur: Veuillez choisir une session");
+            return;
+        }
+        show(semester);
+    }
+
+    /**
+     * Afficher une session: sa liste en cache tout de suite, puis celle du serveur si le cache n'est pas tenu à jour.
+     */
+    private void show(String semester) {
+        displayed = semester;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        List<Course> cached = cache.getCached(semester);
+        if (cached != null) {
+            courses.setAll(cached);
+        } else {
+            courses.clear();
+        }
+        if (cache.isCurrent(semester)) {
+            return;
+        }
+        // The list itself arrives through the cache's listener; only a failure is handled here
+        pending = loader.submit(() -> cache.load(semester).whenComplete((list, error) -> {
+            if (error != null) {
+                Platform.runLater(() -> {
+                    if (semester.equals(displayed)) {
+                        showError("Erreur: Impossible de charger les cours de la session " + semester);
+                    }
+                });
+            }
+        }));
+    }
+
+    /**
+     * Appliquer à la table les changements de la session affichée. Les changements peuvent arriver après que la
+     * table a été remplie à partir du cache qui les contient déjà: chaque opération ne fait donc rien la deuxième fois.
+     */
+    private void applyDelta(CatalogDelta delta) {
+        if (!delta.getSession().equals(displayed)) {
+            return;
+        }
+        if (delta.isReset()) {
+            courses.setAll(delta.getAdded());
+            return;
+        }
+        if (!delta.getRemoved().isEmpty()) {
+            Set<String> removed = new HashSet<>(delta.getRemoved());
+            courses.removeIf(course -> removed.contains(course.getCode()));
+        }
+        for (Course course : delta.getChanged()) {
+            put(course);
+        }
+        for (Course course : delta.getAdded()) {
+            put(course);
+        }
+    }
+
+    private void put(Course course) {
+        for (int i = 0; i < courses.size(); i++) {
+            if (courses.get(i).getCode().equals(course.getCode())) {
+                courses.set(i, course);
+                return;
+            }
+        }
+        courses.add(course);
     }
 
     @FXML
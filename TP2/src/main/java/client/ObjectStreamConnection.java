@@ -0,0 +1,64 @@
+package client;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.List;
+
+import server.models.Course;
+import server.models.RegistrationForm;
+
+/**
+ * Connexion en mode objets: les commandes partent comme des String sérialisées.
+ */
+public class ObjectStreamConnection implements ServerConnection {
+
+    private final Socket socket;
+    private final ObjectOutputStream outputStream;
+    private final ObjectInputStream inputStream;
+
+    public ObjectStreamConnection(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        // INSCRIRE has no reply: with Nagle on, the next command would wait for the server's delayed ACK
+        this.socket.setTcpNoDelay(true);
+        this.outputStream = new ObjectOutputStream(socket.getOutputStream());
+        this.inputStream = new ObjectInputStream(socket.getInputStream());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<Course> loadCourses(String semester) throws IOException {
+        send(Client.LOAD_COMMAND + " " + semester);
+        try {
+            return (List<Course>) inputStream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void register(RegistrationForm form) throws IOException {
+        outputStream.reset();
+        outputStream.writeObject(Client.REGISTER_COMMAND);
+        outputStream.writeObject(form);
+        outputStream.flush();
+    }
+
+    @Override
+    public void quit() throws IOException {
+        send(Client.QUIT_COMMAND);
+    }
+
+    private void send(String line) throws IOException {
+        outputStream.reset();
+        outputStream.writeObject(line);
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
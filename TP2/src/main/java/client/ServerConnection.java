@@ -0,0 +1,59 @@
+package client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.protocol.WireFormat;
+
+/**
+ * Une connexion au serveur d'inscription, indépendante du format de transmission.
+ */
+public interface ServerConnection extends Closeable {
+
+    /**
+     * Envoyer 'CHARGER' et attendre la liste des cours.
+     * @param semester la session voulue
+     * @return la liste des cours de la session
+     */
+    List<Course> loadCourses(String semester) throws IOException;
+
+    /**
+     * Envoyer 'INSCRIRE' avec le formulaire.
+     * @param form le formulaire d'inscription
+     */
+    void register(RegistrationForm form) throws IOException;
+
+    /**
+     * Envoyer 'QUITTER'.
+     */
+    void quit() throws IOException;
+
+    /**
+     * Ouvrir une connexion dans le format voulu.
+     * @param host l'hôte du serveur
+     * @param port le port du serveur
+     * @param format le format de transmission
+     * @return la connexion ouverte
+     */
+    static ServerConnection open(String host, int port, WireFormat format) throws IOException {
+        return open(host, port, format, false);
+    }
+
+    /**
+     * Ouvrir une connexion dans le format voulu.
+     * @param host l'hôte du serveur
+     * @param port le port du serveur
+     * @param format le format de transmission
+     * @param compressed vrai pour demander la compression des grandes réponses, seulement en mode binaire
+     * @return la connexion ouverte
+     */
+    static ServerConnection open(String host, int port, WireFormat format, boolean compressed) throws IOException {
+        if (format == WireFormat.BINARY) {
+            return new BinaryConnection(host, port, compressed);
+        }
+        return new ObjectStreamConnection(host, port);
+    }
+}
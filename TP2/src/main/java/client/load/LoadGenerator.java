@@ -0,0 +1,406 @@
+package client.load;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import client.ServerConnection;
+import client.load.LoadReport.Operation;
+import client.pipeline.PipelinedConnection;
+import server.ServerExecutors;
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.protocol.RegistrationStatus;
+import server.protocol.WireFormat;
+import server.protocol.RetryLaterException;
+
+/**
+ * Générateur de charge sans interface: des milliers de clients virtuels, chacun sur son propre thread virtuel
+ * (ou un thread ordinaire sur un JDK qui n'en a pas), parlent au serveur comme {@link client.Client#start()}.
+ * Chaque client tire ses commandes selon un mélange pondéré de CHARGER, INSCRIRE et QUITTER et attend
+ * un temps de réflexion aléatoire entre deux commandes. QUITTER ferme la connexion; la commande suivante en ouvre une nouvelle.
+ *
+ * Options (propriétés système):
+ * -Dload.host=HÔTE         l'hôte du serveur (défaut localhost)
+ * -Dload.port=N            le port du serveur (défaut 1337)
+ * -Dload.protocol=MODE     "objects", "binary" ou "pipelined" (défaut binary)
+ * -Dload.clients=N         nombre de clients virtuels (défaut 1000)
+ * -Dload.duration=N        durée de l'essai en secondes (défaut 30)
+ * -Dload.rampup=N          secondes pour démarrer tous les clients (défaut 5)
+ * -Dload.mix=MÉLANGE       poids des commandes (défaut "CHARGER:70,INSCRIRE:25,QUITTER:5")
+ * -Dload.think=N           temps de réflexion moyen en millisecondes, de loi exponentielle (défaut 100)
+ * -Dload.out=PRÉFIXE       écrit PRÉFIXE-summary.csv, PRÉFIXE-timeline.csv et PRÉFIXE.json (défaut "load")
+ *
+ * Les inscriptions sont réellement écrites: lancer le serveur avec -Ddata.registrations vers un fichier jetable.
+ * En modes "objects" et "binary", le serveur ne répond pas à INSCRIRE et la latence mesurée est celle de l'envoi;
+ * en mode "pipelined", elle va jusqu'à la réponse, donc jusqu'à l'écriture sur le disque.
+ */
+public class LoadGenerator {
+
+    public static final String DEFAULT_MIX = "CHARGER:70,INSCRIRE:25,QUITTER:5";
+    private static final String[] SEMESTERS = {"Automne", "Hiver", "Ete"};
+    private static final long REPLY_TIMEOUT_SECONDS = 30;
+    private static final long STOP_GRACE_SECONDS = 10;
+
+    /**
+     * Les façons de parler au serveur.
+     */
+    public enum Protocol {
+        /** Java serialization, comme le client d'origine. */
+        OBJECTS,
+        /** Trames binaires, une requête à la fois. */
+        BINARY,
+        /** Trames binaires en mode pipeline, avec une réponse à chaque inscription. */
+        PIPELINED
+    }
+
+    private final String host;
+    private final int port;
+    private final Protocol protocol;
+    private final int clients;
+    private final Operation[] mix;
+    private final int[] cumulativeWeights;
+    private final long thinkMillis;
+    // Matricules are unique per run, so a rerun against the same file is not all duplicates
+    private final AtomicLong nextMatricule = new AtomicLong(System.currentTimeMillis() % 1_000_000_000L * 1000);
+    private volatile List<Course> courses = Collections.emptyList();
+
+    /**
+     * @param host l'hôte du serveur
+     * @param port le port du serveur
+     * @param protocol le protocole des clients
+     * @param clients le nombre de clients virtuels
+     * @param mix le poids de chaque commande, voir {@link #parseMix}
+     * @param thinkMillis le temps de réflexion moyen entre deux commandes, 0 pour aucun
+     */
+    public LoadGenerator(String host, int port, Protocol protocol, int clients, Map<Operation, Integer> mix, long thinkMillis) {
+        if (clients < 1) {
+            throw new IllegalArgumentException("Il faut au moins un client");
+        }
+        List<Operation> operations = new ArrayList<>();
+        List<Integer> cumulative = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<Operation, Integer> e : mix.entrySet()) {
+            if (e.getKey() == Operation.CONNECT || e.getValue() < 0) {
+                throw new IllegalArgumentException("Poids invalide: " + e.getKey() + ":" + e.getValue());
+            }
+            if (e.getValue() > 0) {
+                total += e.getValue();
+                operations.add(e.getKey());
+                cumulative.add(total);
+            }
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Le mélange de commandes est vide");
+        }
+        this.host = host;
+        this.port = port;
+        this.protocol = protocol;
+        this.clients = clients;
+        this.mix = operations.toArray(new Operation[0]);
+        this.cumulativeWeights = cumulative.stream().mapToInt(Integer::intValue).toArray();
+        this.thinkMillis = thinkMillis;
+    }
+
+    /**
+     * Lire un mélange de commandes de la forme "CHARGER:70,INSCRIRE:25,QUITTER:5".
+     * @param mix le mélange
+     * @return le poids de chaque commande, dans l'ordre donné
+     */
+    public static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Mélange invalide: " + mix);
+            }
+            weights.put(Operation.valueOf(pair[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(pair[1].trim()));
+        }
+        return weights;
+    }
+
+    /**
+     * Lancer l'essai et attendre sa fin.
+     * @param durationSeconds la durée de l'essai, montée en charge comprise
+     * @param rampUpSeconds le temps pour démarrer tous les clients, répartis également
+     * @return les mesures de l'essai
+     */
+    public LoadReport run(int durationSeconds, int rampUpSeconds) throws IOException, InterruptedException {
+        courses = fetchCourses();
+        LoadReport report = new LoadReport(durationSeconds + 1);
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long rampUp = TimeUnit.SECONDS.toNanos(Math.min(rampUpSeconds, durationSeconds));
+        ExecutorService executor = ServerExecutors.virtualThreads();
+        for (int i = 0; i < clients; i++) {
+            long startAt = start + rampUp * i / clients;
+            executor.execute(() -> runClient(report, startAt, deadline));
+        }
+        executor.shutdown();
+        long remaining = deadline - System.nanoTime() + TimeUnit.SECONDS.toNanos(STOP_GRACE_SECONDS);
+        if (!executor.awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+            // Clients stuck on a reply are abandoned; their connections close with the JVM
+            executor.shutdownNow();
+        }
+        report.finish();
+        return report;
+    }
+
+    private List<Course> fetchCourses() throws IOException {
+        List<Course> all = new ArrayList<>();
+        try (Session session = connect()) {
+            for (String semester : SEMESTERS) {
+                all.addAll(session.loadCourses(semester));
+            }
+            session.quit();
+        }
+        return all;
+    }
+
+    private void runClient(LoadReport report, long startAt, long deadline) {
+        Session session = null;
+        try {
+            sleepNanos(startAt - System.nanoTime());
+            while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+                if (session == null) {
+                    long begin = System.nanoTime();
+                    try {
+                        session = connect();
+                        report.record(Operation.CONNECT, System.nanoTime() - begin, true);
+                    } catch (IOException e) {
+                        report.record(Operation.CONNECT, System.nanoTime() - begin, false);
+                        think();
+                        continue;
+                    }
+                }
+                Operation op = nextOperation();
+                long begin = System.nanoTime();
+                try {
+                    perform(session, op);
+                    report.record(op, System.nanoTime() - begin, true);
+                    if (op == Operation.QUITTER) {
+                        session = null;
+                    }
+                } catch (RetryLaterException e) {
+                    // Turned away by admission control: the connection is still good
+                    report.record(op, System.nanoTime() - begin, false);
+                } catch (IOException e) {
+                    report.record(op, System.nanoTime() - begin, false);
+                    closeQuietly(session);
+                    session = null;
+                }
+                think();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeQuietly(session);
+        }
+    }
+
+    private void perform(Session session, Operation op) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (op) {
+            case CHARGER:
+                session.loadCourses(SEMESTERS[random.nextInt(SEMESTERS.length)]);
+                break;
+            case INSCRIRE:
+                List<Course> known = courses;
+                if (known.isEmpty()) {
+                    throw new IOException("Aucun cours à qui s'inscrire");
+                }
+                String matricule = String.valueOf(nextMatricule.getAndIncrement());
+                session.register(new RegistrationForm("Charge", "Virtuel", "charge." + matricule + "@umontreal.ca", matricule,
+                        known.get(random.nextInt(known.size()))));
+                break;
+            case QUITTER:
+                try {
+                    session.quit();
+                } finally {
+                    session.close();
+                }
+                break;
+            default:
+                throw new IllegalStateException(op.name());
+        }
+    }
+
+    private Operation nextOperation() {
+        int roll = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (roll < cumulativeWeights[i]) {
+                return mix[i];
+            }
+        }
+        return mix[mix.length - 1];
+    }
+
+    private void think() throws InterruptedException {
+        if (thinkMillis > 0) {
+            // Exponential think times make arrivals roughly Poisson instead of synchronised waves
+            double factor = -Math.log(1 - ThreadLocalRandom.current().nextDouble());
+            sleepNanos((long) (factor * TimeUnit.MILLISECONDS.toNanos(thinkMillis)));
+        }
+    }
+
+    private static void sleepNanos(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+
+    private static void closeQuietly(Session session) {
+        if (session != null) {
+            try {
+                session.close();
+            } catch (IOException ignored) {
+                // The connection is being dropped anyway
+            }
+        }
+    }
+
+    private Session connect() throws IOException {
+        if (protocol == Protocol.PIPELINED) {
+            return new PipelinedSession(new PipelinedConnection(host, port));
+        }
+        ServerConnection connection = ServerConnection.open(host, port,
+                protocol == Protocol.BINARY ? WireFormat.BINARY : WireFormat.OBJECT_STREAM);
+        return new Session() {
+            @Override
+            public List<Course> loadCourses(String semester) throws IOException {
+                return connection.loadCourses(semester);
+            }
+
+            @Override
+            public void register(RegistrationForm form) throws IOException {
+                connection.register(form);
+            }
+
+            @Override
+            public void quit() throws IOException {
+                connection.quit();
+            }
+
+            @Override
+            public void close() throws IOException {
+                connection.close();
+            }
+        };
+    }
+
+    /**
+     * Une connexion d'un client virtuel; les appels bloquent jusqu'à la réponse, comme ceux de {@link ServerConnection}.
+     */
+    private interface Session extends Closeable {
+        List<Course> loadCourses(String semester) throws IOException;
+
+        void register(RegistrationForm form) throws IOException;
+
+        void quit() throws IOException;
+    }
+
+    private static final class PipelinedSession implements Session {
+        private final PipelinedConnection connection;
+
+        PipelinedSession(PipelinedConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public List<Course> loadCourses(String semester) throws IOException {
+            return await(connection.loadCourses(semester));
+        }
+
+        @Override
+        public void register(RegistrationForm form) throws IOException {
+            RegistrationStatus status = await(connection.register(form));
+            // A full or already taken course is a normal answer; anything else means the request was lost
+            if (status != RegistrationStatus.ACCEPTED && status != RegistrationStatus.DUPLICATE && status != RegistrationStatus.FULL) {
+                throw new IOException("Inscription refusée: " + status);
+            }
+        }
+
+        @Override
+        public void quit() {
+            // close() sends QUITTER
+        }
+
+        @Override
+        public void close() throws IOException {
+            connection.close();
+        }
+
+        private static <T> T await(CompletableFuture<T> reply) throws IOException {
+            try {
+                return reply.get(REPLY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            } catch (TimeoutException e) {
+                throw new IOException("Pas de réponse du serveur", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrompu", e);
+            }
+        }
+    }
+
+    /**
+     * Lancer un essai avec les options passées en propriétés système, afficher le résumé et écrire les résultats.
+     */
+    public static void main(String[] args) {
+        try {
+            String host = System.getProperty("load.host", "localhost");
+            int port = Integer.getInteger("load.port", 1337);
+            Protocol protocol = Protocol.valueOf(System.getProperty("load.protocol", "binary").toUpperCase(Locale.ROOT));
+            int clients = Integer.getInteger("load.clients", 1000);
+            int duration = Integer.getInteger("load.duration", 30);
+            int rampUp = Integer.getInteger("load.rampup", 5);
+            String mix = System.getProperty("load.mix", DEFAULT_MIX);
+            long think = Long.getLong("load.think", 100);
+            String out = System.getProperty("load.out", "load");
+
+            LoadReport report = new LoadGenerator(host, port, protocol, clients, parseMix(mix), think).run(duration, rampUp);
+
+            Map<String, String> config = new LinkedHashMap<>();
+            config.put("host", host);
+            config.put("port", String.valueOf(port));
+            config.put("protocol", protocol.name().toLowerCase(Locale.ROOT));
+            config.put("clients", String.valueOf(clients));
+            config.put("duration_s", String.valueOf(duration));
+            config.put("rampup_s", String.valueOf(rampUp));
+            config.put("mix", mix);
+            config.put("think_ms", String.valueOf(think));
+            config.put("java", System.getProperty("java.version"));
+            config.put("virtual_threads", String.valueOf(ServerExecutors.hasVirtualThreads()));
+
+            Path summary = Paths.get(out + "-summary.csv");
+            report.writeSummaryCsv(summary);
+            report.writeTimelineCsv(Paths.get(out + "-timeline.csv"));
+            report.writeJson(Paths.get(out + ".json"), config);
+            for (Operation op : Operation.values()) {
+                System.out.printf(Locale.ROOT, "%-9s %8d ok %6d erreurs  %9.1f/s  p50 %8.0f us  p99 %8.0f us%n", op,
+                        report.getCount(op), report.getErrors(op), report.getCount(op) / report.getElapsedSeconds(),
+                        report.getLatency(op).getPercentile(50) / 1000.0, report.getLatency(op).getPercentile(99) / 1000.0);
+            }
+            System.out.println("Résultats: " + summary.toAbsolutePath().getParent());
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
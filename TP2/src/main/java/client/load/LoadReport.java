@@ -0,0 +1,217 @@
+package client.load;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import server.metrics.LatencyHistogram;
+
+/**
+ * Les mesures d'un essai de charge: un histogramme de latence et des compteurs d'erreurs par opération,
+ * et le nombre d'opérations terminées à chaque seconde pour suivre le débit dans le temps.
+ * L'enregistrement ne prend aucun verrou; les clients virtuels l'appellent tous en même temps.
+ */
+public class LoadReport {
+
+    /**
+     * Ce qu'un client virtuel mesure.
+     */
+    public enum Operation {
+        /** Ouvrir une connexion et négocier le format. */
+        CONNECT,
+        CHARGER,
+        INSCRIRE,
+        QUITTER
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50_us", "p90_us", "p99_us", "p999_us"};
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final AtomicLongArray errors = new AtomicLongArray(OPERATIONS.length);
+    // [second][operation][0 = completed, 1 = failed], flattened
+    private final AtomicLongArray timeline;
+    private final int seconds;
+    private final long startNanos;
+    private volatile long endNanos;
+
+    /**
+     * @param seconds la durée prévue de l'essai; les opérations terminées après sont comptées dans la dernière seconde
+     */
+    public LoadReport(int seconds) {
+        this.seconds = Math.max(1, seconds);
+        this.timeline = new AtomicLongArray(this.seconds * OPERATIONS.length * 2);
+        for (Operation op : OPERATIONS) {
+            latencies.put(op, new LatencyHistogram());
+        }
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * @param op l'opération
+     * @param nanos sa durée
+     * @param ok faux si elle a échoué; sa durée n'entre pas dans l'histogramme
+     */
+    public void record(Operation op, long nanos, boolean ok) {
+        int second = (int) Math.min(seconds - 1, (System.nanoTime() - startNanos) / 1_000_000_000L);
+        timeline.incrementAndGet((second * OPERATIONS.length + op.ordinal()) * 2 + (ok ? 0 : 1));
+        if (ok) {
+            latencies.get(op).record(nanos);
+        } else {
+            errors.incrementAndGet(op.ordinal());
+        }
+    }
+
+    /**
+     * Arrêter le chronomètre de l'essai, pour le calcul du débit.
+     */
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    public LatencyHistogram getLatency(Operation op) {
+        return latencies.get(op);
+    }
+
+    public long getCount(Operation op) {
+        return latencies.get(op).getCount();
+    }
+
+    public long getErrors(Operation op) {
+        return errors.get(op.ordinal());
+    }
+
+    /**
+     * @return la durée de l'essai en secondes, jusqu'à {@link #finish()} ou jusqu'à maintenant
+     */
+    public double getElapsedSeconds() {
+        long end = endNanos == 0 ? System.nanoTime() : endNanos;
+        return (end - startNanos) / 1e9;
+    }
+
+    /**
+     * Écrire le résumé par opération, une ligne par opération:
+     * "operation,count,errors,error_rate,throughput_per_s,mean_us,p50_us,p90_us,p99_us,p999_us,max_us".
+     * @param file le fichier CSV
+     */
+    public void writeSummaryCsv(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("operation,count,errors,error_rate,throughput_per_s,mean_us," + String.join(",", PERCENTILE_NAMES) + ",max_us\n");
+            for (Operation op : OPERATIONS) {
+                LatencyHistogram h = latencies.get(op);
+                StringBuilder line = new StringBuilder(op.name());
+                line.append(',').append(h.getCount()).append(',').append(getErrors(op))
+                        .append(',').append(format(errorRate(op))).append(',').append(format(throughput(op)))
+                        .append(',').append(format(h.getMean() / 1000.0));
+                for (double p : PERCENTILES) {
+                    line.append(',').append(format(h.getPercentile(p) / 1000.0));
+                }
+                line.append(',').append(format(h.getMax() / 1000.0)).append('\n');
+                out.write(line.toString());
+            }
+        }
+    }
+
+    /**
+     * Écrire le débit seconde par seconde: "second,operation,count,errors".
+     * @param file le fichier CSV
+     */
+    public void writeTimelineCsv(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("second,operation,count,errors\n");
+            for (int s = 0; s < usedSeconds(); s++) {
+                for (Operation op : OPERATIONS) {
+                    int at = (s * OPERATIONS.length + op.ordinal()) * 2;
+                    out.write(s + "," + op + "," + timeline.get(at) + "," + timeline.get(at + 1) + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Écrire tout l'essai en JSON: la configuration, le résumé par opération et le débit par seconde.
+     * @param file le fichier JSON
+     * @param config la configuration de l'essai, écrite telle quelle
+     */
+    public void writeJson(Path file, Map<String, String> config) throws IOException {
+        StringBuilder json = new StringBuilder(4096);
+        json.append("{\n  \"config\": {");
+        String separator = "";
+        for (Map.Entry<String, String> e : config.entrySet()) {
+            json.append(separator).append("\n    ").append(quote(e.getKey())).append(": ").append(quote(e.getValue()));
+            separator = ",";
+        }
+        json.append("\n  },\n  \"elapsed_s\": ").append(format(getElapsedSeconds())).append(",\n  \"operations\": {");
+        separator = "";
+        for (Operation op : OPERATIONS) {
+            LatencyHistogram h = latencies.get(op);
+            json.append(separator).append("\n    \"").append(op).append("\": {")
+                    .append("\"count\": ").append(h.getCount())
+                    .append(", \"errors\": ").append(getErrors(op))
+                    .append(", \"error_rate\": ").append(format(errorRate(op)))
+                    .append(", \"throughput_per_s\": ").append(format(throughput(op)))
+                    .append(", \"mean_us\": ").append(format(h.getMean() / 1000.0));
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                json.append(", \"").append(PERCENTILE_NAMES[i]).append("\": ").append(format(h.getPercentile(PERCENTILES[i]) / 1000.0));
+            }
+            json.append(", \"max_us\": ").append(format(h.getMax() / 1000.0)).append('}');
+            separator = ",";
+        }
+        json.append("\n  },\n  \"timeline\": [");
+        separator = "";
+        for (int s = 0; s < usedSeconds(); s++) {
+            json.append(separator).append("\n    {\"second\": ").append(s);
+            for (Operation op : OPERATIONS) {
+                int at = (s * OPERATIONS.length + op.ordinal()) * 2;
+                json.append(", \"").append(op).append("\": [").append(timeline.get(at)).append(", ").append(timeline.get(at + 1)).append(']');
+            }
+            json.append('}');
+            separator = ",";
+        }
+        json.append("\n  ]\n}\n");
+        Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int usedSeconds() {
+        return (int) Math.min(seconds, Math.ceil(getElapsedSeconds()));
+    }
+
+    private double errorRate(Operation op) {
+        long total = getCount(op) + getErrors(op);
+        return total == 0 ? 0 : (double) getErrors(op) / total;
+    }
+
+    private double throughput(Operation op) {
+        double elapsed = getElapsedSeconds();
+        return elapsed <= 0 ? 0 : getCount(op) / elapsed;
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
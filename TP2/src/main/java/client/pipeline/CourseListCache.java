@@ -0,0 +1,199 @@
+package client.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import server.models.Course;
+import server.push.CatalogDelta;
+
+/**
+ * Les listes de cours déjà reçues, par session, pour un client qui passe souvent d'une session à l'autre.
+ *
+ * La première demande d'une session s'y abonne ('ABONNER'): l'état envoyé par le serveur remplit le cache,
+ * puis chaque changement poussé le garde à jour, avec la version du catalogue qu'il porte. Tant que
+ * l'abonnement tient, la liste en cache est exacte et se lit sans aller-retour.
+ * Si la connexion tombe, les listes restent lisibles mais ne sont plus garanties: la demande suivante rouvre
+ * la connexion et se réabonne, et l'état reçu n'est signalé que si sa version diffère de celle du cache.
+ *
+ * Les lectures du cache ne bloquent jamais; seule {@link #load} peut attendre l'ouverture de la connexion.
+ */
+public class CourseListCache implements Closeable {
+
+    private static final int MAX_IN_FLIGHT = 16;
+
+    /**
+     * Reçoit les changements des sessions en cache.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Appelé sur le thread de lecture de la connexion, une fois le cache mis à jour.
+         * @param delta les changements, ou une remise à zéro lorsque la liste est reçue en entier
+         */
+        void changed(CatalogDelta delta);
+    }
+
+    private static final class Entry {
+        // Kept in the order the server sent them
+        private final Map<String, Course> courses = new LinkedHashMap<>();
+        private long version = -1;
+        private boolean subscribed;
+        private CompletableFuture<List<Course>> ready = new CompletableFuture<>();
+    }
+
+    private final String host;
+    private final int port;
+    private final boolean compressed;
+    private final Listener listener;
+    private final Map<String, Entry> entries = new HashMap<>();
+    // Held while connecting, so that readers of the cache never wait for the network
+    private final Object connectLock = new Object();
+    private PipelinedConnection connection;
+    private boolean closed;
+
+    /**
+     * @param host l'hôte du serveur
+     * @param port le port du serveur
+     * @param compressed vrai pour demander la compression des grandes réponses
+     * @param listener reçoit les changements de toutes les sessions demandées
+     */
+    public CourseListCache(String host, int port, boolean compressed, Listener listener) {
+        this.host = host;
+        this.port = port;
+        this.compressed = compressed;
+        this.listener = listener;
+    }
+
+    /**
+     * @param semester la session voulue
+     * @return la dernière liste reçue pour la session, possiblement plus à jour, ou null si elle n'a jamais été reçue
+     */
+    public synchronized List<Course> getCached(String semester) {
+        Entry entry = entries.get(semester);
+        return entry == null || entry.version < 0 ? null : new ArrayList<>(entry.courses.values());
+    }
+
+    /**
+     * @param semester la session voulue
+     * @return vrai si la liste en cache est tenue à jour par un abonnement en cours
+     */
+    public synchronized boolean isCurrent(String semester) {
+        Entry entry = entries.get(semester);
+        return entry != null && entry.subscribed && entry.version >= 0 && connection != null && connection.isOpen();
+    }
+
+    /**
+     * @param semester la session voulue
+     * @return la version du catalogue de la liste en cache, -1 si elle n'a jamais été reçue
+     */
+    public synchronized long getVersion(String semester) {
+        Entry entry = entries.get(semester);
+        return entry == null ? -1 : entry.version;
+    }
+
+    /**
+     * Demander la liste d'une session, en s'y abonnant au besoin. Peut ouvrir la connexion:
+     * à appeler hors du thread de l'interface.
+     * @param semester la session voulue
+     * @return la liste, tout de suite si elle est à jour dans le cache, sinon dès que le serveur envoie la session
+     */
+    public CompletableFuture<List<Course>> load(String semester) {
+        PipelinedConnection current;
+        CompletableFuture<List<Course>> ready;
+        try {
+            current = connect();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        synchronized (this) {
+            Entry entry = entries.computeIfAbsent(semester, k -> new Entry());
+            if (entry.subscribed) {
+                return entry.version >= 0 ? CompletableFuture.completedFuture(new ArrayList<>(entry.courses.values())) : entry.ready;
+            }
+            entry.subscribed = true;
+            if (entry.ready.isDone()) {
+                entry.ready = new CompletableFuture<>();
+            }
+            ready = entry.ready;
+        }
+        try {
+            current.subscribe(semester, delta -> apply(semester, delta));
+        } catch (IOException e) {
+            synchronized (this) {
+                entries.get(semester).subscribed = false;
+            }
+            ready.completeExceptionally(e);
+        }
+        return ready;
+    }
+
+    private PipelinedConnection connect() throws IOException {
+        synchronized (connectLock) {
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("Cache fermé");
+                }
+                if (connection != null && connection.isOpen()) {
+                    return connection;
+                }
+            }
+            PipelinedConnection opened = new PipelinedConnection(host, port, MAX_IN_FLIGHT, compressed);
+            synchronized (this) {
+                if (closed) {
+                    opened.close();
+                    throw new IOException("Cache fermé");
+                }
+                connection = opened;
+                // The subscriptions went down with the previous connection
+                for (Entry entry : entries.values()) {
+                    entry.subscribed = false;
+                }
+            }
+            return opened;
+        }
+    }
+
+    private void apply(String semester, CatalogDelta delta) {
+        CompletableFuture<List<Course>> ready;
+        List<Course> courses;
+        boolean changed;
+        synchronized (this) {
+            Entry entry = entries.get(semester);
+            if (entry == null) {
+                return;
+            }
+            // A fresh state at the version already cached only confirms what the caller is showing
+            changed = !delta.isReset() || delta.getVersion() != entry.version;
+            delta.applyTo(entry.courses);
+            entry.version = delta.getVersion();
+            courses = new ArrayList<>(entry.courses.values());
+            ready = entry.ready;
+        }
+        ready.complete(courses);
+        if (changed) {
+            listener.changed(delta);
+        }
+    }
+
+    /**
+     * Fermer la connexion. Les listes en cache restent lisibles.
+     */
+    @Override
+    public void close() throws IOException {
+        PipelinedConnection current;
+        synchronized (this) {
+            closed = true;
+            current = connection;
+            connection = null;
+        }
+        if (current != null) {
+            current.close();
+        }
+    }
+}
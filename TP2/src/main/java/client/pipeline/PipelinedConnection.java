@@ -0,0 +1,376 @@
+package client.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import client.Client;
+import server.analytics.AnalyticsResult;
+import server.catalog.CourseIndex;
+import server.catalog.CourseQuery;
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.protocol.BinaryCodec;
+import server.protocol.PayloadCompressor;
+import server.protocol.RegistrationStatus;
+import server.protocol.RetryLaterException;
+import server.push.CatalogDelta;
+
+/**
+ * Une connexion en mode pipeline, voir {@link BinaryCodec#MAGIC_PIPELINED}.
+ *
+ * Chaque requête reçoit un identifiant et part tout de suite, sans attendre la réponse des précédentes.
+ * Un thread lit les réponses et complète le futur de la requête qui porte le même identifiant.
+ * Le nombre de requêtes sans réponse est borné: au-delà, l'appelant attend qu'une réponse arrive.
+ * Une requête que le serveur refuse parce qu'il est saturé échoue avec une {@link RetryLaterException}.
+ * Un abonnement, lui, reçoit des messages tant qu'il n'est pas annulé, voir {@link #subscribe}.
+ * Avec la compression, les grandes réponses sont décompressées par le thread de lecture avant d'être décodées.
+ * Les méthodes peuvent être appelées par plusieurs threads à la fois.
+ */
+public class PipelinedConnection implements Closeable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    /**
+     * Décoder la réponse d'une requête.
+     */
+    @FunctionalInterface
+    private interface Decoder<T> {
+        T decode(BinaryCodec.Frame frame) throws IOException;
+    }
+
+    private static final class Pending<T> {
+        private final Decoder<T> decoder;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Pending(Decoder<T> decoder) {
+            this.decoder = decoder;
+        }
+
+        void complete(BinaryCodec.Frame frame) {
+            try {
+                if (frame.getOpcode() == BinaryCodec.OP_RETRY_AFTER) {
+                    future.completeExceptionally(new RetryLaterException(BinaryCodec.decodeRetryAfter(frame)));
+                    return;
+                }
+                future.complete(decoder.decode(frame));
+            } catch (IOException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final Map<Integer, Pending<?>> pending = new ConcurrentHashMap<>();
+    private final Map<Integer, Consumer<CatalogDelta>> listeners = new ConcurrentHashMap<>();
+    private final Map<String, Integer> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger writers = new AtomicInteger();
+    private final Semaphore inFlight;
+    private final Thread reader;
+    // Only touched by the reader thread: the server resends a dictionary whenever it switches to another one
+    private byte[] dictionary;
+    private int dictionaryId;
+    private volatile IOException failure;
+
+    public PipelinedConnection(String host, int port) throws IOException {
+        this(host, port, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Ouvrir la connexion et négocier le mode pipeline.
+     * @param host l'hôte du serveur
+     * @param port le port du serveur
+     * @param maxInFlight le nombre maximal de requêtes envoyées sans réponse
+     */
+    public PipelinedConnection(String host, int port, int maxInFlight) throws IOException {
+        this(host, port, maxInFlight, false);
+    }
+
+    /**
+     * Ouvrir la connexion et négocier le mode pipeline.
+     * @param host l'hôte du serveur
+     * @param port le port du serveur
+     * @param maxInFlight le nombre maximal de requêtes envoyées sans réponse
+     * @param compressed vrai pour demander la compression des grandes réponses, voir {@link PayloadCompressor}
+     */
+    public PipelinedConnection(String host, int port, int maxInFlight, boolean compressed) throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.inFlight = new Semaphore(maxInFlight);
+        int magic = compressed ? BinaryCodec.MAGIC_PIPELINED_COMPRESSED : BinaryCodec.MAGIC_PIPELINED;
+        BinaryCodec.writeMagic(out, magic);
+        if (BinaryCodec.readMagic(in) != magic) {
+            socket.close();
+            throw new IOException("Le serveur ne connaît pas le mode pipeline");
+        }
+        this.reader = new Thread(this::readLoop, "pipelined-connection-" + socket.getLocalPort());
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    /**
+     * Envoyer 'CHARGER'.
+     * @param semester la session voulue
+     * @return la liste des cours de la session, lorsque le serveur répond
+     */
+    public CompletableFuture<List<Course>> loadCourses(String semester) {
+        try {
+            return send(BinaryCodec::decodeCourses, BinaryCodec.encodeCommand(Client.LOAD_COMMAND, semester));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Envoyer 'CHERCHER'.
+     * @param query la recherche
+     * @return une page de cours, avec le curseur de la page suivante
+     */
+    public CompletableFuture<CourseIndex.Page> query(CourseQuery query) {
+        try {
+            return send(BinaryCodec::decodePage, BinaryCodec.encodeQuery(query));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Envoyer 'TROUVER'.
+     * @param semester la session du cours
+     * @param code le code du cours
+     * @return le cours, ou null s'il n'est pas offert pendant cette session
+     */
+    public CompletableFuture<Course> lookup(String semester, String code) {
+        try {
+            return send(frame -> {
+                List<Course> found = BinaryCodec.decodePage(frame).getCourses();
+                return found.isEmpty() ? null : found.get(0);
+            }, BinaryCodec.encodeLookup(semester, code));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Envoyer 'ANALYSER'.
+     * @param query la requête, voir {@link server.analytics.EnrollmentAnalytics}
+     * @return la réponse; échoue avec le message du serveur s'il refuse la requête
+     */
+    public CompletableFuture<AnalyticsResult> analyze(String query) {
+        try {
+            return send(BinaryCodec::decodeAnalysis, BinaryCodec.encodeAnalyze(query));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Envoyer 'INSCRIRE' avec le formulaire.
+     * @param form le formulaire d'inscription
+     * @return la réponse du serveur, une fois l'inscription écrite sur le disque ou refusée
+     */
+    public CompletableFuture<RegistrationStatus> register(RegistrationForm form) {
+        try {
+            return send(BinaryCodec::decodeRegistered, BinaryCodec.encodeRegistration(form));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Envoyer une trame 'IMPORTER' déjà encodée, voir {@link BinaryCodec#encodeImport}.
+     * @param frame la trame
+     * @return la réponse du serveur pour chaque formulaire de la trame, une fois le lot écrit sur le disque
+     */
+    public CompletableFuture<List<RegistrationStatus>> importFrame(byte[] frame) {
+        return send(BinaryCodec::decodeImported, frame);
+    }
+
+    /**
+     * Envoyer 'ABONNER': le serveur envoie tout de suite l'état de la session, puis ses changements.
+     * Les messages sont passés à l'écouteur sur le thread qui lit les réponses, dans leur ordre d'arrivée;
+     * l'écouteur ne doit donc pas attendre une réponse de cette connexion. Un nouvel abonnement à la même
+     * session remplace le précédent.
+     * @param semester la session voulue
+     * @param listener reçoit chaque changement, le premier avec {@link CatalogDelta#isReset()}
+     */
+    public void subscribe(String semester, Consumer<CatalogDelta> listener) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        int id = nextId.incrementAndGet();
+        listeners.put(id, listener);
+        Integer previous = subscriptions.put(semester, id);
+        if (previous != null) {
+            listeners.remove(previous);
+        }
+        write(BinaryCodec.encodeSubscribe(semester), id);
+    }
+
+    /**
+     * Envoyer 'DESABONNER'. Le serveur ne répond pas; un changement déjà en route est ignoré.
+     * @param semester la session suivie
+     */
+    public void unsubscribe(String semester) throws IOException {
+        Integer id = subscriptions.remove(semester);
+        if (id == null) {
+            return;
+        }
+        listeners.remove(id);
+        write(BinaryCodec.encodeUnsubscribe(semester), nextId.incrementAndGet());
+    }
+
+    /**
+     * Envoyer une requête. Attend si le nombre maximal de requêtes sans réponse est atteint.
+     * @param decoder le décodage de la réponse
+     * @param frame la requête, sans identifiant
+     */
+    private <T> CompletableFuture<T> send(Decoder<T> decoder, byte[] frame) {
+        Pending<T> request = new Pending<>(decoder);
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.future.completeExceptionally(e);
+            return request.future;
+        }
+        request.future.whenComplete((value, error) -> inFlight.release());
+        int id = nextId.incrementAndGet();
+        // Registered before the failure check: a concurrent fail() either sees it or is seen here
+        pending.put(id, request);
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            write(frame, id);
+        } catch (IOException e) {
+            fail(e);
+        }
+        return request.future;
+    }
+
+    /**
+     * Écrire une trame. Le tampon n'est vidé que par le dernier des threads qui écrivent en même temps:
+     * des requêtes envoyées en rafale partent ensemble, en un seul appel système.
+     */
+    private void write(byte[] frame, int requestId) throws IOException {
+        writers.incrementAndGet();
+        synchronized (out) {
+            try {
+                BinaryCodec.writeFrame(out, frame, requestId);
+            } finally {
+                if (writers.decrementAndGet() == 0) {
+                    out.flush();
+                }
+            }
+        }
+    }
+
+    private void readLoop() {
+        try {
+            while (true) {
+                BinaryCodec.Frame frame = BinaryCodec.readFrame(in, BinaryCodec.MAX_RESPONSE_FRAME, true);
+                if (frame.getOpcode() == BinaryCodec.OP_DICTIONARY) {
+                    dictionary = PayloadCompressor.decodeDictionary(frame);
+                    dictionaryId = PayloadCompressor.dictionaryId(dictionary);
+                    continue;
+                }
+                if (frame.getOpcode() == BinaryCodec.OP_COMPRESSED) {
+                    frame = PayloadCompressor.decompress(frame, id -> dictionary != null && id == dictionaryId ? dictionary : null);
+                }
+                if (frame.getOpcode() == BinaryCodec.OP_DELTA) {
+                    Consumer<CatalogDelta> listener = listeners.get(frame.getRequestId());
+                    // Null once unsubscribed: the server may have sent a delta in the meantime
+                    if (listener != null) {
+                        listener.accept(BinaryCodec.decodeDelta(frame));
+                    }
+                    continue;
+                }
+                Pending<?> request = pending.remove(frame.getRequestId());
+                if (request == null) {
+                    throw new IOException("Réponse à une requête inconnue: " + frame.getRequestId());
+                }
+                request.complete(frame);
+            }
+        } catch (EOFException e) {
+            fail(new IOException("Connexion fermée par le serveur"));
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            // A malformed frame or a failing listener must not leave the pending requests waiting forever
+            fail(new IOException(e));
+        }
+    }
+
+    /**
+     * Fermer la connexion et faire échouer les requêtes sans réponse.
+     */
+    private void fail(IOException cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already failing
+        }
+        for (Integer id : pending.keySet()) {
+            Pending<?> request = pending.remove(id);
+            if (request != null) {
+                request.future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * @return le nombre de requêtes envoyées qui attendent encore leur réponse
+     */
+    public int getInFlightCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return faux si la connexion a été fermée ou a échoué
+     */
+    public boolean isOpen() {
+        return failure == null;
+    }
+
+    /**
+     * Envoyer 'QUITTER' et fermer la connexion. Les requêtes encore sans réponse échouent:
+     * attendre leurs futurs avant de fermer.
+     */
+    @Override
+    public void close() throws IOException {
+        if (failure == null) {
+            try {
+                write(BinaryCodec.encodeCommand(Client.QUIT_COMMAND, ""), nextId.incrementAndGet());
+            } catch (IOException e) {
+                // The server is gone already
+            }
+        }
+        fail(new IOException("Connexion fermée"));
+        try {
+            reader.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
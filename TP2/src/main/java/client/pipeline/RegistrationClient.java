@@ -0,0 +1,221 @@
+package client.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import server.analytics.AnalyticsResult;
+import server.catalog.CourseIndex;
+import server.catalog.CourseQuery;
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.protocol.BinaryCodec;
+import server.protocol.RegistrationStatus;
+import server.protocol.RetryLaterException;
+
+/**
+ * Client du serveur d'inscription pour les programmes, indépendant de l'interface console ou JavaFX.
+ *
+ * Le client garde un petit nombre de {@link PipelinedConnection} ouvertes et envoie chaque requête sur celle
+ * qui attend le moins de réponses. Les résultats arrivent sous forme de {@link CompletableFuture}: un outil
+ * d'import peut ainsi envoyer des milliers d'inscriptions sur quelques connexions et n'attendre qu'à la fin.
+ * Une connexion qui échoue est rouverte à la requête suivante; les requêtes qu'elle portait échouent.
+ * Une inscription que le serveur refuse parce qu'il est saturé est renvoyée après le délai qu'il indique,
+ * quelques fois au plus.
+ */
+public class RegistrationClient implements Closeable {
+
+    public static final int DEFAULT_CONNECTIONS = 4;
+    public static final int MAX_RETRIES = 5;
+
+    private final String host;
+    private final int port;
+    private final int maxInFlight;
+    private final boolean compressed;
+    private final PipelinedConnection[] connections;
+    private boolean closed;
+
+    public RegistrationClient(String host, int port) throws IOException {
+        this(host, port, DEFAULT_CONNECTIONS, PipelinedConnection.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Ouvrir les connexions du client.
+     * @param host l'hôte du serveur
+     * @param port le port du serveur
+     * @param connections le nombre de connexions
+     * @param maxInFlight le nombre maximal de requêtes sans réponse par connexion
+     */
+    public RegistrationClient(String host, int port, int connections, int maxInFlight) throws IOException {
+        this(host, port, connections, maxInFlight, false);
+    }
+
+    /**
+     * Ouvrir les connexions du client.
+     * @param host l'hôte du serveur
+     * @param port le port du serveur
+     * @param connections le nombre de connexions
+     * @param maxInFlight le nombre maximal de requêtes sans réponse par connexion
+     * @param compressed vrai pour demander la compression des grandes réponses
+     */
+    public RegistrationClient(String host, int port, int connections, int maxInFlight, boolean compressed) throws IOException {
+        if (connections < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("Le nombre de connexions et de requêtes doit être positif");
+        }
+        this.host = host;
+        this.port = port;
+        this.maxInFlight = maxInFlight;
+        this.compressed = compressed;
+        this.connections = new PipelinedConnection[connections];
+        try {
+            for (int i = 0; i < connections; i++) {
+                this.connections[i] = new PipelinedConnection(host, port, maxInFlight, compressed);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param semester la session voulue
+     * @return la liste des cours de la session
+     */
+    public CompletableFuture<List<Course>> loadCourses(String semester) {
+        try {
+            return connection().loadCourses(semester);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @param query la recherche
+     * @return une page de cours, avec le curseur de la page suivante
+     */
+    public CompletableFuture<CourseIndex.Page> query(CourseQuery query) {
+        try {
+            return connection().query(query);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @param semester la session du cours
+     * @param code le code du cours
+     * @return le cours, ou null s'il n'est pas offert pendant cette session
+     */
+    public CompletableFuture<Course> lookup(String semester, String code) {
+        try {
+            return connection().lookup(semester, code);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @param query une requête d'analyse des inscriptions, par exemple "top Hiver 10"
+     * @return la réponse du serveur
+     */
+    public CompletableFuture<AnalyticsResult> analyze(String query) {
+        try {
+            return connection().analyze(query);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @param form le formulaire d'inscription
+     * @return la réponse du serveur, une fois l'inscription écrite sur le disque ou refusée;
+     * une {@link RetryLaterException} si le serveur est encore saturé après {@link #MAX_RETRIES} essais
+     */
+    public CompletableFuture<RegistrationStatus> register(RegistrationForm form) {
+        return register(form, MAX_RETRIES);
+    }
+
+    private CompletableFuture<RegistrationStatus> register(RegistrationForm form, int retries) {
+        CompletableFuture<RegistrationStatus> reply;
+        try {
+            reply = connection().register(form);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (retries == 0) {
+            return reply;
+        }
+        return reply.handle((status, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof RetryLaterException) {
+                // Up to half the delay again, so that clients turned away together do not all come back together
+                long delay = ((RetryLaterException) cause).getRetryAfterMillis();
+                delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+                return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                        .thenCompose(done -> register(form, retries - 1));
+            }
+            return error == null ? CompletableFuture.completedFuture(status) : CompletableFuture.<RegistrationStatus>failedFuture(cause);
+        }).thenCompose(next -> next);
+    }
+
+    /**
+     * Importer des formulaires en lots. Les formulaires sont découpés en trames 'IMPORTER' réparties entre
+     * les connexions; le serveur écrit chaque trame dans le journal en une seule fois.
+     * @param forms les formulaires à importer
+     * @return la réponse du serveur pour chaque formulaire, dans l'ordre de la liste
+     */
+    public CompletableFuture<List<RegistrationStatus>> importAll(List<RegistrationForm> forms) {
+        List<CompletableFuture<List<RegistrationStatus>>> parts = new ArrayList<>();
+        try {
+            for (byte[] frame : BinaryCodec.encodeImport(forms, BinaryCodec.MAX_REQUEST_FRAME)) {
+                parts.add(connection().importFrame(frame));
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<RegistrationStatus> statuses = new ArrayList<>(forms.size());
+            for (CompletableFuture<List<RegistrationStatus>> part : parts) {
+                statuses.addAll(part.join());
+            }
+            return statuses;
+        });
+    }
+
+    /**
+     * Choisir la connexion qui attend le moins de réponses, en rouvrant celles qui ont échoué.
+     */
+    private synchronized PipelinedConnection connection() throws IOException {
+        if (closed) {
+            throw new IOException("Client fermé");
+        }
+        int best = -1;
+        for (int i = 0; i < connections.length; i++) {
+            if (connections[i] == null || !connections[i].isOpen()) {
+                connections[i] = new PipelinedConnection(host, port, maxInFlight, compressed);
+            }
+            if (best < 0 || connections[i].getInFlightCount() < connections[best].getInFlightCount()) {
+                best = i;
+            }
+        }
+        return connections[best];
+    }
+
+    /**
+     * Fermer toutes les connexions. Les requêtes encore sans réponse échouent.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        for (PipelinedConnection connection : connections) {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package client.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import server.catalog.CourseIndex;
+import server.catalog.CourseQuery;
+import server.cluster.ShardMap;
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.protocol.RegistrationStatus;
+
+/**
+ * Client d'une grappe de serveurs qui se partagent les sessions du catalogue, voir {@link ShardMap}.
+ *
+ * Le client garde un {@link RegistrationClient} par noeud et envoie chaque requête au noeud qui possède
+ * sa session; aucun routeur ne s'intercale entre le client et les serveurs. Un import est découpé par noeud,
+ * envoyé à tous en même temps, puis remis dans l'ordre de la liste.
+ */
+public class ShardedClient implements Closeable {
+
+    private final ShardMap shards;
+    private final RegistrationClient[] nodes;
+
+    public ShardedClient(ShardMap shards) throws IOException {
+        this(shards, 1, PipelinedConnection.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Ouvrir les connexions vers chaque noeud.
+     * @param shards la répartition des sessions, la même que celle des serveurs
+     * @param connections le nombre de connexions par noeud
+     * @param maxInFlight le nombre maximal de requêtes sans réponse par connexion
+     */
+    public ShardedClient(ShardMap shards, int connections, int maxInFlight) throws IOException {
+        this.shards = shards;
+        this.nodes = new RegistrationClient[shards.size()];
+        try {
+            for (int i = 0; i < nodes.length; i++) {
+                InetSocketAddress node = shards.getNode(i);
+                nodes[i] = new RegistrationClient(node.getHostString(), node.getPort(), connections, maxInFlight);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param semester la session voulue
+     * @return la liste des cours de la session
+     */
+    public CompletableFuture<List<Course>> loadCourses(String semester) {
+        return node(semester).loadCourses(semester);
+    }
+
+    /**
+     * @param query la recherche
+     * @return une page de cours, avec le curseur de la page suivante
+     */
+    public CompletableFuture<CourseIndex.Page> query(CourseQuery query) {
+        return node(query.getSession()).query(query);
+    }
+
+    /**
+     * @param semester la session du cours
+     * @param code le code du cours
+     * @return le cours, ou null s'il n'est pas offert pendant cette session
+     */
+    public CompletableFuture<Course> lookup(String semester, String code) {
+        return node(semester).lookup(semester, code);
+    }
+
+    /**
+     * @param form le formulaire d'inscription
+     * @return la réponse du noeud qui possède la session du cours
+     */
+    public CompletableFuture<RegistrationStatus> register(RegistrationForm form) {
+        return node(form.getCourse().getSession()).register(form);
+    }
+
+    /**
+     * Importer des formulaires de plusieurs sessions: chaque noeud reçoit les siens.
+     * @param forms les formulaires à importer
+     * @return la réponse du serveur pour chaque formulaire, dans l'ordre de la liste
+     */
+    public CompletableFuture<List<RegistrationStatus>> importAll(List<RegistrationForm> forms) {
+        List<List<RegistrationForm>> byShard = new ArrayList<>(nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            byShard.add(new ArrayList<>());
+        }
+        int[] shardOf = new int[forms.size()];
+        for (int i = 0; i < shardOf.length; i++) {
+            shardOf[i] = shards.shardOf(forms.get(i).getCourse().getSession());
+            byShard.get(shardOf[i]).add(forms.get(i));
+        }
+        List<CompletableFuture<List<RegistrationStatus>>> parts = new ArrayList<>(nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            parts.add(byShard.get(i).isEmpty()
+                    ? CompletableFuture.completedFuture(new ArrayList<>())
+                    : nodes[i].importAll(byShard.get(i)));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            // Each node answers in the order it was sent its forms, so one cursor per node restores the list order
+            int[] next = new int[nodes.length];
+            List<RegistrationStatus> statuses = new ArrayList<>(forms.size());
+            for (int shard : shardOf) {
+                statuses.add(parts.get(shard).join().get(next[shard]++));
+            }
+            return statuses;
+        });
+    }
+
+    public ShardMap getShards() {
+        return shards;
+    }
+
+    private RegistrationClient node(String semester) {
+        return nodes[shards.shardOf(semester)];
+    }
+
+    /**
+     * Fermer les connexions vers tous les noeuds. Les requêtes encore sans réponse échouent.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (RegistrationClient node : nodes) {
+            if (node == null) {
+                continue;
+            }
+            try {
+                node.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
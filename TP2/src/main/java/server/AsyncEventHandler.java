@@ -0,0 +1,314 @@
+package server;
+
+import server.log.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Un handler servi hors du chemin des requêtes. Les événements sont mis dans une file bornée et
+ * traités par lots sur un thread dédié; la session qui a reçu la commande n'attend donc que la mise en file.
+ * Lorsque la file est pleine, la {@link OverflowPolicy} décide de ce qui arrive au nouvel événement.
+ */
+public class AsyncEventHandler implements EventHandler, AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    /**
+     * Que faire d'un événement lorsque la file est pleine.
+     */
+    public enum OverflowPolicy {
+        /** L'événement est perdu et compté dans {@link #getDroppedCount()}. */
+        DROP,
+        /** La session attend qu'une place se libère: le handler ralentit les clients plutôt que de perdre des événements. */
+        BLOCK,
+        /**
+         * Un seul événement en attente par session et par commande: un nouvel événement remplace le précédent
+         * encore en file. Convient aux handlers qui ne s'intéressent qu'au dernier état, comme une jauge.
+         * Un événement d'une nouvelle paire (session, commande) est perdu si la file est pleine.
+         */
+        COALESCE
+    }
+
+    /**
+     * Traite un lot d'événements, dans l'ordre de leur arrivée.
+     */
+    @FunctionalInterface
+    public interface BatchHandler {
+        void handle(List<Event> batch);
+    }
+
+    /**
+     * Une commande reçue par une session.
+     */
+    public static final class Event {
+        private final ClientSession session;
+        private final String cmd;
+        private final String arg;
+
+        Event(ClientSession session, String cmd, String arg) {
+            this.session = session;
+            this.cmd = cmd;
+            this.arg = arg;
+        }
+
+        public ClientSession getSession() {
+            return session;
+        }
+
+        public String getCmd() {
+            return cmd;
+        }
+
+        public String getArg() {
+            return arg;
+        }
+    }
+
+    private static final class CoalesceKey {
+        private final ClientSession session;
+        private final String cmd;
+
+        CoalesceKey(ClientSession session, String cmd) {
+            this.session = session;
+            this.cmd = cmd;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CoalesceKey)) {
+                return false;
+            }
+            CoalesceKey other = (CoalesceKey) o;
+            return session == other.session && cmd.equals(other.cmd);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(session) + cmd.hashCode();
+        }
+    }
+
+    private final BatchHandler delegate;
+    private final int capacity;
+    private final int batchSize;
+    private final OverflowPolicy policy;
+    private final ArrayDeque<Event> queue = new ArrayDeque<>();
+    // Used instead of 'queue' with COALESCE: replacing a value keeps its place in line
+    private final LinkedHashMap<CoalesceKey, Event> coalescing = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Thread worker;
+    private boolean closed;
+    private long dropped;
+    private long coalesced;
+    private volatile long processed;
+
+    /**
+     * @param delegate le handler appelé pour chaque événement, sur le thread du handler
+     * @param capacity le nombre maximal d'événements en attente
+     * @param policy que faire lorsque la file est pleine
+     */
+    public AsyncEventHandler(EventHandler delegate, int capacity, OverflowPolicy policy) {
+        this(batch -> {
+            for (Event e : batch) {
+                delegate.handle(e.session, e.cmd, e.arg);
+            }
+        }, capacity, DEFAULT_BATCH_SIZE, policy);
+    }
+
+    /**
+     * @param delegate le handler appelé avec chaque lot d'événements
+     * @param capacity le nombre maximal d'événements en attente
+     * @param batchSize le nombre maximal d'événements par lot
+     * @param policy que faire lorsque la file est pleine
+     */
+    public AsyncEventHandler(BatchHandler delegate, int capacity, int batchSize, OverflowPolicy policy) {
+        if (capacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("La capacité et la taille des lots doivent être positives");
+        }
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.policy = policy;
+        this.worker = ServerExecutors.daemonThreads("event-handler").newThread(this::drainLoop);
+        this.worker.start();
+    }
+
+    /**
+     * Mettre l'événement en file. Ne bloque qu'avec la politique BLOCK et une file pleine.
+     */
+    @Override
+    public void handle(ClientSession session, String cmd, String arg) {
+        Event event = new Event(session, cmd, arg);
+        lock.lock();
+        try {
+            if (closed) {
+                dropped++;
+                return;
+            }
+            switch (policy) {
+                case COALESCE:
+                    CoalesceKey key = new CoalesceKey(session, cmd);
+                    if (coalescing.containsKey(key)) {
+                        coalescing.put(key, event);
+                        coalesced++;
+                        return;
+                    }
+                    if (coalescing.size() >= capacity) {
+                        dropped++;
+                        return;
+                    }
+                    coalescing.put(key, event);
+                    break;
+                case BLOCK:
+                    while (queue.size() >= capacity && !closed) {
+                        try {
+                            notFull.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            dropped++;
+                            return;
+                        }
+                    }
+                    if (closed) {
+                        dropped++;
+                        return;
+                    }
+                    queue.add(event);
+                    break;
+                default:
+                    if (queue.size() >= capacity) {
+                        dropped++;
+                        return;
+                    }
+                    queue.add(event);
+            }
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drainLoop() {
+        List<Event> batch = new ArrayList<>(batchSize);
+        while (true) {
+            lock.lock();
+            try {
+                while (pending() == 0 && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (pending() == 0) {
+                    return;
+                }
+                takeBatch(batch);
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                delegate.handle(batch);
+            } catch (RuntimeException e) {
+                // A faulty handler loses its batch but must not stop the pipeline
+                Log.error("Handler asynchrone", e);
+            }
+            processed += batch.size();
+            batch.clear();
+        }
+    }
+
+    private int pending() {
+        return policy == OverflowPolicy.COALESCE ? coalescing.size() : queue.size();
+    }
+
+    private void takeBatch(List<Event> batch) {
+        if (policy == OverflowPolicy.COALESCE) {
+            Iterator<Map.Entry<CoalesceKey, Event>> it = coalescing.entrySet().iterator();
+            while (it.hasNext() && batch.size() < batchSize) {
+                batch.add(it.next().getValue());
+                it.remove();
+            }
+        } else {
+            while (!queue.isEmpty() && batch.size() < batchSize) {
+                batch.add(queue.poll());
+            }
+        }
+    }
+
+    /**
+     * @return le nombre d'événements en attente
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return pending();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return le nombre d'événements perdus parce que la file était pleine ou le handler fermé
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return le nombre d'événements remplacés par un plus récent avant d'être traités
+     */
+    public long getCoalescedCount() {
+        lock.lock();
+        try {
+            return coalesced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return le nombre d'événements passés au handler
+     */
+    public long getProcessedCount() {
+        return processed;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Refuser les nouveaux événements, puis attendre que ceux déjà en file soient traités.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
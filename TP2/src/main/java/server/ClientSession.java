@@ -0,0 +1,113 @@
+package server;
+
+import server.catalog.CourseQuery;
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.protocol.PayloadCompressor;
+import server.protocol.RegistrationStatus;
+import server.protocol.WireFormat;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Une connexion client vue par les handlers du serveur, quel que soit le mode du serveur
+ * (un thread par socket ou boucles d'événements NIO).
+ */
+public interface ClientSession {
+
+    /**
+     * Lire le formulaire qui accompagne une commande 'INSCRIRE'.
+     * @return le formulaire
+     */
+    RegistrationForm readRegistrationForm() throws IOException;
+
+    /**
+     * Lire les formulaires qui accompagnent une commande 'IMPORTER'.
+     * @return les formulaires, dans l'ordre de la requête
+     */
+    List<RegistrationForm> readImportBatch() throws IOException;
+
+    /**
+     * Lire la recherche qui accompagne une commande 'CHERCHER'.
+     * @return la recherche
+     */
+    CourseQuery readQuery() throws IOException;
+
+    /**
+     * Lire le cours demandé par une commande 'TROUVER'.
+     * @return le cours, dont seuls la session et le code sont connus
+     */
+    Course readLookup() throws IOException;
+
+    /**
+     * Envoyer une réponse déjà encodée dans le format de cette session, pour la commande en cours de traitement.
+     * Cette méthode peut être appelée à partir de n'importe quel thread, mais en mode pipeline la réponse porte
+     * l'identifiant de la requête en cours: un handler qui répond plus tard utilise {@link #writeEncoded(int, byte[])}.
+     * @param bytes la réponse, voir {@link WireFormat#encodeCourses}
+     */
+    void writeEncoded(byte[] bytes) throws IOException;
+
+    /**
+     * Envoyer la réponse d'une commande précise, par exemple une fois qu'elle est écrite dans le journal.
+     * Cette méthode peut être appelée à partir de n'importe quel thread.
+     * @param requestId l'identifiant de la commande, lu avec {@link #getRequestId()} pendant son traitement
+     * @param bytes la réponse
+     */
+    void writeEncoded(int requestId, byte[] bytes) throws IOException;
+
+    /**
+     * Envoyer une réponse passée par {@link PayloadCompressor#compress}, précédée du dictionnaire si le client
+     * ne l'a pas encore reçu. Seuls les clients qui {@link #isCompressed() acceptent la compression} la reçoivent.
+     * Cette méthode peut être appelée à partir de n'importe quel thread.
+     * @param requestId l'identifiant de la commande
+     * @param compressor le compresseur qui a produit la réponse
+     * @param bytes la réponse, compressée ou non
+     */
+    void writeCompressed(int requestId, PayloadCompressor compressor, byte[] bytes) throws IOException;
+
+    /**
+     * @return l'identifiant de la commande en cours de traitement, 0 si le client n'utilise pas le mode pipeline
+     */
+    int getRequestId();
+
+    /**
+     * Confirmer ou refuser une inscription. Seuls les clients en mode pipeline reçoivent cette réponse.
+     * Cette méthode peut être appelée à partir de n'importe quel thread.
+     * @param requestId l'identifiant de la commande 'INSCRIRE', lu avec {@link #getRequestId()} pendant son traitement
+     * @param status la réponse
+     */
+    void writeRegistered(int requestId, RegistrationStatus status) throws IOException;
+
+    /**
+     * Refuser une commande sans la traiter parce que le serveur est saturé. Seuls les clients en mode pipeline
+     * reçoivent cette réponse; pour les autres, la commande est simplement perdue.
+     * Cette méthode peut être appelée à partir de n'importe quel thread.
+     * @param requestId l'identifiant de la commande, lu avec {@link #getRequestId()} pendant son traitement
+     * @param retryAfterMillis le délai avant de renvoyer la commande
+     */
+    void writeRetryAfter(int requestId, int retryAfterMillis) throws IOException;
+
+    /**
+     * @return le format négocié avec le client
+     */
+    WireFormat getFormat();
+
+    /**
+     * @return vrai si le client a choisi le mode pipeline: lui seul peut recevoir des réponses qu'il n'attend pas
+     * encore, comme les changements poussés après 'ABONNER'
+     */
+    boolean isPipelined();
+
+    /**
+     * @return vrai si le client a demandé la compression des grandes réponses
+     */
+    boolean isCompressed();
+
+    /**
+     * Fermer la session. Un appel à partir d'un autre thread débloque la lecture en cours.
+     */
+    void disconnect();
+
+    boolean isOpen();
+}
@@ -0,0 +1,65 @@
+package server;
+
+/**
+ * Les commandes du protocole. Le nom de chaque constante est le mot envoyé par le client.
+ */
+public enum Command {
+    INSCRIRE(Server.REGISTER_COMMAND),
+    CHARGER(Server.LOAD_COMMAND),
+    QUITTER(Server.QUIT_COMMAND),
+    IMPORTER(Server.IMPORT_COMMAND),
+    CHERCHER(Server.SEARCH_COMMAND),
+    TROUVER(Server.FIND_COMMAND),
+    ABONNER(Server.SUBSCRIBE_COMMAND),
+    DESABONNER(Server.UNSUBSCRIBE_COMMAND),
+    ANALYSER(Server.ANALYZE_COMMAND),
+    /** Tout mot qui n'est pas une commande connue. */
+    UNKNOWN("");
+
+    private static final Command[] KNOWN = {INSCRIRE, CHARGER, QUITTER, IMPORTER, CHERCHER, TROUVER, ABONNER, DESABONNER, ANALYSER};
+
+    private final String name;
+
+    Command(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return le mot de la commande, tel qu'il est envoyé sur le réseau
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Trouver la commande correspondant à un mot, sans allocation.
+     * @param cmd le mot de la commande
+     * @return la commande, ou UNKNOWN
+     */
+    public static Command of(String cmd) {
+        for (Command c : KNOWN) {
+            // The names handed to handlers are the constants themselves, so the identity check usually hits
+            if (c.name == cmd || c.name.equals(cmd)) {
+                return c;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Trouver la commande écrite entre deux positions d'une ligne, sans extraire le mot.
+     * @param line la ligne
+     * @param start le début du mot
+     * @param end la fin du mot, exclue
+     * @return la commande, ou UNKNOWN
+     */
+    static Command match(String line, int start, int end) {
+        int length = end - start;
+        for (Command c : KNOWN) {
+            if (c.name.length() == length && line.regionMatches(start, c.name, 0, length)) {
+                return c;
+            }
+        }
+        return UNKNOWN;
+    }
+}
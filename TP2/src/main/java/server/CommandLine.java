@@ -0,0 +1,92 @@
+package server;
+
+/**
+ * Une commande reçue, découpée en mot et argument. Chaque session garde une seule instance qu'elle réutilise
+ * pour toutes ses commandes: le découpage ne crée ni tableau ni liste, seulement la chaîne de l'argument,
+ * et pas même celle-ci lorsque l'argument est le même que celui de la commande précédente.
+ */
+public final class CommandLine {
+
+    private String line = "";
+    private Command command = Command.UNKNOWN;
+    private String name = "";
+    private int argumentStart;
+    private int argumentEnd;
+    private String argument = "";
+
+    /**
+     * Découper une ligne comme "CHARGER Automne": le mot va jusqu'au premier espace, l'argument est le reste
+     * de la ligne sans les espaces de fin.
+     * @param line la ligne reçue
+     * @return cette instance
+     */
+    public CommandLine parse(String line) {
+        this.line = line;
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ' ') {
+            end--;
+        }
+        int space = line.indexOf(' ');
+        int nameEnd = space < 0 || space > end ? end : space;
+        command = Command.match(line, 0, nameEnd);
+        name = command == Command.UNKNOWN ? line.substring(0, nameEnd) : command.getName();
+        argumentStart = Math.min(nameEnd + 1, end);
+        argumentEnd = end;
+        int length = argumentEnd - argumentStart;
+        if (argument.length() != length || !line.regionMatches(argumentStart, argument, 0, length)) {
+            argument = length == 0 ? "" : line.substring(argumentStart, argumentEnd);
+        }
+        return this;
+    }
+
+    /**
+     * Remplir la commande à partir de valeurs déjà décodées, par exemple d'une trame binaire.
+     * @param command la commande
+     * @param argument l'argument, vide si la commande n'en a pas
+     * @return cette instance
+     */
+    public CommandLine set(Command command, String argument) {
+        this.command = command;
+        this.name = command.getName();
+        this.argument = argument;
+        this.line = argument;
+        this.argumentStart = 0;
+        this.argumentEnd = argument.length();
+        return this;
+    }
+
+    public Command getCommand() {
+        return command;
+    }
+
+    /**
+     * @return le mot de la commande; pour une commande connue, c'est toujours la même instance de String
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getArgument() {
+        return argument;
+    }
+
+    /**
+     * @return la chaîne dans laquelle l'argument se trouve, entre {@link #getArgumentStart()} et {@link #getArgumentEnd()}
+     */
+    public String getLine() {
+        return line;
+    }
+
+    public int getArgumentStart() {
+        return argumentStart;
+    }
+
+    public int getArgumentEnd() {
+        return argumentEnd;
+    }
+
+    @Override
+    public String toString() {
+        return name + (argument.isEmpty() ? "" : " " + argument);
+    }
+}
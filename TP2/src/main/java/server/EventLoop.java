@@ -0,0 +1,154 @@
+package server;
+
+import server.log.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Une boucle d'événements NIO: un thread, un Selector, et les connexions qui lui sont confiées.
+ * La lecture passe par un seul ByteBuffer direct réutilisé pour toutes les connexions de la boucle;
+ * les commandes complètes sont transmises aux handlers du serveur sur le thread de la boucle.
+ * Les autres threads passent par {@link #execute} pour agir sur les connexions de la boucle.
+ */
+class EventLoop implements Runnable {
+
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Server server;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    EventLoop(Server server, String name) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Confier une connexion acceptée à cette boucle.
+     * @param channel le canal du client
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                SelectorClientSession session = new SelectorClientSession(server, this, channel);
+                session.attach(channel.register(selector, SelectionKey.OP_READ, session));
+                server.sessionOpened(session);
+            } catch (IOException e) {
+                Log.warn("Enregistrement du client", e);
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * Exécuter une tâche sur le thread de la boucle.
+     * @param task la tâche
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SelectorClientSession session = (SelectorClientSession) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            session.onReadable(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            session.onWritable();
+                        }
+                    } catch (IOException e) {
+                        session.disconnect();
+                    } catch (RuntimeException e) {
+                        // A cancelled key or a bad frame ends this session, never the loop serving the others
+                        Log.error("Session de la boucle d'événements", e);
+                        session.disconnect();
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                Log.error("Boucle d'événements", e);
+            }
+        }
+        runTasks();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.error("Tâche de la boucle d'événements", e);
+            }
+        }
+    }
+
+    /**
+     * Arrêter la boucle et fermer toutes ses connexions.
+     */
+    void close() {
+        if (!selector.isOpen()) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((SelectorClientSession) key.attachment()).disconnect();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Log.warn("Fermeture du Selector", e);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.warn("Fermeture du canal", e);
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package server;
+
+import server.admission.TokenBucket;
+import server.catalog.CourseQuery;
+import server.log.Log;
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.protocol.BinaryCodec;
+import server.protocol.PayloadCompressor;
+import server.protocol.RegistrationStatus;
+import server.protocol.WireFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Une connexion non bloquante, servie par une {@link EventLoop}.
+ * Les octets lus sont accumulés jusqu'à former une trame complète du protocole binaire;
+ * le mode objets n'est pas disponible ici, car Java serialization ne se lit pas par morceaux.
+ * Les réponses partent directement si le socket les accepte, sinon elles attendent dans une file
+ * jusqu'à ce que le Selector signale que le socket est de nouveau prêt en écriture.
+ * Le mode pipeline est servi de la même manière: l'identifiant de la trame en cours est gardé pour la réponse.
+ * Avec la compression, le dernier dictionnaire envoyé est retenu par la boucle, qui fait toutes les écritures.
+ * Un client qui dépasse le débit de commandes permis n'est plus lu jusqu'à ce qu'un jeton soit disponible;
+ * ses trames attendent dans le tampon d'entrée, puis dans le socket.
+ * De même, un client qui ne lit pas ses réponses n'est plus lu tant que plus de {@link #MAX_PENDING_BYTES} octets
+ * attendent dans sa file d'envoi, et il est déconnecté si elle n'avance plus pendant le délai d'écriture du serveur,
+ * voir {@link Server#setWriteTimeout}.
+ */
+class SelectorClientSession implements ClientSession {
+
+    private static final int INITIAL_INBOUND_SIZE = 512;
+    static final int MAX_PENDING_BYTES = 1024 * 1024;
+
+    /**
+     * Une écriture faite sur la boucle de la session.
+     */
+    @FunctionalInterface
+    private interface Write {
+        void run() throws IOException;
+    }
+
+    private final Server server;
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final CommandLine commandLine = new CommandLine();
+    private final TokenBucket rateLimit;
+    private SelectionKey key;
+    private ByteBuffer inbound = ByteBuffer.allocate(INITIAL_INBOUND_SIZE);
+    private boolean handshaken;
+    private boolean pipelined;
+    private boolean compressed;
+    private int requestId;
+    private int dictionaryId;
+    private boolean dictionarySent;
+    private boolean closeWhenFlushed;
+    private boolean paused;
+    // Bytes waiting in 'outbound'; updated on the loop only
+    private long pendingBytes;
+    // When the queued writes last made progress, 0 when nothing waits; read by the server's write sweep
+    private volatile long writeStarted;
+    private RegistrationForm pendingForm;
+    private List<RegistrationForm> pendingImport;
+    private CourseQuery pendingQuery;
+    private Course pendingLookup;
+    private volatile boolean open = true;
+
+    SelectorClientSession(Server server, EventLoop loop, SocketChannel channel) {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+        this.rateLimit = server.getAdmissionControl().newConnectionBucket();
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Lire ce qui est disponible et traiter toutes les trames complètes.
+     * @param readBuffer le tampon direct partagé par la boucle
+     */
+    void onReadable(ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear();
+        int n = channel.read(readBuffer);
+        if (n < 0) {
+            disconnect();
+            return;
+        }
+        readBuffer.flip();
+        ensureInboundCapacity(readBuffer.remaining());
+        inbound.put(readBuffer);
+        decodeBuffered();
+    }
+
+    private void decodeBuffered() throws IOException {
+        inbound.flip();
+        try {
+            while (open && !closeWhenFlushed && !paused && !isBacklogged() && decodeOne()) {
+                // keep going while whole frames are buffered
+            }
+        } finally {
+            inbound.compact();
+        }
+    }
+
+    /**
+     * Cesser de lire le client jusqu'à ce qu'un jeton soit disponible.
+     */
+    private void pause(long nanos) {
+        paused = true;
+        server.commandThrottled();
+        key.interestOps(interestOps());
+        ServerExecutors.deadlines().schedule(() -> loop.execute(this::resume), nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void resume() {
+        if (!open) {
+            return;
+        }
+        paused = false;
+        key.interestOps(interestOps());
+        try {
+            decodeBuffered();
+        } catch (IOException e) {
+            disconnect();
+        }
+    }
+
+    private int interestOps() {
+        int ops = paused || isBacklogged() ? 0 : SelectionKey.OP_READ;
+        return outbound.isEmpty() ? ops : ops | SelectionKey.OP_WRITE;
+    }
+
+    /**
+     * @return vrai si le client laisse trop de réponses en attente: ses commandes ne sont plus lues
+     */
+    private boolean isBacklogged() {
+        return pendingBytes > MAX_PENDING_BYTES;
+    }
+
+    /**
+     * Traiter une poignée de main ou une trame si elle est complète dans le tampon.
+     * @return vrai si quelque chose a été consommé
+     */
+    private boolean decodeOne() throws IOException {
+        if (!handshaken) {
+            if (inbound.remaining() < 4) {
+                return false;
+            }
+            int magic = inbound.getInt();
+            if (!BinaryCodec.isKnownMagic(magic)) {
+                Log.warn("Protocole non supporté en mode NIO, connexion fermée: {}", channel);
+                disconnect();
+                return false;
+            }
+            handshaken = true;
+            pipelined = BinaryCodec.isPipelined(magic);
+            compressed = BinaryCodec.isCompressed(magic);
+            ByteBuffer reply = ByteBuffer.allocate(4).putInt(magic);
+            reply.flip();
+            write(reply);
+            return true;
+        }
+        if (inbound.remaining() < 4) {
+            return false;
+        }
+        int length = inbound.getInt(inbound.position());
+        int header = pipelined ? 5 : 1;
+        if (length < header || length > BinaryCodec.MAX_REQUEST_FRAME) {
+            throw new IOException("Longueur de trame invalide: " + length);
+        }
+        if (inbound.remaining() < 4 + length) {
+            return false;
+        }
+        if (rateLimit != null) {
+            long wait = rateLimit.tryAcquire();
+            if (wait > 0) {
+                pause(wait);
+                return false;
+            }
+        }
+        inbound.getInt();
+        byte opcode = inbound.get();
+        requestId = pipelined ? inbound.getInt() : 0;
+        byte[] payload = new byte[length - header];
+        inbound.get(payload);
+        BinaryCodec.Frame frame = new BinaryCodec.Frame(opcode, requestId, payload);
+        if (opcode == BinaryCodec.OP_REGISTER) {
+            pendingForm = BinaryCodec.decodeRegistration(frame);
+        } else if (opcode == BinaryCodec.OP_IMPORT) {
+            pendingImport = BinaryCodec.decodeImport(frame);
+        } else if (opcode == BinaryCodec.OP_QUERY) {
+            pendingQuery = BinaryCodec.decodeQuery(frame);
+        } else if (opcode == BinaryCodec.OP_LOOKUP) {
+            pendingLookup = BinaryCodec.decodeLookup(frame);
+        }
+        BinaryCodec.decodeCommand(frame, commandLine);
+        dispatch();
+        return true;
+    }
+
+    private void dispatch() {
+        server.alertHandlers(this, commandLine);
+        if (commandLine.getCommand() == Command.QUITTER) {
+            closeWhenFlushed = true;
+            if (outbound.isEmpty()) {
+                disconnect();
+            }
+        }
+    }
+
+    private void ensureInboundCapacity(int extra) throws IOException {
+        if (inbound.remaining() >= extra) {
+            return;
+        }
+        int needed = inbound.position() + extra;
+        if (needed > BinaryCodec.MAX_REQUEST_FRAME + 4 + EventLoop.READ_BUFFER_SIZE) {
+            throw new IOException("Tampon d'entrée trop grand");
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, inbound.capacity() * 2));
+        inbound.flip();
+        bigger.put(inbound);
+        inbound = bigger;
+    }
+
+    /**
+     * Le socket accepte de nouveau des octets: vider la file d'envoi.
+     */
+    void onWritable() throws IOException {
+        boolean backlogged = isBacklogged();
+        ByteBuffer buffer;
+        while ((buffer = outbound.peek()) != null) {
+            int written = channel.write(buffer);
+            pendingBytes -= written;
+            if (written > 0) {
+                writeStarted = System.nanoTime();
+            }
+            if (buffer.hasRemaining()) {
+                break;
+            }
+            outbound.poll();
+        }
+        if (outbound.isEmpty()) {
+            writeStarted = 0;
+        }
+        if (key.isValid()) {
+            key.interestOps(interestOps());
+        }
+        if (outbound.isEmpty() && closeWhenFlushed) {
+            disconnect();
+        } else if (backlogged && !isBacklogged()) {
+            // The frames read before the backlog are still buffered
+            decodeBuffered();
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        if (outbound.isEmpty()) {
+            channel.write(buffer);
+            if (!buffer.hasRemaining()) {
+                return;
+            }
+            writeStarted = System.nanoTime();
+        }
+        outbound.add(buffer);
+        pendingBytes += buffer.remaining();
+        key.interestOps(interestOps());
+    }
+
+    /**
+     * Fermer la session si sa file d'envoi n'a pas avancé depuis plus que le délai, comme
+     * {@link SocketClientSession#disconnectIfStalled} pour une écriture bloquée.
+     * @param now l'heure actuelle, de System.nanoTime()
+     * @param timeoutNanos le délai d'écriture
+     * @return vrai si la session a été fermée
+     */
+    boolean disconnectIfStalled(long now, long timeoutNanos) {
+        long started = writeStarted;
+        if (started == 0 || now - started < timeoutNanos || !open) {
+            return false;
+        }
+        Log.warn("Client qui ne lit plus ses réponses, déconnecté: {}", channel);
+        disconnect();
+        return true;
+    }
+
+    @Override
+    public RegistrationForm readRegistrationForm() throws IOException {
+        if (pendingForm == null) {
+            throw new IOException("Aucun formulaire reçu avec la commande");
+        }
+        RegistrationForm form = pendingForm;
+        pendingForm = null;
+        return form;
+    }
+
+    @Override
+    public List<RegistrationForm> readImportBatch() throws IOException {
+        if (pendingImport == null) {
+            throw new IOException("Aucun formulaire reçu avec la commande");
+        }
+        List<RegistrationForm> forms = pendingImport;
+        pendingImport = null;
+        return forms;
+    }
+
+    @Override
+    public CourseQuery readQuery() throws IOException {
+        if (pendingQuery == null) {
+            throw new IOException("Aucune recherche lisible reçue avec la commande");
+        }
+        CourseQuery query = pendingQuery;
+        pendingQuery = null;
+        return query;
+    }
+
+    @Override
+    public Course readLookup() throws IOException {
+        if (pendingLookup == null) {
+            throw new IOException("Aucun cours lisible reçu avec la commande");
+        }
+        Course course = pendingLookup;
+        pendingLookup = null;
+        return course;
+    }
+
+    @Override
+    public void writeEncoded(byte[] bytes) throws IOException {
+        writeEncoded(requestId, bytes);
+    }
+
+    @Override
+    public void writeEncoded(int requestId, byte[] bytes) throws IOException {
+        onLoop(() -> writeFrame(requestId, bytes));
+    }
+
+    @Override
+    public void writeCompressed(int requestId, PayloadCompressor compressor, byte[] bytes) throws IOException {
+        if (!compressed) {
+            throw new IOException("Le client n'a pas demandé la compression");
+        }
+        // Decided on the loop, so that a dictionary always goes out right before the first frame that needs it
+        onLoop(() -> {
+            if (PayloadCompressor.isCompressed(bytes) && (!dictionarySent || dictionaryId != compressor.getDictionaryId())) {
+                writeFrame(requestId, compressor.getDictionaryFrame());
+                dictionaryId = compressor.getDictionaryId();
+                dictionarySent = true;
+            }
+            writeFrame(requestId, bytes);
+        });
+    }
+
+    private void writeFrame(int requestId, byte[] bytes) throws IOException {
+        if (pipelined) {
+            write(BinaryCodec.pipelinedHeader(bytes, requestId));
+            write(ByteBuffer.wrap(bytes, 5, bytes.length - 5));
+        } else {
+            write(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    @Override
+    public int getRequestId() {
+        return requestId;
+    }
+
+    @Override
+    public void writeRegistered(int requestId, RegistrationStatus status) throws IOException {
+        if (pipelined) {
+            writeFromAnyThread(BinaryCodec.encodeRegistered(requestId, status));
+        }
+    }
+
+    @Override
+    public void writeRetryAfter(int requestId, int retryAfterMillis) throws IOException {
+        if (pipelined) {
+            writeFromAnyThread(BinaryCodec.encodeRetryAfter(requestId, retryAfterMillis));
+        }
+    }
+
+    private void writeFromAnyThread(ByteBuffer buffer) throws IOException {
+        onLoop(() -> write(buffer));
+    }
+
+    /**
+     * Écrire sur la boucle de la session; les tampons d'une même écriture partent l'un après l'autre,
+     * sans autre écriture entre eux.
+     */
+    private void onLoop(Write write) throws IOException {
+        if (loop.inEventLoop()) {
+            write.run();
+            return;
+        }
+        loop.execute(() -> {
+            try {
+                if (open) {
+                    write.run();
+                }
+            } catch (IOException e) {
+                disconnect();
+            }
+        });
+    }
+
+    @Override
+    public WireFormat getFormat() {
+        return WireFormat.BINARY;
+    }
+
+    @Override
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    @Override
+    public void disconnect() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.warn("Fermeture du canal", e);
+        }
+        server.sessionClosed(this);
+        Log.debug("Client déconnecté!");
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+}
@@ -1,179 +1,910 @@
 package server;
 
-import javafx.util.Pair;
+import server.admission.AdmissionControl;
+import server.analytics.EnrollmentAnalytics;
+import server.catalog.CatalogCompression;
+import server.catalog.CourseCatalog;
+import server.catalog.CourseIndex;
+import server.catalog.CourseQuery;
+import server.catalog.ResponseCache;
+import server.cluster.ShardMap;
 import server.exceptions.InvalidLineFormatException;
+import server.log.Log;
+import server.metrics.LatencyHistogram;
+import server.metrics.MetricsRegistry;
 import server.models.Course;
 import server.models.RegistrationForm;
+import server.protocol.BinaryCodec;
+import server.protocol.PayloadCompressor;
+import server.protocol.RegistrationStatus;
+import server.protocol.WireFormat;
+import server.push.SubscriptionHub;
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+import server.registration.RegistrationRecord;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Scanner;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Server {
 
     public final static String REGISTER_COMMAND = "INSCRIRE";
     public final static String LOAD_COMMAND = "CHARGER";
     public final static String QUIT_COMMAND = "QUITTER";
+    public final static String IMPORT_COMMAND = "IMPORTER";
+    public final static String SEARCH_COMMAND = "CHERCHER";
+    public final static String FIND_COMMAND = "TROUVER";
+    public final static String SUBSCRIBE_COMMAND = "ABONNER";
+    public final static String UNSUBSCRIBE_COMMAND = "DESABONNER";
+    public final static String ANALYZE_COMMAND = "ANALYSER";
+    public final static int DEFAULT_BACKLOG = 128;
+    public final static long DEFAULT_WRITE_TIMEOUT_SECONDS = 10;
+    public final static long DEFAULT_DURABLE_TIMEOUT_SECONDS = 10;
+    private final static long WRITE_CHECK_MILLIS = 250;
+    private final static long ACCEPT_RETRY_MILLIS = 100;
+    private final ServerSocketChannel serverChannel;
     private final ServerSocket server;
-    private Socket client;
-    private ObjectInputStream objectInputStream;
-    private ObjectOutputStream objectOutputStream;
-    private final ArrayList<EventHandler> handlers;
+    private final ExecutorService executor;
+    // Durable replies leave the journal thread here, so a client that stopped reading never stalls the writer
+    private final ExecutorService replyExecutor = ServerExecutors.virtualThreads();
+    private final List<EventLoop> eventLoops = new CopyOnWriteArrayList<>();
+    private final CourseCatalog catalog;
+    private final EnumMap<WireFormat, ResponseCache> responseCaches = new EnumMap<>(WireFormat.class);
+    private final RegistrationJournal journal;
+    private final RegistrationIndex registrations;
+    private final SubscriptionHub subscriptions;
+    private final CatalogCompression compression;
+    private final List<EventHandler> handlers;
+    private final EnumMap<Command, EventHandler> commandTable = new EnumMap<>(Command.class);
+    private final List<AsyncEventHandler> asyncHandlers = new CopyOnWriteArrayList<>();
+    private final Set<ClientSession> sessions = ConcurrentHashMap.newKeySet();
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final LongAdder[] commandCounts = new LongAdder[Command.values().length];
+    private final LatencyHistogram[] commandLatencies = new LatencyHistogram[Command.values().length];
+    private final EnumMap<RegistrationIndex.Result, LongAdder> registrationResults = new EnumMap<>(RegistrationIndex.Result.class);
+    private final LongAdder connectionsAccepted;
+    private final LongAdder connectionsRejected;
+    private final LongAdder registrationFailures;
+    private final LatencyHistogram durableLatency;
+    private final LongAdder importedRecords;
+    private final LatencyHistogram importDurableLatency;
+    // Recorded when the query completes, since the dispatch of 'ANALYSER' only queues it
+    private final LatencyHistogram analysisLatency;
+    private final LongAdder registrationsTimedOut;
+    private final LongAdder connectionsTimedOut;
+    private volatile long idleTimeoutMillis;
+    private volatile long writeTimeoutMillis = TimeUnit.SECONDS.toMillis(DEFAULT_WRITE_TIMEOUT_SECONDS);
+    private volatile long durableTimeoutNanos = TimeUnit.SECONDS.toNanos(DEFAULT_DURABLE_TIMEOUT_SECONDS);
+    private volatile ScheduledFuture<?> writeSweep;
+    private volatile AdmissionControl admission = AdmissionControl.unlimited();
+    private ShardMap shards;
+    private volatile boolean readOnly;
+    private volatile EnrollmentAnalytics analytics;
+    private int shard;
+    private final LongAdder registrationsThrottled;
+    private final LongAdder commandsThrottled;
+    private final LongAdder registrationsMisrouted;
+    private final LongAdder registrationsReplicated;
 
-    private static final String COURSES_PATH = "willhus/TP2/src/main/java/server/data/cours.txt";
-    private static final String INSCRIPTION_PATH = "willhus/TP2/src/main/java/server/data/inscription.txt";
-    private static final String COURSE_ERROR_MSG = "Error: invalid line format, expected \"COURSE_ID\tCOURSE_NAME\tSEMESTER\"";
-    private static final String SESSION_ERROR_MSG = "Error: invalid line format, expected \"SEMESTER\tCOURSE_ID\tSTUDENT_ID\tFIRST_NAME\tLAST_NAME\tEMAIL\"";
+    public static final String COURSES_PATH = "willhus/TP2/src/main/java/server/data/cours.txt";
+    public static final String INSCRIPTION_PATH = "willhus/TP2/src/main/java/server/data/inscription.txt";
+    private static final long CATALOG_CHECK_SECONDS = 2;
 
-    public Server(int port) throws IOException {
-        this.server = new ServerSocket(port, 1);
-        this.handlers = new ArrayList<EventHandler>();
-        this.addEventHandler(this::handleEvents);
+    public Server(int port) throws IOException, InvalidLineFormatException {
+        this(port, DEFAULT_BACKLOG, ServerExecutors.virtualThreads(), new CourseCatalog(Paths.get(COURSES_PATH)),
+                new RegistrationJournal(Paths.get(INSCRIPTION_PATH)),
+                RegistrationIndex.load(Paths.get(INSCRIPTION_PATH), RegistrationIndex.UNLIMITED));
+        this.catalog.startWatching(CATALOG_CHECK_SECONDS, TimeUnit.SECONDS);
     }
 
+    /**
+     * Constructeur pour le serveur.
+     * @param port le port d'écoute
+     * @param backlog le nombre de connexions en attente d'acceptation tolérées par le système
+     * @param executor l'exécuteur sur lequel chaque session client est lancée
+     * @param catalog le catalogue des cours servi par la commande 'CHARGER'
+     * @param journal le journal dans lequel la commande 'INSCRIRE' écrit
+     * @param registrations l'index des inscriptions déjà présentes dans le journal
+     */
+    public Server(int port, int backlog, ExecutorService executor, CourseCatalog catalog,
+                  RegistrationJournal journal, RegistrationIndex registrations) throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port), backlog);
+        this.server = serverChannel.socket();
+        this.executor = executor;
+        this.catalog = catalog;
+        this.compression = new CatalogCompression(catalog, PayloadCompressor.DEFAULT_THRESHOLD);
+        for (WireFormat format : WireFormat.values()) {
+            this.responseCaches.put(format, new ResponseCache(catalog, format, format == WireFormat.BINARY ? compression : null));
+        }
+        this.journal = journal;
+        this.registrations = registrations;
+        this.subscriptions = new SubscriptionHub(catalog, registrations, compression, SubscriptionHub.DEFAULT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        this.commandTable.put(Command.INSCRIRE, (session, cmd, arg) -> handleRegistration(session));
+        this.commandTable.put(Command.CHARGER, (session, cmd, arg) -> handleLoadCourses(session, arg));
+        this.commandTable.put(Command.QUITTER, (session, cmd, arg) -> Log.debug("Au revoir!"));
+        this.commandTable.put(Command.IMPORTER, (session, cmd, arg) -> handleImport(session));
+        this.commandTable.put(Command.CHERCHER, (session, cmd, arg) -> handleQuery(session));
+        this.commandTable.put(Command.TROUVER, (session, cmd, arg) -> handleLookup(session));
+        this.commandTable.put(Command.ABONNER, (session, cmd, arg) -> handleSubscribe(session, arg));
+        this.commandTable.put(Command.DESABONNER, (session, cmd, arg) -> subscriptions.unsubscribe(session, arg));
+        this.commandTable.put(Command.ANALYSER, (session, cmd, arg) -> handleAnalyze(session, arg));
+        this.commandTable.put(Command.UNKNOWN, (session, cmd, arg) -> Log.warn("Commande invalide: {}", cmd));
+        this.handlers = new CopyOnWriteArrayList<>();
+
+        for (Command command : Command.values()) {
+            commandCounts[command.ordinal()] = metrics.counter("commands." + command);
+        }
+        commandLatencies[Command.CHARGER.ordinal()] = metrics.histogram("latency.CHARGER");
+        commandLatencies[Command.INSCRIRE.ordinal()] = metrics.histogram("latency.INSCRIRE");
+        commandLatencies[Command.IMPORTER.ordinal()] = metrics.histogram("latency.IMPORTER");
+        commandLatencies[Command.CHERCHER.ordinal()] = metrics.histogram("latency.CHERCHER");
+        for (RegistrationIndex.Result result : RegistrationIndex.Result.values()) {
+            registrationResults.put(result, metrics.counter("registrations." + result));
+        }
+        this.connectionsAccepted = metrics.counter("connections.accepted");
+        this.connectionsRejected = metrics.counter("connections.rejected");
+        this.registrationFailures = metrics.counter("registrations.FAILED");
+        this.durableLatency = metrics.histogram("latency.INSCRIRE.durable");
+        this.importedRecords = metrics.counter("imports.records");
+        this.importDurableLatency = metrics.histogram("latency.IMPORTER.durable");
+        this.analysisLatency = metrics.histogram("latency.ANALYSER");
+        this.registrationsTimedOut = metrics.counter("registrations.TIMED_OUT");
+        this.connectionsTimedOut = metrics.counter("connections.timed_out");
+        this.registrationsThrottled = metrics.counter("registrations.THROTTLED");
+        this.commandsThrottled = metrics.counter("commands.throttled");
+        this.registrationsMisrouted = metrics.counter("registrations.WRONG_SHARD");
+        this.registrationsReplicated = metrics.counter("registrations.replicated");
+        metrics.gauge("admission.registrations_in_flight", () -> admission.getRegistrationsInFlight());
+        metrics.gauge("connections.active", sessions::size);
+        metrics.gauge("catalog.version", catalog::getVersion);
+        for (WireFormat format : WireFormat.values()) {
+            ResponseCache cache = responseCaches.get(format);
+            metrics.gauge("cache." + format + ".hit_ratio", cache::getHitRatio);
+        }
+        metrics.gauge("journal.queue_depth", journal::getQueueDepth);
+        metrics.gauge("journal.batches", journal::getBatchCount);
+        metrics.register("journal.flush", journal.getFlushTimes());
+        metrics.gauge("registrations.total", registrations::size);
+        metrics.gauge("log.dropped", Log::getDroppedCount);
+        metrics.gauge("push.subscribers", subscriptions::getSubscriberCount);
+        metrics.gauge("push.deltas", subscriptions::getDeltasSent);
+    }
+
+    /**
+     Déconnecter un client en mode socket qui n'envoie aucune commande pendant ce délai, pour libérer son thread.
+     Désactivé par défaut: le client console garde sa connexion ouverte pendant que l'utilisateur remplit le formulaire.
+     @param timeout le délai, 0 pour aucun
+     @param unit l'unité du délai
+     */
+    public void setIdleTimeout(long timeout, TimeUnit unit) {
+        this.idleTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     Déconnecter un client dont une réponse n'est pas envoyée dans ce délai, parce qu'il a cessé de lire.
+     En mode socket, fermer le socket débloque l'écriture en cours et libère le thread de la session; en mode
+     non bloquant, la file d'envoi de la session ne doit pas rester sans avancer plus longtemps que ce délai.
+     @param timeout le délai, 0 pour aucun (défaut {@value #DEFAULT_WRITE_TIMEOUT_SECONDS} secondes)
+     @param unit l'unité du délai
+     */
+    public void setWriteTimeout(long timeout, TimeUnit unit) {
+        this.writeTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     Échéance d'une inscription ou d'un import dans la file du journal. Si le disque est trop lent pour la tenir,
+     la demande est retirée sans être écrite, sa place est libérée et le client reçoit FAILED au lieu d'attendre.
+     @param timeout le délai, 0 pour aucun (défaut {@value #DEFAULT_DURABLE_TIMEOUT_SECONDS} secondes)
+     @param unit l'unité du délai
+     */
+    public void setDurableTimeout(long timeout, TimeUnit unit) {
+        this.durableTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     Remplacer les limites de débit et de concurrence, voir {@link AdmissionControl}. Les limites par connexion
+     ne s'appliquent qu'aux connexions ouvertes ensuite. Par défaut, tout est admis.
+     @param admission le contrôle d'admission
+     */
+    public void setAdmissionControl(AdmissionControl admission) {
+        AdmissionControl previous = this.admission;
+        this.admission = admission;
+        previous.close();
+    }
+
+    /**
+     Faire de ce serveur un noeud d'une grappe: il n'accepte plus que les inscriptions des sessions qu'il possède
+     et répond {@link RegistrationStatus#WRONG_SHARD} aux autres. Le catalogue reste servi en entier.
+     À appeler avant de lancer le serveur.
+     @param shards la répartition des sessions entre les noeuds
+     @param shard la position de ce noeud dans la répartition
+     */
+    public void setShard(ShardMap shards, int shard) {
+        if (shard < 0 || shard >= shards.size()) {
+            throw new IllegalArgumentException("Noeud " + shard + " absent de la grappe " + shards);
+        }
+        this.shards = shards;
+        this.shard = shard;
+    }
+
+    /**
+     Mettre le serveur en lecture seule, comme réplique d'un primaire: il sert le catalogue, les recherches
+     et les abonnements, mais répond {@link RegistrationStatus#READ_ONLY} à 'INSCRIRE' et à 'IMPORTER'.
+     Les inscriptions du primaire arrivent par {@link #applyReplicated}.
+     @param readOnly faux pour accepter de nouveau les inscriptions, par exemple après une promotion
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     Changer la taille à partir de laquelle les réponses sont compressées pour les clients qui l'ont demandé,
+     voir {@link PayloadCompressor}.
+     @param threshold la taille des données en octets
+     */
+    public void setCompressionThreshold(int threshold) {
+        compression.setThreshold(threshold);
+    }
+
+    /**
+     Ajouter à l'index une inscription copiée du journal du primaire et déjà écrite dans le journal local,
+     voir {@link server.replication.ReplicaFollower}. Les abonnés de sa session voient le nouveau nombre d'inscrits.
+     @param record l'inscription
+     */
+    public void applyReplicated(RegistrationRecord record) {
+        registrations.restore(record);
+        registrationsReplicated.increment();
+        subscriptions.enrollmentChanged(record.getSession(), record.getCourseCode());
+    }
+
+    /**
+     @param session une session du catalogue
+     @return vrai si les inscriptions de cette session sont écrites par ce serveur
+     */
+    public boolean ownsSession(String session) {
+        return shards == null || shards.shardOf(session) == shard;
+    }
+
+    /**
+     Servir la commande 'ANALYSER' avec ce moteur d'analyse, fermé avec le serveur. Sans moteur, la commande est refusée.
+     @param analytics le moteur, qui suit le journal de ce serveur
+     */
+    public void setAnalytics(EnrollmentAnalytics analytics) {
+        this.analytics = analytics;
+        metrics.gauge("analytics.rows", analytics::getRows);
+        metrics.gauge("analytics.lag_bytes", analytics::getLagBytes);
+    }
+
+    public AdmissionControl getAdmissionControl() {
+        return admission;
+    }
+
+    /**
+     Compter une commande retardée parce que sa connexion dépasse son débit.
+     */
+    void commandThrottled() {
+        commandsThrottled.increment();
+    }
+
+    long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     Fermer les sessions dont l'écriture en cours a dépassé son délai. Un passage périodique sur toutes les sessions
+     coûte moins qu'une minuterie armée puis annulée à chaque réponse.
+     */
+    private void sweepStalledWrites() {
+        long timeout = writeTimeoutMillis;
+        if (timeout <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (ClientSession session : sessions) {
+            boolean stalled;
+            if (session instanceof SocketClientSession) {
+                stalled = ((SocketClientSession) session).disconnectIfStalled(now, timeoutNanos);
+            } else if (session instanceof SelectorClientSession) {
+                stalled = ((SelectorClientSession) session).disconnectIfStalled(now, timeoutNanos);
+            } else {
+                stalled = false;
+            }
+            if (stalled) {
+                sessionTimedOut(session);
+            }
+        }
+    }
+
+    private void startWriteSweep() {
+        writeSweep = ServerExecutors.deadlines().scheduleWithFixedDelay(this::sweepStalledWrites,
+                WRITE_CHECK_MILLIS, WRITE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     Compter une session fermée parce qu'une échéance est passée.
+     */
+    void sessionTimedOut(ClientSession session) {
+        connectionsTimedOut.increment();
+    }
+
+    /**
+     Ajouter un handler appelé directement par la session, avant qu'elle lise la commande suivante.
+     Son temps d'exécution s'ajoute donc à la latence de chaque requête.
+     @param h le handler
+     */
     public void addEventHandler(EventHandler h) {
         this.handlers.add(h);
     }
 
-    private void alertHandlers(String cmd, String arg) {
+    /**
+     Ajouter un handler servi hors du chemin des requêtes, sur son propre thread, à travers une file bornée.
+     @param h le handler
+     @param capacity le nombre maximal d'événements en attente
+     @param policy que faire lorsque la file est pleine
+     @return le handler asynchrone, pour consulter ses compteurs
+     */
+    public AsyncEventHandler addAsyncEventHandler(EventHandler h, int capacity, AsyncEventHandler.OverflowPolicy policy) {
+        AsyncEventHandler async = new AsyncEventHandler(h, capacity, policy);
+        addAsyncEventHandler(async);
+        return async;
+    }
+
+    /**
+     Ajouter un handler asynchrone déjà construit, par exemple un handler par lots.
+     Le serveur le ferme, en traitant les événements restants, lors de 'close'.
+     @param h le handler
+     */
+    public void addAsyncEventHandler(AsyncEventHandler h) {
+        String prefix = "handlers.async." + asyncHandlers.size();
+        metrics.gauge(prefix + ".queue_depth", h::getQueueDepth);
+        metrics.gauge(prefix + ".dropped", h::getDroppedCount);
+        this.asyncHandlers.add(h);
+        this.handlers.add(h);
+    }
+
+    /**
+     Traiter la commande, puis la passer aux handlers ajoutés, en mesurant le temps que la session y passe.
+     La commande a déjà été reconnue par la session: rien ici ne compare plus son nom.
+     @param session la session qui a reçu la commande
+     @param line la commande découpée par la session
+     */
+    void alertHandlers(ClientSession session, CommandLine line) {
+        Command command = line.getCommand();
+        String cmd = line.getName();
+        String arg = line.getArgument();
+        long start = System.nanoTime();
+        handleEvents(session, command, cmd, arg);
         for (EventHandler h : this.handlers) {
-            h.handle(cmd, arg);
+            h.handle(session, cmd, arg);
         }
+        LatencyHistogram latency = commandLatencies[command.ordinal()];
+        if (latency != null) {
+            latency.record(System.nanoTime() - start);
+        }
+        commandCounts[command.ordinal()].increment();
     }
 
+    /**
+     Accepter les connexions en boucle et lancer chaque session sur l'exécuteur, pour qu'un client lent
+     ne bloque jamais les autres. La boucle se termine lorsque le serveur est fermé avec 'close'.
+     */
     public void run() {
-        while (true) {
+        startWriteSweep();
+        while (!server.isClosed()) {
+            Socket client;
             try {
                 client = server.accept();
-                System.out.println("Connecté au client: " + client);
-                objectInputStream = new ObjectInputStream(client.getInputStream());
-                objectOutputStream = new ObjectOutputStream(client.getOutputStream());
-                listen();
-                disconnect();
-                System.out.println("Client déconnecté!");
-            } catch (Exception e) {
-                e.printStackTrace();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    Log.error("Erreur d'acceptation", e);
+                    pauseAfterAcceptError();
+                }
+                continue;
+            }
+            try {
+                executor.execute(new SocketClientSession(this, client));
+                connectionsAccepted.increment();
+            } catch (RejectedExecutionException e) {
+                Log.warn("Serveur saturé, connexion refusée: {}", client);
+                connectionsRejected.increment();
+                closeQuietly(client);
             }
         }
     }
 
-    public void listen() throws IOException, ClassNotFoundException {
-        String line;
-        while ((line = this.objectInputStream.readObject().toString()) != null) {
-            Pair<String, String> parts = processCommandLine(line);
-            String cmd = parts.getKey();
-            String arg = parts.getValue();
-            this.alertHandlers(cmd, arg);
+    /**
+     Mode non bloquant: les connexions acceptées sont réparties à tour de rôle entre quelques boucles
+     d'événements NIO, qui lisent les commandes et appellent les handlers sans thread par client.
+     Seul le protocole binaire est servi dans ce mode. La méthode retourne lorsque le serveur est fermé.
+     @param loops le nombre de boucles d'événements, donc de threads
+     */
+    public void runSelector(int loops) throws IOException {
+        startWriteSweep();
+        for (int i = 0; i < loops; i++) {
+            EventLoop loop = new EventLoop(this, "event-loop-" + i);
+            eventLoops.add(loop);
+            loop.start();
+        }
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            SocketChannel client;
+            try {
+                client = serverChannel.accept();
+            } catch (IOException e) {
+                if (serverChannel.isOpen()) {
+                    Log.error("Erreur d'acceptation", e);
+                    pauseAfterAcceptError();
+                }
+                continue;
+            }
+            Log.debug("Connecté au client: {}", client);
+            connectionsAccepted.increment();
+            eventLoops.get(next).register(client);
+            next = (next + 1) % loops;
         }
     }
 
-    public Pair<String, String> processCommandLine(String line) {
-        String[] parts = line.split(" ");
-        String cmd = parts[0];
-        String args = String.join(" ", Arrays.asList(parts).subList(1, parts.length));
-        return new Pair<>(cmd, args);
+    /**
+     Attendre un peu avant d'accepter de nouveau: une erreur comme le manque de descripteurs de fichiers (EMFILE)
+     se répète tant que des connexions ne se ferment pas, et la boucle tournerait à vide en journalisant.
+     */
+    private void pauseAfterAcceptError() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(ACCEPT_RETRY_MILLIS);
+        } catch (InterruptedException e) {
+            // The next accept on the interrupted thread closes the channel and ends the loop
+            Thread.currentThread().interrupt();
+        }
     }
 
-    public void disconnect() throws IOException {
-        objectOutputStream.close();
-        objectInputStream.close();
-        client.close();
+    /**
+     Fermer le socket d'écoute, déconnecter les clients et arrêter l'exécuteur des sessions.
+     */
+    public void close() throws IOException {
+        serverChannel.close();
+        catalog.close();
+        if (writeSweep != null) {
+            writeSweep.cancel(false);
+        }
+        for (ClientSession session : sessions) {
+            session.disconnect();
+        }
+        for (EventLoop loop : eventLoops) {
+            loop.close();
+        }
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (AsyncEventHandler h : asyncHandlers) {
+            h.close();
+        }
+        subscriptions.close();
+        if (analytics != null) {
+            analytics.close();
+        }
+        journal.close();
+        replyExecutor.shutdown();
+        admission.close();
+    }
+
+    public CourseCatalog getCatalog() {
+        return catalog;
+    }
+
+    public ResponseCache getResponseCache(WireFormat format) {
+        return responseCaches.get(format);
+    }
+
+    public RegistrationJournal getJournal() {
+        return journal;
+    }
+
+    public RegistrationIndex getRegistrations() {
+        return registrations;
+    }
+
+    /**
+     @return les métriques du serveur, à publier avec {@link server.metrics.MetricsMBean} ou {@link server.metrics.MetricsEndpoint}
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
     }
 
-    public void handleEvents(String cmd, String arg) {
-        if (cmd.equals(REGISTER_COMMAND)) {
-            handleRegistration();
-        } else if (cmd.equals(LOAD_COMMAND)) {
-            handleLoadCourses(arg);
-        } else if (cmd.equals(QUIT_COMMAND)) {
-            System.out.println("Au revoir!");
-        } else {
-            System.out.println("NOT A VALID COMMAND??");
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     @return le nombre de clients connectés
+     */
+    public int getActiveSessionCount() {
+        return sessions.size();
+    }
+
+    void sessionOpened(ClientSession session) {
+        sessions.add(session);
+    }
+
+    void sessionClosed(ClientSession session) {
+        sessions.remove(session);
+        subscriptions.unsubscribeAll(session);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.warn("Fermeture du socket", e);
         }
     }
 
     /**
-     Lire un fichier texte contenant des informations sur les cours et les transofmer en liste d'objets 'Course'.
-     La méthode filtre les cours par la session spécifiée en argument.
-     Ensuite, elle renvoie la liste des cours pour une session au client en utilisant l'objet 'objectOutputStream'.
-     La méthode gère les exceptions si une erreur se produit lors de la lecture du fichier ou de l'écriture de l'objet dans le flux.
+     Découper une ligne de commande en commande et argument.
+     Les sessions réutilisent leur propre {@link CommandLine}; cette méthode en crée une nouvelle à chaque appel.
+     @param line la ligne reçue, par exemple "CHARGER Automne"
+     @return la commande découpée
+     */
+    public CommandLine processCommandLine(String line) {
+        return new CommandLine().parse(line);
+    }
+
+    /**
+     Appeler le traitement d'une commande déjà reconnue, trouvé dans une table indexée par {@link Command}.
+     @param session la session qui a reçu la commande
+     @param command la commande
+     @param cmd le mot de la commande, tel que reçu
+     @param arg l'argument
+     */
+    public void handleEvents(ClientSession session, Command command, String cmd, String arg) {
+        commandTable.get(command).handle(session, cmd, arg);
+    }
+
+    /**
+     Renvoyer au client la liste des cours de la session spécifiée en argument.
+     La liste provient du catalogue en mémoire et est envoyée sous sa forme déjà sérialisée par le cache de réponses;
+     aucune lecture de fichier ni sérialisation n'est faite ici tant que le catalogue ne change pas.
+     Un client qui a demandé la compression reçoit la version compressée, gardée elle aussi par le cache.
+     La méthode gère les exceptions si une erreur se produit lors de l'écriture de l'objet dans le flux.
+     @param session la connexion du client
      @param arg la session pour laquelle on veut récupérer la liste des cours
      */
-    public void handleLoadCourses(String arg) {
+    public void handleLoadCourses(ClientSession session, String arg) {
         try {
-            // Open file
-            File file = new File(COURSES_PATH);
-            Scanner scanner = new Scanner(file);
-
-            // Create list
-            System.out.println("Absolute path is: " + file.getAbsolutePath());
-            ArrayList<Course> courses = new ArrayList<>();
-
-            // Iterate through lines
-            String line;
-            while (scanner.hasNextLine()) {
-                line = scanner.nextLine();
-                String[] values = line.split("\t");
-                if (values.length != 3) {
-                    scanner.close();
-                    throw new InvalidLineFormatException(COURSE_ERROR_MSG);
-                }
-
-                // Get courses with selected semester
-                if (values[2].equals(arg)) {
-                    courses.add(new Course(values[1], values[0], values[2]));
-                }
+            ResponseCache cache = responseCaches.get(session.getFormat());
+            if (session.isCompressed()) {
+                ResponseCache.Compressed response = cache.getCompressed(arg);
+                session.writeCompressed(session.getRequestId(), response.getCompressor(), response.getBytes());
+                return;
             }
+            session.writeEncoded(cache.get(arg));
+        } catch (IOException e) {
+            Log.warn("Envoi de la liste des cours", e);
+        }
+    }
 
-            // Close scanner
-            scanner.close();
+    /**
+     Renvoyer une page de cours qui correspond à la recherche, voir {@link CourseQuery}.
+     La page est trouvée dans les index du catalogue: le client ne reçoit que les cours qu'il affiche,
+     au lieu de toute la session comme avec 'CHARGER'. Seul le protocole binaire sert cette commande;
+     une recherche illisible reçoit une page vide, pour que le client n'attende jamais sa réponse.
+     @param session la connexion du client
+     */
+    public void handleQuery(ClientSession session) {
+        CourseIndex.Page page;
+        try {
+            page = catalog.query(session.readQuery());
+        } catch (IOException e) {
+            Log.warn("Recherche invalide", e);
+            page = new CourseIndex.Page(Collections.emptyList(), "");
+        }
+        writePage(session, page);
+    }
 
-            // Return list of courses
-            this.objectOutputStream.writeObject(courses);
-            this.objectOutputStream.flush();
-        } catch (IOException | InvalidLineFormatException e) {
-            e.printStackTrace();
+    /**
+     Renvoyer le cours qui porte un code pendant une session, trouvé en temps constant; la page
+     est vide si le cours n'est pas offert ou si la demande est illisible. Seul le protocole binaire sert cette commande.
+     @param session la connexion du client
+     */
+    public void handleLookup(ClientSession session) {
+        List<Course> found = Collections.emptyList();
+        try {
+            Course wanted = session.readLookup();
+            Course course = catalog.getCourse(wanted.getSession(), wanted.getCode());
+            if (course != null) {
+                found = Collections.singletonList(course);
+            }
+        } catch (IOException e) {
+            Log.warn("Recherche invalide", e);
+        }
+        writePage(session, new CourseIndex.Page(found, ""));
+    }
+
+    private void writePage(ClientSession session, CourseIndex.Page page) {
+        if (session.getFormat() != WireFormat.BINARY) {
+            return;
+        }
+        try {
+            session.writeEncoded(BinaryCodec.encodePage(page));
+        } catch (IOException e) {
+            Log.warn("Envoi d'une page de cours", e);
         }
     }
 
     /**
-     Récupérer l'objet 'RegistrationForm' envoyé par le client en utilisant 'objectInputStream', l'enregistrer dans un fichier texte
-     et renvoyer un message de confirmation au client.
-     La méthode gére les exceptions si une erreur se produit lors de la lecture de l'objet, l'écriture dans un fichier ou dans le flux de sortie.
+     Récupérer le 'RegistrationForm' envoyé par le client, réserver sa place dans l'index des inscriptions
+     et l'ajouter au journal. Un doublon (même session, cours et matricule) ou un cours complet est refusé
+     en temps constant, sans relire le fichier.
+     Le journal confirme l'inscription de manière asynchrone, une fois que le lot qui la contient est écrit
+     sur le disque; le thread de la session, ou la boucle d'événements, n'attend jamais l'écriture.
+     Une inscription encore en file à l'échéance de {@link #setDurableTimeout} est retirée et refusée avec FAILED.
+     Lorsque trop d'inscriptions sont en cours, ou que l'étudiant en demande trop vite, l'inscription est refusée
+     avant toute vérification et le client en mode pipeline reçoit le délai après lequel la renvoyer.
+     Un client en mode pipeline reçoit alors la réponse {@link RegistrationStatus}, ou tout de suite en cas de refus.
+     La méthode gére les exceptions si une erreur se produit lors de la lecture de l'objet ou de l'écriture dans le journal.
+     @param session la connexion du client
      */
-    public void handleRegistration() {
+    public void handleRegistration(ClientSession session) {
         try {
             // Read RegistrationForm object from the socket
-            RegistrationForm registrationForm = (RegistrationForm) objectInputStream.readObject();
-            Course course = registrationForm.getCourse();
+            RegistrationForm registrationForm = session.readRegistrationForm();
+            RegistrationRecord record = RegistrationRecord.of(registrationForm);
+            // The reply is sent after this handler returns, once the session has moved on to other requests
+            int requestId = session.getRequestId();
+            if (readOnly) {
+                acknowledge(session, requestId, RegistrationStatus.READ_ONLY);
+                return;
+            }
+            if (!ownsSession(record.getSession())) {
+                registrationsMisrouted.increment();
+                Log.warn("Inscription pour un autre noeud: {}", record);
+                acknowledge(session, requestId, RegistrationStatus.WRONG_SHARD);
+                return;
+            }
 
-            // Write the registration information in the specified format
-            String registrationData = String.format("%s\t%s\t%s\t%s\t%s\t%s%n",
-                course.getSession(),
-                course.getCode(),
-                registrationForm.getMatricule(),
-                registrationForm.getPrenom(),
-                registrationForm.getNom(),
-                registrationForm.getEmail()
-            );
+            // Shed load before doing any work for it
+            AdmissionControl admission = this.admission;
+            long retryAfter = admission.tryAdmitRegistration(record.getMatricule());
+            if (retryAfter > 0) {
+                registrationsThrottled.increment();
+                Log.debug("Inscription à renvoyer plus tard: {}", record);
+                retryLater(session, requestId, retryAfter);
+                return;
+            }
+            long start = System.nanoTime();
 
-            // Write the registration data to the file
-            try (FileWriter fw = new FileWriter(INSCRIPTION_PATH, true);
-                BufferedWriter bw = new BufferedWriter(fw)) {
+            // Reject duplicates and full courses before touching the journal
+            RegistrationIndex.Result result = registrations.tryReserve(record);
+            registrationResults.get(result).increment();
+            if (result != RegistrationIndex.Result.ACCEPTED) {
+                admission.registrationDone(System.nanoTime() - start);
+                Log.info("Inscription refusée ({}): {}", result, record);
+                acknowledge(session, requestId, RegistrationStatus.of(result));
+                return;
+            }
 
-                bw.write(registrationData);
+            // The journal completes the future once the registration is durable
+            journal.append(record, durableTimeoutNanos, TimeUnit.NANOSECONDS).whenCompleteAsync((position, error) -> {
+                admission.registrationDone(System.nanoTime() - start);
+                if (error != null) {
+                    registrations.release(record);
+                    if (error instanceof TimeoutException) {
+                        registrationsTimedOut.increment();
+                        Log.warn("Inscription abandonnée, journal en retard: {}", record);
+                    } else {
+                        registrationFailures.increment();
+                        Log.error("Écriture de l'inscription " + record, error);
+                    }
+                    acknowledge(session, requestId, RegistrationStatus.FAILED);
+                } else {
+                    durableLatency.record(System.nanoTime() - start);
+                    acknowledge(session, requestId, RegistrationStatus.ACCEPTED);
+                }
+                // Also after a failure: the reservation may already have been published
+                subscriptions.enrollmentChanged(record.getSession(), record.getCourseCode());
+            }, replyExecutor);
+        } catch (IOException e) {
+            Log.warn("Lecture du formulaire d'inscription", e);
+        }
+    }
+
+    /**
+     Importer un lot de formulaires envoyé avec 'IMPORTER'. Chaque formulaire est vérifié dans le catalogue
+     (le cours doit être offert pendant sa session) puis dans l'index des inscriptions, en mémoire; ceux qui sont
+     acceptés sont ajoutés au journal d'un seul coup et deviennent durables ensemble.
+     Le client reçoit ensuite un {@link RegistrationStatus} par formulaire, dans l'ordre de la requête.
+     Un import plus gros que {@link server.protocol.BinaryCodec#MAX_REQUEST_FRAME} arrive en plusieurs trames,
+     que les sessions de plusieurs connexions vérifient en parallèle.
+     @param session la connexion du client
+     */
+    public void handleImport(ClientSession session) {
+        List<RegistrationForm> forms;
+        try {
+            forms = session.readImportBatch();
+        } catch (IOException e) {
+            Log.warn("Lecture du lot à importer", e);
+            return;
+        }
+        int requestId = session.getRequestId();
+        RegistrationStatus[] statuses = new RegistrationStatus[forms.size()];
+        if (readOnly) {
+            Arrays.fill(statuses, RegistrationStatus.READ_ONLY);
+            reply(session, requestId, BinaryCodec.encodeImported(statuses));
+            return;
+        }
+        List<RegistrationRecord> accepted = new ArrayList<>(forms.size());
+        CourseCatalog.Snapshot courses = catalog.snapshot();
+        for (int i = 0; i < statuses.length; i++) {
+            RegistrationRecord record = RegistrationRecord.of(forms.get(i));
+            if (!ownsSession(record.getSession())) {
+                registrationsMisrouted.increment();
+                statuses[i] = RegistrationStatus.WRONG_SHARD;
+                continue;
+            }
+            if (courses.getCourse(record.getSession(), record.getCourseCode()) == null) {
+                statuses[i] = RegistrationStatus.UNKNOWN_COURSE;
+                continue;
             }
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+            RegistrationIndex.Result result = registrations.tryReserve(record);
+            registrationResults.get(result).increment();
+            statuses[i] = RegistrationStatus.of(result);
+            if (result == RegistrationIndex.Result.ACCEPTED) {
+                accepted.add(record);
+            }
+        }
+        importedRecords.add(statuses.length);
+        if (accepted.isEmpty()) {
+            reply(session, requestId, BinaryCodec.encodeImported(statuses));
+            return;
         }
+
+        long start = System.nanoTime();
+        journal.appendAll(accepted, durableTimeoutNanos, TimeUnit.NANOSECONDS).whenCompleteAsync((position, error) -> {
+            if (error != null) {
+                for (RegistrationRecord record : accepted) {
+                    registrations.release(record);
+                }
+                if (error instanceof TimeoutException) {
+                    registrationsTimedOut.add(accepted.size());
+                    Log.warn("Import de {} inscriptions abandonné, journal en retard", accepted.size());
+                } else {
+                    registrationFailures.add(accepted.size());
+                    Log.error("Écriture d'un lot importé de " + accepted.size() + " inscriptions", error);
+                }
+                for (int i = 0; i < statuses.length; i++) {
+                    if (statuses[i] == RegistrationStatus.ACCEPTED) {
+                        statuses[i] = RegistrationStatus.FAILED;
+                    }
+                }
+            } else {
+                importDurableLatency.record(System.nanoTime() - start);
+            }
+            for (RegistrationRecord record : accepted) {
+                subscriptions.enrollmentChanged(record.getSession(), record.getCourseCode());
+            }
+            reply(session, requestId, BinaryCodec.encodeImported(statuses));
+        }, replyExecutor);
+    }
+
+    /**
+     Abonner le client aux changements d'une session du catalogue, voir {@link SubscriptionHub}.
+     Il reçoit tout de suite l'état de la session, puis à chaque intervalle les cours ajoutés, retirés ou renommés
+     et le nombre d'inscrits des cours qui en ont gagné ou perdu. Tous ces messages portent l'identifiant de la commande.
+     Réservé aux clients en mode pipeline: les autres n'attendent pas de message qu'ils n'ont pas demandé.
+     @param session la connexion du client
+     @param arg la session du catalogue
+     */
+    public void handleSubscribe(ClientSession session, String arg) {
+        if (!session.isPipelined()) {
+            Log.warn("Abonnement refusé, client sans pipeline: {}", arg);
+            return;
+        }
+        subscriptions.subscribe(session, session.getRequestId(), arg);
+    }
+
+    /**
+     Répondre à une requête d'analyse des inscriptions, voir {@link EnrollmentAnalytics}. La requête s'exécute
+     sur les threads du moteur: la session passe tout de suite à la commande suivante et la réponse part
+     lorsqu'elle est prête. Seul le protocole binaire sert cette commande.
+     @param session la connexion du client
+     @param arg la requête, par exemple "top Hiver 10"
+     */
+    public void handleAnalyze(ClientSession session, String arg) {
+        if (session.getFormat() != WireFormat.BINARY) {
+            Log.warn("Analyse invalide: {}", arg);
+            return;
+        }
+        int requestId = session.getRequestId();
+        EnrollmentAnalytics analytics = this.analytics;
+        if (analytics == null) {
+            replyAnalysisError(session, requestId, "Analyse désactivée sur ce serveur");
+            return;
+        }
+        long start = System.nanoTime();
+        analytics.query(arg).whenComplete((result, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                Log.info("Analyse refusée ({}): {}", cause.getMessage(), arg);
+                replyAnalysisError(session, requestId, String.valueOf(cause.getMessage()));
+                return;
+            }
+            analysisLatency.record(System.nanoTime() - start);
+            try {
+                reply(session, requestId, BinaryCodec.encodeAnalysis(result));
+            } catch (IOException e) {
+                Log.warn("Encodage d'une analyse", e);
+            }
+        });
     }
-}
 
+    private static void replyAnalysisError(ClientSession session, int requestId, String error) {
+        try {
+            reply(session, requestId, BinaryCodec.encodeAnalysisError(error));
+        } catch (IOException e) {
+            Log.warn("Encodage d'une analyse", e);
+        }
+    }
+
+    public SubscriptionHub getSubscriptions() {
+        return subscriptions;
+    }
+
+    private static void reply(ClientSession session, int requestId, byte[] bytes) {
+        if (!session.isOpen()) {
+            return;
+        }
+        try {
+            session.writeEncoded(requestId, bytes);
+        } catch (IOException e) {
+            Log.debug("Réponse non envoyée: {}", e.getMessage());
+        }
+    }
+
+    private static void retryLater(ClientSession session, int requestId, long retryAfterNanos) {
+        try {
+            // Rounded up, so that a client retrying on time finds a token
+            long millis = (retryAfterNanos + 999_999) / 1_000_000;
+            session.writeRetryAfter(requestId, (int) Math.min(Integer.MAX_VALUE, millis));
+        } catch (IOException e) {
+            Log.debug("Refus non envoyé: {}", e.getMessage());
+        }
+    }
+
+    private static void acknowledge(ClientSession session, int requestId, RegistrationStatus status) {
+        if (!session.isOpen()) {
+            return;
+        }
+        try {
+            session.writeRegistered(requestId, status);
+        } catch (IOException e) {
+            Log.debug("Réponse d'inscription non envoyée: {}", e.getMessage());
+        }
+    }
+}
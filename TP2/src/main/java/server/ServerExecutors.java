@@ -0,0 +1,96 @@
+package server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fabriques d'exécuteurs pour les sessions du serveur.
+ * Le serveur accepte n'importe quel {@link ExecutorService}; ces méthodes couvrent les deux cas usuels:
+ * un thread virtuel par connexion (Java 21+) ou un pool borné de threads plateforme.
+ */
+public final class ServerExecutors {
+
+    private static final class Deadlines {
+        private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, daemonThreads("deadline"));
+
+        static {
+            // Nearly every deadline is cancelled before it fires; keep the queue from filling with dead timers
+            TIMER.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    private ServerExecutors() {
+    }
+
+    /**
+     * Un thread virtuel par tâche lorsque la JVM le supporte, sinon un pool de threads plateforme sans borne.
+     * La méthode est appelée par réflexion pour que le projet compile toujours en Java 11.
+     * @return l'exécuteur
+     */
+    public static ExecutorService virtualThreads() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(daemonThreads("session"));
+        }
+    }
+
+    /**
+     * Indique si les threads virtuels sont disponibles sur cette JVM.
+     * @return vrai si Java 21+
+     */
+    public static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Un pool borné de threads plateforme. Les connexions en surplus attendent dans une file bornée;
+     * au-delà, {@link ExecutorService#execute} lance une RejectedExecutionException et la connexion est refusée.
+     * @param threads le nombre de threads, donc de sessions servies simultanément
+     * @param queueCapacity le nombre de connexions acceptées en attente d'un thread
+     * @return l'exécuteur
+     */
+    public static ExecutorService bounded(int threads, int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), daemonThreads("session"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * La minuterie partagée des échéances: une requête arme une échéance avant une opération bloquante
+     * et l'annule ensuite. Les tâches doivent être courtes, par exemple fermer un socket ou échouer un futur,
+     * puisqu'un seul thread les exécute toutes.
+     * @return la minuterie, créée au premier appel
+     */
+    public static ScheduledExecutorService deadlines() {
+        return Deadlines.TIMER;
+    }
+
+    /**
+     * Une fabrique de threads démons nommés, pour que les threads de travail n'empêchent pas la JVM de s'arrêter.
+     * @param prefix le préfixe du nom des threads
+     * @return la fabrique
+     */
+    public static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
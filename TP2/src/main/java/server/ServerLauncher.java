@@ -1,19 +1,211 @@
 package server;
 
+import server.admission.AdmissionControl;
+import server.analytics.EnrollmentAnalytics;
+import server.catalog.CourseCatalog;
+import server.cluster.ShardMap;
+import server.log.Log;
+import server.metrics.MetricsEndpoint;
+import server.metrics.MetricsMBean;
+import server.protocol.PayloadCompressor;
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+import server.replication.ReplicaFollower;
+import server.replication.ReplicationSource;
+import server.snapshot.StateSnapshot;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+
+/**
+ * Lance le serveur sur le port 1337.
+ *
+ * Options (propriétés système):
+ * -Dserver.port=N          port d'écoute (défaut 1337, ou celui du noeud dans -Dcluster.nodes)
+ * -Dcluster.nodes=LISTE    noeuds d'une grappe, "hôte:port" séparés par des virgules, dans le même ordre partout;
+ *                          chaque noeud n'écrit que les inscriptions de ses sessions, voir {@link ShardMap}
+ * -Dcluster.node=N         position de ce noeud dans -Dcluster.nodes, à partir de 0
+ * -Dreplication.port=N     envoie le journal aux répliques qui se connectent sur ce port, voir {@link ReplicationSource}
+ *                          (défaut: désactivé); une réplique peut aussi en servir d'autres
+ * -Dreplication.address=IP adresse d'écoute de -Dreplication.port (défaut: l'interface locale); le port livre tout
+ *                          le journal sans authentification, à n'exposer que sur un réseau de confiance
+ * -Dreplication.primary=HÔTE:PORT démarre en réplique en lecture seule de ce primaire; la promotion se fait
+ *                          par l'opération JMX promote de "server:type=Replica", voir {@link ReplicaFollower}
+ * -Dserver.backlog=N       nombre de connexions en attente d'acceptation (défaut 128)
+ * -Dserver.mode=MODE       "socket" pour un thread par client (défaut), "selector" pour des boucles d'événements NIO
+ *                          (protocole binaire seulement)
+ * -Dserver.loops=N         nombre de boucles d'événements en mode "selector" (défaut: nombre de coeurs)
+ * -Dserver.executor=MODE   "virtual" pour un thread virtuel par client (défaut), "pool" pour un pool borné
+ * -Dserver.threads=N       taille du pool en mode "pool" (défaut: 4 x nombre de coeurs)
+ * -Dserver.queue=N         connexions en attente d'un thread en mode "pool" (défaut 1024)
+ * -Dserver.idle=N          secondes sans commande avant de déconnecter un client en mode "socket" (défaut 0: jamais)
+ * -Dserver.write.timeout=N secondes pour envoyer une réponse avant de déconnecter un client qui ne lit plus (défaut 10)
+ * -Dserver.compression.threshold=N octets à partir desquels une réponse est compressée pour les clients qui
+ *                          le demandent (défaut 1024)
+ * -Dlimit.connection.rate=N commandes par seconde permises à une connexion, au-delà elle n'est plus lue (défaut 0: illimité)
+ * -Dlimit.connection.burst=N commandes qu'une connexion peut envoyer d'un coup (défaut: le débit, au moins 1)
+ * -Dlimit.matricule.rate=N inscriptions par seconde permises à un matricule (défaut 0: illimité)
+ * -Dlimit.matricule.burst=N inscriptions qu'un matricule peut demander d'un coup (défaut: le débit, au moins 1)
+ * -Dlimit.registrations=N  inscriptions en cours d'écriture au plus; au-delà, refus immédiat avec un délai (défaut 0: illimité)
+ * -Djournal.batch=N        nombre maximal d'inscriptions écrites et synchronisées ensemble (défaut 256)
+ * -Djournal.latency=N      microsecondes d'attente maximale pour compléter un lot (défaut 2000)
+ * -Djournal.timeout=N      millisecondes avant qu'une inscription encore en file soit abandonnée et refusée (défaut 10000)
+ * -Danalytics.threads=N    threads des requêtes 'ANALYSER', qui gardent les inscriptions en colonnes en mémoire
+ *                          (défaut 0: commande désactivée)
+ * -Dregistration.capacity=N nombre de places par cours (défaut: illimité)
+ * -Dcatalog.check=N        secondes entre deux vérifications de cours.txt pour le rechargement (défaut 2)
+ * -Dmetrics.port=N         sert les métriques en texte sur http://127.0.0.1:N/metrics (défaut: désactivé)
+ * -Dmetrics.jmx=false      ne pas publier les métriques par JMX sous "server:type=Metrics" (défaut: publiées)
+ * -Dlog.level=NIVEAU       DEBUG, INFO, WARN, ERROR ou OFF (défaut INFO); les connexions sont journalisées en DEBUG
+ * -Ddata.courses=CHEMIN    fichier des cours (défaut: {@link Server#COURSES_PATH})
+ * -Ddata.registrations=CHEMIN fichier des inscriptions (défaut: {@link Server#INSCRIPTION_PATH})
+ * -Ddata.snapshot=CHEMIN   sauvegarde de l'état écrite à l'arrêt et relue au démarrage, voir {@link StateSnapshot}
+ *                          (défaut: le fichier des inscriptions suivi de ".snapshot"; vide pour désactiver)
+ */
 public class ServerLauncher {
     public final static int PORT = 1337;
 
     public static void main(String[] args) {
         Server server;
         try {
-            server = new Server(PORT);
-            System.out.println("Server is running...");
+            int backlog = Integer.getInteger("server.backlog", Server.DEFAULT_BACKLOG);
+            int capacity = Integer.getInteger("registration.capacity", RegistrationIndex.UNLIMITED);
+            Path coursesPath = Paths.get(System.getProperty("data.courses", Server.COURSES_PATH));
+            Path registrationsPath = Paths.get(System.getProperty("data.registrations", Server.INSCRIPTION_PATH));
+            String snapshotProperty = System.getProperty("data.snapshot", registrationsPath + ".snapshot");
+            Path snapshotPath = snapshotProperty.isEmpty() ? null : Paths.get(snapshotProperty);
+
+            long start = System.nanoTime();
+            StateSnapshot saved = snapshotPath == null ? null : StateSnapshot.read(snapshotPath, capacity);
+            CourseCatalog catalog = new CourseCatalog(coursesPath, saved == null ? null : saved.getCatalog());
+            catalog.startWatching(Long.getLong("catalog.check", 2), TimeUnit.SECONDS);
+            RegistrationIndex registrations = saved == null ? null : saved.restoreRegistrations(registrationsPath);
+            if (registrations == null) {
+                registrations = RegistrationIndex.load(registrationsPath, capacity);
+            }
+            Log.info("{} inscriptions chargées en {} ms", registrations.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            RegistrationJournal journal = new RegistrationJournal(registrationsPath,
+                    Integer.getInteger("journal.batch", RegistrationJournal.DEFAULT_BATCH_SIZE),
+                    Long.getLong("journal.latency", RegistrationJournal.DEFAULT_MAX_LATENCY_MICROS), TimeUnit.MICROSECONDS);
+            String clusterNodes = System.getProperty("cluster.nodes");
+            ShardMap shards = clusterNodes == null ? null : ShardMap.parse(clusterNodes);
+            int shard = Integer.getInteger("cluster.node", 0);
+            int port = Integer.getInteger("server.port", shards == null ? PORT : shards.getNode(shard).getPort());
+            server = new Server(port, backlog, createExecutor(), catalog, journal, registrations);
+            if (shards != null) {
+                server.setShard(shards, shard);
+                Log.info("Noeud {} de la grappe {}", shard, shards);
+            }
+            server.setAdmissionControl(createAdmissionControl());
+            server.setIdleTimeout(Long.getLong("server.idle", 0), TimeUnit.SECONDS);
+            server.setWriteTimeout(Long.getLong("server.write.timeout", Server.DEFAULT_WRITE_TIMEOUT_SECONDS), TimeUnit.SECONDS);
+            server.setDurableTimeout(Long.getLong("journal.timeout", TimeUnit.SECONDS.toMillis(Server.DEFAULT_DURABLE_TIMEOUT_SECONDS)),
+                    TimeUnit.MILLISECONDS);
+            server.setCompressionThreshold(Integer.getInteger("server.compression.threshold", PayloadCompressor.DEFAULT_THRESHOLD));
+            int analyticsThreads = Integer.getInteger("analytics.threads", 0);
+            if (analyticsThreads > 0) {
+                server.setAnalytics(new EnrollmentAnalytics(journal, registrations::getCapacity, analyticsThreads));
+            }
+            startReplication(server);
+            if (snapshotPath != null) {
+                saveOnShutdown(server, snapshotPath);
+            }
+            publishMetrics(server);
+            Log.info("Server is running...");
             String currentDir = System.getProperty("user.dir");
-            System.out.println("Current directory: " + currentDir);
+            Log.info("Current directory: {}", currentDir);
 
-            server.run();
+            if (System.getProperty("server.mode", "socket").equals("selector")) {
+                server.runSelector(Integer.getInteger("server.loops", Runtime.getRuntime().availableProcessors()));
+            } else {
+                server.run();
+            }
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.error("Le serveur s'est arrêté", e);
+        }
+    }
+
+    /**
+     * Fermer le serveur à l'arrêt de la JVM, puis sauvegarder son état: le journal est alors fermé
+     * et l'index ne contient que des inscriptions écrites.
+     */
+    private static void saveOnShutdown(Server server, Path snapshotPath) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                StateSnapshot.write(snapshotPath, server.getCatalog(), server.getRegistrations(), server.getJournal());
+                Log.info("État sauvegardé: {}", snapshotPath.toAbsolutePath());
+            } catch (IOException e) {
+                Log.error("Sauvegarde de l'état", e);
+            } finally {
+                Log.drain();
+            }
+        }, "state-snapshot"));
+    }
+
+    private static void startReplication(Server server) throws IOException, JMException {
+        int port = Integer.getInteger("replication.port", -1);
+        if (port >= 0) {
+            String address = System.getProperty("replication.address");
+            ReplicationSource source = new ReplicationSource(server.getJournal(),
+                    address == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(address), port);
+            server.getMetrics().gauge("replication.replicas", source::getReplicaCount);
+            Log.info("Réplication: port {}", source.getPort());
+        }
+        String primary = System.getProperty("replication.primary");
+        if (primary != null) {
+            int colon = primary.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Primaire invalide, attendu \"hôte:port\": " + primary);
+            }
+            server.setReadOnly(true);
+            ReplicaFollower follower = new ReplicaFollower(
+                    InetSocketAddress.createUnresolved(primary.substring(0, colon), Integer.parseInt(primary.substring(colon + 1))),
+                    server.getJournal(), server::applyReplicated, () -> server.setReadOnly(false));
+            server.getMetrics().gauge("replication.lag_bytes", follower::getLagBytes);
+            server.getMetrics().gauge("replication.lag_millis", follower::getLagMillis);
+            if (Boolean.parseBoolean(System.getProperty("metrics.jmx", "true"))) {
+                follower.registerMBean();
+            }
+            Log.info("Réplique de {}", primary);
+        }
+    }
+
+    private static void publishMetrics(Server server) throws IOException, JMException {
+        if (Boolean.parseBoolean(System.getProperty("metrics.jmx", "true"))) {
+            MetricsMBean.register(server.getMetrics(), MetricsMBean.DEFAULT_NAME);
+        }
+        int port = Integer.getInteger("metrics.port", -1);
+        if (port >= 0) {
+            MetricsEndpoint endpoint = new MetricsEndpoint(server.getMetrics(), port);
+            Log.info("Métriques: http://127.0.0.1:{}/metrics", endpoint.getPort());
+        }
+    }
+
+    private static AdmissionControl createAdmissionControl() {
+        double connectionRate = Double.parseDouble(System.getProperty("limit.connection.rate", "0"));
+        double matriculeRate = Double.parseDouble(System.getProperty("limit.matricule.rate", "0"));
+        return new AdmissionControl(
+                connectionRate, Integer.getInteger("limit.connection.burst", (int) Math.ceil(connectionRate)),
+                matriculeRate, Integer.getInteger("limit.matricule.burst", (int) Math.ceil(matriculeRate)),
+                Integer.getInteger("limit.registrations", AdmissionControl.UNLIMITED));
+    }
+
+    private static ExecutorService createExecutor() {
+        String mode = System.getProperty("server.executor", "virtual");
+        if (mode.equals("pool")) {
+            int threads = Integer.getInteger("server.threads", 4 * Runtime.getRuntime().availableProcessors());
+            int queue = Integer.getInteger("server.queue", 1024);
+            return ServerExecutors.bounded(threads, queue);
         }
+        return ServerExecutors.virtualThreads();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,244 @@
+package server;
+
+import server.admission.TokenBucket;
+import server.catalog.CourseQuery;
+import server.log.Log;
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.protocol.PayloadCompressor;
+import server.protocol.RegistrationStatus;
+import server.protocol.Transport;
+import server.protocol.WireFormat;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Une connexion client bloquante, servie par son propre thread.
+ * Chaque session possède son propre socket et son propre transport, ce qui permet au serveur
+ * de traiter plusieurs clients en parallèle sans partager d'état entre eux.
+ *
+ * Les opérations bloquantes ont une échéance: une lecture qui attend plus que le délai d'inactivité du serveur,
+ * ou une écriture qui attend plus que son délai d'écriture, ferme la connexion et libère le thread.
+ * Un client qui dépasse le débit de commandes permis attend son tour avant que la commande suivante soit lue.
+ */
+public class SocketClientSession implements ClientSession, Runnable {
+
+    private final Server server;
+    private final Socket client;
+    private final CommandLine commandLine = new CommandLine();
+    private final TokenBucket rateLimit;
+    private Transport transport;
+    private volatile boolean open = true;
+    // When the write in progress started, 0 when none; checked by the server's write sweep
+    private volatile long writeStarted;
+
+    /**
+     * Une écriture sur le transport.
+     */
+    @FunctionalInterface
+    private interface Write {
+        void run() throws IOException;
+    }
+
+    /**
+     * Constructeur pour une session.
+     * @param server le serveur qui a accepté la connexion
+     * @param client le socket du client
+     */
+    public SocketClientSession(Server server, Socket client) {
+        this.server = server;
+        this.client = client;
+        this.rateLimit = server.getAdmissionControl().newConnectionBucket();
+    }
+
+    /**
+     * Négocier le format avec le client, écouter les commandes jusqu'à ce que le client quitte, puis fermer la connexion.
+     */
+    @Override
+    public void run() {
+        server.sessionOpened(this);
+        try {
+            Log.debug("Connecté au client: {}", client);
+            client.setTcpNoDelay(true);
+            client.setSoTimeout((int) Math.min(Integer.MAX_VALUE, server.getIdleTimeoutMillis()));
+            transport = Transport.negotiate(client.getInputStream(), client.getOutputStream());
+            listen();
+        } catch (SocketTimeoutException e) {
+            Log.debug("Client inactif, déconnecté: {}", client);
+            server.sessionTimedOut(this);
+        } catch (EOFException | SocketException | ClosedChannelException | InterruptedIOException e) {
+            // Client went away without sending QUITTER, or the server is closing
+        } catch (IOException e) {
+            Log.warn("Session interrompue", e);
+        } finally {
+            disconnect();
+            server.sessionClosed(this);
+            Log.debug("Client déconnecté!");
+        }
+    }
+
+    /**
+     * Lire les commandes du client et les transmettre aux handlers du serveur.
+     * La boucle se termine lorsque le client envoie la commande 'QUITTER' ou que la session est fermée.
+     */
+    public void listen() throws IOException {
+        while (open) {
+            transport.readCommand(commandLine);
+            if (rateLimit != null) {
+                throttle();
+            }
+            server.alertHandlers(this, commandLine);
+            if (commandLine.getCommand() == Command.QUITTER) {
+                open = false;
+            }
+        }
+    }
+
+    /**
+     * Attendre un jeton avant de traiter la commande. Pendant ce temps le client n'est pas lu:
+     * ses commandes suivantes restent dans le socket et le remplissent, ce qui finit par le ralentir.
+     */
+    private void throttle() throws IOException {
+        long wait = rateLimit.tryAcquire();
+        if (wait == 0) {
+            return;
+        }
+        server.commandThrottled();
+        try {
+            do {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } while ((wait = rateLimit.tryAcquire()) > 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Session interrompue");
+        }
+    }
+
+    @Override
+    public RegistrationForm readRegistrationForm() throws IOException {
+        return transport.readRegistrationForm();
+    }
+
+    @Override
+    public List<RegistrationForm> readImportBatch() throws IOException {
+        return transport.readImportBatch();
+    }
+
+    @Override
+    public CourseQuery readQuery() throws IOException {
+        return transport.readQuery();
+    }
+
+    @Override
+    public Course readLookup() throws IOException {
+        return transport.readLookup();
+    }
+
+    @Override
+    public void writeEncoded(byte[] bytes) throws IOException {
+        write(() -> transport.writeEncoded(bytes));
+    }
+
+    @Override
+    public void writeEncoded(int requestId, byte[] bytes) throws IOException {
+        write(() -> transport.writeEncoded(requestId, bytes));
+    }
+
+    @Override
+    public void writeCompressed(int requestId, PayloadCompressor compressor, byte[] bytes) throws IOException {
+        write(() -> transport.writeCompressed(requestId, compressor, bytes));
+    }
+
+    @Override
+    public int getRequestId() {
+        return transport.getRequestId();
+    }
+
+    /**
+     * Appelée hors du thread de la session, une fois l'inscription écrite. La réponse fait quelques octets:
+     * elle ne bloque que si le client a cessé de lire depuis longtemps et que le tampon d'envoi du socket est plein.
+     */
+    @Override
+    public void writeRegistered(int requestId, RegistrationStatus status) throws IOException {
+        write(() -> transport.writeRegistered(requestId, status));
+    }
+
+    @Override
+    public void writeRetryAfter(int requestId, int retryAfterMillis) throws IOException {
+        write(() -> transport.writeRetryAfter(requestId, retryAfterMillis));
+    }
+
+    /**
+     * Écrire sur le transport en notant l'heure de début, pour que le serveur repère une écriture bloquée
+     * parce que le client ne lit plus, voir {@link #disconnectIfStalled}.
+     */
+    private void write(Write write) throws IOException {
+        synchronized (transport) {
+            writeStarted = System.nanoTime();
+            try {
+                write.run();
+            } finally {
+                writeStarted = 0;
+            }
+        }
+    }
+
+    /**
+     * Fermer le socket si une écriture dure depuis plus que le délai, ce qui la débloque avec une exception
+     * au lieu de garder le thread indéfiniment.
+     * @param now l'heure actuelle, de System.nanoTime()
+     * @param timeoutNanos le délai d'écriture
+     * @return vrai si la session a été fermée
+     */
+    boolean disconnectIfStalled(long now, long timeoutNanos) {
+        long started = writeStarted;
+        if (started == 0 || now - started < timeoutNanos || !open) {
+            return false;
+        }
+        Log.warn("Client qui ne lit plus ses réponses, déconnecté: {}", client);
+        disconnect();
+        return true;
+    }
+
+    @Override
+    public WireFormat getFormat() {
+        return transport.getFormat();
+    }
+
+    @Override
+    public boolean isPipelined() {
+        return transport.isPipelined();
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return transport.isCompressed();
+    }
+
+    @Override
+    public void disconnect() {
+        open = false;
+        try {
+            client.close();
+        } catch (IOException e) {
+            Log.warn("Fermeture du socket", e);
+        }
+    }
+
+    public Socket getSocket() {
+        return client;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+}
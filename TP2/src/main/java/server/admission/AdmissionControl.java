@@ -0,0 +1,135 @@
+package server.admission;
+
+import server.ServerExecutors;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contrôle d'admission du serveur, pour qu'un client trop rapide ou une vague d'inscriptions ne ralentisse pas
+ * les autres étudiants:
+ * - un seau à jetons par connexion borne le débit de commandes; la session attend son jeton avant de lire
+ *   la commande suivante, ce qui ralentit le client par le socket lui-même;
+ * - un seau à jetons par matricule borne le débit d'inscriptions d'un même étudiant, quelle que soit la connexion;
+ * - un nombre maximal d'inscriptions en cours (de la réservation à l'écriture sur le disque) borne la file du journal.
+ * Une inscription refusée par les deux dernières limites l'est tout de suite, avec un délai après lequel réessayer.
+ * Chaque limite est désactivée par une valeur de 0.
+ */
+public class AdmissionControl implements Closeable {
+
+    public static final int UNLIMITED = 0;
+
+    private static final long MIN_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SWEEP_SECONDS = 30;
+
+    private final double connectionRate;
+    private final int connectionBurst;
+    private final double matriculeRate;
+    private final int matriculeBurst;
+    private final int maxRegistrations;
+    private final Semaphore registrations;
+    private final Map<String, TokenBucket> matricules = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> sweep;
+    // Smoothed time a registration keeps its permit, suggested as the retry delay when all permits are taken.
+    // Updates may race and lose a sample, which only makes the estimate a little less smooth.
+    private volatile long holdNanos = MIN_RETRY_NANOS;
+
+    /**
+     * @return un contrôle qui admet tout
+     */
+    public static AdmissionControl unlimited() {
+        return new AdmissionControl(UNLIMITED, 1, UNLIMITED, 1, UNLIMITED);
+    }
+
+    /**
+     * @param connectionRate les commandes par seconde permises à une connexion, {@link #UNLIMITED} pour aucune limite
+     * @param connectionBurst les commandes qu'une connexion peut envoyer d'un coup
+     * @param matriculeRate les inscriptions par seconde permises à un matricule, {@link #UNLIMITED} pour aucune limite
+     * @param matriculeBurst les inscriptions qu'un matricule peut demander d'un coup
+     * @param maxRegistrations le nombre maximal d'inscriptions en cours, {@link #UNLIMITED} pour aucune limite
+     */
+    public AdmissionControl(double connectionRate, int connectionBurst, double matriculeRate, int matriculeBurst,
+                            int maxRegistrations) {
+        this.connectionRate = connectionRate;
+        this.connectionBurst = Math.max(1, connectionBurst);
+        this.matriculeRate = matriculeRate;
+        this.matriculeBurst = Math.max(1, matriculeBurst);
+        this.maxRegistrations = maxRegistrations;
+        this.registrations = maxRegistrations > 0 ? new Semaphore(maxRegistrations) : null;
+        // Buckets that refilled completely carry no state worth keeping
+        this.sweep = matriculeRate > 0
+                ? ServerExecutors.deadlines().scheduleWithFixedDelay(this::forgetIdleMatricules, SWEEP_SECONDS, SWEEP_SECONDS, TimeUnit.SECONDS)
+                : null;
+    }
+
+    /**
+     * @return le seau d'une nouvelle connexion, ou null si le débit des connexions n'est pas limité
+     */
+    public TokenBucket newConnectionBucket() {
+        return connectionRate > 0 ? new TokenBucket(connectionRate, connectionBurst) : null;
+    }
+
+    /**
+     * Admettre une inscription. Une inscription admise garde sa place jusqu'à {@link #registrationDone}.
+     * @param matricule le matricule de l'étudiant
+     * @return 0 si l'inscription est admise, sinon le nombre de nanosecondes à attendre avant de réessayer
+     */
+    public long tryAdmitRegistration(String matricule) {
+        if (registrations != null && !registrations.tryAcquire()) {
+            return Math.max(MIN_RETRY_NANOS, holdNanos);
+        }
+        if (matriculeRate > 0) {
+            long wait = matricules.computeIfAbsent(String.valueOf(matricule), k -> new TokenBucket(matriculeRate, matriculeBurst))
+                    .tryAcquire();
+            if (wait > 0) {
+                if (registrations != null) {
+                    registrations.release();
+                }
+                return wait;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Rendre la place d'une inscription admise, qu'elle ait été écrite, refusée ou perdue.
+     * @param heldNanos le temps écoulé depuis l'admission
+     */
+    public void registrationDone(long heldNanos) {
+        if (registrations != null) {
+            registrations.release();
+            long estimate = holdNanos;
+            holdNanos = estimate + (heldNanos - estimate) / 8;
+        }
+    }
+
+    /**
+     * @return le nombre d'inscriptions admises qui ne sont pas encore terminées
+     */
+    public int getRegistrationsInFlight() {
+        return registrations == null ? 0 : maxRegistrations - registrations.availablePermits();
+    }
+
+    /**
+     * @return le nombre de matricules dont le débit est suivi
+     */
+    public int getTrackedMatricules() {
+        return matricules.size();
+    }
+
+    private void forgetIdleMatricules() {
+        long now = System.nanoTime();
+        matricules.values().removeIf(bucket -> bucket.isFull(now));
+    }
+
+    @Override
+    public void close() {
+        if (sweep != null) {
+            sweep.cancel(false);
+        }
+    }
+}
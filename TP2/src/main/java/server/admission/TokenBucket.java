@@ -0,0 +1,61 @@
+package server.admission;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seau à jetons: un débit moyen avec une rafale permise. Le seau se remplit de rate jetons par seconde
+ * jusqu'à burst jetons; chaque requête en prend un. Le remplissage est calculé à la demande, sans minuterie.
+ */
+public final class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * @param ratePerSecond le nombre de jetons ajoutés par seconde
+     * @param burst le nombre maximal de jetons, donc de requêtes acceptées d'un coup après un moment de calme
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Le débit et la rafale doivent être positifs");
+        }
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = burst;
+        this.tokens = burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Prendre un jeton s'il y en a un.
+     * @return 0 si le jeton est pris, sinon le nombre de nanosecondes avant qu'un jeton soit disponible
+     */
+    public long tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    synchronized long tryAcquire(long now) {
+        refill(now);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano));
+    }
+
+    /**
+     * @return vrai si le seau est plein: son propriétaire n'a rien demandé depuis un moment
+     */
+    synchronized boolean isFull(long now) {
+        refill(now);
+        return tokens >= capacity;
+    }
+
+    private void refill(long now) {
+        if (now > refilledAt) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package server.analytics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * La réponse à une requête d'analyse: des clés, par exemple "Hiver\tIFT1025", chacune avec un nombre,
+ * dans l'ordre voulu par la requête.
+ */
+public final class AnalyticsResult {
+
+    private final long rows;
+    private final List<String> keys;
+    private final long[] values;
+
+    /**
+     * @param rows le nombre d'inscriptions parcourues
+     * @param keys les clés
+     * @param values le nombre de chaque clé, dans le même ordre
+     */
+    public AnalyticsResult(long rows, List<String> keys, long[] values) {
+        if (keys.size() != values.length) {
+            throw new IllegalArgumentException("Autant de clés que de valeurs");
+        }
+        this.rows = rows;
+        this.keys = Collections.unmodifiableList(keys);
+        this.values = values;
+    }
+
+    /**
+     * @return le nombre d'inscriptions parcourues, pour savoir si l'analyse a rattrapé le journal
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    public long getValue(int index) {
+        return values[index];
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return les clés et leurs nombres, dans l'ordre de la réponse
+     */
+    public Map<String, Long> asMap() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            map.put(keys.get(i), values[i]);
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return "AnalyticsResult{rows=" + rows + ", " + asMap() + '}';
+    }
+}
@@ -0,0 +1,252 @@
+package server.analytics;
+
+import server.ServerExecutors;
+import server.exceptions.InvalidLineFormatException;
+import server.io.MappedTabFile;
+import server.log.Log;
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+import server.registration.RegistrationRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Les requêtes d'analyse des inscriptions, servies par la commande 'ANALYSER'.
+ *
+ * Un thread suit le journal: il lit d'abord tout ce qui est déjà durable, puis chaque lot dès qu'il est écrit,
+ * et ajoute les lignes à une {@link EnrollmentTable}. Les requêtes s'exécutent sur leur propre
+ * {@link ForkJoinPool}, jamais sur les threads des sessions ni sur l'écrivain du journal: une analyse coûteuse
+ * ne retarde aucune inscription. Chaque ligne du journal compte, comme pour l'index au démarrage.
+ *
+ * Les requêtes, mots séparés par des espaces:
+ * <pre>
+ * sessions                       inscriptions par session
+ * cours SESSION                  inscriptions par cours de la session, par code
+ * compte SESSION CODE            inscriptions au cours
+ * top SESSION N                  les N cours de la session qui ont le plus d'inscrits
+ * presque-complets SESSION TAUX  les cours remplis à au moins TAUX (0 à 1) de leur capacité, les plus remplis d'abord
+ * horaire MATRICULE              les cours de l'étudiant, "session\tcode"
+ * </pre>
+ */
+public class EnrollmentAnalytics implements Closeable {
+
+    private static final long FOLLOW_WAIT_MILLIS = 1000;
+
+    private final RegistrationJournal journal;
+    private final ToIntBiFunction<String, String> capacity;
+    private final EnrollmentTable table = new EnrollmentTable();
+    private final ForkJoinPool pool;
+    private final Thread loader;
+    private volatile long position;
+    private volatile boolean closed;
+
+    /**
+     * Commencer à lire le journal en arrière-plan.
+     * @param journal le journal des inscriptions
+     * @param capacity le nombre de places d'un cours, par exemple {@link RegistrationIndex#getCapacity}
+     * @param parallelism le nombre de threads des requêtes
+     */
+    public EnrollmentAnalytics(RegistrationJournal journal, ToIntBiFunction<String, String> capacity, int parallelism) {
+        this.journal = journal;
+        this.capacity = capacity;
+        this.pool = new ForkJoinPool(parallelism);
+        this.loader = ServerExecutors.daemonThreads("analytics-loader").newThread(this::followJournal);
+        this.loader.start();
+    }
+
+    private void followJournal() {
+        try {
+            while (!closed) {
+                long end = journal.awaitPosition(position, FOLLOW_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                if (end > position) {
+                    MappedTabFile.scan(journal.getFile(), position, end, 6, RegistrationRecord.SESSION_ERROR_MSG,
+                            row -> table.appendRow(row.field(0), row.fields(0, 1), row.field(2)));
+                    position = end;
+                }
+            }
+        } catch (IOException | InvalidLineFormatException e) {
+            Log.error("Lecture du journal pour l'analyse, elle n'est plus mise à jour", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Exécuter une requête sur les inscriptions lues jusqu'ici.
+     * @param query la requête, par exemple "top Hiver 10"
+     * @return la réponse; échoue avec une IllegalArgumentException si la requête est invalide
+     */
+    public CompletableFuture<AnalyticsResult> query(String query) {
+        return CompletableFuture.supplyAsync(() -> execute(query.trim().split("\\s+")), pool);
+    }
+
+    private AnalyticsResult execute(String[] words) {
+        EnrollmentTable.View view = table.view();
+        switch (words[0]) {
+            case "sessions":
+                expectWords(words, 1);
+                return bySession(view);
+            case "cours":
+                expectWords(words, 2);
+                return byCourse(view, words[1], Integer.MAX_VALUE, false);
+            case "compte": {
+                expectWords(words, 3);
+                int course = table.findCourse(words[1], words[2]);
+                long count = course < 0 || course >= view.courseCount ? 0 : view.countByCourse(pool)[course];
+                return new AnalyticsResult(view.rows, List.of(words[1] + '\t' + words[2]), new long[]{count});
+            }
+            case "top":
+                expectWords(words, 3);
+                return byCourse(view, words[1], parseCount(words[2]), true);
+            case "presque-complets":
+                expectWords(words, 3);
+                return nearlyFull(view, words[1], parseRatio(words[2]));
+            case "horaire":
+                expectWords(words, 2);
+                return schedule(view, words[1]);
+            default:
+                throw new IllegalArgumentException("Requête inconnue: " + words[0]);
+        }
+    }
+
+    private AnalyticsResult bySession(EnrollmentTable.View view) {
+        long[] byCourse = view.countByCourse(pool);
+        long[] bySession = new long[0];
+        for (int course = 0; course < byCourse.length; course++) {
+            int session = view.sessionOf(course);
+            if (session >= bySession.length) {
+                bySession = Arrays.copyOf(bySession, session + 1);
+            }
+            bySession[session] += byCourse[course];
+        }
+        List<String> keys = new ArrayList<>(bySession.length);
+        for (int session = 0; session < bySession.length; session++) {
+            keys.add(table.sessionName(session));
+        }
+        return new AnalyticsResult(view.rows, keys, bySession);
+    }
+
+    /**
+     * Les cours d'une session, par code ou du plus au moins inscrit.
+     */
+    private AnalyticsResult byCourse(EnrollmentTable.View view, String session, int limit, boolean byCount) {
+        int sessionId = table.findSession(session);
+        long[] counts = view.countByCourse(pool);
+        List<Integer> selected = new ArrayList<>();
+        for (int course = 0; course < counts.length; course++) {
+            if (view.sessionOf(course) == sessionId) {
+                selected.add(course);
+            }
+        }
+        Comparator<Integer> order = byCount
+                ? Comparator.<Integer>comparingLong(course -> counts[course]).reversed().thenComparing(view::courseName)
+                : Comparator.comparing(view::courseName);
+        selected.sort(order);
+        return result(view, selected.subList(0, Math.min(limit, selected.size())), counts);
+    }
+
+    private AnalyticsResult nearlyFull(EnrollmentTable.View view, String session, double ratio) {
+        int sessionId = table.findSession(session);
+        long[] counts = view.countByCourse(pool);
+        List<Integer> selected = new ArrayList<>();
+        double[] fill = new double[counts.length];
+        for (int course = 0; course < counts.length; course++) {
+            if (view.sessionOf(course) != sessionId) {
+                continue;
+            }
+            String name = view.courseName(course);
+            int places = capacity.applyAsInt(session, name.substring(name.indexOf('\t') + 1));
+            if (places == RegistrationIndex.UNLIMITED || places <= 0) {
+                continue;
+            }
+            fill[course] = (double) counts[course] / places;
+            if (fill[course] >= ratio) {
+                selected.add(course);
+            }
+        }
+        selected.sort(Comparator.<Integer>comparingDouble(course -> fill[course]).reversed().thenComparing(view::courseName));
+        return result(view, selected, counts);
+    }
+
+    private AnalyticsResult schedule(EnrollmentTable.View view, String matricule) {
+        int student = table.findStudent(matricule);
+        int[] found = student < 0 ? new int[0] : view.coursesOf(pool, student);
+        List<String> keys = new ArrayList<>(found.length);
+        long[] values = new long[found.length];
+        for (int i = 0; i < found.length; i++) {
+            keys.add(view.courseName(found[i]));
+            values[i] = 1;
+        }
+        return new AnalyticsResult(view.rows, keys, values);
+    }
+
+    private static AnalyticsResult result(EnrollmentTable.View view, List<Integer> courses, long[] counts) {
+        List<String> keys = new ArrayList<>(courses.size());
+        long[] values = new long[courses.size()];
+        for (int i = 0; i < values.length; i++) {
+            keys.add(view.courseName(courses.get(i)));
+            values[i] = counts[courses.get(i)];
+        }
+        return new AnalyticsResult(view.rows, keys, values);
+    }
+
+    private static void expectWords(String[] words, int count) {
+        if (words.length != count) {
+            throw new IllegalArgumentException("La requête '" + words[0] + "' prend " + (count - 1) + " argument(s)");
+        }
+    }
+
+    private static int parseCount(String word) {
+        try {
+            int n = Integer.parseInt(word);
+            if (n > 0) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Nombre invalide: " + word);
+    }
+
+    private static double parseRatio(String word) {
+        try {
+            double ratio = Double.parseDouble(word);
+            if (ratio >= 0 && ratio <= 1) {
+                return ratio;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Taux invalide, attendu entre 0 et 1: " + word);
+    }
+
+    /**
+     * @return le nombre d'inscriptions lues du journal
+     */
+    public int getRows() {
+        return table.size();
+    }
+
+    /**
+     * @return le nombre d'octets du journal pas encore lus par l'analyse
+     */
+    public long getLagBytes() {
+        return Math.max(0, journal.getPosition() - position);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        loader.interrupt();
+        pool.shutdownNow();
+    }
+}
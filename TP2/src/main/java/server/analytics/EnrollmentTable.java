@@ -0,0 +1,269 @@
+package server.analytics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Les inscriptions rangées par colonnes pour les agrégations, sans les noms ni les courriels.
+ *
+ * Chaque ligne n'est que deux entiers: le numéro du cours (session et code) et celui de l'étudiant,
+ * attribués par des dictionnaires. Les colonnes sont découpées en blocs de {@link #CHUNK_SIZE} lignes qui
+ * ne bougent plus une fois alloués: un seul thread ajoute des lignes, et publie leur nombre après les avoir
+ * écrites; les requêtes lisent ce nombre une fois et ne regardent que les lignes qui le précèdent.
+ * Elles ne prennent donc aucun verrou et ne ralentissent pas l'écrivain.
+ *
+ * Les agrégations découpent les blocs entre les threads d'un {@link ForkJoinPool}: chaque tâche compte
+ * ses blocs dans son propre tableau, et les tableaux sont additionnés en remontant.
+ */
+public class EnrollmentTable {
+
+    static final int CHUNK_BITS = 16;
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    // Below this many rows a task counts on its own instead of splitting further
+    private static final int SPLIT_THRESHOLD = 4 * CHUNK_SIZE;
+
+    /**
+     * Des chaînes numérotées dans l'ordre de leur première apparition.
+     */
+    static final class Dictionary {
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private volatile String[] names = new String[64];
+        private int size;
+
+        /**
+         * @return le numéro de la chaîne, attribué s'il n'existe pas; appelé par l'écrivain seulement
+         */
+        int intern(String name) {
+            Integer id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+            }
+            names[size] = name;
+            ids.put(name, size);
+            return size++;
+        }
+
+        /**
+         * @return le numéro de la chaîne, ou -1
+         */
+        int find(String name) {
+            Integer id = ids.get(name);
+            return id == null ? -1 : id;
+        }
+
+        String name(int id) {
+            return names[id];
+        }
+
+        int size() {
+            return ids.size();
+        }
+    }
+
+    private final Dictionary sessions = new Dictionary();
+    private final Dictionary courses = new Dictionary();
+    private final Dictionary students = new Dictionary();
+    private volatile int[] courseSession = new int[64];
+    // Published after courseSession and the course's name, like rows after the row
+    private volatile int courseCount;
+    private volatile int[][] courseColumn = new int[16][];
+    private volatile int[][] studentColumn = new int[16][];
+    private volatile int rows;
+
+    /**
+     * Ajouter une inscription. Un seul thread à la fois.
+     * @param session la session du cours
+     * @param code le code du cours
+     * @param matricule le matricule de l'étudiant
+     */
+    public void append(String session, String code, String matricule) {
+        appendRow(session, session + '\t' + code, matricule);
+    }
+
+    /**
+     * @param courseKey "session\tcode", déjà formé par l'appelant
+     */
+    void appendRow(String session, String courseKey, String matricule) {
+        int course = courses.find(courseKey);
+        if (course < 0) {
+            int sessionId = sessions.intern(session);
+            course = courses.intern(courseKey);
+            if (course == courseSession.length) {
+                courseSession = Arrays.copyOf(courseSession, course * 2);
+            }
+            courseSession[course] = sessionId;
+            courseCount = course + 1;
+        }
+        int student = students.intern(matricule);
+        int row = rows;
+        int chunk = row >>> CHUNK_BITS;
+        if (chunk == courseColumn.length) {
+            courseColumn = Arrays.copyOf(courseColumn, chunk * 2);
+            studentColumn = Arrays.copyOf(studentColumn, chunk * 2);
+        }
+        if (courseColumn[chunk] == null) {
+            courseColumn[chunk] = new int[CHUNK_SIZE];
+            studentColumn[chunk] = new int[CHUNK_SIZE];
+        }
+        courseColumn[chunk][row & (CHUNK_SIZE - 1)] = course;
+        studentColumn[chunk][row & (CHUNK_SIZE - 1)] = student;
+        // Published last: readers that see the new count also see the row and the dictionary entries
+        rows = row + 1;
+    }
+
+    /**
+     * @return le nombre de lignes visibles par les requêtes
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * Une vue figée de la table: les lignes ajoutées ensuite n'y apparaissent pas.
+     */
+    final class View {
+        final int rows = EnrollmentTable.this.rows;
+        // Read after rows and before courseSession: every course of a visible row has its session
+        final int courseCount = EnrollmentTable.this.courseCount;
+        final int[][] courseColumn = EnrollmentTable.this.courseColumn;
+        final int[][] studentColumn = EnrollmentTable.this.studentColumn;
+        final int[] courseSession = EnrollmentTable.this.courseSession;
+
+        String courseName(int course) {
+            return courses.name(course);
+        }
+
+        int sessionOf(int course) {
+            return courseSession[course];
+        }
+
+        /**
+         * @return le nombre d'inscrits de chaque cours, indexé par numéro de cours
+         */
+        long[] countByCourse(ForkJoinPool pool) {
+            return pool.invoke(new CountByCourse(this, 0, rows));
+        }
+
+        /**
+         * @return les numéros des cours de l'étudiant, une fois par ligne
+         */
+        int[] coursesOf(ForkJoinPool pool, int student) {
+            return pool.invoke(new CoursesOf(this, student, 0, rows));
+        }
+    }
+
+    View view() {
+        return new View();
+    }
+
+    int findSession(String session) {
+        return sessions.find(session);
+    }
+
+    int findCourse(String session, String code) {
+        return courses.find(session + '\t' + code);
+    }
+
+    int findStudent(String matricule) {
+        return students.find(matricule);
+    }
+
+    String sessionName(int session) {
+        return sessions.name(session);
+    }
+
+    private static final class CountByCourse extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final View view;
+        private final int from;
+        private final int to;
+
+        CountByCourse(View view, int from, int to) {
+            this.view = view;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                long[] counts = new long[view.courseCount];
+                for (int row = from; row < to; ) {
+                    int[] chunk = view.courseColumn[row >>> CHUNK_BITS];
+                    int end = Math.min(to, ((row >>> CHUNK_BITS) + 1) << CHUNK_BITS);
+                    for (int i = row & (CHUNK_SIZE - 1), last = i + (end - row); i < last; i++) {
+                        counts[chunk[i]]++;
+                    }
+                    row = end;
+                }
+                return counts;
+            }
+            int middle = splitPoint(from, to);
+            CountByCourse left = new CountByCourse(view, from, middle);
+            left.fork();
+            long[] counts = new CountByCourse(view, middle, to).compute();
+            long[] other = left.join();
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other[i];
+            }
+            return counts;
+        }
+    }
+
+    private static final class CoursesOf extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final View view;
+        private final int student;
+        private final int from;
+        private final int to;
+
+        CoursesOf(View view, int student, int from, int to) {
+            this.view = view;
+            this.student = student;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                int[] found = new int[4];
+                int count = 0;
+                for (int row = from; row < to; row++) {
+                    if (view.studentColumn[row >>> CHUNK_BITS][row & (CHUNK_SIZE - 1)] == student) {
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, count * 2);
+                        }
+                        found[count++] = view.courseColumn[row >>> CHUNK_BITS][row & (CHUNK_SIZE - 1)];
+                    }
+                }
+                return Arrays.copyOf(found, count);
+            }
+            int middle = splitPoint(from, to);
+            CoursesOf left = new CoursesOf(view, student, from, middle);
+            left.fork();
+            int[] right = new CoursesOf(view, student, middle, to).compute();
+            int[] mine = left.join();
+            int[] all = Arrays.copyOf(mine, mine.length + right.length);
+            System.arraycopy(right, 0, all, mine.length, right.length);
+            return all;
+        }
+    }
+
+    /**
+     * Couper une plage de lignes au milieu, sur une limite de bloc.
+     */
+    private static int splitPoint(int from, int to) {
+        int middle = from + (to - from) / 2;
+        int aligned = middle & ~(CHUNK_SIZE - 1);
+        return aligned > from ? aligned : middle;
+    }
+}
@@ -0,0 +1,79 @@
+package server.catalog;
+
+import server.models.Course;
+import server.protocol.PayloadCompressor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Le compresseur des réponses pour chaque version du catalogue, voir {@link PayloadCompressor}.
+ * Son dictionnaire est construit à partir de tous les cours à la première demande qui suit un changement du
+ * catalogue, puis partagé par le cache des réponses 'CHARGER' et par les changements poussés aux abonnés.
+ */
+public class CatalogCompression {
+
+    private static final class Built {
+        private final long version;
+        private final PayloadCompressor compressor;
+
+        private Built(long version, PayloadCompressor compressor) {
+            this.version = version;
+            this.compressor = compressor;
+        }
+    }
+
+    private final CourseCatalog catalog;
+    private volatile int threshold;
+    private volatile Built current;
+
+    /**
+     * @param catalog le catalogue dont les chaînes amorcent le dictionnaire
+     * @param threshold la taille en dessous de laquelle une réponse n'est pas compressée
+     */
+    public CatalogCompression(CourseCatalog catalog, int threshold) {
+        this.catalog = catalog;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return le compresseur de la version actuelle du catalogue
+     */
+    public PayloadCompressor current() {
+        return forSnapshot(catalog.snapshot());
+    }
+
+    /**
+     * @param snapshot une version du catalogue
+     * @return le compresseur de cette version
+     */
+    public PayloadCompressor forSnapshot(CourseCatalog.Snapshot snapshot) {
+        Built built = current;
+        if (built != null && built.version == snapshot.getVersion()) {
+            return built.compressor;
+        }
+        // Two threads may both build it after a change; either result is correct
+        List<Course> courses = new ArrayList<>();
+        for (List<Course> session : snapshot.getCoursesBySession().values()) {
+            courses.addAll(session);
+        }
+        PayloadCompressor compressor = PayloadCompressor.forCourses(courses, threshold);
+        if (built == null || snapshot.getVersion() >= built.version) {
+            current = new Built(snapshot.getVersion(), compressor);
+        }
+        return compressor;
+    }
+
+    /**
+     * Changer le seuil de compression. Les réponses déjà compressées dans le cache gardent l'ancien seuil
+     * jusqu'au prochain changement du catalogue.
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+        this.current = null;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+}
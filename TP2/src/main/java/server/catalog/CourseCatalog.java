@@ -0,0 +1,304 @@
+package server.catalog;
+
+import server.ServerExecutors;
+import server.exceptions.InvalidLineFormatException;
+import server.io.MappedTabFile;
+import server.log.Log;
+import server.models.Course;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Catalogue des cours gardé en mémoire et indexé par session.
+ * Le fichier cours.txt est lu une seule fois au démarrage; ensuite une tâche de fond surveille sa date
+ * de modification et remplace le catalogue en un seul échange atomique lorsqu'il change.
+ * Une requête 'CHARGER' ne coûte donc qu'une recherche dans une table et ne touche jamais au disque.
+ * Chaque session a aussi son {@link CourseIndex} pour les recherches paginées de 'CHERCHER',
+ * et un cours se retrouve par son code en temps constant.
+ */
+public class CourseCatalog implements Closeable {
+
+    public static final String COURSE_ERROR_MSG = "Error: invalid line format, expected \"COURSE_ID\tCOURSE_NAME\tSEMESTER\"";
+
+    private final Path file;
+    private final AtomicReference<Snapshot> current;
+    private ScheduledExecutorService watcher;
+
+    /**
+     * Constructeur qui charge immédiatement le fichier.
+     * @param file le chemin du fichier des cours
+     */
+    public CourseCatalog(Path file) throws IOException, InvalidLineFormatException {
+        this(file, null);
+    }
+
+    /**
+     * Constructeur qui reprend un catalogue sauvegardé si le fichier n'a pas changé depuis, sinon lit le fichier.
+     * @param file le chemin du fichier des cours
+     * @param saved un catalogue lu avec {@link Snapshot#readFrom}, ou null
+     */
+    public CourseCatalog(Path file, Snapshot saved) throws IOException, InvalidLineFormatException {
+        this.file = file;
+        if (saved != null && saved.matches(file)) {
+            this.current = new AtomicReference<>(saved);
+        } else {
+            this.current = new AtomicReference<>(load(file, 1));
+        }
+    }
+
+    /**
+     * @param session la session voulue, par exemple "Automne"
+     * @return la liste non modifiable des cours de la session, vide si la session est inconnue
+     */
+    public List<Course> getCourses(String session) {
+        return current.get().getCourses(session);
+    }
+
+    /**
+     * @param session la session du cours
+     * @param code le code du cours, par exemple "IFT2255"
+     * @return le cours, ou null s'il n'est pas offert pendant cette session
+     */
+    public Course getCourse(String session, String code) {
+        return current.get().getCourse(session, code);
+    }
+
+    /**
+     * @param query la recherche
+     * @return une page de cours de la session, triés par code
+     */
+    public CourseIndex.Page query(CourseQuery query) {
+        return current.get().query(query);
+    }
+
+    /**
+     * @return le catalogue actuel; il ne change jamais, un rechargement en crée un nouveau
+     */
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    /**
+     * @return le numéro de version du catalogue, incrémenté à chaque rechargement
+     */
+    public long getVersion() {
+        return current.get().getVersion();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Recharger le fichier si sa taille ou sa date de modification a changé depuis le dernier chargement.
+     * Comparer les deux détecte aussi une réécriture qui tombe dans la même tranche de l'horloge du système de fichiers.
+     * En cas d'erreur de lecture ou de format, l'ancien catalogue reste en place.
+     * @return vrai si un nouveau catalogue a été installé
+     */
+    public synchronized boolean reloadIfModified() {
+        Snapshot old = current.get();
+        try {
+            if (old.matches(file)) {
+                return false;
+            }
+            current.set(load(file, old.getVersion() + 1));
+            Log.info("Catalogue rechargé: {}", file.toAbsolutePath());
+            return true;
+        } catch (IOException | InvalidLineFormatException e) {
+            Log.error("Rechargement du catalogue, l'ancien reste en place", e);
+            return false;
+        }
+    }
+
+    /**
+     * Démarrer la surveillance du fichier en arrière-plan.
+     * @param interval l'intervalle entre deux vérifications du fichier
+     * @param unit l'unité de l'intervalle
+     */
+    public synchronized void startWatching(long interval, TimeUnit unit) {
+        if (watcher != null) {
+            return;
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(ServerExecutors.daemonThreads("catalog-watcher"));
+        watcher.scheduleWithFixedDelay(this::reloadIfModified, interval, interval, unit);
+    }
+
+    /**
+     * Arrêter la surveillance du fichier.
+     */
+    @Override
+    public synchronized void close() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Lire le fichier des cours et le regrouper par session.
+     * Le fichier est lu par projection mémoire; le nom d'une session déjà vue est reconnu sur les octets,
+     * donc une seule String est créée par session et non une par ligne.
+     * @param file le chemin du fichier
+     * @param version la version à donner au catalogue
+     * @return le catalogue lu
+     * @throws InvalidLineFormatException avec le numéro de la première ligne qui n'a pas trois champs
+     */
+    static Snapshot load(Path file, long version) throws IOException, InvalidLineFormatException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        long size = Files.size(file);
+        Log.info("Absolute path is: {}", file.toAbsolutePath());
+        Map<String, List<Course>> bySession = new HashMap<>();
+        MappedTabFile.scan(file, 3, COURSE_ERROR_MSG, row -> {
+            List<Course> courses = null;
+            String session = null;
+            for (Map.Entry<String, List<Course>> e : bySession.entrySet()) {
+                if (row.fieldEquals(2, e.getKey())) {
+                    session = e.getKey();
+                    courses = e.getValue();
+                    break;
+                }
+            }
+            if (courses == null) {
+                // New session, or one whose name is not plain ASCII
+                session = row.field(2);
+                courses = bySession.computeIfAbsent(session, k -> new ArrayList<>());
+            }
+            courses.add(new Course(row.field(1), row.field(0), session));
+        });
+        return new Snapshot(version, modified, size, bySession);
+    }
+
+    /**
+     * Une version immuable du catalogue.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final FileTime lastModified;
+        private final long fileSize;
+        private final Map<String, List<Course>> bySession;
+        private final Map<String, Course> byKey = new HashMap<>();
+        private final Map<String, CourseIndex> indexes = new HashMap<>();
+
+        Snapshot(long version, FileTime lastModified, long fileSize, Map<String, List<Course>> bySession) {
+            this.version = version;
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+            Map<String, List<Course>> copy = new HashMap<>();
+            bySession.forEach((session, courses) -> copy.put(session, Collections.unmodifiableList(courses)));
+            this.bySession = Collections.unmodifiableMap(copy);
+            for (List<Course> courses : bySession.values()) {
+                for (Course course : courses) {
+                    byKey.putIfAbsent(key(course.getSession(), course.getCode()), course);
+                }
+            }
+            bySession.forEach((session, courses) -> indexes.put(session, new CourseIndex(courses)));
+        }
+
+        private static String key(String session, String code) {
+            return session + '\t' + code;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public FileTime getLastModified() {
+            return lastModified;
+        }
+
+        public List<Course> getCourses(String session) {
+            return bySession.getOrDefault(session, Collections.emptyList());
+        }
+
+        /**
+         * @return le cours offert pendant la session avec ce code, ou null
+         */
+        public Course getCourse(String session, String code) {
+            return byKey.get(key(session, code));
+        }
+
+        /**
+         * @return une page de cours de la session demandée, vide si la session est inconnue
+         */
+        public CourseIndex.Page query(CourseQuery query) {
+            CourseIndex index = indexes.get(query.getSession());
+            if (index == null) {
+                return new CourseIndex.Page(Collections.emptyList(), "");
+            }
+            return index.query(query);
+        }
+
+        public Map<String, List<Course>> getCoursesBySession() {
+            return bySession;
+        }
+
+        /**
+         * @return vrai si le fichier a encore la date et la taille qu'il avait quand ce catalogue a été lu
+         */
+        boolean matches(Path file) throws IOException {
+            return Files.size(file) == fileSize && Files.getLastModifiedTime(file).equals(lastModified);
+        }
+
+        /**
+         * Écrire le catalogue: la date et la taille du fichier lu, puis les cours de chaque session.
+         * @param out le flux de sortie
+         */
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(lastModified.to(TimeUnit.NANOSECONDS));
+            out.writeLong(fileSize);
+            out.writeInt(bySession.size());
+            for (Map.Entry<String, List<Course>> session : bySession.entrySet()) {
+                out.writeUTF(session.getKey());
+                out.writeInt(session.getValue().size());
+                for (Course course : session.getValue()) {
+                    out.writeUTF(course.getCode());
+                    out.writeUTF(course.getName());
+                }
+            }
+        }
+
+        /**
+         * Lire un catalogue écrit avec {@link #writeTo}; il reçoit la version 1.
+         * @param in le flux d'entrée
+         * @return le catalogue
+         */
+        public static Snapshot readFrom(DataInputStream in) throws IOException {
+            FileTime modified = FileTime.from(in.readLong(), TimeUnit.NANOSECONDS);
+            long size = in.readLong();
+            int sessions = in.readInt();
+            if (sessions < 0) {
+                throw new IOException("Nombre de sessions invalide: " + sessions);
+            }
+            Map<String, List<Course>> bySession = new HashMap<>();
+            for (int i = 0; i < sessions; i++) {
+                String session = in.readUTF();
+                int count = in.readInt();
+                if (count < 0) {
+                    throw new IOException("Nombre de cours invalide: " + count);
+                }
+                List<Course> courses = new ArrayList<>(Math.min(count, 4096));
+                for (int j = 0; j < count; j++) {
+                    String code = in.readUTF();
+                    courses.add(new Course(in.readUTF(), code, session));
+                }
+                bySession.put(session, courses);
+            }
+            return new Snapshot(1, modified, size, bySession);
+        }
+    }
+}
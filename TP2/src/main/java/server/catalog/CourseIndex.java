@@ -0,0 +1,193 @@
+package server.catalog;
+
+import server.models.Course;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Les index de recherche des cours d'une session, construits une fois avec le catalogue et jamais modifiés.
+ *
+ * Les cours sont triés par code: un préfixe de code devient un intervalle trouvé par recherche binaire,
+ * et le curseur d'une page n'est qu'une position dans ce tableau. Les noms sont indexés par trigrammes
+ * (trois caractères consécutifs, en minuscules): chaque trigramme donne la liste croissante des positions
+ * des cours dont le nom le contient. Une recherche par nom ne parcourt que la plus courte des listes
+ * des trigrammes du morceau cherché, puis vérifie chaque candidat.
+ */
+public final class CourseIndex {
+
+    private static final int GRAM = 3;
+    private static final int[] NONE = new int[0];
+
+    private final Course[] byCode;
+    private final String[] codes;
+    private final String[] lowerNames;
+    private final Map<String, int[]> trigrams;
+
+    /**
+     * Le résultat d'une recherche.
+     */
+    public static final class Page {
+        private final List<Course> courses;
+        private final String nextCursor;
+
+        public Page(List<Course> courses, String nextCursor) {
+            this.courses = courses;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<Course> getCourses() {
+            return courses;
+        }
+
+        /**
+         * @return le curseur de la page suivante, vide s'il n'y en a pas
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        public boolean hasNext() {
+            return !nextCursor.isEmpty();
+        }
+    }
+
+    /**
+     * @param courses les cours d'une session, dans n'importe quel ordre
+     */
+    public CourseIndex(List<Course> courses) {
+        this.byCode = courses.toArray(new Course[0]);
+        Arrays.sort(byCode, Comparator.comparing(Course::getCode));
+        this.codes = new String[byCode.length];
+        this.lowerNames = new String[byCode.length];
+        Map<String, List<Integer>> postings = new HashMap<>();
+        for (int i = 0; i < byCode.length; i++) {
+            codes[i] = byCode[i].getCode();
+            lowerNames[i] = byCode[i].getName().toLowerCase(Locale.ROOT);
+            String name = lowerNames[i];
+            for (int j = 0; j + GRAM <= name.length(); j++) {
+                List<Integer> positions = postings.computeIfAbsent(name.substring(j, j + GRAM), k -> new ArrayList<>());
+                // Positions are added in increasing order, so a repeated trigram only needs a check of the last one
+                if (positions.isEmpty() || positions.get(positions.size() - 1) != i) {
+                    positions.add(i);
+                }
+            }
+        }
+        this.trigrams = new HashMap<>(postings.size() * 2);
+        postings.forEach((gram, positions) -> {
+            int[] array = new int[positions.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = positions.get(i);
+            }
+            trigrams.put(gram, array);
+        });
+    }
+
+    /**
+     * @param query la recherche; sa session n'est pas vérifiée ici
+     * @return les cours trouvés, dans l'ordre de leur code
+     */
+    public Page query(CourseQuery query) {
+        String prefix = query.getCodePrefix();
+        // Codes sharing the prefix are contiguous from here on; the loops stop at the first one that does not
+        int from = lowerBound(prefix);
+        if (!query.getAfter().isEmpty()) {
+            from = Math.max(from, upperBound(query.getAfter()));
+        }
+        String needle = query.getNameContains().toLowerCase(Locale.ROOT);
+        int limit = query.getLimit();
+        List<Course> found = new ArrayList<>(Math.min(limit, Math.max(0, codes.length - from)));
+        boolean more = false;
+
+        if (needle.length() < GRAM) {
+            for (int i = from; i < codes.length && codes[i].startsWith(prefix); i++) {
+                if (needle.isEmpty() || lowerNames[i].contains(needle)) {
+                    if (found.size() == limit) {
+                        more = true;
+                        break;
+                    }
+                    found.add(byCode[i]);
+                }
+            }
+        } else {
+            int[] candidates = shortestPosting(needle);
+            int start = Arrays.binarySearch(candidates, from);
+            for (int k = start < 0 ? -start - 1 : start; k < candidates.length; k++) {
+                int i = candidates[k];
+                if (!codes[i].startsWith(prefix)) {
+                    break;
+                }
+                if (lowerNames[i].contains(needle)) {
+                    if (found.size() == limit) {
+                        more = true;
+                        break;
+                    }
+                    found.add(byCode[i]);
+                }
+            }
+        }
+        String next = more ? found.get(found.size() - 1).getCode() : "";
+        return new Page(Collections.unmodifiableList(found), next);
+    }
+
+    private int[] shortestPosting(String needle) {
+        int[] shortest = null;
+        for (int j = 0; j + GRAM <= needle.length(); j++) {
+            int[] positions = trigrams.get(needle.substring(j, j + GRAM));
+            if (positions == null) {
+                return NONE;
+            }
+            if (shortest == null || positions.length < shortest.length) {
+                shortest = positions;
+            }
+        }
+        return shortest;
+    }
+
+    /**
+     * @return la position du premier code plus grand ou égal à la clé
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = codes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (codes[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return la position du premier code strictement plus grand que la clé
+     */
+    private int upperBound(String key) {
+        int low = 0;
+        int high = codes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (codes[mid].compareTo(key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return le nombre de cours indexés
+     */
+    public int size() {
+        return byCode.length;
+    }
+}
@@ -0,0 +1,61 @@
+package server.catalog;
+
+/**
+ * Une recherche dans les cours d'une session, servie par la commande 'CHERCHER'.
+ * Les cours sont parcourus dans l'ordre de leur code; une page s'arrête après {@link #getLimit()} cours
+ * et donne le code du dernier, à passer comme curseur pour obtenir la page suivante.
+ */
+public final class CourseQuery {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    private final String session;
+    private final String codePrefix;
+    private final String nameContains;
+    private final int limit;
+    private final String after;
+
+    /**
+     * @param session la session, par exemple "Automne"
+     * @param codePrefix le début du code des cours voulus, vide pour tous
+     * @param nameContains un morceau du nom, sans égard à la casse, vide pour tous
+     * @param limit le nombre maximal de cours par page, ramené entre 1 et {@link #MAX_LIMIT}; 0 pour la valeur par défaut
+     * @param after le curseur: seuls les cours dont le code vient après sont retournés, vide pour la première page
+     */
+    public CourseQuery(String session, String codePrefix, String nameContains, int limit, String after) {
+        this.session = session;
+        this.codePrefix = codePrefix;
+        this.nameContains = nameContains;
+        this.limit = limit <= 0 ? DEFAULT_LIMIT : Math.min(limit, MAX_LIMIT);
+        this.after = after;
+    }
+
+    /**
+     * @param cursor le curseur retourné avec la page précédente
+     * @return la même recherche, pour la page suivante
+     */
+    public CourseQuery next(String cursor) {
+        return new CourseQuery(session, codePrefix, nameContains, limit, cursor);
+    }
+
+    public String getSession() {
+        return session;
+    }
+
+    public String getCodePrefix() {
+        return codePrefix;
+    }
+
+    public String getNameContains() {
+        return nameContains;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+}
@@ -0,0 +1,158 @@
+package server.catalog;
+
+import server.models.Course;
+import server.protocol.PayloadCompressor;
+import server.protocol.WireFormat;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache des réponses 'CHARGER' déjà sérialisées.
+ * Pour chaque session, le cache garde les octets de la liste des cours dans un format de transmission,
+ * associés à la version du catalogue. Tant que le catalogue ne change pas, une requête se résume à copier
+ * ces octets dans le socket, sans aucun travail de sérialisation.
+ * Avec une {@link CatalogCompression}, le cache garde aussi la réponse compressée pour les clients qui l'ont
+ * demandée: elle est compressée une fois par version du catalogue, pas à chaque requête.
+ */
+public class ResponseCache {
+
+    private final CourseCatalog catalog;
+    private final WireFormat format;
+    private final CatalogCompression compression;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param catalog le catalogue dont les réponses sont gardées
+     * @param format le format dans lequel les réponses sont encodées
+     */
+    public ResponseCache(CourseCatalog catalog, WireFormat format) {
+        this(catalog, format, null);
+    }
+
+    /**
+     * @param catalog le catalogue dont les réponses sont gardées
+     * @param format le format dans lequel les réponses sont encodées, {@link WireFormat#BINARY} avec la compression
+     * @param compression les compresseurs du catalogue, ou null si les réponses ne sont jamais compressées
+     */
+    public ResponseCache(CourseCatalog catalog, WireFormat format, CatalogCompression compression) {
+        if (compression != null && format != WireFormat.BINARY) {
+            throw new IllegalArgumentException("Seul le format binaire est compressé");
+        }
+        this.catalog = catalog;
+        this.format = format;
+        this.compression = compression;
+    }
+
+    /**
+     * Une réponse passée par {@link PayloadCompressor#compress}, avec le compresseur dont le client a besoin
+     * du dictionnaire pour la lire.
+     */
+    public static final class Compressed {
+        private final PayloadCompressor compressor;
+        private final byte[] bytes;
+
+        Compressed(PayloadCompressor compressor, byte[] bytes) {
+            this.compressor = compressor;
+            this.bytes = bytes;
+        }
+
+        public PayloadCompressor getCompressor() {
+            return compressor;
+        }
+
+        /**
+         * @return la réponse compressée, ou la réponse elle-même si elle est sous le seuil de compression
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * @param session la session demandée
+     * @return la liste des cours de la session, encodée pour la version actuelle du catalogue
+     */
+    public byte[] get(String session) throws IOException {
+        CourseCatalog.Snapshot snapshot = catalog.snapshot();
+        Entry entry = entries.get(session);
+        if (entry != null && entry.version == snapshot.getVersion()) {
+            hits.increment();
+            return entry.bytes;
+        }
+        misses.increment();
+        return encode(snapshot, session).bytes;
+    }
+
+    /**
+     * @param session la session demandée
+     * @return la liste des cours de la session, compressée pour la version actuelle du catalogue
+     */
+    public Compressed getCompressed(String session) throws IOException {
+        if (compression == null) {
+            throw new IllegalStateException("Cache sans compression");
+        }
+        CourseCatalog.Snapshot snapshot = catalog.snapshot();
+        Entry entry = entries.get(session);
+        if (entry != null && entry.version == snapshot.getVersion() && entry.compressed != null) {
+            hits.increment();
+            return entry.compressed;
+        }
+        misses.increment();
+        if (entry == null || entry.version != snapshot.getVersion()) {
+            entry = encode(snapshot, session);
+        }
+        PayloadCompressor compressor = compression.forSnapshot(snapshot);
+        Compressed compressed = new Compressed(compressor, compressor.compress(entry.bytes));
+        // Racing requests may each compress it once; the last one stays
+        entry.compressed = compressed;
+        return compressed;
+    }
+
+    private Entry encode(CourseCatalog.Snapshot snapshot, String session) throws IOException {
+        List<Course> courses = snapshot.getCourses(session);
+        Entry entry = new Entry(snapshot.getVersion(), format.encodeCourses(courses));
+        // Only cache sessions that exist, so arbitrary client input cannot grow the map
+        if (!courses.isEmpty()) {
+            entries.put(session, entry);
+        }
+        return entry;
+    }
+
+    public WireFormat getFormat() {
+        return format;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return la proportion des requêtes servies depuis le cache, entre 0 et 1
+     */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    private static final class Entry {
+        private final long version;
+        private final byte[] bytes;
+        private volatile Compressed compressed;
+
+        private Entry(long version, byte[] bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+}
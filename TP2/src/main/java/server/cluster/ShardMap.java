@@ -0,0 +1,87 @@
+package server.cluster;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * La répartition des sessions du catalogue entre les noeuds d'une grappe de serveurs.
+ *
+ * Chaque noeud possède les inscriptions d'une partie des sessions: une inscription ne touche qu'au cours
+ * d'une session, donc aucune commande n'a besoin de deux noeuds à la fois. Le catalogue, petit et presque
+ * jamais modifié, est le même sur tous les noeuds. La session d'une requête donne son noeud par un hachage
+ * de son nom; {@link String#hashCode()} est défini par le langage, donc les clients et les serveurs
+ * calculent la même répartition sans se parler, pourvu qu'ils aient la même liste de noeuds dans le même ordre.
+ */
+public final class ShardMap {
+
+    private final List<InetSocketAddress> nodes;
+
+    /**
+     * @param nodes les adresses des noeuds; leur ordre fait partie de la répartition
+     */
+    public ShardMap(List<InetSocketAddress> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Une grappe a au moins un noeud");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+    }
+
+    /**
+     * @param spec les noeuds séparés par des virgules, par exemple "localhost:1337,localhost:1338"
+     * @return la répartition correspondante
+     */
+    public static ShardMap parse(String spec) {
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        for (String node : spec.split(",")) {
+            String trimmed = node.trim();
+            int colon = trimmed.lastIndexOf(':');
+            if (colon <= 0 || colon == trimmed.length() - 1) {
+                throw new IllegalArgumentException("Noeud invalide, attendu \"hôte:port\": " + trimmed);
+            }
+            nodes.add(InetSocketAddress.createUnresolved(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1))));
+        }
+        return new ShardMap(nodes);
+    }
+
+    /**
+     * @param session une session du catalogue, par exemple "Automne"
+     * @return la position du noeud qui possède la session
+     */
+    public int shardOf(String session) {
+        return Math.floorMod(session.hashCode(), nodes.size());
+    }
+
+    /**
+     * @param session une session du catalogue
+     * @return l'adresse du noeud qui possède la session
+     */
+    public InetSocketAddress nodeFor(String session) {
+        return nodes.get(shardOf(session));
+    }
+
+    public InetSocketAddress getNode(int shard) {
+        return nodes.get(shard);
+    }
+
+    public List<InetSocketAddress> getNodes() {
+        return nodes;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (InetSocketAddress node : nodes) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(node.getHostString()).append(':').append(node.getPort());
+        }
+        return sb.toString();
+    }
+}
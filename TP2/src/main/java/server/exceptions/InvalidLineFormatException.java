@@ -1,7 +1,29 @@
 package server.exceptions;
 
 public class InvalidLineFormatException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long lineNumber;
+
     public InvalidLineFormatException(String msg) {
         super(msg);
+        this.lineNumber = -1;
+    }
+
+    /**
+     * @param msg le message d'erreur
+     * @param lineNumber le numéro de la ligne fautive, à partir de 1
+     */
+    public InvalidLineFormatException(String msg, long lineNumber) {
+        super(msg + " (ligne " + lineNumber + ")");
+        this.lineNumber = lineNumber;
+    }
+
+    /**
+     * @return le numéro de la ligne fautive, ou -1 s'il n'est pas connu
+     */
+    public long getLineNumber() {
+        return lineNumber;
     }
-}
\ No newline at end of file
+}
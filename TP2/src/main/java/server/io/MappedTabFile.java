@@ -0,0 +1,231 @@
+package server.io;
+
+import server.exceptions.InvalidLineFormatException;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lecture des fichiers de données (une ligne par enregistrement, champs séparés par des tabulations)
+ * directement dans une projection mémoire du fichier. Les délimiteurs sont cherchés sur les octets:
+ * aucune ligne n'est décodée en String ni découpée en tableau. Le visiteur ne crée que les chaînes dont
+ * il a besoin, et peut écarter une ligne en comparant ses champs sans rien allouer.
+ */
+public final class MappedTabFile {
+
+    /**
+     * Taille maximale d'une fenêtre de projection. Les fichiers plus gros sont lus par fenêtres successives,
+     * chacune recommençant au début de la ligne coupée par la précédente.
+     */
+    static final int WINDOW_SIZE = 1 << 30;
+
+    /**
+     * Reçoit chaque ligne non vide du fichier.
+     */
+    @FunctionalInterface
+    public interface RowVisitor {
+        void visit(Row row) throws InvalidLineFormatException;
+    }
+
+    private MappedTabFile() {
+    }
+
+    /**
+     * Parcourir toutes les lignes non vides d'un fichier.
+     * @param file le fichier
+     * @param fields le nombre de champs attendu sur chaque ligne
+     * @param errorMessage le message de l'exception lancée pour une ligne qui n'a pas ce nombre de champs
+     * @param visitor appelé pour chaque ligne; la {@link Row} est réutilisée d'une ligne à l'autre
+     * @throws InvalidLineFormatException avec le numéro de la première ligne invalide
+     */
+    public static void scan(Path file, int fields, String errorMessage, RowVisitor visitor)
+            throws IOException, InvalidLineFormatException {
+        scan(file, 0, Long.MAX_VALUE, fields, errorMessage, visitor, WINDOW_SIZE);
+    }
+
+    /**
+     * Parcourir les lignes d'un fichier à partir d'une position, par exemple la fin d'une partie déjà lue.
+     * @param file le fichier
+     * @param from la position du début d'une ligne
+     * @param fields le nombre de champs attendu sur chaque ligne
+     * @param errorMessage le message de l'exception lancée pour une ligne qui n'a pas ce nombre de champs
+     * @param visitor appelé pour chaque ligne; les numéros de ligne sont comptés à partir de la position
+     * @throws InvalidLineFormatException avec le numéro de la première ligne invalide
+     */
+    public static void scan(Path file, long from, int fields, String errorMessage, RowVisitor visitor)
+            throws IOException, InvalidLineFormatException {
+        scan(file, from, Long.MAX_VALUE, fields, errorMessage, visitor, WINDOW_SIZE);
+    }
+
+    /**
+     * Parcourir les lignes d'un fichier entre deux positions, par exemple la partie d'un journal déjà durable
+     * pendant que la suite s'écrit.
+     * @param file le fichier
+     * @param from la position du début d'une ligne
+     * @param to la position de la fin d'une ligne, ou plus loin que la fin du fichier
+     * @param fields le nombre de champs attendu sur chaque ligne
+     * @param errorMessage le message de l'exception lancée pour une ligne qui n'a pas ce nombre de champs
+     * @param visitor appelé pour chaque ligne; les numéros de ligne sont comptés à partir de la position
+     * @throws InvalidLineFormatException avec le numéro de la première ligne invalide
+     */
+    public static void scan(Path file, long from, long to, int fields, String errorMessage, RowVisitor visitor)
+            throws IOException, InvalidLineFormatException {
+        scan(file, from, to, fields, errorMessage, visitor, WINDOW_SIZE);
+    }
+
+    static void scan(Path file, int fields, String errorMessage, RowVisitor visitor, int maxWindow)
+            throws IOException, InvalidLineFormatException {
+        scan(file, 0, Long.MAX_VALUE, fields, errorMessage, visitor, maxWindow);
+    }
+
+    private static void scan(Path file, long from, long to, int fields, String errorMessage, RowVisitor visitor, int maxWindow)
+            throws IOException, InvalidLineFormatException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), to);
+            Row row = new Row(fields);
+            long windowStart = from;
+            while (windowStart < size) {
+                long windowSize = Math.min(size - windowStart, maxWindow);
+                boolean last = windowStart + windowSize == size;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                int consumed;
+                try {
+                    consumed = scanWindow(buffer, (int) windowSize, last, row, errorMessage, visitor);
+                } catch (InternalError e) {
+                    // Reading a mapped page past the end of a file truncated under us faults instead of returning -1
+                    throw new IOException("Fichier tronqué pendant la lecture: " + file, e);
+                }
+                if (consumed == 0 && !last) {
+                    throw new InvalidLineFormatException(errorMessage, row.lineNumber + 1);
+                }
+                windowStart += consumed;
+            }
+        }
+    }
+
+    /**
+     * @return le nombre d'octets consommés, jusqu'à la fin de la dernière ligne complète
+     */
+    private static int scanWindow(MappedByteBuffer buffer, int limit, boolean last, Row row,
+                                  String errorMessage, RowVisitor visitor) throws InvalidLineFormatException {
+        row.buffer = buffer;
+        int lineStart = 0;
+        int fieldIndex = 0;
+        row.starts[0] = 0;
+        for (int i = 0; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '\t') {
+                if (++fieldIndex < row.starts.length) {
+                    row.ends[fieldIndex - 1] = i;
+                    row.starts[fieldIndex] = i + 1;
+                }
+            } else if (b == '\n') {
+                row.lineNumber++;
+                endLine(row, lineStart, i, fieldIndex, errorMessage, visitor);
+                lineStart = i + 1;
+                fieldIndex = 0;
+                row.starts[0] = lineStart;
+            }
+        }
+        if (lineStart < limit && last) {
+            row.lineNumber++;
+            endLine(row, lineStart, limit, fieldIndex, errorMessage, visitor);
+            return limit;
+        }
+        return lineStart;
+    }
+
+    private static void endLine(Row row, int lineStart, int lineEnd, int tabs, String errorMessage,
+                                RowVisitor visitor) throws InvalidLineFormatException {
+        if (lineEnd > lineStart && row.buffer.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        if (lineEnd == lineStart) {
+            return;
+        }
+        if (tabs != row.starts.length - 1) {
+            throw new InvalidLineFormatException(errorMessage, row.lineNumber);
+        }
+        row.ends[tabs] = lineEnd;
+        visitor.visit(row);
+    }
+
+    /**
+     * Une ligne du fichier, vue directement dans la projection mémoire.
+     */
+    public static final class Row {
+        private final int[] starts;
+        private final int[] ends;
+        private MappedByteBuffer buffer;
+        private long lineNumber;
+        private byte[] scratch = new byte[64];
+
+        private Row(int fields) {
+            this.starts = new int[fields];
+            this.ends = new int[fields];
+        }
+
+        /**
+         * @return le numéro de la ligne, à partir de 1
+         */
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+        /**
+         * Décoder un champ.
+         * @param index le numéro du champ, à partir de 0
+         * @return le champ en UTF-8
+         */
+        public String field(int index) {
+            return decode(starts[index], ends[index]);
+        }
+
+        /**
+         * Décoder plusieurs champs consécutifs d'un coup, tabulations comprises, par exemple pour former
+         * une clé "session\tcours" en une seule chaîne.
+         * @param from le premier champ
+         * @param to le dernier champ, inclus
+         * @return les champs et les tabulations qui les séparent
+         */
+        public String fields(int from, int to) {
+            return decode(starts[from], ends[to]);
+        }
+
+        /**
+         * Comparer un champ à une valeur sans le décoder. Seuls les caractères ASCII sont comparés octet par octet:
+         * une valeur qui en contient d'autres n'est jamais égale, et l'appelant doit alors décoder le champ.
+         * @param index le numéro du champ
+         * @param value la valeur
+         * @return vrai si le champ contient exactement cette valeur
+         */
+        public boolean fieldEquals(int index, String value) {
+            int start = starts[index];
+            int length = ends[index] - start;
+            if (length != value.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(start + i) != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String decode(int start, int end) {
+            int length = end - start;
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = buffer.get(start + i);
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
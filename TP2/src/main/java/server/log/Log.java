@@ -0,0 +1,188 @@
+package server.log;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Journal des messages du serveur. Un message sous le niveau courant coûte une comparaison; les autres sont
+ * mis dans une file bornée et écrits par un thread dédié, donc le thread qui journalise n'attend jamais
+ * la console. Le message n'est formaté que sur ce thread. Si la file est pleine, le message est perdu et compté.
+ *
+ * Le niveau se choisit avec la propriété système log.level (DEBUG, INFO, WARN, ERROR ou OFF, défaut INFO).
+ */
+public final class Log {
+
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        OFF
+    }
+
+    private static final int CAPACITY = 8192;
+    private static final int BATCH = 256;
+
+    private static final BlockingQueue<Entry> QUEUE = new ArrayBlockingQueue<>(CAPACITY);
+    private static final LongAdder DROPPED = new LongAdder();
+    private static volatile Level level = parseLevel(System.getProperty("log.level", "INFO"));
+
+    static {
+        Thread writer = new Thread(Log::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    private static final class Entry {
+        final Level level;
+        final String message;
+        final Object arg;
+        final Object arg2;
+        final Throwable error;
+        final String thread;
+
+        Entry(Level level, String message, Object arg, Object arg2, Throwable error) {
+            this.level = level;
+            this.message = message;
+            this.arg = arg;
+            this.arg2 = arg2;
+            this.error = error;
+            this.thread = Thread.currentThread().getName();
+        }
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @return vrai si un message de ce niveau serait écrit
+     */
+    public static boolean isEnabled(Level l) {
+        return l != Level.OFF && l.compareTo(level) >= 0;
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null, null, null);
+    }
+
+    /**
+     * @param message le message, où "{}" est remplacé par l'argument
+     * @param arg l'argument, converti en texte seulement si le message est écrit
+     */
+    public static void debug(String message, Object arg) {
+        log(Level.DEBUG, message, arg, null, null);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null, null, null);
+    }
+
+    public static void info(String message, Object arg) {
+        log(Level.INFO, message, arg, null, null);
+    }
+
+    /**
+     * @param message le message, où les deux "{}" sont remplacés par les arguments dans l'ordre
+     */
+    public static void info(String message, Object arg, Object arg2) {
+        log(Level.INFO, message, arg, arg2, null);
+    }
+
+    public static void warn(String message, Object arg) {
+        log(Level.WARN, message, arg, null, null);
+    }
+
+    public static void warn(String message, Throwable error) {
+        log(Level.WARN, message, null, null, error);
+    }
+
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, null, null, error);
+    }
+
+    private static void log(Level l, String message, Object arg, Object arg2, Throwable error) {
+        if (!isEnabled(l)) {
+            return;
+        }
+        if (!QUEUE.offer(new Entry(l, message, arg, arg2, error))) {
+            DROPPED.increment();
+        }
+    }
+
+    /**
+     * @return le nombre de messages perdus parce que la file était pleine
+     */
+    public static long getDroppedCount() {
+        return DROPPED.sum();
+    }
+
+    private static void writeLoop() {
+        List<Entry> batch = new ArrayList<>(BATCH);
+        while (true) {
+            try {
+                Entry first = QUEUE.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                QUEUE.drainTo(batch, BATCH - 1);
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static synchronized void write(List<Entry> batch) {
+        for (Entry e : batch) {
+            PrintStream out = e.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+            String text = format(format(e.message, e.arg), e.arg2);
+            out.println(e.level + " [" + e.thread + "] " + text);
+            if (e.error != null) {
+                e.error.printStackTrace(out);
+            }
+        }
+        System.out.flush();
+    }
+
+    private static String format(String message, Object arg) {
+        int at = message.indexOf("{}");
+        if (arg == null || at < 0) {
+            return message;
+        }
+        return message.substring(0, at) + arg + message.substring(at + 2);
+    }
+
+    /**
+     * Écrire tout de suite les messages en attente, par exemple avant l'arrêt de la JVM.
+     */
+    public static void drain() {
+        List<Entry> rest = new ArrayList<>();
+        QUEUE.drainTo(rest);
+        write(rest);
+    }
+}
@@ -0,0 +1,45 @@
+package server.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sert les métriques en texte sur http://127.0.0.1:PORT/metrics, par exemple pour curl ou un collecteur.
+ * L'adresse est celle de la boucle locale seulement: les métriques ne sont pas exposées au réseau.
+ */
+public class MetricsEndpoint implements Closeable {
+
+    private final HttpServer http;
+
+    /**
+     * @param registry le registre à servir
+     * @param port le port local, 0 pour un port libre
+     */
+    public MetricsEndpoint(MetricsRegistry registry, int port) throws IOException {
+        this.http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.http.createContext("/metrics", exchange -> {
+            byte[] body = registry.toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        this.http.start();
+    }
+
+    public int getPort() {
+        return http.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        http.stop(0);
+    }
+}
@@ -0,0 +1,92 @@
+package server.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Expose chaque métrique du registre comme un attribut JMX en lecture seule, visible dans jconsole ou VisualVM.
+ * La liste des attributs suit le registre: une métrique ajoutée après l'enregistrement apparaît aussi.
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    public static final String DEFAULT_NAME = "server:type=Metrics";
+
+    private final MetricsRegistry registry;
+
+    public MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Enregistrer les métriques auprès du serveur JMX de la plateforme.
+     * @param registry le registre
+     * @param name le nom JMX, par exemple {@link #DEFAULT_NAME}
+     * @return le nom enregistré, pour le retirer plus tard
+     */
+    public static ObjectName register(MetricsRegistry registry, String name) throws JMException {
+        ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(registry), objectName);
+        return objectName;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = registry.snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> values = registry.snapshot();
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            Number value = values.get(name);
+            if (value != null) {
+                list.add(new Attribute(name, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Les métriques sont en lecture seule: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        // Read-only: the bean declares no operation
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Number> e : registry.snapshot().entrySet()) {
+            String type = e.getValue() instanceof Long ? "long" : "double";
+            attributes.add(new MBeanAttributeInfo(e.getKey(), type, e.getKey(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Métriques du serveur d'inscription",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
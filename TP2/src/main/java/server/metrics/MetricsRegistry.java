@@ -0,0 +1,84 @@
+package server.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Les métriques du serveur: des compteurs, des jauges lues à la demande et des histogrammes de latence.
+ * Les compteurs et histogrammes se récupèrent une fois, puis sont mis à jour sans verrou sur le chemin
+ * des requêtes; les jauges ne coûtent rien tant que personne ne les lit.
+ */
+public class MetricsRegistry {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * @param name le nom du compteur
+     * @return le compteur, créé au premier appel
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /**
+     * @param name le nom de l'histogramme
+     * @return l'histogramme, créé au premier appel
+     */
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Publier un histogramme tenu par un autre composant, comme le journal des inscriptions.
+     */
+    public void register(String name, LatencyHistogram histogram) {
+        histograms.put(name, histogram);
+    }
+
+    /**
+     * @param name le nom de la jauge
+     * @param value lue à chaque consultation des métriques
+     */
+    public void gauge(String name, DoubleSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Lire toutes les métriques. Un histogramme donne son nombre de valeurs, sa moyenne, ses percentiles
+     * et son maximum, en microsecondes.
+     * @return les valeurs, triées par nom
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsDouble()));
+        histograms.forEach((name, histogram) -> {
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".mean_us", histogram.getMean() / 1000.0);
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                values.put(name + "." + PERCENTILE_NAMES[i] + "_us", histogram.getPercentile(PERCENTILES[i]) / 1000.0);
+            }
+            values.put(name + ".max_us", histogram.getMax() / 1000.0);
+        });
+        return values;
+    }
+
+    /**
+     * @return les métriques en texte, une par ligne: "nom valeur"
+     */
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Number> e : snapshot().entrySet()) {
+            sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,789 @@
+package server.protocol;
+
+import server.Command;
+import server.CommandLine;
+import server.Server;
+import server.analytics.AnalyticsResult;
+import server.catalog.CourseIndex;
+import server.catalog.CourseQuery;
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.push.CatalogDelta;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Protocole binaire compact, alternative aux ObjectOutputStream/ObjectInputStream.
+ *
+ * Le client ouvre la connexion en envoyant {@link #MAGIC}; le serveur répond avec la même valeur.
+ * Un client qui commence plutôt par l'en-tête de Java serialization (0xACED) reste en mode objets.
+ *
+ * Ensuite chaque message est une trame "[int longueur][byte opcode][données]", où la longueur compte
+ * l'opcode et les données. Les chaînes sont écrites avec {@link DataOutputStream#writeUTF}.
+ * Le serveur refuse les trames plus grandes que {@link #MAX_REQUEST_FRAME}: aucune donnée du client
+ * n'est désérialisée comme objet Java.
+ *
+ * Un client qui ouvre avec {@link #MAGIC_PIPELINED} choisit le mode pipeline: chaque trame, dans les deux sens,
+ * porte un identifiant de requête juste après l'opcode, "[int longueur][byte opcode][int id][données]".
+ * Le client peut alors envoyer plusieurs requêtes sans attendre les réponses, qui reviennent avec l'identifiant
+ * de leur requête, pas forcément dans l'ordre. Dans ce mode seulement, 'INSCRIRE' reçoit une réponse
+ * {@link #OP_REGISTERED}, envoyée une fois l'inscription écrite sur le disque ou refusée.
+ * Une requête que le serveur refuse de traiter parce qu'il est saturé reçoit {@link #OP_RETRY_AFTER} à la place
+ * de sa réponse, avec le délai après lequel la renvoyer.
+ * Enfin, 'ABONNER' reçoit plusieurs réponses {@link #OP_DELTA} avec son identifiant: l'état de la session,
+ * puis chaque changement du catalogue ou du nombre d'inscrits, jusqu'à 'DESABONNER' ou la fin de la connexion.
+ * 'ANALYSER' reçoit {@link #OP_ANALYSIS}, qui porte soit la réponse, soit la raison du refus de la requête.
+ *
+ * Un client qui ouvre avec {@link #MAGIC_COMPRESSED} ou {@link #MAGIC_PIPELINED_COMPRESSED} accepte en plus que
+ * les grandes réponses arrivent sous l'opcode {@link #OP_COMPRESSED}, précédées une fois du dictionnaire
+ * {@link #OP_DICTIONARY} qui sert à les lire, voir {@link PayloadCompressor}.
+ */
+public final class BinaryCodec {
+
+    /** "WBN1" */
+    public static final int MAGIC = 0x57424E31;
+    /** "WBN2" */
+    public static final int MAGIC_PIPELINED = 0x57424E32;
+    /** "WBZ1": {@link #MAGIC} avec compression */
+    public static final int MAGIC_COMPRESSED = 0x57425A31;
+    /** "WBZ2": {@link #MAGIC_PIPELINED} avec compression */
+    public static final int MAGIC_PIPELINED_COMPRESSED = 0x57425A32;
+    public static final int MAX_REQUEST_FRAME = 64 * 1024;
+    public static final int MAX_RESPONSE_FRAME = 64 * 1024 * 1024;
+
+    public static final byte OP_LOAD = 1;
+    public static final byte OP_REGISTER = 2;
+    public static final byte OP_QUIT = 3;
+    public static final byte OP_IMPORT = 4;
+    public static final byte OP_QUERY = 5;
+    public static final byte OP_LOOKUP = 6;
+    public static final byte OP_SUBSCRIBE = 7;
+    public static final byte OP_UNSUBSCRIBE = 8;
+    public static final byte OP_ANALYZE = 9;
+    public static final byte OP_COURSES = 16;
+    public static final byte OP_REGISTERED = 17;
+    public static final byte OP_IMPORTED = 18;
+    public static final byte OP_PAGE = 19;
+    public static final byte OP_RETRY_AFTER = 20;
+    public static final byte OP_DELTA = 21;
+    public static final byte OP_ANALYSIS = 22;
+    public static final byte OP_COMPRESSED = 23;
+    public static final byte OP_DICTIONARY = 24;
+
+    private static final int HEADER_LENGTH = 5;
+    private static final int REQUEST_ID_LENGTH = 4;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * Une trame décodée.
+     */
+    public static final class Frame {
+        private final byte opcode;
+        private final int requestId;
+        private final byte[] payload;
+
+        public Frame(byte opcode, byte[] payload) {
+            this(opcode, 0, payload);
+        }
+
+        public Frame(byte opcode, int requestId, byte[] payload) {
+            this.opcode = opcode;
+            this.requestId = requestId;
+            this.payload = payload;
+        }
+
+        public byte getOpcode() {
+            return opcode;
+        }
+
+        /**
+         * @return l'identifiant de la requête en mode pipeline, 0 sinon
+         */
+        public int getRequestId() {
+            return requestId;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public DataInputStream payloadInput() {
+            return new DataInputStream(new ByteArrayInputStream(payload));
+        }
+    }
+
+    /**
+     * Lire une trame complète.
+     * @param in le flux d'entrée
+     * @param maxLength la longueur maximale acceptée
+     * @return la trame lue
+     */
+    public static Frame readFrame(DataInputStream in, int maxLength) throws IOException {
+        return readFrame(in, maxLength, false);
+    }
+
+    /**
+     * Lire une trame complète.
+     * @param in le flux d'entrée
+     * @param maxLength la longueur maximale acceptée
+     * @param pipelined vrai si la trame porte un identifiant de requête
+     * @return la trame lue
+     */
+    public static Frame readFrame(DataInputStream in, int maxLength, boolean pipelined) throws IOException {
+        int length = in.readInt();
+        int header = pipelined ? 1 + REQUEST_ID_LENGTH : 1;
+        if (length < header || length > maxLength) {
+            throw new IOException("Longueur de trame invalide: " + length);
+        }
+        byte opcode = in.readByte();
+        int requestId = pipelined ? in.readInt() : 0;
+        byte[] payload = new byte[length - header];
+        in.readFully(payload);
+        return new Frame(opcode, requestId, payload);
+    }
+
+    /**
+     * Écrire une trame.
+     * @param out le flux de sortie
+     * @param opcode le type du message
+     * @param payload les données du message
+     */
+    public static void writeFrame(DataOutputStream out, byte opcode, byte[] payload) throws IOException {
+        out.writeInt(payload.length + 1);
+        out.writeByte(opcode);
+        out.write(payload);
+    }
+
+    /**
+     * Écrire une trame déjà encodée sans identifiant, par exemple une réponse du cache, en y ajoutant
+     * l'identifiant de requête du mode pipeline. Les données ne sont pas recopiées.
+     * @param out le flux de sortie
+     * @param frame la trame complète, voir {@link #frame}
+     * @param requestId l'identifiant de la requête
+     */
+    public static void writeFrame(DataOutputStream out, byte[] frame, int requestId) throws IOException {
+        out.writeInt(frame.length - HEADER_LENGTH + 1 + REQUEST_ID_LENGTH);
+        out.writeByte(frame[HEADER_LENGTH - 1]);
+        out.writeInt(requestId);
+        out.write(frame, HEADER_LENGTH, frame.length - HEADER_LENGTH);
+    }
+
+    /**
+     * L'en-tête du mode pipeline pour une trame déjà encodée; les données de la trame suivent à partir de
+     * la position 5. Sert aux sessions NIO, qui écrivent l'en-tête et les données sans les recopier.
+     * @param frame la trame complète, voir {@link #frame}
+     * @param requestId l'identifiant de la requête
+     * @return l'en-tête, prêt à être écrit
+     */
+    public static ByteBuffer pipelinedHeader(byte[] frame, int requestId) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + REQUEST_ID_LENGTH);
+        header.putInt(frame.length - HEADER_LENGTH + 1 + REQUEST_ID_LENGTH);
+        header.put(frame[HEADER_LENGTH - 1]);
+        header.putInt(requestId);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * @param requestId l'identifiant de la requête 'INSCRIRE'
+     * @param status la réponse du serveur
+     * @return la trame {@link #OP_REGISTERED} du mode pipeline
+     */
+    public static ByteBuffer encodeRegistered(int requestId, RegistrationStatus status) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + REQUEST_ID_LENGTH + 1);
+        buffer.putInt(1 + REQUEST_ID_LENGTH + 1);
+        buffer.put(OP_REGISTERED);
+        buffer.putInt(requestId);
+        buffer.put(status.getCode());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @param frame une trame {@link #OP_REGISTERED}
+     * @return la réponse du serveur à 'INSCRIRE'
+     */
+    public static RegistrationStatus decodeRegistered(Frame frame) throws IOException {
+        expect(frame, OP_REGISTERED);
+        if (frame.getPayload().length != 1) {
+            throw new IOException("Réponse d'inscription invalide");
+        }
+        return RegistrationStatus.fromCode(frame.getPayload()[0]);
+    }
+
+    /**
+     * @param requestId l'identifiant de la requête refusée
+     * @param retryAfterMillis le délai avant de la renvoyer
+     * @return la trame {@link #OP_RETRY_AFTER} du mode pipeline
+     */
+    public static ByteBuffer encodeRetryAfter(int requestId, int retryAfterMillis) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + REQUEST_ID_LENGTH + 4);
+        buffer.putInt(1 + REQUEST_ID_LENGTH + 4);
+        buffer.put(OP_RETRY_AFTER);
+        buffer.putInt(requestId);
+        buffer.putInt(retryAfterMillis);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @param frame une trame {@link #OP_RETRY_AFTER}
+     * @return le délai en millisecondes avant de renvoyer la requête
+     */
+    public static int decodeRetryAfter(Frame frame) throws IOException {
+        expect(frame, OP_RETRY_AFTER);
+        if (frame.getPayload().length != 4) {
+            throw new IOException("Réponse de refus invalide");
+        }
+        return frame.payloadInput().readInt();
+    }
+
+    /**
+     * @param opcode le type du message
+     * @param payload les données du message
+     * @return la trame complète, prête à être copiée dans un socket
+     */
+    public static byte[] frame(byte opcode, byte[] payload) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(payload.length + 5);
+        try {
+            writeFrame(new DataOutputStream(buffer), opcode, payload);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Lire la poignée de main au début de la connexion.
+     * @param in le flux d'entrée
+     * @return {@link #MAGIC}, {@link #MAGIC_PIPELINED} ou leur variante compressée
+     */
+    public static int readMagic(InputStream in) throws IOException {
+        int magic = new DataInputStream(in).readInt();
+        if (!isKnownMagic(magic)) {
+            throw new IOException("Protocole inconnu: " + Integer.toHexString(magic));
+        }
+        return magic;
+    }
+
+    public static boolean isKnownMagic(int magic) {
+        return magic == MAGIC || magic == MAGIC_PIPELINED || magic == MAGIC_COMPRESSED || magic == MAGIC_PIPELINED_COMPRESSED;
+    }
+
+    /**
+     * @return vrai si la poignée de main choisit le mode pipeline
+     */
+    public static boolean isPipelined(int magic) {
+        return magic == MAGIC_PIPELINED || magic == MAGIC_PIPELINED_COMPRESSED;
+    }
+
+    /**
+     * @return vrai si la poignée de main accepte les réponses compressées
+     */
+    public static boolean isCompressed(int magic) {
+        return magic == MAGIC_COMPRESSED || magic == MAGIC_PIPELINED_COMPRESSED;
+    }
+
+    public static void writeMagic(OutputStream out) throws IOException {
+        writeMagic(out, MAGIC);
+    }
+
+    public static void writeMagic(OutputStream out, int magic) throws IOException {
+        new DataOutputStream(out).writeInt(magic);
+        out.flush();
+    }
+
+    /**
+     * Encoder une commande texte ("CHARGER Automne", "QUITTER", ...) sous forme de trame.
+     * @param cmd la commande
+     * @param arg l'argument, possiblement vide
+     * @return la trame complète
+     */
+    public static byte[] encodeCommand(String cmd, String arg) throws IOException {
+        if (cmd.equals(Server.LOAD_COMMAND)) {
+            return frame(OP_LOAD, utf(arg));
+        } else if (cmd.equals(Server.QUIT_COMMAND)) {
+            return frame(OP_QUIT, new byte[0]);
+        }
+        throw new IOException("Commande sans équivalent binaire: " + cmd);
+    }
+
+    /**
+     * @param form le formulaire d'inscription
+     * @return la trame 'INSCRIRE' qui transporte le formulaire
+     */
+    public static byte[] encodeRegistration(RegistrationForm form) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(buffer);
+        writeRegistrationForm(out, form);
+        return frame(OP_REGISTER, buffer.toByteArray());
+    }
+
+    /**
+     * Encoder des formulaires en trames 'IMPORTER' de taille bornée: "[int nombre][formulaire]...".
+     * Les formulaires gardent leur ordre d'une trame à l'autre.
+     * @param forms les formulaires à importer
+     * @param maxFrame la longueur maximale d'une trame, par exemple {@link #MAX_REQUEST_FRAME}
+     * @return les trames, sans identifiant de requête
+     */
+    public static List<byte[]> encodeImport(List<RegistrationForm> forms, int maxFrame) throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream(maxFrame);
+        ByteArrayOutputStream one = new ByteArrayOutputStream(256);
+        DataOutputStream oneOut = new DataOutputStream(one);
+        // Room for the pipelined header and the record count
+        int budget = maxFrame - 1 - REQUEST_ID_LENGTH - 4;
+        int count = 0;
+        for (RegistrationForm form : forms) {
+            one.reset();
+            writeRegistrationForm(oneOut, form);
+            if (one.size() > budget) {
+                throw new IOException("Formulaire trop grand pour une trame: " + form.getMatricule());
+            }
+            if (chunk.size() + one.size() > budget) {
+                frames.add(importFrame(count, chunk));
+                chunk.reset();
+                count = 0;
+            }
+            one.writeTo(chunk);
+            count++;
+        }
+        if (count > 0) {
+            frames.add(importFrame(count, chunk));
+        }
+        return frames;
+    }
+
+    private static byte[] importFrame(int count, ByteArrayOutputStream forms) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(forms.size() + 4);
+        new DataOutputStream(buffer).writeInt(count);
+        forms.writeTo(buffer);
+        return frame(OP_IMPORT, buffer.toByteArray());
+    }
+
+    /**
+     * @param frame une trame 'IMPORTER'
+     * @return les formulaires qu'elle transporte
+     */
+    public static List<RegistrationForm> decodeImport(Frame frame) throws IOException {
+        expect(frame, OP_IMPORT);
+        DataInputStream in = frame.payloadInput();
+        int count = in.readInt();
+        // Every form takes at least a few bytes, so a count larger than the payload is a lie
+        if (count < 0 || count > frame.getPayload().length) {
+            throw new IOException("Nombre de formulaires invalide: " + count);
+        }
+        List<RegistrationForm> forms = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            forms.add(readRegistrationForm(in));
+        }
+        return forms;
+    }
+
+    /**
+     * @param statuses la réponse pour chaque formulaire, dans l'ordre de la requête
+     * @return la trame de réponse à 'IMPORTER'
+     */
+    public static byte[] encodeImported(RegistrationStatus[] statuses) {
+        byte[] payload = new byte[4 + statuses.length];
+        ByteBuffer.wrap(payload).putInt(statuses.length);
+        for (int i = 0; i < statuses.length; i++) {
+            payload[4 + i] = statuses[i].getCode();
+        }
+        return frame(OP_IMPORTED, payload);
+    }
+
+    /**
+     * @param frame une trame {@link #OP_IMPORTED}
+     * @return la réponse pour chaque formulaire importé
+     */
+    public static List<RegistrationStatus> decodeImported(Frame frame) throws IOException {
+        expect(frame, OP_IMPORTED);
+        DataInputStream in = frame.payloadInput();
+        int count = in.readInt();
+        if (count != frame.getPayload().length - 4) {
+            throw new IOException("Réponse d'import invalide");
+        }
+        List<RegistrationStatus> statuses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            statuses.add(RegistrationStatus.fromCode(in.readByte()));
+        }
+        return statuses;
+    }
+
+    /**
+     * @param query la recherche
+     * @return la trame 'CHERCHER'
+     */
+    public static byte[] encodeQuery(CourseQuery query) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeUTF(query.getSession());
+        out.writeUTF(query.getCodePrefix());
+        out.writeUTF(query.getNameContains());
+        out.writeInt(query.getLimit());
+        out.writeUTF(query.getAfter());
+        return frame(OP_QUERY, buffer.toByteArray());
+    }
+
+    /**
+     * @param session la session du cours
+     * @param code le code du cours
+     * @return la trame 'TROUVER'
+     */
+    public static byte[] encodeLookup(String session, String code) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeUTF(session);
+        out.writeUTF(code);
+        return frame(OP_LOOKUP, buffer.toByteArray());
+    }
+
+    /**
+     * @param session la session du catalogue à suivre
+     * @return la trame 'ABONNER'
+     */
+    public static byte[] encodeSubscribe(String session) throws IOException {
+        return frame(OP_SUBSCRIBE, utf(session));
+    }
+
+    /**
+     * @param session la session du catalogue à ne plus suivre
+     * @return la trame 'DESABONNER'
+     */
+    public static byte[] encodeUnsubscribe(String session) throws IOException {
+        return frame(OP_UNSUBSCRIBE, utf(session));
+    }
+
+    /**
+     * @param delta les changements d'une session
+     * @return la trame {@link #OP_DELTA}: "[session][long version][byte remise à zéro][int n][cours ajoutés]...
+     * [int n][codes retirés]...[int n][cours changés]...[int n][code, int inscrits, int places]..."
+     */
+    public static byte[] encodeDelta(CatalogDelta delta) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(32 + (delta.getAdded().size() + delta.getChanged().size()) * 40
+                + delta.getSeats().size() * 16);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeUTF(delta.getSession());
+        out.writeLong(delta.getVersion());
+        out.writeBoolean(delta.isReset());
+        out.writeInt(delta.getAdded().size());
+        for (Course course : delta.getAdded()) {
+            writeCourse(out, course);
+        }
+        out.writeInt(delta.getRemoved().size());
+        for (String code : delta.getRemoved()) {
+            out.writeUTF(code);
+        }
+        out.writeInt(delta.getChanged().size());
+        for (Course course : delta.getChanged()) {
+            writeCourse(out, course);
+        }
+        out.writeInt(delta.getSeats().size());
+        for (CatalogDelta.Seats seats : delta.getSeats()) {
+            out.writeUTF(seats.getCode());
+            out.writeInt(seats.getEnrolled());
+            out.writeInt(seats.getCapacity());
+        }
+        return frame(OP_DELTA, buffer.toByteArray());
+    }
+
+    /**
+     * @param frame une trame {@link #OP_DELTA}
+     * @return les changements d'une session
+     */
+    public static CatalogDelta decodeDelta(Frame frame) throws IOException {
+        expect(frame, OP_DELTA);
+        DataInputStream in = frame.payloadInput();
+        String session = in.readUTF();
+        long version = in.readLong();
+        boolean reset = in.readBoolean();
+        List<Course> added = new ArrayList<>();
+        for (int i = readCount(in); i > 0; i--) {
+            added.add(readCourse(in));
+        }
+        List<String> removed = new ArrayList<>();
+        for (int i = readCount(in); i > 0; i--) {
+            removed.add(in.readUTF());
+        }
+        List<Course> changed = new ArrayList<>();
+        for (int i = readCount(in); i > 0; i--) {
+            changed.add(readCourse(in));
+        }
+        List<CatalogDelta.Seats> seats = new ArrayList<>();
+        for (int i = readCount(in); i > 0; i--) {
+            seats.add(new CatalogDelta.Seats(in.readUTF(), in.readInt(), in.readInt()));
+        }
+        return new CatalogDelta(session, version, reset, added, removed, changed, seats);
+    }
+
+    /**
+     * @param query une requête d'analyse, voir {@link server.analytics.EnrollmentAnalytics}
+     * @return la trame 'ANALYSER'
+     */
+    public static byte[] encodeAnalyze(String query) throws IOException {
+        return frame(OP_ANALYZE, utf(query));
+    }
+
+    /**
+     * @param result la réponse à une requête d'analyse
+     * @return la trame {@link #OP_ANALYSIS}: "[erreur vide][long lignes][int n][clé, long valeur]..."
+     */
+    public static byte[] encodeAnalysis(AnalyticsResult result) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(16 + result.size() * 32);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeUTF("");
+        out.writeLong(result.getRows());
+        out.writeInt(result.size());
+        for (int i = 0; i < result.size(); i++) {
+            out.writeUTF(result.getKeys().get(i));
+            out.writeLong(result.getValue(i));
+        }
+        return frame(OP_ANALYSIS, buffer.toByteArray());
+    }
+
+    /**
+     * @param error la raison du refus d'une requête d'analyse
+     * @return la trame {@link #OP_ANALYSIS} qui ne porte que l'erreur
+     */
+    public static byte[] encodeAnalysisError(String error) throws IOException {
+        return frame(OP_ANALYSIS, utf(error.isEmpty() ? "Erreur" : error));
+    }
+
+    /**
+     * @param frame une trame {@link #OP_ANALYSIS}
+     * @return la réponse à la requête
+     * @throws IOException avec le message du serveur s'il a refusé la requête
+     */
+    public static AnalyticsResult decodeAnalysis(Frame frame) throws IOException {
+        expect(frame, OP_ANALYSIS);
+        DataInputStream in = frame.payloadInput();
+        String error = in.readUTF();
+        if (!error.isEmpty()) {
+            throw new IOException(error);
+        }
+        long rows = in.readLong();
+        int count = readCount(in);
+        List<String> keys = new ArrayList<>(count);
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys.add(in.readUTF());
+            values[i] = in.readLong();
+        }
+        return new AnalyticsResult(rows, keys, values);
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        // Every entry takes at least two bytes, so a larger count cannot be honest
+        if (count < 0 || count > in.available() / 2) {
+            throw new IOException("Nombre d'éléments invalide: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * @param page le résultat d'une recherche
+     * @return la trame de réponse à 'CHERCHER' ou 'TROUVER': "[int nombre][cours]...[curseur]"
+     */
+    public static byte[] encodePage(CourseIndex.Page page) throws IOException {
+        List<Course> courses = page.getCourses();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(16 + courses.size() * 40);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(courses.size());
+        for (Course course : courses) {
+            writeCourse(out, course);
+        }
+        out.writeUTF(page.getNextCursor());
+        return frame(OP_PAGE, buffer.toByteArray());
+    }
+
+    /**
+     * @param frame une trame {@link #OP_PAGE}
+     * @return la page de cours
+     */
+    public static CourseIndex.Page decodePage(Frame frame) throws IOException {
+        expect(frame, OP_PAGE);
+        DataInputStream in = frame.payloadInput();
+        int count = in.readInt();
+        if (count < 0 || count > CourseQuery.MAX_LIMIT) {
+            throw new IOException("Nombre de cours invalide: " + count);
+        }
+        List<Course> courses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            courses.add(readCourse(in));
+        }
+        return new CourseIndex.Page(courses, in.readUTF());
+    }
+
+    /**
+     * @param courses la liste des cours
+     * @return la trame de réponse à 'CHARGER'
+     */
+    public static byte[] encodeCourses(List<Course> courses) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(16 + courses.size() * 40);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(courses.size());
+        for (Course course : courses) {
+            writeCourse(out, course);
+        }
+        return frame(OP_COURSES, buffer.toByteArray());
+    }
+
+    /**
+     * @param frame une trame 'COURSES'
+     * @return la liste des cours
+     */
+    public static List<Course> decodeCourses(Frame frame) throws IOException {
+        expect(frame, OP_COURSES);
+        DataInputStream in = frame.payloadInput();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Nombre de cours invalide: " + count);
+        }
+        List<Course> courses = new ArrayList<>(Math.min(count, 4096));
+        for (int i = 0; i < count; i++) {
+            courses.add(readCourse(in));
+        }
+        return courses;
+    }
+
+    /**
+     * @param frame une trame 'INSCRIRE'
+     * @return le formulaire qu'elle transporte
+     */
+    public static RegistrationForm decodeRegistration(Frame frame) throws IOException {
+        expect(frame, OP_REGISTER);
+        return readRegistrationForm(frame.payloadInput());
+    }
+
+    /**
+     * @param frame une trame 'CHERCHER'
+     * @return la recherche qu'elle transporte, ou null si ses données sont illisibles; la trame suivante
+     * commence quand même au bon endroit, donc la connexion peut continuer
+     */
+    public static CourseQuery decodeQuery(Frame frame) throws IOException {
+        expect(frame, OP_QUERY);
+        DataInputStream in = frame.payloadInput();
+        try {
+            String session = in.readUTF();
+            String prefix = in.readUTF();
+            String contains = in.readUTF();
+            int limit = in.readInt();
+            return new CourseQuery(session, prefix, contains, limit, in.readUTF());
+        } catch (EOFException | UTFDataFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param frame une trame 'TROUVER'
+     * @return le cours demandé, dont seuls la session et le code sont connus et dont le nom est vide,
+     * ou null si ses données sont illisibles
+     */
+    public static Course decodeLookup(Frame frame) throws IOException {
+        expect(frame, OP_LOOKUP);
+        DataInputStream in = frame.payloadInput();
+        try {
+            String session = in.readUTF();
+            return new Course("", in.readUTF(), session);
+        } catch (EOFException | UTFDataFormatException e) {
+            return null;
+        }
+    }
+
+    public static void writeCourse(DataOutputStream out, Course course) throws IOException {
+        out.writeUTF(course.getCode());
+        out.writeUTF(course.getName());
+        out.writeUTF(course.getSession());
+    }
+
+    public static Course readCourse(DataInputStream in) throws IOException {
+        String code = in.readUTF();
+        String name = in.readUTF();
+        String session = in.readUTF();
+        return new Course(name, code, session);
+    }
+
+    public static void writeRegistrationForm(DataOutputStream out, RegistrationForm form) throws IOException {
+        out.writeUTF(form.getPrenom());
+        out.writeUTF(form.getNom());
+        out.writeUTF(form.getEmail());
+        out.writeUTF(form.getMatricule());
+        writeCourse(out, form.getCourse());
+    }
+
+    public static RegistrationForm readRegistrationForm(DataInputStream in) throws IOException {
+        String prenom = in.readUTF();
+        String nom = in.readUTF();
+        String email = in.readUTF();
+        String matricule = in.readUTF();
+        Course course = readCourse(in);
+        return new RegistrationForm(prenom, nom, email, matricule, course);
+    }
+
+    /**
+     * Remplir la commande d'une session à partir d'une trame, sans passer par une ligne de texte.
+     * @param frame une trame de commande reçue par le serveur
+     * @param into la commande à remplir
+     */
+    public static void decodeCommand(Frame frame, CommandLine into) throws IOException {
+        switch (frame.getOpcode()) {
+            case OP_LOAD:
+                into.set(Command.CHARGER, frame.payloadInput().readUTF());
+                break;
+            case OP_REGISTER:
+                into.set(Command.INSCRIRE, "");
+                break;
+            case OP_QUIT:
+                into.set(Command.QUITTER, "");
+                break;
+            case OP_IMPORT:
+                into.set(Command.IMPORTER, "");
+                break;
+            case OP_QUERY:
+                // Decoded apart with decodeQuery, like a registration form: an unreadable query is answered, not fatal
+                into.set(Command.CHERCHER, "");
+                break;
+            case OP_LOOKUP:
+                into.set(Command.TROUVER, "");
+                break;
+            case OP_SUBSCRIBE:
+                into.set(Command.ABONNER, frame.payloadInput().readUTF());
+                break;
+            case OP_UNSUBSCRIBE:
+                into.set(Command.DESABONNER, frame.payloadInput().readUTF());
+                break;
+            case OP_ANALYZE:
+                into.set(Command.ANALYSER, frame.payloadInput().readUTF());
+                break;
+            default:
+                throw new IOException("Opcode inconnu: " + frame.getOpcode());
+        }
+    }
+
+    private static void expect(Frame frame, byte opcode) throws IOException {
+        if (frame.getOpcode() != opcode) {
+            throw new IOException("Opcode " + opcode + " attendu, reçu " + frame.getOpcode());
+        }
+    }
+
+    private static byte[] utf(String s) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(s.length() + 2);
+        new DataOutputStream(buffer).writeUTF(s);
+        return buffer.toByteArray();
+    }
+}
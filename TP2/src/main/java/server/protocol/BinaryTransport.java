@@ -0,0 +1,196 @@
+package server.protocol;
+
+import server.CommandLine;
+import server.catalog.CourseQuery;
+import server.models.Course;
+import server.models.RegistrationForm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Le mode binaire de {@link BinaryCodec}.
+ * Une trame 'INSCRIRE' transporte son formulaire: il est décodé avec la commande et gardé jusqu'à
+ * l'appel de {@link #readRegistrationForm}; de même pour les formulaires d'une trame 'IMPORTER', la recherche
+ * d'une trame 'CHERCHER' et le cours d'une trame 'TROUVER'.
+ * En mode pipeline, l'identifiant de la dernière requête lue est gardé de la même manière et ajouté aux réponses.
+ * Avec la compression, le transport retient le dernier dictionnaire envoyé pour ne l'envoyer qu'une fois.
+ */
+public class BinaryTransport implements Transport {
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final boolean pipelined;
+    private final boolean compressed;
+    private RegistrationForm pendingForm;
+    private List<RegistrationForm> pendingImport;
+    private CourseQuery pendingQuery;
+    private Course pendingLookup;
+    private int requestId;
+    private int dictionaryId;
+    private boolean dictionarySent;
+
+    public BinaryTransport(InputStream input, OutputStream output) {
+        this(input, output, false);
+    }
+
+    /**
+     * @param input le flux d'entrée du socket
+     * @param output le flux de sortie du socket
+     * @param pipelined vrai si le client a choisi {@link BinaryCodec#MAGIC_PIPELINED}
+     */
+    public BinaryTransport(InputStream input, OutputStream output, boolean pipelined) {
+        this(input, output, pipelined, false);
+    }
+
+    /**
+     * @param input le flux d'entrée du socket
+     * @param output le flux de sortie du socket
+     * @param pipelined vrai si le client a choisi le mode pipeline
+     * @param compressed vrai si le client accepte les réponses compressées
+     */
+    public BinaryTransport(InputStream input, OutputStream output, boolean pipelined, boolean compressed) {
+        this.in = new DataInputStream(input);
+        this.out = new DataOutputStream(new BufferedOutputStream(output));
+        this.pipelined = pipelined;
+        this.compressed = compressed;
+    }
+
+    @Override
+    public WireFormat getFormat() {
+        return WireFormat.BINARY;
+    }
+
+    @Override
+    public void readCommand(CommandLine into) throws IOException {
+        BinaryCodec.Frame frame = BinaryCodec.readFrame(in, BinaryCodec.MAX_REQUEST_FRAME, pipelined);
+        if (frame.getOpcode() == BinaryCodec.OP_REGISTER) {
+            pendingForm = BinaryCodec.decodeRegistration(frame);
+        } else if (frame.getOpcode() == BinaryCodec.OP_IMPORT) {
+            pendingImport = BinaryCodec.decodeImport(frame);
+        } else if (frame.getOpcode() == BinaryCodec.OP_QUERY) {
+            pendingQuery = BinaryCodec.decodeQuery(frame);
+        } else if (frame.getOpcode() == BinaryCodec.OP_LOOKUP) {
+            pendingLookup = BinaryCodec.decodeLookup(frame);
+        }
+        requestId = frame.getRequestId();
+        BinaryCodec.decodeCommand(frame, into);
+    }
+
+    @Override
+    public RegistrationForm readRegistrationForm() throws IOException {
+        if (pendingForm == null) {
+            throw new IOException("Aucun formulaire reçu avec la commande");
+        }
+        RegistrationForm form = pendingForm;
+        pendingForm = null;
+        return form;
+    }
+
+    @Override
+    public List<RegistrationForm> readImportBatch() throws IOException {
+        if (pendingImport == null) {
+            throw new IOException("Aucun formulaire reçu avec la commande");
+        }
+        List<RegistrationForm> forms = pendingImport;
+        pendingImport = null;
+        return forms;
+    }
+
+    @Override
+    public CourseQuery readQuery() throws IOException {
+        if (pendingQuery == null) {
+            throw new IOException("Aucune recherche lisible reçue avec la commande");
+        }
+        CourseQuery query = pendingQuery;
+        pendingQuery = null;
+        return query;
+    }
+
+    @Override
+    public Course readLookup() throws IOException {
+        if (pendingLookup == null) {
+            throw new IOException("Aucun cours lisible reçu avec la commande");
+        }
+        Course course = pendingLookup;
+        pendingLookup = null;
+        return course;
+    }
+
+    @Override
+    public void writeEncoded(byte[] bytes) throws IOException {
+        writeEncoded(requestId, bytes);
+    }
+
+    @Override
+    public void writeEncoded(int requestId, byte[] bytes) throws IOException {
+        write(requestId, bytes);
+        out.flush();
+    }
+
+    /**
+     * Les appels sont sérialisés par la session, comme toutes les écritures: le dictionnaire et la trame
+     * qui s'en sert partent donc l'un après l'autre.
+     */
+    @Override
+    public void writeCompressed(int requestId, PayloadCompressor compressor, byte[] bytes) throws IOException {
+        if (!compressed) {
+            throw new IOException("Le client n'a pas demandé la compression");
+        }
+        if (PayloadCompressor.isCompressed(bytes) && (!dictionarySent || dictionaryId != compressor.getDictionaryId())) {
+            write(requestId, compressor.getDictionaryFrame());
+            dictionaryId = compressor.getDictionaryId();
+            dictionarySent = true;
+        }
+        writeEncoded(requestId, bytes);
+    }
+
+    private void write(int requestId, byte[] frame) throws IOException {
+        if (pipelined) {
+            BinaryCodec.writeFrame(out, frame, requestId);
+        } else {
+            out.write(frame);
+        }
+    }
+
+    @Override
+    public int getRequestId() {
+        return requestId;
+    }
+
+    @Override
+    public void writeRegistered(int requestId, RegistrationStatus status) throws IOException {
+        if (!pipelined) {
+            return;
+        }
+        ByteBuffer frame = BinaryCodec.encodeRegistered(requestId, status);
+        out.write(frame.array(), 0, frame.limit());
+        out.flush();
+    }
+
+    @Override
+    public void writeRetryAfter(int requestId, int retryAfterMillis) throws IOException {
+        if (!pipelined) {
+            return;
+        }
+        ByteBuffer frame = BinaryCodec.encodeRetryAfter(requestId, retryAfterMillis);
+        out.write(frame.array(), 0, frame.limit());
+        out.flush();
+    }
+
+    @Override
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return compressed;
+    }
+}
@@ -0,0 +1,144 @@
+package server.protocol;
+
+import server.CommandLine;
+import server.catalog.CourseQuery;
+import server.models.Course;
+import server.models.RegistrationForm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Le mode d'origine: les commandes arrivent comme des String sérialisées et les réponses partent
+ * par un ObjectOutputStream.
+ */
+public class ObjectStreamTransport implements Transport {
+
+    /**
+     * Seules les classes du protocole peuvent être désérialisées à partir d'un client.
+     */
+    public static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "java.lang.String;server.models.RegistrationForm;server.models.Course;maxdepth=4;!*");
+
+    private final ObjectOutputStream objectOutputStream;
+    private final ObjectInputStream objectInputStream;
+    private final OutputStream rawOutputStream;
+
+    public ObjectStreamTransport(InputStream input, OutputStream output) throws IOException {
+        this.rawOutputStream = output;
+        this.objectOutputStream = new ObjectOutputStream(output);
+        this.objectOutputStream.flush();
+        this.objectInputStream = new ObjectInputStream(input);
+        this.objectInputStream.setObjectInputFilter(FILTER);
+    }
+
+    @Override
+    public WireFormat getFormat() {
+        return WireFormat.OBJECT_STREAM;
+    }
+
+    @Override
+    public void readCommand(CommandLine into) throws IOException {
+        into.parse(readObject().toString());
+    }
+
+    @Override
+    public RegistrationForm readRegistrationForm() throws IOException {
+        Object obj = readObject();
+        if (!(obj instanceof RegistrationForm)) {
+            throw new InvalidClassException("RegistrationForm attendu, reçu " + obj.getClass().getName());
+        }
+        return (RegistrationForm) obj;
+    }
+
+    /**
+     * Envoyer un objet déjà sérialisé (sans en-tête de flux) directement dans le socket.
+     * Le reset avant l'envoi vide la table des références des deux côtés, donc les octets préparés d'avance
+     * sont lus par le client comme un objet neuf; le reset du prochain envoi fait oublier au client les
+     * références créées par ces octets, que ce flux ne connaît pas.
+     * @param bytes l'objet sérialisé, voir {@link WireFormat#serialize}
+     */
+    @Override
+    public void writeEncoded(byte[] bytes) throws IOException {
+        objectOutputStream.reset();
+        objectOutputStream.flush();
+        rawOutputStream.write(bytes);
+        rawOutputStream.flush();
+    }
+
+    @Override
+    public List<RegistrationForm> readImportBatch() throws IOException {
+        throw new IOException("La commande 'IMPORTER' n'est servie qu'en mode binaire");
+    }
+
+    @Override
+    public CourseQuery readQuery() throws IOException {
+        throw new IOException("La commande 'CHERCHER' n'est servie qu'en mode binaire");
+    }
+
+    @Override
+    public Course readLookup() throws IOException {
+        throw new IOException("La commande 'TROUVER' n'est servie qu'en mode binaire");
+    }
+
+    @Override
+    public void writeEncoded(int requestId, byte[] bytes) throws IOException {
+        writeEncoded(bytes);
+    }
+
+    @Override
+    public int getRequestId() {
+        return 0;
+    }
+
+    @Override
+    public void writeRegistered(int requestId, RegistrationStatus status) {
+        // The object-stream client never reads a reply to INSCRIRE
+    }
+
+    @Override
+    public boolean isPipelined() {
+        return false;
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return false;
+    }
+
+    @Override
+    public void writeCompressed(int requestId, PayloadCompressor compressor, byte[] bytes) throws IOException {
+        throw new IOException("La compression n'est servie qu'en mode binaire");
+    }
+
+    @Override
+    public void writeRetryAfter(int requestId, int retryAfterMillis) {
+        // Nor can it be told to come back later
+    }
+
+    /**
+     * Envoyer un objet au client et vider le tampon de sortie.
+     * Le flux est réinitialisé avant chaque envoi: sans cela un objet déjà envoyé ne serait renvoyé
+     * que comme une référence, et le flux garderait tout en mémoire.
+     * @param obj l'objet à envoyer
+     */
+    public void writeObject(Object obj) throws IOException {
+        objectOutputStream.reset();
+        objectOutputStream.writeObject(obj);
+        objectOutputStream.flush();
+    }
+
+    private Object readObject() throws IOException {
+        try {
+            return objectInputStream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        }
+    }
+}
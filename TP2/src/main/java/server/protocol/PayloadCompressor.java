@@ -0,0 +1,253 @@
+package server.protocol;
+
+import server.models.Course;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression des grandes réponses du protocole binaire, pour les clients qui l'ont demandée
+ * avec {@link BinaryCodec#MAGIC_COMPRESSED} ou {@link BinaryCodec#MAGIC_PIPELINED_COMPRESSED}.
+ *
+ * Une liste de cours répète surtout les mêmes chaînes: le nom de la session pour chaque cours, le préfixe
+ * des codes et les mots des noms de cours. Le compresseur est construit à partir des cours du catalogue et
+ * amorce zlib avec un dictionnaire de ces chaînes, déjà encodées comme dans les trames.
+ * Le dictionnaire part une fois par connexion dans une trame {@link BinaryCodec#OP_DICTIONARY}, juste avant la
+ * première trame compressée qui s'en sert; le client le retrouve ensuite par sa somme Adler-32, que zlib écrit
+ * dans l'en-tête de chaque flux compressé.
+ *
+ * Une trame compressée est "[byte opcode d'origine][int longueur d'origine][flux zlib]" sous l'opcode
+ * {@link BinaryCodec#OP_COMPRESSED}. Les trames plus petites que le seuil, ou que la compression n'a pas
+ * réduites, partent telles quelles.
+ */
+public final class PayloadCompressor {
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+    // zlib only looks 32 KiB back, so the start of a larger dictionary would never be used
+    public static final int MAX_DICTIONARY = 32 * 1024;
+
+    private static final int HEADER_LENGTH = 5;
+    // The original opcode and length, ahead of the zlib stream
+    private static final int ORIGINAL_HEADER_LENGTH = 5;
+    private static final int CHUNK = 8192;
+
+    private final byte[] dictionary;
+    private final int id;
+    private final int threshold;
+    private final byte[] dictionaryFrame;
+
+    /**
+     * @param dictionary le dictionnaire qui amorce zlib, au plus {@link #MAX_DICTIONARY} octets
+     * @param threshold la taille des données en dessous de laquelle une trame n'est pas compressée
+     */
+    public PayloadCompressor(byte[] dictionary, int threshold) {
+        if (dictionary.length > MAX_DICTIONARY) {
+            throw new IllegalArgumentException("Dictionnaire trop grand: " + dictionary.length);
+        }
+        this.dictionary = dictionary.clone();
+        this.id = dictionaryId(this.dictionary);
+        this.threshold = threshold;
+        this.dictionaryFrame = BinaryCodec.frame(BinaryCodec.OP_DICTIONARY, this.dictionary);
+    }
+
+    /**
+     * Construire le dictionnaire à partir des chaînes les plus fréquentes des cours. Les plus fréquentes
+     * sont mises à la fin, où zlib les atteint avec les distances les plus courtes.
+     * @param courses les cours du catalogue, toutes sessions confondues
+     * @param threshold voir {@link #PayloadCompressor(byte[], int)}
+     * @return le compresseur
+     */
+    public static PayloadCompressor forCourses(Collection<Course> courses, int threshold) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Course course : courses) {
+            counts.merge(course.getSession(), 1, Integer::sum);
+            counts.merge(codePrefix(course.getCode()), 1, Integer::sum);
+            for (String word : course.getName().split("[_ ]")) {
+                if (word.length() > 2) {
+                    counts.merge(word, 1, Integer::sum);
+                }
+            }
+        }
+        List<Map.Entry<String, Integer>> frequent = new ArrayList<>(counts.entrySet());
+        frequent.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+
+        List<byte[]> kept = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> entry : frequent) {
+            // A string seen once cannot repeat within a frame
+            if (entry.getValue() < 2 || entry.getKey().isEmpty()) {
+                break;
+            }
+            byte[] encoded = utf(entry.getKey());
+            if (size + encoded.length > MAX_DICTIONARY) {
+                break;
+            }
+            kept.add(encoded);
+            size += encoded.length;
+        }
+        byte[] dictionary = new byte[size];
+        int at = 0;
+        for (int i = kept.size() - 1; i >= 0; i--) {
+            byte[] encoded = kept.get(i);
+            System.arraycopy(encoded, 0, dictionary, at, encoded.length);
+            at += encoded.length;
+        }
+        return new PayloadCompressor(dictionary, threshold);
+    }
+
+    private static String codePrefix(String code) {
+        int end = 0;
+        while (end < code.length() && Character.isLetter(code.charAt(end))) {
+            end++;
+        }
+        return code.substring(0, end);
+    }
+
+    /**
+     * Compresser une trame complète sans identifiant, voir {@link BinaryCodec#frame}. Comme toute trame du cache,
+     * le résultat reçoit l'identifiant de requête du mode pipeline au moment de l'envoi.
+     * @param frame la trame
+     * @return une trame {@link BinaryCodec#OP_COMPRESSED}, ou la trame elle-même si la compression n'en vaut pas la peine
+     */
+    public byte[] compress(byte[] frame) {
+        int length = frame.length - HEADER_LENGTH;
+        if (length < threshold) {
+            return frame;
+        }
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            if (dictionary.length > 0) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(frame, HEADER_LENGTH, length);
+            deflater.finish();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(length / 4 + 16);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeByte(frame[HEADER_LENGTH - 1]);
+            out.writeInt(length);
+            byte[] chunk = new byte[CHUNK];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            if (buffer.size() >= length) {
+                return frame;
+            }
+            return BinaryCodec.frame(BinaryCodec.OP_COMPRESSED, buffer.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param frame une trame renvoyée par {@link #compress}
+     * @return vrai si le client a besoin du dictionnaire pour la lire
+     */
+    public static boolean isCompressed(byte[] frame) {
+        return frame[HEADER_LENGTH - 1] == BinaryCodec.OP_COMPRESSED;
+    }
+
+    /**
+     * @return l'identifiant du dictionnaire, sa somme Adler-32
+     */
+    public int getDictionaryId() {
+        return id;
+    }
+
+    /**
+     * @return la trame {@link BinaryCodec#OP_DICTIONARY} à envoyer avant la première trame compressée
+     */
+    public byte[] getDictionaryFrame() {
+        return dictionaryFrame;
+    }
+
+    /**
+     * @param frame une trame {@link BinaryCodec#OP_DICTIONARY}
+     * @return le dictionnaire qu'elle transporte
+     */
+    public static byte[] decodeDictionary(BinaryCodec.Frame frame) throws IOException {
+        if (frame.getOpcode() != BinaryCodec.OP_DICTIONARY || frame.getPayload().length > MAX_DICTIONARY) {
+            throw new IOException("Dictionnaire invalide");
+        }
+        return frame.getPayload();
+    }
+
+    /**
+     * @param dictionary un dictionnaire
+     * @return l'identifiant sous lequel zlib le demande, voir {@link Inflater#getAdler()}
+     */
+    public static int dictionaryId(byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        return (int) adler.getValue();
+    }
+
+    /**
+     * Décompresser une trame {@link BinaryCodec#OP_COMPRESSED}.
+     * @param frame la trame reçue
+     * @param dictionaries les dictionnaires reçus sur la connexion, par identifiant; null si inconnu
+     * @return la trame d'origine, avec l'identifiant de requête de la trame reçue
+     */
+    public static BinaryCodec.Frame decompress(BinaryCodec.Frame frame, IntFunction<byte[]> dictionaries) throws IOException {
+        byte[] payload = frame.getPayload();
+        DataInputStream in = frame.payloadInput();
+        byte opcode = in.readByte();
+        int length = in.readInt();
+        if (length < 0 || length > BinaryCodec.MAX_RESPONSE_FRAME) {
+            throw new IOException("Longueur décompressée invalide: " + length);
+        }
+        byte[] original = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload, ORIGINAL_HEADER_LENGTH, payload.length - ORIGINAL_HEADER_LENGTH);
+            int at = 0;
+            while (!inflater.finished()) {
+                int n = inflater.inflate(original, at, length - at);
+                at += n;
+                if (n > 0) {
+                    continue;
+                }
+                if (inflater.needsDictionary()) {
+                    byte[] dictionary = dictionaries.apply(inflater.getAdler());
+                    if (dictionary == null) {
+                        throw new IOException("Dictionnaire inconnu: " + Integer.toHexString(inflater.getAdler()));
+                    }
+                    inflater.setDictionary(dictionary);
+                } else if (inflater.needsInput() || at == length) {
+                    throw new IOException("Trame compressée tronquée ou trop longue");
+                }
+            }
+            if (at != length) {
+                throw new IOException("Trame compressée tronquée");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Trame compressée invalide", e);
+        } finally {
+            inflater.end();
+        }
+        return new BinaryCodec.Frame(opcode, frame.getRequestId(), original);
+    }
+
+    private static byte[] utf(String s) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(s.length() + 2);
+        try {
+            new DataOutputStream(buffer).writeUTF(s);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.toByteArray();
+    }
+}
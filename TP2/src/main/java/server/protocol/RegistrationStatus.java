@@ -0,0 +1,63 @@
+package server.protocol;
+
+import server.registration.RegistrationIndex;
+
+import java.io.IOException;
+
+/**
+ * La réponse du serveur à une commande 'INSCRIRE' en mode pipeline, voir {@link BinaryCodec#MAGIC_PIPELINED},
+ * ou à chaque formulaire d'une commande 'IMPORTER'.
+ * Le code envoyé sur le réseau est la position de la constante: l'ordre ne doit pas changer.
+ */
+public enum RegistrationStatus {
+    /** L'inscription est écrite sur le disque. */
+    ACCEPTED,
+    /** L'étudiant est déjà inscrit à ce cours pour cette session. */
+    DUPLICATE,
+    /** Le cours n'a plus de place. */
+    FULL,
+    /** Un champ du formulaire est vide ou contient une tabulation ou un saut de ligne. */
+    INVALID,
+    /** La place était réservée, mais l'écriture dans le journal a échoué. */
+    FAILED,
+    /** Le cours n'existe pas dans le catalogue pour cette session; seul 'IMPORTER' le vérifie. */
+    UNKNOWN_COURSE,
+    /** La session du cours appartient à un autre noeud de la grappe, voir {@link server.cluster.ShardMap}. */
+    WRONG_SHARD,
+    /** Ce serveur est une réplique en lecture seule; les inscriptions vont au primaire. */
+    READ_ONLY;
+
+    private static final RegistrationStatus[] VALUES = values();
+
+    /**
+     * @param result la réponse de l'index à une demande de place
+     * @return le statut correspondant
+     */
+    public static RegistrationStatus of(RegistrationIndex.Result result) {
+        switch (result) {
+            case ACCEPTED:
+                return ACCEPTED;
+            case DUPLICATE:
+                return DUPLICATE;
+            case FULL:
+                return FULL;
+            default:
+                return INVALID;
+        }
+    }
+
+    /**
+     * @param code le code reçu du serveur
+     * @return le statut correspondant
+     */
+    public static RegistrationStatus fromCode(int code) throws IOException {
+        if (code < 0 || code >= VALUES.length) {
+            throw new IOException("Statut d'inscription inconnu: " + code);
+        }
+        return VALUES[code];
+    }
+
+    public byte getCode() {
+        return (byte) ordinal();
+    }
+}
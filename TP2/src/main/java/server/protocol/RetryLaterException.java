@@ -0,0 +1,27 @@
+package server.protocol;
+
+import java.io.IOException;
+
+/**
+ * Le serveur a refusé la requête sans la traiter parce qu'il est saturé ou que le client dépasse sa limite.
+ * Le client la lève à la réception d'une réponse {@link BinaryCodec#OP_RETRY_AFTER};
+ * la même requête peut être renvoyée après le délai indiqué.
+ */
+public class RetryLaterException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int retryAfterMillis;
+
+    /**
+     * @param retryAfterMillis le délai suggéré par le serveur avant de réessayer
+     */
+    public RetryLaterException(int retryAfterMillis) {
+        super("Serveur saturé, réessayer dans " + retryAfterMillis + " ms");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,130 @@
+package server.protocol;
+
+import server.CommandLine;
+import server.catalog.CourseQuery;
+import server.models.Course;
+import server.models.RegistrationForm;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * La manière dont une session lit les requêtes d'un client et lui répond, indépendamment du format.
+ */
+public interface Transport {
+
+    /**
+     * @return le format parlé sur cette connexion
+     */
+    WireFormat getFormat();
+
+    /**
+     * @return vrai si le client a choisi le mode pipeline, où chaque réponse porte l'identifiant de sa requête
+     */
+    boolean isPipelined();
+
+    /**
+     * @return vrai si le client accepte les réponses compressées, voir {@link PayloadCompressor}
+     */
+    boolean isCompressed();
+
+    /**
+     * Lire la prochaine commande, comme "CHARGER Automne".
+     * @param into la commande de la session, remplie et réutilisée à chaque appel
+     * @throws java.io.EOFException si le client a fermé la connexion
+     */
+    void readCommand(CommandLine into) throws IOException;
+
+    /**
+     * Lire le formulaire qui accompagne une commande 'INSCRIRE'.
+     * @return le formulaire
+     */
+    RegistrationForm readRegistrationForm() throws IOException;
+
+    /**
+     * Lire les formulaires qui accompagnent une commande 'IMPORTER'. Seul le format binaire la transporte.
+     * @return les formulaires, dans l'ordre de la requête
+     */
+    List<RegistrationForm> readImportBatch() throws IOException;
+
+    /**
+     * Lire la recherche qui accompagne une commande 'CHERCHER'. Seul le format binaire la transporte.
+     * @return la recherche
+     */
+    CourseQuery readQuery() throws IOException;
+
+    /**
+     * Lire le cours demandé par une commande 'TROUVER'. Seul le format binaire la transporte.
+     * @return le cours, dont seuls la session et le code sont connus
+     */
+    Course readLookup() throws IOException;
+
+    /**
+     * Écrire une réponse déjà encodée avec {@link WireFormat#encodeCourses} pour ce format.
+     * @param bytes la réponse
+     */
+    void writeEncoded(byte[] bytes) throws IOException;
+
+    /**
+     * Écrire la réponse d'une requête précise, qui n'est pas forcément la dernière lue.
+     * @param requestId l'identifiant de la requête, voir {@link #getRequestId()}
+     * @param bytes la réponse
+     */
+    void writeEncoded(int requestId, byte[] bytes) throws IOException;
+
+    /**
+     * Écrire une réponse passée par {@link PayloadCompressor#compress}, précédée du dictionnaire si le client
+     * ne l'a pas encore reçu. Seul un transport qui {@link #isCompressed() accepte la compression} la transporte.
+     * @param requestId l'identifiant de la requête, voir {@link #getRequestId()}
+     * @param compressor le compresseur qui a produit la réponse
+     * @param bytes la réponse, compressée ou non
+     */
+    void writeCompressed(int requestId, PayloadCompressor compressor, byte[] bytes) throws IOException;
+
+    /**
+     * @return l'identifiant de la dernière requête lue, 0 si le format n'en transporte pas
+     */
+    int getRequestId();
+
+    /**
+     * Répondre à une commande 'INSCRIRE'. Seul le mode pipeline transporte cette réponse; les autres formats
+     * l'ignorent, car leurs clients ne l'attendent pas.
+     * @param requestId l'identifiant de la requête, voir {@link #getRequestId()}
+     * @param status la réponse
+     */
+    void writeRegistered(int requestId, RegistrationStatus status) throws IOException;
+
+    /**
+     * Refuser une requête sans la traiter, en indiquant quand la renvoyer. Seul le mode pipeline transporte
+     * cette réponse; les autres formats l'ignorent.
+     * @param requestId l'identifiant de la requête, voir {@link #getRequestId()}
+     * @param retryAfterMillis le délai avant de renvoyer la requête
+     */
+    void writeRetryAfter(int requestId, int retryAfterMillis) throws IOException;
+
+    /**
+     * Choisir le format à partir des premiers octets envoyés par le client.
+     * L'en-tête de Java serialization (0xACED) donne le mode objets; sinon le client doit envoyer
+     * {@link BinaryCodec#MAGIC}, {@link BinaryCodec#MAGIC_PIPELINED} ou leur variante compressée, auquel le serveur
+     * répond par la même valeur.
+     * @param input le flux d'entrée du socket
+     * @param output le flux de sortie du socket
+     * @return le transport négocié
+     */
+    static Transport negotiate(InputStream input, OutputStream output) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(input);
+        in.mark(2);
+        int b0 = in.read();
+        int b1 = in.read();
+        in.reset();
+        if (b0 == 0xAC && b1 == 0xED) {
+            return new ObjectStreamTransport(in, output);
+        }
+        int magic = BinaryCodec.readMagic(in);
+        BinaryCodec.writeMagic(output, magic);
+        return new BinaryTransport(in, output, BinaryCodec.isPipelined(magic), BinaryCodec.isCompressed(magic));
+    }
+}
@@ -0,0 +1,56 @@
+package server.protocol;
+
+import server.models.Course;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Les formats de transmission que le serveur sait parler, choisis par le client à la connexion.
+ */
+public enum WireFormat {
+
+    /** Java serialization, le format d'origine du projet. */
+    OBJECT_STREAM {
+        @Override
+        public byte[] encodeCourses(List<Course> courses) throws IOException {
+            return serialize(courses);
+        }
+    },
+
+    /** Trames binaires de {@link BinaryCodec}. */
+    BINARY {
+        @Override
+        public byte[] encodeCourses(List<Course> courses) throws IOException {
+            return BinaryCodec.encodeCourses(courses);
+        }
+    };
+
+    private static final int STREAM_HEADER_LENGTH = 4;
+
+    /**
+     * Encoder une réponse 'CHARGER' dans ce format, sous une forme qui peut être copiée telle quelle dans le socket.
+     * @param courses la liste des cours
+     * @return les octets de la réponse
+     */
+    public abstract byte[] encodeCourses(List<Course> courses) throws IOException;
+
+    /**
+     * Sérialiser un objet sans l'en-tête de flux (STREAM_MAGIC, STREAM_VERSION).
+     * Les octets sont faits pour être écrits dans un ObjectOutputStream déjà ouvert, juste après un reset,
+     * voir {@link ObjectStreamTransport#writeEncoded}.
+     * @param obj l'objet à sérialiser
+     * @return les octets de l'objet seul
+     */
+    public static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(obj);
+        }
+        byte[] bytes = buffer.toByteArray();
+        return Arrays.copyOfRange(bytes, STREAM_HEADER_LENGTH, bytes.length);
+    }
+}
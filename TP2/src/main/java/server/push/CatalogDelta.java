@@ -0,0 +1,127 @@
+package server.push;
+
+import server.models.Course;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Les changements d'une session du catalogue envoyés à ses abonnés: les cours ajoutés, retirés ou renommés,
+ * et le nombre d'inscrits des cours dont il a changé. Le premier message d'un abonnement est une remise à zéro
+ * qui contient toute la session comme ajoutée.
+ */
+public final class CatalogDelta {
+
+    /**
+     * Le nombre d'inscrits d'un cours et sa capacité.
+     */
+    public static final class Seats {
+        private final String code;
+        private final int enrolled;
+        private final int capacity;
+
+        public Seats(String code, int enrolled, int capacity) {
+            this.code = code;
+            this.enrolled = enrolled;
+            this.capacity = capacity;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public int getEnrolled() {
+            return enrolled;
+        }
+
+        /**
+         * @return le nombre de places, {@link server.registration.RegistrationIndex#UNLIMITED} si le cours n'a pas de limite
+         */
+        public int getCapacity() {
+            return capacity;
+        }
+    }
+
+    private final String session;
+    private final long version;
+    private final boolean reset;
+    private final List<Course> added;
+    private final List<String> removed;
+    private final List<Course> changed;
+    private final List<Seats> seats;
+
+    /**
+     * @param session la session du catalogue
+     * @param version la version du catalogue après ces changements
+     * @param reset vrai si le message remplace tout ce que l'abonné connaît de la session
+     * @param added les cours ajoutés
+     * @param removed les codes des cours retirés
+     * @param changed les cours dont le nom a changé
+     * @param seats les cours dont le nombre d'inscrits a changé
+     */
+    public CatalogDelta(String session, long version, boolean reset, List<Course> added, List<String> removed,
+                        List<Course> changed, List<Seats> seats) {
+        this.session = session;
+        this.version = version;
+        this.reset = reset;
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.changed = Collections.unmodifiableList(changed);
+        this.seats = Collections.unmodifiableList(seats);
+    }
+
+    /**
+     * Appliquer les changements à la copie locale d'une session.
+     * @param courses les cours de la session, par code
+     */
+    public void applyTo(Map<String, Course> courses) {
+        if (reset) {
+            courses.clear();
+        }
+        for (Course course : added) {
+            courses.put(course.getCode(), course);
+        }
+        for (Course course : changed) {
+            courses.put(course.getCode(), course);
+        }
+        for (String code : removed) {
+            courses.remove(code);
+        }
+    }
+
+    /**
+     * @return vrai s'il n'y a rien à envoyer
+     */
+    public boolean isEmpty() {
+        return !reset && added.isEmpty() && removed.isEmpty() && changed.isEmpty() && seats.isEmpty();
+    }
+
+    public String getSession() {
+        return session;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    public List<Course> getAdded() {
+        return added;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public List<Course> getChanged() {
+        return changed;
+    }
+
+    public List<Seats> getSeats() {
+        return seats;
+    }
+}
@@ -0,0 +1,324 @@
+package server.push;
+
+import server.ClientSession;
+import server.ServerExecutors;
+import server.catalog.CatalogCompression;
+import server.catalog.CourseCatalog;
+import server.log.Log;
+import server.models.Course;
+import server.protocol.BinaryCodec;
+import server.protocol.PayloadCompressor;
+import server.registration.RegistrationIndex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Les abonnements des clients aux sessions du catalogue, et l'envoi de leurs changements.
+ *
+ * Un abonné reçoit d'abord l'état de la session, puis seulement ce qui change. Les changements ne sont pas
+ * envoyés un par un: les inscriptions marquent leur cours, et à chaque intervalle un thread compare
+ * le catalogue à celui déjà publié et lit le nombre d'inscrits des cours marqués. Chaque session encode
+ * alors un seul {@link CatalogDelta}, dont les mêmes octets partent vers tous ses abonnés.
+ * Mille inscriptions au même cours dans un intervalle coûtent donc un seul message par abonné.
+ * De même, un message assez grand pour être compressé ne l'est qu'une fois pour tous les abonnés qui l'ont demandé.
+ *
+ * Les messages sont préparés et mis dans la file de chaque abonné sous le verrou du hub, qui fixe leur ordre,
+ * puis envoyés une fois le verrou relâché. Un abonné qui ne lit plus est déconnecté après le délai d'écriture,
+ * voir {@link server.Server#setWriteTimeout}; en mode socket, il retarde jusque-là le thread qui lui écrit,
+ * mais jamais les abonnements ni la préparation des publications suivantes.
+ */
+public class SubscriptionHub implements Closeable {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 200;
+
+    private static final class Message {
+        private final PayloadCompressor compressor;
+        private final byte[] bytes;
+
+        Message(PayloadCompressor compressor, byte[] bytes) {
+            this.compressor = compressor;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Subscriber {
+        private final ClientSession session;
+        private final String semester;
+        private final int requestId;
+        // Filled under the hub's lock, in publication order; emptied while holding the subscriber's own lock
+        private final Queue<Message> outbox = new ConcurrentLinkedQueue<>();
+
+        Subscriber(ClientSession session, String semester, int requestId) {
+            this.session = session;
+            this.semester = semester;
+            this.requestId = requestId;
+        }
+    }
+
+    private final CourseCatalog catalog;
+    private final RegistrationIndex registrations;
+    private final CatalogCompression compression;
+    private final Map<String, Map<ClientSession, Subscriber>> subscribers = new ConcurrentHashMap<>();
+    // "session\tcode" of courses whose enrollment changed since the last publication
+    private final Set<String> dirtySeats = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService publisher;
+    private final LongAdder deltasSent = new LongAdder();
+    private CourseCatalog.Snapshot published;
+
+    /**
+     * @param catalog le catalogue suivi
+     * @param registrations l'index qui donne le nombre d'inscrits de chaque cours
+     * @param compression les compresseurs du catalogue, pour les abonnés qui ont demandé la compression
+     * @param interval l'intervalle entre deux publications
+     * @param unit l'unité de l'intervalle
+     */
+    public SubscriptionHub(CourseCatalog catalog, RegistrationIndex registrations, CatalogCompression compression,
+                           long interval, TimeUnit unit) {
+        this.catalog = catalog;
+        this.registrations = registrations;
+        this.compression = compression;
+        this.published = catalog.snapshot();
+        this.publisher = Executors.newSingleThreadScheduledExecutor(ServerExecutors.daemonThreads("catalog-push"));
+        this.publisher.scheduleWithFixedDelay(this::publish, interval, interval, unit);
+    }
+
+    /**
+     * Abonner un client à une session: il reçoit tout de suite l'état de la session, puis ses changements.
+     * Un deuxième abonnement du même client à la même session remplace le premier.
+     * @param session la connexion du client, en mode pipeline
+     * @param requestId l'identifiant de la commande 'ABONNER', porté par tous les messages de l'abonnement
+     * @param semester la session du catalogue
+     */
+    public void subscribe(ClientSession session, int requestId, String semester) {
+        Subscriber subscriber = new Subscriber(session, semester, requestId);
+        try {
+            synchronized (this) {
+                // Under the hub's lock, so that the state queued here is exactly the one the next delta starts from
+                List<Course> courses = published.getCourses(semester);
+                List<CatalogDelta.Seats> seats = new ArrayList<>(courses.size());
+                for (Course course : courses) {
+                    seats.add(seats(semester, course.getCode()));
+                }
+                CatalogDelta state = new CatalogDelta(semester, published.getVersion(), true, courses,
+                        Collections.emptyList(), Collections.emptyList(), seats);
+                byte[] bytes = BinaryCodec.encodeDelta(state);
+                if (session.isCompressed()) {
+                    PayloadCompressor compressor = compression.forSnapshot(published);
+                    subscriber.outbox.add(new Message(compressor, compressor.compress(bytes)));
+                } else {
+                    subscriber.outbox.add(new Message(null, bytes));
+                }
+                subscribers.computeIfAbsent(semester, k -> new ConcurrentHashMap<>()).put(session, subscriber);
+            }
+        } catch (IOException e) {
+            Log.debug("Abonnement non envoyé: {}", e.getMessage());
+            return;
+        }
+        deliver(subscriber);
+    }
+
+    /**
+     * @param session la connexion du client
+     * @param semester la session du catalogue qu'il ne suit plus
+     */
+    public void unsubscribe(ClientSession session, String semester) {
+        Map<ClientSession, Subscriber> current = subscribers.get(semester);
+        if (current != null) {
+            current.remove(session);
+        }
+    }
+
+    /**
+     * Retirer tous les abonnements d'une connexion, par exemple lorsqu'elle se ferme.
+     * @param session la connexion du client
+     */
+    public void unsubscribeAll(ClientSession session) {
+        for (Map<ClientSession, Subscriber> audience : subscribers.values()) {
+            audience.remove(session);
+        }
+    }
+
+    /**
+     * Signaler que le nombre d'inscrits d'un cours a changé. Ne coûte presque rien si personne ne suit sa session.
+     * @param semester la session du cours
+     * @param code le code du cours
+     */
+    public void enrollmentChanged(String semester, String code) {
+        Map<ClientSession, Subscriber> current = subscribers.get(semester);
+        if (current != null && !current.isEmpty()) {
+            dirtySeats.add(semester + '\t' + code);
+        }
+    }
+
+    /**
+     * Envoyer aux abonnés ce qui a changé depuis la dernière publication.
+     */
+    void publish() {
+        List<Subscriber> recipients = new ArrayList<>();
+        synchronized (this) {
+            try {
+                CourseCatalog.Snapshot current = catalog.snapshot();
+                Map<String, Set<String>> seatsBySession = drainDirtySeats();
+                for (Map.Entry<String, Map<ClientSession, Subscriber>> entry : subscribers.entrySet()) {
+                    if (entry.getValue().isEmpty()) {
+                        continue;
+                    }
+                    CatalogDelta delta = diff(entry.getKey(), current, seatsBySession.getOrDefault(entry.getKey(), Collections.emptySet()));
+                    if (!delta.isEmpty()) {
+                        enqueue(entry.getValue(), BinaryCodec.encodeDelta(delta), current, recipients);
+                    }
+                }
+                published = current;
+            } catch (IOException | RuntimeException e) {
+                // A failed publication must not cancel the periodic task
+                Log.error("Publication des changements du catalogue", e);
+            }
+        }
+        for (Subscriber subscriber : recipients) {
+            deliver(subscriber);
+        }
+    }
+
+    private Map<String, Set<String>> drainDirtySeats() {
+        Map<String, Set<String>> bySession = new HashMap<>();
+        Iterator<String> it = dirtySeats.iterator();
+        while (it.hasNext()) {
+            String key = it.next();
+            it.remove();
+            int tab = key.indexOf('\t');
+            bySession.computeIfAbsent(key.substring(0, tab), k -> new HashSet<>()).add(key.substring(tab + 1));
+        }
+        return bySession;
+    }
+
+    private CatalogDelta diff(String semester, CourseCatalog.Snapshot current, Set<String> changedSeats) {
+        List<Course> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<Course> changed = new ArrayList<>();
+        Set<String> seatCodes = new HashSet<>(changedSeats);
+        if (current != published) {
+            Map<String, Course> before = new HashMap<>();
+            for (Course course : published.getCourses(semester)) {
+                before.put(course.getCode(), course);
+            }
+            for (Course course : current.getCourses(semester)) {
+                Course old = before.remove(course.getCode());
+                if (old == null) {
+                    added.add(course);
+                    seatCodes.add(course.getCode());
+                } else if (!old.getName().equals(course.getName())) {
+                    changed.add(course);
+                }
+            }
+            removed.addAll(before.keySet());
+            seatCodes.removeAll(before.keySet());
+        }
+        List<CatalogDelta.Seats> seats = new ArrayList<>(seatCodes.size());
+        for (String code : seatCodes) {
+            seats.add(seats(semester, code));
+        }
+        return new CatalogDelta(semester, current.getVersion(), false, added, removed, changed, seats);
+    }
+
+    private CatalogDelta.Seats seats(String semester, String code) {
+        return new CatalogDelta.Seats(code, registrations.getEnrollment(semester, code), registrations.getCapacity(semester, code));
+    }
+
+    private void enqueue(Map<ClientSession, Subscriber> audience, byte[] bytes, CourseCatalog.Snapshot snapshot,
+                         List<Subscriber> recipients) {
+        Message plain = new Message(null, bytes);
+        Message compressed = null;
+        Iterator<Subscriber> it = audience.values().iterator();
+        while (it.hasNext()) {
+            Subscriber subscriber = it.next();
+            if (!subscriber.session.isOpen()) {
+                it.remove();
+                continue;
+            }
+            if (subscriber.session.isCompressed()) {
+                if (compressed == null) {
+                    PayloadCompressor compressor = compression.forSnapshot(snapshot);
+                    compressed = new Message(compressor, compressor.compress(bytes));
+                }
+                subscriber.outbox.add(compressed);
+            } else {
+                subscriber.outbox.add(plain);
+            }
+            recipients.add(subscriber);
+        }
+    }
+
+    /**
+     * Envoyer les messages en file d'un abonné, sans le verrou du hub. Le verrou de l'abonné garde l'ordre
+     * de la file lorsque l'abonnement et une publication envoient en même temps.
+     */
+    private void deliver(Subscriber subscriber) {
+        synchronized (subscriber) {
+            Message message;
+            while ((message = subscriber.outbox.poll()) != null) {
+                try {
+                    send(subscriber, message);
+                } catch (IOException e) {
+                    Log.debug("Abonné perdu: {}", e.getMessage());
+                    subscriber.outbox.clear();
+                    Map<ClientSession, Subscriber> audience = subscribers.get(subscriber.semester);
+                    if (audience != null) {
+                        audience.remove(subscriber.session, subscriber);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private void send(Subscriber subscriber, Message message) throws IOException {
+        if (!subscriber.session.isOpen()) {
+            throw new IOException("Connexion fermée");
+        }
+        if (message.compressor != null) {
+            subscriber.session.writeCompressed(subscriber.requestId, message.compressor, message.bytes);
+        } else {
+            subscriber.session.writeEncoded(subscriber.requestId, message.bytes);
+        }
+        deltasSent.increment();
+    }
+
+    /**
+     * @return le nombre d'abonnements en cours
+     */
+    public int getSubscriberCount() {
+        int count = 0;
+        for (Map<ClientSession, Subscriber> audience : subscribers.values()) {
+            count += audience.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return le nombre de messages envoyés aux abonnés
+     */
+    public long getDeltasSent() {
+        return deltasSent.sum();
+    }
+
+    @Override
+    public void close() {
+        publisher.shutdownNow();
+    }
+}
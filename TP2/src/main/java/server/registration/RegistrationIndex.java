@@ -0,0 +1,243 @@
+package server.registration;
+
+import server.exceptions.InvalidLineFormatException;
+import server.io.MappedTabFile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Index en mémoire des inscriptions, pour refuser en temps constant les doublons et les cours complets.
+ *
+ * L'index garde l'ensemble des clés (session, cours, matricule) et un compteur atomique d'inscrits par cours.
+ * Il est reconstruit à partir de inscription.txt au démarrage, puis mis à jour à chaque inscription:
+ * le fichier n'est plus jamais relu pendant que le serveur tourne.
+ */
+public class RegistrationIndex {
+
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    /**
+     * Le résultat d'une demande de place.
+     */
+    public enum Result {
+        ACCEPTED,
+        DUPLICATE,
+        FULL,
+        INVALID
+    }
+
+    // Roughly the shortest realistic line of inscription.txt, used to size the index before loading it
+    private static final int MIN_LINE_BYTES = 48;
+    private static final int MAX_PRESIZE = 1 << 24;
+
+    private final Set<String> registrations;
+    private final Map<String, AtomicInteger> enrollments = new ConcurrentHashMap<>();
+    private final Map<String, Integer> capacities = new ConcurrentHashMap<>();
+    private final int defaultCapacity;
+
+    /**
+     * @param defaultCapacity le nombre de places d'un cours sans capacité particulière, {@link #UNLIMITED} pour aucune limite
+     */
+    public RegistrationIndex(int defaultCapacity) {
+        this(defaultCapacity, 16);
+    }
+
+    /**
+     * @param defaultCapacity le nombre de places d'un cours sans capacité particulière
+     * @param expectedRegistrations le nombre d'inscriptions prévu, pour éviter d'agrandir l'index pendant le chargement
+     */
+    public RegistrationIndex(int defaultCapacity, int expectedRegistrations) {
+        this.defaultCapacity = defaultCapacity;
+        this.registrations = ConcurrentHashMap.newKeySet(expectedRegistrations);
+    }
+
+    /**
+     * Construire l'index à partir d'un fichier d'inscriptions existant. Un fichier absent donne un index vide.
+     * Les doublons déjà présents dans le fichier sont comptés une seule fois.
+     * @param file le chemin de inscription.txt
+     * @param defaultCapacity le nombre de places par cours
+     * @return l'index
+     */
+    public static RegistrationIndex load(Path file, int defaultCapacity) throws IOException, InvalidLineFormatException {
+        if (!Files.exists(file)) {
+            return new RegistrationIndex(defaultCapacity);
+        }
+        long expected = Math.min(Files.size(file) / MIN_LINE_BYTES, Integer.MAX_VALUE / 2);
+        RegistrationIndex index = new RegistrationIndex(defaultCapacity, (int) expected);
+        index.replay(file, 0);
+        return index;
+    }
+
+    /**
+     * Ajouter à l'index les inscriptions écrites dans le fichier à partir d'une position,
+     * par exemple celles écrites après une sauvegarde de l'index.
+     * @param file le chemin de inscription.txt
+     * @param from la position du début d'une ligne
+     */
+    public void replay(Path file, long from) throws IOException, InvalidLineFormatException {
+        // The keys are the leading fields of each line, so they are decoded straight from the mapped bytes
+        // without building a RegistrationRecord; the name and email fields are never decoded
+        MappedTabFile.scan(file, from, 6, RegistrationRecord.SESSION_ERROR_MSG,
+                row -> restore(row.fields(0, 2), row.fields(0, 1)));
+    }
+
+    /**
+     * Écrire les inscriptions de l'index, regroupées par cours: "[int total][int cours]" puis pour chaque cours
+     * "[session\tcode][int n][matricule]...". Les capacités ne sont pas écrites, elles viennent de la configuration.
+     * @param out le flux de sortie
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        Map<String, List<String>> byCourse = new HashMap<>();
+        for (String key : registrations) {
+            int tab = key.lastIndexOf('\t');
+            byCourse.computeIfAbsent(key.substring(0, tab), k -> new ArrayList<>()).add(key.substring(tab + 1));
+        }
+        // Only a sizing hint for the reader: registrations made meanwhile may or may not be in the groups
+        out.writeInt(registrations.size());
+        out.writeInt(byCourse.size());
+        for (Map.Entry<String, List<String>> course : byCourse.entrySet()) {
+            out.writeUTF(course.getKey());
+            out.writeInt(course.getValue().size());
+            for (String matricule : course.getValue()) {
+                out.writeUTF(matricule);
+            }
+        }
+    }
+
+    /**
+     * Lire un index écrit avec {@link #writeTo}.
+     * @param in le flux d'entrée
+     * @param defaultCapacity le nombre de places par cours
+     * @return l'index
+     */
+    public static RegistrationIndex readFrom(DataInputStream in, int defaultCapacity) throws IOException {
+        int total = in.readInt();
+        int courses = in.readInt();
+        if (total < 0 || courses < 0) {
+            throw new IOException("Index d'inscriptions invalide");
+        }
+        // The checksum is only verified after reading, so a garbled hint must not be able to exhaust memory
+        RegistrationIndex index = new RegistrationIndex(defaultCapacity, Math.max(16, Math.min(total, MAX_PRESIZE)));
+        for (int i = 0; i < courses; i++) {
+            String courseKey = in.readUTF();
+            int count = in.readInt();
+            String prefix = courseKey + '\t';
+            int added = 0;
+            for (int j = 0; j < count; j++) {
+                if (index.registrations.add(prefix.concat(in.readUTF()))) {
+                    added++;
+                }
+            }
+            index.enrollments.computeIfAbsent(courseKey, k -> new AtomicInteger()).addAndGet(added);
+        }
+        return index;
+    }
+
+    /**
+     * Ajouter une inscription déjà écrite, sans vérifier la capacité.
+     * @param record l'inscription
+     */
+    public void restore(RegistrationRecord record) {
+        restore(registrationKey(record), courseKey(record.getSession(), record.getCourseCode()));
+    }
+
+    private void restore(String registrationKey, String courseKey) {
+        if (registrations.add(registrationKey)) {
+            enrollments.computeIfAbsent(courseKey, k -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Réserver une place pour une inscription. En cas de succès, l'inscription est comptée tout de suite:
+     * une deuxième demande identique est refusée même si la première n'est pas encore écrite.
+     * @param record l'inscription demandée
+     * @return ACCEPTED si la place est réservée, sinon la raison du refus
+     */
+    public Result tryReserve(RegistrationRecord record) {
+        if (!record.isWellFormed()) {
+            return Result.INVALID;
+        }
+        String key = registrationKey(record);
+        if (!registrations.add(key)) {
+            return Result.DUPLICATE;
+        }
+        int capacity = getCapacity(record.getSession(), record.getCourseCode());
+        AtomicInteger count = counter(record.getSession(), record.getCourseCode());
+        while (true) {
+            int current = count.get();
+            if (current >= capacity) {
+                registrations.remove(key);
+                return Result.FULL;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return Result.ACCEPTED;
+            }
+        }
+    }
+
+    /**
+     * Annuler une réservation, par exemple si l'écriture dans le journal a échoué.
+     * @param record l'inscription réservée avec {@link #tryReserve}
+     */
+    public void release(RegistrationRecord record) {
+        if (registrations.remove(registrationKey(record))) {
+            counter(record.getSession(), record.getCourseCode()).decrementAndGet();
+        }
+    }
+
+    /**
+     * @return vrai si l'étudiant est déjà inscrit à ce cours pour cette session
+     */
+    public boolean isRegistered(String session, String courseCode, String matricule) {
+        return registrations.contains(session + '\t' + courseCode + '\t' + matricule);
+    }
+
+    /**
+     * @return le nombre d'inscrits au cours
+     */
+    public int getEnrollment(String session, String courseCode) {
+        AtomicInteger count = enrollments.get(courseKey(session, courseCode));
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Donner à un cours un nombre de places différent de la valeur par défaut.
+     */
+    public void setCapacity(String session, String courseCode, int capacity) {
+        capacities.put(courseKey(session, courseCode), capacity);
+    }
+
+    public int getCapacity(String session, String courseCode) {
+        return capacities.getOrDefault(courseKey(session, courseCode), defaultCapacity);
+    }
+
+    /**
+     * @return le nombre total d'inscriptions dans l'index
+     */
+    public int size() {
+        return registrations.size();
+    }
+
+    private AtomicInteger counter(String session, String courseCode) {
+        return enrollments.computeIfAbsent(courseKey(session, courseCode), k -> new AtomicInteger());
+    }
+
+    private static String courseKey(String session, String courseCode) {
+        return session + '\t' + courseCode;
+    }
+
+    private static String registrationKey(RegistrationRecord record) {
+        return record.getSession() + '\t' + record.getCourseCode() + '\t' + record.getMatricule();
+    }
+}
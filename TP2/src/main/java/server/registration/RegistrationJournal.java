@@ -0,0 +1,388 @@
+package server.registration;
+
+import server.ServerExecutors;
+import server.metrics.LatencyHistogram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Journal des inscriptions avec un seul écrivain et des écritures groupées (group commit).
+ *
+ * Les sessions déposent leurs enregistrements dans une file; un thread unique les retire par lots,
+ * les écrit avec un seul appel sur le FileChannel de inscription.txt, puis appelle force une seule fois
+ * pour tout le lot. Le futur de chaque enregistrement n'est complété qu'après ce force: une inscription
+ * n'est confirmée que lorsqu'elle est durable sur le disque.
+ *
+ * Un lot part dès qu'il contient batchSize enregistrements, ou au plus tard maxLatency après le premier.
+ *
+ * Un enregistrement ajouté avec une échéance est retiré s'il attend encore dans la file lorsqu'elle passe:
+ * son futur échoue avec une TimeoutException et il n'est jamais écrit. Une fois pris dans un lot,
+ * il est écrit et confirmé même en retard, pour que la réponse au client dise toujours ce que contient le fichier.
+ *
+ * Un lot dont l'écriture ou la synchronisation échoue est retiré du fichier, qui est ramené à la fin du dernier
+ * lot confirmé: un enregistrement refusé n'est jamais relu au démarrage, et les lots suivants restent alignés sur
+ * {@link #getPosition()}. Si le fichier ne peut pas être ramené, le journal refuse tous les ajouts suivants.
+ */
+public class RegistrationJournal implements Closeable {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final long DEFAULT_MAX_LATENCY_MICROS = 2000;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int batchSize;
+    private final long maxLatencyNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+    // Set when a failed batch could not be removed from the file: nothing may be appended after it
+    private volatile IOException failure;
+    private volatile long position;
+    private final LatencyHistogram flushTimes = new LatencyHistogram();
+    private volatile long batches;
+    // Notified after each commit, for readers that follow the file as it grows
+    private final Object commits = new Object();
+
+    public RegistrationJournal(Path file) throws IOException {
+        this(file, DEFAULT_BATCH_SIZE, DEFAULT_MAX_LATENCY_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Constructeur du journal; le fichier est créé s'il n'existe pas et les écritures se font à la fin.
+     * @param file le chemin de inscription.txt
+     * @param batchSize le nombre maximal d'enregistrements par lot
+     * @param maxLatency l'attente maximale pour compléter un lot après son premier enregistrement
+     * @param unit l'unité de maxLatency
+     */
+    public RegistrationJournal(Path file, int batchSize, long maxLatency, TimeUnit unit) throws IOException {
+        this(file, FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND),
+                batchSize, maxLatency, unit);
+    }
+
+    /**
+     * Constructeur pour un canal déjà ouvert, par exemple un canal qui simule une panne de disque.
+     * @param channel le canal du fichier, ouvert en écriture à la fin; le journal le ferme
+     */
+    RegistrationJournal(Path file, FileChannel channel, int batchSize, long maxLatency, TimeUnit unit) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        if (!endsWithNewline(file)) {
+            channel.write(ByteBuffer.wrap(System.lineSeparator().getBytes(StandardCharsets.UTF_8)));
+        }
+        this.position = channel.size();
+        this.batchSize = batchSize;
+        this.maxLatencyNanos = unit.toNanos(maxLatency);
+        this.writer = new Thread(this::writeLoop, "registration-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Un fichier édité à la main peut se terminer sans saut de ligne; le premier enregistrement ajouté
+     * serait alors collé à la dernière ligne.
+     */
+    private static boolean endsWithNewline(Path file) throws IOException {
+        try (FileChannel reader = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = reader.size();
+            if (size == 0) {
+                return true;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            reader.read(last, size - 1);
+            return last.get(0) == '\n';
+        }
+    }
+
+    /**
+     * Ajouter un enregistrement au journal.
+     * @param record l'inscription à écrire
+     * @return un futur complété avec la position de fin de l'enregistrement dans le fichier une fois qu'il est durable
+     */
+    public CompletableFuture<Long> append(RegistrationRecord record) {
+        return enqueue(new Pending(record.toLine().getBytes(StandardCharsets.UTF_8)), 0);
+    }
+
+    /**
+     * Ajouter un enregistrement au journal, s'il peut être pris dans un lot avant l'échéance.
+     * @param record l'inscription à écrire
+     * @param timeout le délai avant l'échéance, 0 pour aucune
+     * @param unit l'unité du délai
+     * @return un futur complété avec la position de fin de l'enregistrement une fois qu'il est durable,
+     * ou avec une TimeoutException s'il a été retiré de la file sans être écrit
+     */
+    public CompletableFuture<Long> append(RegistrationRecord record, long timeout, TimeUnit unit) {
+        return enqueue(new Pending(record.toLine().getBytes(StandardCharsets.UTF_8)), unit.toNanos(timeout));
+    }
+
+    /**
+     * Ajouter plusieurs enregistrements d'un coup. Ils sont écrits l'un à la suite de l'autre dans un même lot,
+     * sans enregistrement d'un autre client entre eux, et deviennent durables ensemble.
+     * @param records les inscriptions à écrire
+     * @return un futur complété avec la position de fin du dernier enregistrement une fois qu'ils sont durables
+     */
+    public CompletableFuture<Long> appendAll(List<RegistrationRecord> records) {
+        return appendAll(records, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Ajouter plusieurs enregistrements d'un coup, s'ils peuvent être pris dans un lot avant l'échéance;
+     * ils sont alors tous écrits, sinon aucun.
+     * @param records les inscriptions à écrire
+     * @param timeout le délai avant l'échéance, 0 pour aucune
+     * @param unit l'unité du délai
+     * @return un futur complété avec la position de fin du dernier enregistrement une fois qu'ils sont durables,
+     * ou avec une TimeoutException s'ils ont été retirés de la file sans être écrits
+     */
+    public CompletableFuture<Long> appendAll(List<RegistrationRecord> records, long timeout, TimeUnit unit) {
+        ByteArrayOutputStream lines = new ByteArrayOutputStream(records.size() * 64);
+        for (RegistrationRecord record : records) {
+            byte[] line = record.toLine().getBytes(StandardCharsets.UTF_8);
+            lines.write(line, 0, line.length);
+        }
+        return enqueue(new Pending(lines.toByteArray()), unit.toNanos(timeout));
+    }
+
+    /**
+     * Ajouter des lignes déjà formatées, par exemple copiées du journal d'un autre serveur.
+     * Elles sont écrites telles quelles, dans un même lot.
+     * @param lines des lignes complètes de inscription.txt, sauts de ligne compris
+     * @return un futur complété avec la position de fin des lignes une fois qu'elles sont durables
+     */
+    public CompletableFuture<Long> appendLines(byte[] lines) {
+        return enqueue(new Pending(lines), 0);
+    }
+
+    private CompletableFuture<Long> enqueue(Pending pending, long timeoutNanos) {
+        synchronized (this) {
+            if (closed) {
+                pending.future.completeExceptionally(new IOException("Journal fermé"));
+                return pending.future;
+            }
+            if (failure != null) {
+                pending.future.completeExceptionally(failure);
+                return pending.future;
+            }
+            queue.add(pending);
+        }
+        if (timeoutNanos > 0) {
+            ScheduledFuture<?> deadline = ServerExecutors.deadlines().schedule(pending::expire, timeoutNanos, TimeUnit.NANOSECONDS);
+            pending.future.whenComplete((end, error) -> deadline.cancel(false));
+        }
+        return pending.future;
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxLatencyNanos;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                closed = true;
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+        failPending(new IOException("Journal fermé"));
+    }
+
+    private void commit(List<Pending> batch) {
+        // Records whose deadline passed while queued have already been answered; they must not be written
+        batch.removeIf(p -> !p.claim());
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (failure != null) {
+            fail(batch, failure);
+            return;
+        }
+        int size = 0;
+        for (Pending p : batch) {
+            size += p.bytes.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Pending p : batch) {
+            buffer.put(p.bytes);
+        }
+        buffer.flip();
+        long flushStart = System.nanoTime();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            flushTimes.record(System.nanoTime() - flushStart);
+        } catch (IOException e) {
+            rollBack(e);
+            fail(batch, e);
+            return;
+        }
+        long start = position;
+        // Publish the new position before waking callers, so they never observe a stale one
+        position = start + size;
+        batches++;
+        synchronized (commits) {
+            commits.notifyAll();
+        }
+        long end = start;
+        for (Pending p : batch) {
+            end += p.bytes.length;
+            p.future.complete(end);
+        }
+    }
+
+    /**
+     * Retirer du fichier ce qu'un lot refusé a pu y écrire.
+     */
+    private void rollBack(IOException cause) {
+        try {
+            channel.truncate(position);
+        } catch (IOException e) {
+            e.addSuppressed(cause);
+            failure = new IOException("Journal inutilisable: un lot refusé n'a pas pu être retiré du fichier", e);
+            failPending(failure);
+        }
+    }
+
+    private static void fail(List<Pending> batch, IOException e) {
+        for (Pending p : batch) {
+            p.future.completeExceptionally(e);
+        }
+    }
+
+    private void failPending(IOException e) {
+        Pending p;
+        while ((p = queue.poll()) != null) {
+            p.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return la durée de l'écriture et de la synchronisation de chaque lot
+     */
+    public LatencyHistogram getFlushTimes() {
+        return flushTimes;
+    }
+
+    /**
+     * @return la taille du fichier en octets, en comptant tout ce qui est durable
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Attendre que le fichier dépasse une position.
+     * @param after la position déjà connue de l'appelant
+     * @param timeout l'attente maximale
+     * @param unit l'unité de l'attente
+     * @return la position actuelle, égale à after si rien n'a été écrit pendant l'attente
+     */
+    public long awaitPosition(long after, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (commits) {
+            long remaining;
+            while (position <= after && !closed && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(commits, remaining);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * @return le nombre de lots écrits depuis l'ouverture
+     */
+    public long getBatchCount() {
+        return batches;
+    }
+
+    /**
+     * @return le nombre d'enregistrements en attente d'écriture
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Écrire les enregistrements en attente puis fermer le fichier.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private static final class Pending {
+        private static final int QUEUED = 0;
+        private static final int CLAIMED = 1;
+        private static final int EXPIRED = 2;
+
+        private final byte[] bytes;
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+        // The writer and the deadline race for a queued record; whichever moves it out of QUEUED decides its fate
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+
+        private Pending(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private boolean claim() {
+            return state.compareAndSet(QUEUED, CLAIMED);
+        }
+
+        private void expire() {
+            if (state.compareAndSet(QUEUED, EXPIRED)) {
+                future.completeExceptionally(new TimeoutException("Échéance passée avant l'écriture"));
+            }
+        }
+    }
+}
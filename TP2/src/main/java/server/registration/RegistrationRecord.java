@@ -0,0 +1,110 @@
+package server.registration;
+
+import server.exceptions.InvalidLineFormatException;
+import server.models.Course;
+import server.models.RegistrationForm;
+
+/**
+ * Une ligne du fichier inscription.txt:
+ * "SEMESTER\tCOURSE_ID\tSTUDENT_ID\tFIRST_NAME\tLAST_NAME\tEMAIL".
+ */
+public final class RegistrationRecord {
+
+    public static final String SESSION_ERROR_MSG = "Error: invalid line format, expected \"SEMESTER\tCOURSE_ID\tSTUDENT_ID\tFIRST_NAME\tLAST_NAME\tEMAIL\"";
+
+    private final String session;
+    private final String courseCode;
+    private final String matricule;
+    private final String prenom;
+    private final String nom;
+    private final String email;
+
+    public RegistrationRecord(String session, String courseCode, String matricule, String prenom, String nom, String email) {
+        this.session = session;
+        this.courseCode = courseCode;
+        this.matricule = matricule;
+        this.prenom = prenom;
+        this.nom = nom;
+        this.email = email;
+    }
+
+    /**
+     * @param form le formulaire reçu du client
+     * @return l'enregistrement correspondant au formulaire
+     */
+    public static RegistrationRecord of(RegistrationForm form) {
+        Course course = form.getCourse();
+        return new RegistrationRecord(course.getSession(), course.getCode(), form.getMatricule(),
+                form.getPrenom(), form.getNom(), form.getEmail());
+    }
+
+    /**
+     * @param line une ligne de inscription.txt, sans le saut de ligne
+     * @return l'enregistrement lu
+     */
+    public static RegistrationRecord parse(String line) throws InvalidLineFormatException {
+        String[] values = line.split("\t");
+        if (values.length != 6) {
+            throw new InvalidLineFormatException(SESSION_ERROR_MSG);
+        }
+        return new RegistrationRecord(values[0], values[1], values[2], values[3], values[4], values[5]);
+    }
+
+    /**
+     * @return vrai si aucun champ n'est vide ou ne contient de tabulation ou de saut de ligne,
+     * qui corrompraient le format du fichier
+     */
+    public boolean isWellFormed() {
+        return isValidField(session) && isValidField(courseCode) && isValidField(matricule)
+                && isValidField(prenom) && isValidField(nom) && isValidField(email);
+    }
+
+    private static boolean isValidField(String value) {
+        if (value == null || value.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\t' || c == '\n' || c == '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return la ligne à écrire dans inscription.txt, saut de ligne compris
+     */
+    public String toLine() {
+        return String.format("%s\t%s\t%s\t%s\t%s\t%s%n", session, courseCode, matricule, prenom, nom, email);
+    }
+
+    public String getSession() {
+        return session;
+    }
+
+    public String getCourseCode() {
+        return courseCode;
+    }
+
+    public String getMatricule() {
+        return matricule;
+    }
+
+    public String getPrenom() {
+        return prenom;
+    }
+
+    public String getNom() {
+        return nom;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    @Override
+    public String toString() {
+        return "RegistrationRecord{" + "session='" + session + '\'' + ", courseCode='" + courseCode + '\'' + ", matricule='" + matricule + '\'' + '}';
+    }
+}
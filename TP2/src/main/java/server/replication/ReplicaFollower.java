@@ -0,0 +1,238 @@
+package server.replication;
+
+import server.ServerExecutors;
+import server.exceptions.InvalidLineFormatException;
+import server.log.Log;
+import server.registration.RegistrationJournal;
+import server.registration.RegistrationRecord;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Le côté réplique de la réplication: copie dans son propre journal ce que le primaire a écrit,
+ * voir {@link ReplicationSource}.
+ *
+ * Chaque message reçu est ajouté au journal local, donc rendu durable, avant d'être appliqué à l'état
+ * en mémoire de la réplique; la position du journal local est celle où la copie reprend après une coupure.
+ * Un message qui contient une ligne invalide n'est pas écrit: le suiveur coupe la connexion et redemande
+ * la même position, sans rien appliquer.
+ * Le suiveur se reconnecte tant qu'il n'est pas promu. Une fois promu, il ne reçoit plus rien:
+ * le journal local est complet jusqu'à la dernière position reçue et le serveur peut écrire à la suite.
+ */
+public class ReplicaFollower implements ReplicaFollowerMBean, Closeable {
+
+    public static final String DEFAULT_NAME = "server:type=Replica";
+    public static final long RECONNECT_MILLIS = 1000;
+
+    private final InetSocketAddress primary;
+    private final RegistrationJournal journal;
+    private final Consumer<RegistrationRecord> apply;
+    private final Runnable onPromote;
+    private final Thread follower;
+    private volatile Socket socket;
+    private volatile boolean stopped;
+    private volatile boolean promoted;
+    private volatile long primaryPosition;
+    // When this replica last held everything the primary had written
+    private volatile long caughtUpAt = System.currentTimeMillis();
+
+    /**
+     * Commencer à suivre le primaire.
+     * @param primary l'adresse de la {@link ReplicationSource} du primaire
+     * @param journal le journal de la réplique, dans lequel personne d'autre n'écrit
+     * @param apply appliqué à chaque inscription reçue, une fois écrite dans le journal local
+     * @param onPromote appelé une fois la réplique promue, pour que le serveur accepte les inscriptions
+     */
+    public ReplicaFollower(InetSocketAddress primary, RegistrationJournal journal, Consumer<RegistrationRecord> apply, Runnable onPromote) {
+        this.primary = primary;
+        this.journal = journal;
+        this.apply = apply;
+        this.onPromote = onPromote;
+        this.primaryPosition = journal.getPosition();
+        this.follower = ServerExecutors.daemonThreads("replica-follower").newThread(this::followLoop);
+        this.follower.start();
+    }
+
+    private void followLoop() {
+        while (!stopped) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.connect(new InetSocketAddress(primary.getHostString(), primary.getPort()), (int) RECONNECT_MILLIS);
+                if (stopped) {
+                    return;
+                }
+                follow(s);
+            } catch (IOException e) {
+                if (!stopped) {
+                    Log.warn("Réplication interrompue, nouvelle tentative: {}", e.getMessage());
+                }
+            }
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(Socket s) throws IOException {
+        DataOutputStream out = new DataOutputStream(s.getOutputStream());
+        out.writeInt(ReplicationSource.MAGIC);
+        out.writeLong(journal.getPosition());
+        out.flush();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        Log.info("Réplique de {} à partir de la position {}", primary, journal.getPosition());
+        while (!stopped) {
+            long start = in.readLong();
+            long end = in.readLong();
+            in.readLong(); // the primary's clock, unused: lag is measured against this replica's own clock
+            int length = in.readInt();
+            if (length < 0 || length > ReplicationSource.MAX_CHUNK) {
+                throw new IOException("Message de réplication invalide: " + length + " octets");
+            }
+            byte[] lines = new byte[length];
+            in.readFully(lines);
+            if (start != journal.getPosition()) {
+                throw new IOException("Journal local à " + journal.getPosition() + ", le primaire envoie à partir de " + start);
+            }
+            if (length > 0) {
+                List<RegistrationRecord> records = parseLines(lines);
+                try {
+                    // Not interruptible: once written locally, the lines must also be applied
+                    journal.appendLines(lines).join();
+                } catch (CompletionException e) {
+                    throw new IOException("Écriture du journal local", e.getCause());
+                }
+                for (RegistrationRecord record : records) {
+                    apply.accept(record);
+                }
+            }
+            primaryPosition = end;
+            if (start + length >= end) {
+                caughtUpAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Lire les inscriptions d'un message avant de l'écrire. Une ligne invalide fait refuser tout le message:
+     * le primaire refuse lui aussi de relire un journal qui en contient une, voir {@link server.registration.RegistrationIndex#replay}.
+     */
+    private static List<RegistrationRecord> parseLines(byte[] lines) throws IOException {
+        String text = new String(lines, StandardCharsets.UTF_8);
+        List<RegistrationRecord> records = new ArrayList<>();
+        int from = 0;
+        int newline;
+        while ((newline = text.indexOf('\n', from)) >= 0) {
+            int to = newline > from && text.charAt(newline - 1) == '\r' ? newline - 1 : newline;
+            if (to > from) {
+                try {
+                    records.add(RegistrationRecord.parse(text.substring(from, to)));
+                } catch (InvalidLineFormatException e) {
+                    throw new IOException("Ligne répliquée invalide: " + text.substring(from, to), e);
+                }
+            }
+            from = newline + 1;
+        }
+        return records;
+    }
+
+    /**
+     * Enregistrer la réplique auprès du serveur JMX de la plateforme.
+     * @return le nom enregistré
+     */
+    public ObjectName registerMBean() throws JMException {
+        ObjectName name = new ObjectName(DEFAULT_NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    /**
+     * @return le nombre d'octets écrits par le primaire et pas encore reçus, selon le dernier message du primaire
+     */
+    @Override
+    public long getLagBytes() {
+        return Math.max(0, primaryPosition - journal.getPosition());
+    }
+
+    /**
+     * @return le temps écoulé depuis que la réplique avait tout ce que le primaire avait écrit, 0 si c'est encore le cas
+     */
+    @Override
+    public long getLagMillis() {
+        if (stopped) {
+            return 0;
+        }
+        long since = System.currentTimeMillis() - caughtUpAt;
+        // Heartbeats arrive every HEARTBEAT_MILLIS; until one is late, an idle primary is not a lag
+        return since <= 2 * ReplicationSource.HEARTBEAT_MILLIS ? 0 : since;
+    }
+
+    @Override
+    public boolean isConnected() {
+        Socket s = socket;
+        return !stopped && s != null && !s.isClosed();
+    }
+
+    @Override
+    public boolean isPromoted() {
+        return promoted;
+    }
+
+    /**
+     * Cesser de suivre le primaire et devenir primaire. Un message déjà reçu est appliqué en entier d'abord,
+     * pour que le journal local se termine sur une ligne complète.
+     */
+    @Override
+    public synchronized void promote() {
+        if (promoted) {
+            return;
+        }
+        stopped = true;
+        closeSocket();
+        try {
+            follower.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        promoted = true;
+        Log.info("Réplique promue primaire à la position {}", journal.getPosition());
+        onPromote.run();
+    }
+
+    private void closeSocket() {
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Closing only to unblock the follower
+            }
+        }
+    }
+
+    /**
+     * Cesser de suivre le primaire, sans promotion.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+        closeSocket();
+        follower.interrupt();
+    }
+}
@@ -0,0 +1,18 @@
+package server.replication;
+
+/**
+ * L'interface JMX d'une réplique, sous {@link ReplicaFollower#DEFAULT_NAME}: son retard, et la promotion
+ * en primaire depuis jconsole lorsque le primaire est perdu.
+ */
+public interface ReplicaFollowerMBean {
+
+    long getLagBytes();
+
+    long getLagMillis();
+
+    boolean isConnected();
+
+    boolean isPromoted();
+
+    void promote();
+}
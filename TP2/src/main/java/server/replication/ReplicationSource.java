@@ -0,0 +1,166 @@
+package server.replication;
+
+import server.ServerExecutors;
+import server.log.Log;
+import server.registration.RegistrationJournal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Le côté primaire de la réplication: envoie aux répliques ce que le journal écrit, au fur et à mesure.
+ *
+ * Le journal n'est qu'une suite de lignes ajoutées à la fin d'un fichier, donc la position dans le fichier
+ * suffit à reprendre la copie. Une réplique qui se connecte donne la taille de sa propre copie; elle reçoit
+ * ensuite tout ce qui suit, lu dans le fichier et jamais dans la mémoire du primaire, seulement après le
+ * force du lot: une réplique n'a jamais une inscription que le primaire pourrait perdre.
+ *
+ * Les messages sont "[long début][long fin du primaire][long heure du primaire][int n][n octets]"; un message
+ * sans octets est envoyé lorsque rien n'est écrit pendant {@link #HEARTBEAT_MILLIS}, pour que la réplique
+ * connaisse son retard même sans trafic.
+ *
+ * Le port n'authentifie pas les répliques et livre tout le journal, noms, courriels et matricules compris,
+ * à qui le demande. Il n'écoute donc que sur l'interface locale par défaut; l'ouvrir sur une autre adresse
+ * n'est sûr que sur un réseau de confiance, réservé aux serveurs de la grappe.
+ */
+public class ReplicationSource implements Closeable {
+
+    public static final int MAGIC = 0x57525031; // "WRP1"
+    public static final long HEARTBEAT_MILLIS = 500;
+    static final int MAX_CHUNK = 1 << 20;
+
+    private final RegistrationJournal journal;
+    private final ServerSocket listener;
+    private final Thread acceptor;
+    private final Set<Socket> replicas = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Écouter les répliques sur l'interface locale seulement.
+     * @param journal le journal du primaire
+     * @param port le port d'écoute des répliques, 0 pour un port libre
+     */
+    public ReplicationSource(RegistrationJournal journal, int port) throws IOException {
+        this(journal, InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Écouter les répliques sur une adresse; à réserver à un réseau de confiance.
+     * @param journal le journal du primaire
+     * @param address l'adresse d'écoute
+     * @param port le port d'écoute des répliques, 0 pour un port libre
+     */
+    public ReplicationSource(RegistrationJournal journal, InetAddress address, int port) throws IOException {
+        this.journal = journal;
+        this.listener = new ServerSocket();
+        this.listener.bind(new InetSocketAddress(address, port));
+        this.acceptor = ServerExecutors.daemonThreads("replication-source").newThread(this::acceptLoop);
+        this.acceptor.start();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = listener.accept();
+                replicas.add(socket);
+                ServerExecutors.daemonThreads("replication-stream").newThread(() -> stream(socket)).start();
+            } catch (IOException e) {
+                if (!closed) {
+                    Log.error("Connexion d'une réplique", e);
+                }
+            }
+        }
+    }
+
+    private void stream(Socket socket) {
+        try (Socket s = socket;
+             FileChannel file = FileChannel.open(journal.getFile(), StandardOpenOption.READ)) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Réplique inconnue");
+            }
+            long sent = in.readLong();
+            Log.info("Réplique {} connectée à la position {}", s.getRemoteSocketAddress(), sent);
+            ByteBuffer chunk = ByteBuffer.allocate(MAX_CHUNK);
+            while (!closed) {
+                long end = journal.awaitPosition(sent, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                if (sent > end) {
+                    throw new IOException("La réplique a " + sent + " octets, plus que le primaire (" + end + ")");
+                }
+                chunk.clear();
+                chunk.limit((int) Math.min(MAX_CHUNK, end - sent));
+                while (chunk.hasRemaining() && file.read(chunk, sent + chunk.position()) > 0) {
+                    // Committed bytes are always there; the loop only covers short reads
+                }
+                int length = wholeLines(chunk);
+                out.writeLong(sent);
+                out.writeLong(end);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(length);
+                out.write(chunk.array(), 0, length);
+                out.flush();
+                sent += length;
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                Log.warn("Réplique déconnectée: {}", e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            replicas.remove(socket);
+        }
+    }
+
+    /**
+     * Couper un morceau après sa dernière ligne complète, pour que la réplique n'ait jamais une ligne à moitié.
+     * @return le nombre d'octets à envoyer
+     */
+    private static int wholeLines(ByteBuffer chunk) {
+        for (int i = chunk.position() - 1; i >= 0; i--) {
+            if (chunk.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return le port d'écoute des répliques
+     */
+    public int getPort() {
+        return listener.getLocalPort();
+    }
+
+    /**
+     * @return le nombre de répliques connectées
+     */
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        listener.close();
+        for (Socket socket : replicas) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package server.snapshot;
+
+import server.catalog.CourseCatalog;
+import server.exceptions.InvalidLineFormatException;
+import server.log.Log;
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Sauvegarde binaire de l'état du serveur, pour redémarrer sans relire cours.txt ni tout inscription.txt.
+ *
+ * Le fichier contient le catalogue, l'index des inscriptions et la position du journal à laquelle l'index
+ * a été pris: "[int MAGIC][int FORMAT_VERSION][catalogue][long position][long contrôle][index][long CRC32]".
+ * Au démarrage, l'index est relu tel quel et seules les lignes écrites dans le journal après cette position
+ * sont rejouées. Le journal n'étant jamais réécrit, une sauvegarde ancienne reste valide, elle laisse
+ * seulement plus de lignes à rejouer. Le contrôle est un CRC32 des derniers octets du journal avant la
+ * position: si le fichier a été tronqué ou remplacé depuis, la sauvegarde est ignorée et l'index reconstruit.
+ */
+public final class StateSnapshot {
+
+    /** "WSN1" */
+    public static final int MAGIC = 0x57534E31;
+    public static final int FORMAT_VERSION = 1;
+    private static final int JOURNAL_CHECK_BYTES = 4096;
+
+    private final CourseCatalog.Snapshot catalog;
+    private final RegistrationIndex registrations;
+    private final long journalPosition;
+    private final long journalCheck;
+
+    private StateSnapshot(CourseCatalog.Snapshot catalog, RegistrationIndex registrations, long journalPosition, long journalCheck) {
+        this.catalog = catalog;
+        this.registrations = registrations;
+        this.journalPosition = journalPosition;
+        this.journalCheck = journalCheck;
+    }
+
+    /**
+     * Écrire une sauvegarde. Le fichier est écrit à côté puis renommé: une sauvegarde interrompue
+     * ne remplace jamais la précédente.
+     * Pour que l'index ne contienne aucune inscription qui finira refusée par le journal, la sauvegarde se fait
+     * de préférence après la fermeture du journal, lorsque toutes les inscriptions acceptées sont écrites.
+     * @param target le fichier de sauvegarde
+     * @param catalog le catalogue
+     * @param registrations l'index des inscriptions
+     * @param journal le journal dont l'index est tiré
+     */
+    public static void write(Path target, CourseCatalog catalog, RegistrationIndex registrations,
+                             RegistrationJournal journal) throws IOException {
+        // Read before the index: registrations written meanwhile are both in the index and in the replayed tail
+        long position = journal.getPosition();
+        long check = checkJournal(journal.getFile(), position);
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            catalog.snapshot().writeTo(out);
+            out.writeLong(position);
+            out.writeLong(check);
+            registrations.writeTo(out);
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getChannel().force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Lire une sauvegarde.
+     * @param file le fichier de sauvegarde
+     * @param defaultCapacity le nombre de places par cours, qui n'est pas sauvegardé
+     * @return la sauvegarde, ou null si le fichier n'existe pas, est corrompu ou vient d'une autre version du format
+     */
+    public static StateSnapshot read(Path file, int defaultCapacity) throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(stream, 1 << 16), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                Log.warn("Sauvegarde d'un autre format ignorée: {}", file);
+                return null;
+            }
+            CourseCatalog.Snapshot catalog = CourseCatalog.Snapshot.readFrom(in);
+            long position = in.readLong();
+            long check = in.readLong();
+            RegistrationIndex registrations = RegistrationIndex.readFrom(in, defaultCapacity);
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                Log.warn("Sauvegarde corrompue ignorée: {}", file);
+                return null;
+            }
+            return new StateSnapshot(catalog, registrations, position, check);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            // Truncated or garbled: the checksum at the end was never reached
+            Log.warn("Sauvegarde illisible ignorée: " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Compléter l'index sauvegardé avec les lignes ajoutées au journal depuis la sauvegarde.
+     * @param journal le chemin de inscription.txt
+     * @return l'index à jour, ou null si le journal ne commence plus par ce que la sauvegarde en a vu
+     */
+    public RegistrationIndex restoreRegistrations(Path journal) throws IOException, InvalidLineFormatException {
+        if (checkJournal(journal, journalPosition) != journalCheck) {
+            Log.warn("Le journal a changé depuis la sauvegarde, l'index sera reconstruit: {}", journal);
+            return null;
+        }
+        registrations.replay(journal, journalPosition);
+        return registrations;
+    }
+
+    /**
+     * @return le catalogue sauvegardé, à passer à {@link CourseCatalog#CourseCatalog(Path, CourseCatalog.Snapshot)}
+     */
+    public CourseCatalog.Snapshot getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * @return la position du journal à laquelle l'index a été sauvegardé
+     */
+    public long getJournalPosition() {
+        return journalPosition;
+    }
+
+    /**
+     * @return le CRC32 des octets du journal qui précèdent la position, -1 si le fichier est plus court
+     */
+    static long checkJournal(Path journal, long position) throws IOException {
+        if (!Files.exists(journal)) {
+            return position == 0 ? 0 : -1;
+        }
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+            if (channel.size() < position) {
+                return -1;
+            }
+            int length = (int) Math.min(position, JOURNAL_CHECK_BYTES);
+            ByteBuffer bytes = ByteBuffer.allocate(length);
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, position - length + bytes.position()) < 0) {
+                    return -1;
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.array(), 0, length);
+            return crc.getValue();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package client.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import client.load.LoadReport.Operation;
+import server.Server;
+import server.ServerExecutors;
+import server.catalog.CourseCatalog;
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+
+public class LoadGeneratorTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void drivesAServerAndWritesResults() throws Exception
+    {
+        Path root = folder.getRoot().toPath();
+        Path courses = root.resolve("cours.txt");
+        Files.write(courses, "IFT1015\tProgrammation1\tAutomne\nIFT2255\tGenie_Logiciel\tAutomne\n".getBytes(StandardCharsets.UTF_8));
+        Path inscriptions = root.resolve("inscription.txt");
+        LoadReport report;
+        Server server = new Server(0, 16, ServerExecutors.virtualThreads(), new CourseCatalog(courses),
+                new RegistrationJournal(inscriptions), new RegistrationIndex(RegistrationIndex.UNLIMITED));
+        try {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    server.run();
+                } catch (Exception e) {
+                    // Closing the server ends the accept loop
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+            LoadGenerator generator = new LoadGenerator("localhost", server.getPort(), LoadGenerator.Protocol.PIPELINED, 8,
+                    LoadGenerator.parseMix("CHARGER:2,INSCRIRE:2,QUITTER:1"), 1);
+            report = generator.run(1, 0);
+        } finally {
+            server.close();
+        }
+
+        assertTrue(report.getCount(Operation.CONNECT) >= 8);
+        assertTrue(report.getCount(Operation.INSCRIRE) > 0);
+        for (Operation op : Operation.values()) {
+            assertEquals(op.name(), 0, report.getErrors(op));
+        }
+        assertEquals(report.getCount(Operation.INSCRIRE), Files.readAllLines(inscriptions).size());
+
+        report.writeSummaryCsv(root.resolve("load-summary.csv"));
+        List<String> summary = Files.readAllLines(root.resolve("load-summary.csv"));
+        assertEquals(Operation.values().length + 1, summary.size());
+        assertTrue(summary.get(2), summary.get(2).startsWith("CHARGER," + report.getCount(Operation.CHARGER) + ",0,"));
+        report.writeJson(root.resolve("load.json"), Collections.singletonMap("clients", "8"));
+        assertTrue(new String(Files.readAllBytes(root.resolve("load.json")), StandardCharsets.UTF_8).contains("\"clients\": \"8\""));
+    }
+}
@@ -0,0 +1,95 @@
+package client.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import server.Server;
+import server.ServerExecutors;
+import server.catalog.CourseCatalog;
+import server.models.Course;
+import server.push.CatalogDelta;
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+
+public class CourseListCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Server server;
+    private Path courses;
+
+    @Before
+    public void create() throws Exception
+    {
+        courses = folder.newFile("cours.txt").toPath();
+        Files.write(courses, "IFT1015\tProgrammation1\tAutomne\nIFT1025\tProgrammation2\tHiver\nIFT2255\tGenie_Logiciel\tAutomne\n"
+                .getBytes(StandardCharsets.UTF_8));
+        server = new Server(0, 16, ServerExecutors.virtualThreads(), new CourseCatalog(courses),
+                new RegistrationJournal(folder.getRoot().toPath().resolve("inscription.txt")),
+                new RegistrationIndex(RegistrationIndex.UNLIMITED));
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.runSelector(1);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void stop() throws Exception
+    {
+        server.close();
+    }
+
+    @Test
+    public void servesLoadedSessionsFromTheCacheAndFollowsTheirChanges() throws Exception
+    {
+        BlockingQueue<CatalogDelta> deltas = new LinkedBlockingQueue<>();
+        try (CourseListCache cache = new CourseListCache("localhost", server.getPort(), false, deltas::add)) {
+            assertNull(cache.getCached("Automne"));
+            assertFalse(cache.isCurrent("Automne"));
+
+            List<Course> automne = cache.load("Automne").get(5, TimeUnit.SECONDS);
+            assertEquals(2, automne.size());
+            assertTrue(deltas.poll(5, TimeUnit.SECONDS).isReset());
+            assertTrue(cache.isCurrent("Automne"));
+            assertEquals(1, cache.load("Hiver").get(5, TimeUnit.SECONDS).size());
+            // Already current: answered from the cache, without asking the server again
+            assertTrue(cache.load("Automne").isDone());
+            assertEquals(automne.size(), cache.getCached("Automne").size());
+
+            Files.write(courses, "IFT1015\tProgrammation1\tAutomne\nIFT3913\tQualite_Logiciel\tAutomne\n".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(courses, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+            long before = cache.getVersion("Automne");
+            assertTrue(server.getCatalog().reloadIfModified());
+            CatalogDelta delta;
+            do {
+                delta = deltas.poll(5, TimeUnit.SECONDS);
+            } while (!delta.getSession().equals("Automne"));
+            assertEquals("IFT3913", delta.getAdded().get(0).getCode());
+            assertTrue(cache.getVersion("Automne") > before);
+            assertEquals("IFT3913", cache.getCached("Automne").get(1).getCode());
+        }
+    }
+}
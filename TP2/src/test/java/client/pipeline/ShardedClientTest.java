@@ -0,0 +1,106 @@
+package client.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import server.Server;
+import server.ServerExecutors;
+import server.catalog.CourseCatalog;
+import server.cluster.ShardMap;
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.protocol.RegistrationStatus;
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+
+/**
+ * Two nodes on loopback sharing the same catalog, each owning one of its two sessions.
+ */
+public class ShardedClientTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Server[] nodes = new Server[2];
+    private ShardMap shards;
+
+    @Before
+    public void create() throws Exception
+    {
+        Path courses = folder.newFile("cours.txt").toPath();
+        Files.write(courses, "IFT1015\tProgrammation1\tAutomne\nIFT1025\tProgrammation2\tHiver\n".getBytes(StandardCharsets.UTF_8));
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Server(0, 16, ServerExecutors.virtualThreads(), new CourseCatalog(courses),
+                    new RegistrationJournal(folder.getRoot().toPath().resolve("inscription" + i + ".txt")),
+                    new RegistrationIndex(RegistrationIndex.UNLIMITED));
+            addresses.add(InetSocketAddress.createUnresolved("localhost", nodes[i].getPort()));
+        }
+        shards = new ShardMap(addresses);
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i].setShard(shards, i);
+            Server node = nodes[i];
+            Thread acceptor = new Thread(() -> {
+                try {
+                    node.runSelector(1);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        assertNotEquals(shards.shardOf("Automne"), shards.shardOf("Hiver"));
+    }
+
+    @After
+    public void stop() throws Exception
+    {
+        for (Server node : nodes) {
+            node.close();
+        }
+    }
+
+    @Test
+    public void routesEachSessionToItsNode() throws Exception
+    {
+        Course automne = new Course("Programmation1", "IFT1015", "Automne");
+        Course hiver = new Course("Programmation2", "IFT1025", "Hiver");
+        List<RegistrationForm> forms = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            forms.add(new RegistrationForm("Ada", "Lovelace", "ada@umontreal.ca", String.valueOf(i), i % 3 == 0 ? hiver : automne));
+        }
+        try (ShardedClient client = new ShardedClient(shards)) {
+            assertEquals("IFT1025", client.loadCourses("Hiver").get(5, TimeUnit.SECONDS).get(0).getCode());
+            assertEquals(RegistrationStatus.ACCEPTED, client.register(forms.get(0)).get(5, TimeUnit.SECONDS));
+            List<RegistrationStatus> statuses = client.importAll(forms).get(5, TimeUnit.SECONDS);
+            assertEquals(RegistrationStatus.DUPLICATE, statuses.get(0));
+            for (int i = 1; i < statuses.size(); i++) {
+                assertEquals(RegistrationStatus.ACCEPTED, statuses.get(i));
+            }
+        }
+
+        int automneNode = shards.shardOf("Automne");
+        assertEquals(6, nodes[automneNode].getRegistrations().size());
+        assertEquals(4, nodes[1 - automneNode].getRegistrations().size());
+        // A stale client talking to the wrong node is told so instead of splitting a course across nodes
+        InetSocketAddress wrong = shards.getNode(1 - automneNode);
+        try (PipelinedConnection connection = new PipelinedConnection(wrong.getHostString(), wrong.getPort())) {
+            assertEquals(RegistrationStatus.WRONG_SHARD, connection.register(forms.get(1)).get(5, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import server.AsyncEventHandler.OverflowPolicy;
+
+public class AsyncEventHandlerTest
+{
+    /**
+     * Blocks the handler thread on its first batch so that the queue fills up.
+     */
+    private static final class GatedHandler implements AsyncEventHandler.BatchHandler
+    {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<String> args = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void handle(List<AsyncEventHandler.Event> batch)
+        {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            batchSizes.add(batch.size());
+            for (AsyncEventHandler.Event e : batch) {
+                args.add(e.getArg());
+            }
+        }
+    }
+
+    private static void awaitDepth(AsyncEventHandler async, int depth) throws InterruptedException
+    {
+        for (int i = 0; i < 500 && async.getQueueDepth() != depth; i++) {
+            Thread.sleep(2);
+        }
+    }
+
+    @Test
+    public void dropsWhenFullAndDeliversTheRestInBatches() throws Exception
+    {
+        GatedHandler handler = new GatedHandler();
+        AsyncEventHandler async = new AsyncEventHandler(handler, 4, 3, OverflowPolicy.DROP);
+        async.handle(null, "CHARGER", "0");
+        awaitDepth(async, 0);
+        for (int i = 1; i <= 6; i++) {
+            async.handle(null, "CHARGER", String.valueOf(i));
+        }
+        assertEquals(2, async.getDroppedCount());
+        handler.gate.countDown();
+        async.close();
+
+        assertEquals(5, async.getProcessedCount());
+        assertEquals(5, handler.args.size());
+        assertEquals("4", handler.args.get(4));
+        assertTrue(handler.batchSizes.contains(3));
+    }
+
+    @Test
+    public void coalescesPerSessionAndCommand() throws Exception
+    {
+        GatedHandler handler = new GatedHandler();
+        AsyncEventHandler async = new AsyncEventHandler(handler, 16, 16, OverflowPolicy.COALESCE);
+        async.handle(null, "CHARGER", "first");
+        awaitDepth(async, 0);
+        for (String session : new String[]{"Automne", "Hiver", "Ete"}) {
+            async.handle(null, "CHARGER", session);
+        }
+        async.handle(null, "INSCRIRE", "");
+        assertEquals(2, async.getCoalescedCount());
+        handler.gate.countDown();
+        async.close();
+
+        assertEquals(3, handler.args.size());
+        assertEquals("Ete", handler.args.get(1));
+    }
+
+    @Test
+    public void blockingPolicyLosesNothing() throws Exception
+    {
+        List<String> seen = Collections.synchronizedList(new ArrayList<>());
+        AsyncEventHandler async = new AsyncEventHandler((session, cmd, arg) -> seen.add(arg), 2, OverflowPolicy.BLOCK);
+        for (int i = 0; i < 200; i++) {
+            async.handle(null, "CHARGER", String.valueOf(i));
+        }
+        async.close();
+
+        assertEquals(200, seen.size());
+        assertEquals(0, async.getDroppedCount());
+        assertEquals("199", seen.get(199));
+    }
+}
@@ -0,0 +1,43 @@
+package server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class CommandLineTest
+{
+    @Test
+    public void splitsCommandAndArgument()
+    {
+        CommandLine line = new CommandLine().parse("CHARGER Automne");
+        assertEquals(Command.CHARGER, line.getCommand());
+        assertSame(Server.LOAD_COMMAND, line.getName());
+        assertEquals("Automne", line.getArgument());
+
+        line.parse("INSCRIRE");
+        assertEquals(Command.INSCRIRE, line.getCommand());
+        assertEquals("", line.getArgument());
+
+        line.parse("CHARGER Automne Hiver  ");
+        assertEquals("Automne Hiver", line.getArgument());
+    }
+
+    @Test
+    public void reusesTheArgumentWhenItRepeats()
+    {
+        CommandLine line = new CommandLine();
+        String first = line.parse("CHARGER Automne").getArgument();
+        assertSame(first, line.parse(new String("CHARGER Automne")).getArgument());
+    }
+
+    @Test
+    public void keepsTheWordOfUnknownCommands()
+    {
+        CommandLine line = new CommandLine().parse("SUPPRIMER IFT2255");
+        assertEquals(Command.UNKNOWN, line.getCommand());
+        assertEquals("SUPPRIMER", line.getName());
+        assertEquals(Command.UNKNOWN, Command.of(line.getName()));
+        assertEquals(Command.QUITTER, Command.of(new String("QUITTER")));
+    }
+}
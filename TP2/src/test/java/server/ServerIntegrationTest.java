@@ -0,0 +1,442 @@
+package server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import client.BinaryConnection;
+import client.ServerConnection;
+import client.pipeline.PipelinedConnection;
+import client.pipeline.RegistrationClient;
+import server.admission.AdmissionControl;
+import server.catalog.CourseCatalog;
+import server.catalog.CourseQuery;
+import server.metrics.MetricsEndpoint;
+import server.models.Course;
+import server.models.RegistrationForm;
+import server.protocol.BinaryCodec;
+import server.protocol.RegistrationStatus;
+import server.protocol.RetryLaterException;
+import server.protocol.WireFormat;
+import server.push.CatalogDelta;
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+
+/**
+ * Drives a real server over loopback, in both server modes and with both wire formats.
+ */
+public class ServerIntegrationTest
+{
+    private static final String EXPECTED_LINE = "Automne\tIFT2255\t123\tAda\tLovelace\tada@umontreal.ca";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Server server;
+    private Path courses;
+    private Path inscriptions;
+
+    @Before
+    public void create() throws Exception
+    {
+        courses = folder.getRoot().toPath().resolve("cours.txt");
+        Files.write(courses, "IFT1015\tProgrammation1\tAutomne\nIFT1025\tProgrammation2\tHiver\nIFT2255\tGenie_Logiciel\tAutomne\n"
+                .getBytes(StandardCharsets.UTF_8));
+        inscriptions = folder.getRoot().toPath().resolve("inscription.txt");
+        server = new Server(0, 16, ServerExecutors.virtualThreads(), new CourseCatalog(courses), new RegistrationJournal(inscriptions),
+                new RegistrationIndex(RegistrationIndex.UNLIMITED));
+    }
+
+    @After
+    public void stop() throws Exception
+    {
+        server.close();
+    }
+
+    private void start(boolean selector)
+    {
+        Thread acceptor = new Thread(() -> {
+            try {
+                if (selector) {
+                    server.runSelector(2);
+                } else {
+                    server.run();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void loadAndRegister(WireFormat format) throws Exception
+    {
+        try (ServerConnection connection = ServerConnection.open("localhost", server.getPort(), format)) {
+            List<Course> automne = connection.loadCourses("Automne");
+            assertEquals(2, automne.size());
+            assertEquals("IFT1015", automne.get(0).getCode());
+            assertEquals(2, connection.loadCourses("Automne").size());
+            assertEquals(0, connection.loadCourses("Ete").size());
+
+            connection.register(new RegistrationForm("Ada", "Lovelace", "ada@umontreal.ca", "123", automne.get(1)));
+            assertEquals(1, connection.loadCourses("Hiver").size());
+            connection.quit();
+        }
+    }
+
+    private List<String> registrationsAfterShutdown() throws Exception
+    {
+        server.close();
+        return Files.readAllLines(inscriptions);
+    }
+
+    @Test
+    public void objectStreamClientsLoadAndRegister() throws Exception
+    {
+        start(false);
+        loadAndRegister(WireFormat.OBJECT_STREAM);
+        assertEquals(EXPECTED_LINE, registrationsAfterShutdown().get(0));
+    }
+
+    @Test
+    public void binaryClientsLoadAndRegister() throws Exception
+    {
+        start(false);
+        loadAndRegister(WireFormat.BINARY);
+        assertEquals(EXPECTED_LINE, registrationsAfterShutdown().get(0));
+    }
+
+    @Test
+    public void slowClientDoesNotBlockOthers() throws Exception
+    {
+        start(false);
+        try (ServerConnection idle = ServerConnection.open("localhost", server.getPort(), WireFormat.OBJECT_STREAM)) {
+            loadAndRegister(WireFormat.BINARY);
+            // The idle client was only kept waiting for its own next request
+            assertEquals(2, idle.loadCourses("Automne").size());
+        }
+    }
+
+    @Test
+    public void disconnectsIdleClients() throws Exception
+    {
+        server.setIdleTimeout(200, TimeUnit.MILLISECONDS);
+        start(false);
+        try (ServerConnection idle = ServerConnection.open("localhost", server.getPort(), WireFormat.BINARY)) {
+            assertEquals(2, idle.loadCourses("Automne").size());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (server.getActiveSessionCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, server.getActiveSessionCount());
+        }
+    }
+
+    @Test
+    public void countsCommandsAndServesMetrics() throws Exception
+    {
+        start(false);
+        try (MetricsEndpoint endpoint = new MetricsEndpoint(server.getMetrics(), 0)) {
+            loadAndRegister(WireFormat.BINARY);
+            registrationsAfterShutdown();
+
+            String text;
+            try (InputStream in = new URL("http://127.0.0.1:" + endpoint.getPort() + "/metrics").openStream()) {
+                text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertTrue(text, text.contains("commands.CHARGER 4\n"));
+            assertTrue(text, text.contains("latency.CHARGER.count 4\n"));
+            assertTrue(text, text.contains("registrations.ACCEPTED 1\n"));
+            assertTrue(text, text.contains("latency.INSCRIRE.durable.count 1\n"));
+        }
+    }
+
+    private void registerPipelined() throws Exception
+    {
+        try (RegistrationClient client = new RegistrationClient("localhost", server.getPort(), 2, 8)) {
+            Course course = client.lookup("Automne", "IFT2255").get(5, TimeUnit.SECONDS);
+            assertEquals("Genie_Logiciel", course.getName());
+            assertEquals(1, client.query(new CourseQuery("Automne", "IFT", "logiciel", 10, "")).get(5, TimeUnit.SECONDS).getCourses().size());
+            // Tabs are plain characters in a binary query: no match, but always an answer
+            assertNull(client.lookup("Automne\tIFT2255", "IFT2255").get(5, TimeUnit.SECONDS));
+            assertTrue(client.query(new CourseQuery("Automne\t", "IFT", "", 10, "")).get(5, TimeUnit.SECONDS).getCourses().isEmpty());
+            List<CompletableFuture<RegistrationStatus>> replies = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                replies.add(client.register(new RegistrationForm("Ada", "Lovelace", "ada@umontreal.ca", String.valueOf(i % 50), course)));
+            }
+            int accepted = 0;
+            for (CompletableFuture<RegistrationStatus> reply : replies) {
+                if (reply.get(5, TimeUnit.SECONDS) == RegistrationStatus.ACCEPTED) {
+                    accepted++;
+                } else {
+                    assertEquals(RegistrationStatus.DUPLICATE, reply.get());
+                }
+            }
+            assertEquals(50, accepted);
+        }
+        assertEquals(50, registrationsAfterShutdown().size());
+    }
+
+    @Test
+    public void pipelinedClientsReceiveRegistrationReplies() throws Exception
+    {
+        start(false);
+        registerPipelined();
+    }
+
+    @Test
+    public void selectorModeServesPipelinedClients() throws Exception
+    {
+        start(true);
+        registerPipelined();
+    }
+
+    @Test
+    public void importsLargeBatchesWithPerRecordResults() throws Exception
+    {
+        start(true);
+        Course known = new Course("Genie_Logiciel", "IFT2255", "Automne");
+        Course unknown = new Course("Genie_Logiciel", "IFT2255", "Hiver");
+        List<RegistrationForm> forms = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            forms.add(new RegistrationForm("Ada", "Lovelace", "ada@umontreal.ca", String.valueOf(i % 2000), i % 100 == 99 ? unknown : known));
+        }
+        List<RegistrationStatus> statuses;
+        try (RegistrationClient client = new RegistrationClient("localhost", server.getPort(), 2, 8)) {
+            statuses = client.importAll(forms).get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(forms.size(), statuses.size());
+        assertEquals(RegistrationStatus.UNKNOWN_COURSE, statuses.get(99));
+        // Frames sent on different connections race, so only the totals are fixed
+        assertEquals(1980, Collections.frequency(statuses, RegistrationStatus.ACCEPTED));
+        assertEquals(990, Collections.frequency(statuses, RegistrationStatus.DUPLICATE));
+        assertEquals(1980, registrationsAfterShutdown().size());
+    }
+
+    @Test
+    public void turnsAwayRegistrationsOverTheMatriculeRate() throws Exception
+    {
+        server.setAdmissionControl(new AdmissionControl(AdmissionControl.UNLIMITED, 1, 20, 1, AdmissionControl.UNLIMITED));
+        start(true);
+        Course course = new Course("Genie_Logiciel", "IFT2255", "Automne");
+        try (PipelinedConnection connection = new PipelinedConnection("localhost", server.getPort())) {
+            assertEquals(RegistrationStatus.ACCEPTED,
+                    connection.register(new RegistrationForm("Ada", "Lovelace", "ada@umontreal.ca", "1", course)).get(5, TimeUnit.SECONDS));
+            try {
+                connection.register(new RegistrationForm("Ada", "Lovelace", "ada@umontreal.ca", "1", course)).get(5, TimeUnit.SECONDS);
+                fail("La deuxième inscription aurait dû être refusée");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RetryLaterException);
+                assertTrue(((RetryLaterException) e.getCause()).getRetryAfterMillis() <= 50);
+            }
+        }
+        // The pooled client waits as told and tries again
+        try (RegistrationClient client = new RegistrationClient("localhost", server.getPort(), 1, 8)) {
+            assertEquals(RegistrationStatus.ACCEPTED,
+                    client.register(new RegistrationForm("Ada", "Lovelace", "ada@umontreal.ca", "2", course)).get(5, TimeUnit.SECONDS));
+            assertEquals(RegistrationStatus.DUPLICATE,
+                    client.register(new RegistrationForm("Ada", "Lovelace", "ada@umontreal.ca", "2", course)).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void slowsDownConnectionsOverTheCommandRate() throws Exception
+    {
+        server.setAdmissionControl(new AdmissionControl(50, 1, AdmissionControl.UNLIMITED, 1, AdmissionControl.UNLIMITED));
+        start(true);
+        try (PipelinedConnection connection = new PipelinedConnection("localhost", server.getPort())) {
+            long start = System.nanoTime();
+            List<CompletableFuture<List<Course>>> replies = new ArrayList<>();
+            for (int i = 0; i < 11; i++) {
+                replies.add(connection.loadCourses("Automne"));
+            }
+            for (CompletableFuture<List<Course>> reply : replies) {
+                assertEquals(2, reply.get(5, TimeUnit.SECONDS).size());
+            }
+            // One command right away, then one every 20 ms
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(180));
+        }
+        assertTrue(server.getMetrics().snapshot().get("commands.throttled").longValue() > 0);
+    }
+
+    @Test
+    public void subscribersReceiveSeatAndCatalogChanges() throws Exception
+    {
+        start(true);
+        BlockingQueue<CatalogDelta> deltas = new LinkedBlockingQueue<>();
+        try (PipelinedConnection connection = new PipelinedConnection("localhost", server.getPort())) {
+            connection.subscribe("Automne", deltas::add);
+            CatalogDelta state = deltas.poll(5, TimeUnit.SECONDS);
+            assertTrue(state.isReset());
+            assertEquals(2, state.getAdded().size());
+            assertEquals(2, state.getSeats().size());
+
+            Course course = state.getAdded().get(1);
+            connection.register(new RegistrationForm("Ada", "Lovelace", "ada@umontreal.ca", "123", course)).get(5, TimeUnit.SECONDS);
+            CatalogDelta seats = deltas.poll(5, TimeUnit.SECONDS);
+            assertEquals(1, seats.getSeats().size());
+            assertEquals("IFT2255", seats.getSeats().get(0).getCode());
+            assertEquals(1, seats.getSeats().get(0).getEnrolled());
+
+            Files.write(courses, "IFT1015\tProgrammation1\tAutomne\nIFT3913\tQualite_Logiciel\tAutomne\n".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(courses, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+            assertTrue(server.getCatalog().reloadIfModified());
+            CatalogDelta catalog = deltas.poll(5, TimeUnit.SECONDS);
+            assertEquals("IFT3913", catalog.getAdded().get(0).getCode());
+            assertEquals(Collections.singletonList("IFT2255"), catalog.getRemoved());
+
+            connection.unsubscribe("Automne");
+        }
+    }
+
+    @Test
+    public void selectorModeServesManyBinaryClients() throws Exception
+    {
+        start(true);
+        try (ServerConnection idle = ServerConnection.open("localhost", server.getPort(), WireFormat.BINARY)) {
+            for (int i = 0; i < 5; i++) {
+                loadAndRegister(WireFormat.BINARY);
+            }
+            assertEquals(2, idle.loadCourses("Automne").size());
+        }
+        // The same student registering five times is written once
+        List<String> lines = registrationsAfterShutdown();
+        assertEquals(1, lines.size());
+        assertEquals(EXPECTED_LINE, lines.get(0));
+    }
+
+    @Test
+    public void selectorModeStopsReadingAndDisconnectsClientsThatNeverRead() throws Exception
+    {
+        server.setWriteTimeout(300, TimeUnit.MILLISECONDS);
+        writeLargeCatalog("x");
+        start(true);
+        int requests = 5000;
+        byte[] load = BinaryCodec.encodeCommand(Server.LOAD_COMMAND, "Automne");
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress("localhost", server.getPort()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            try {
+                out.writeInt(BinaryCodec.MAGIC_PIPELINED);
+                for (int i = 1; i <= requests; i++) {
+                    ByteBuffer header = BinaryCodec.pipelinedHeader(load, i);
+                    out.write(header.array(), 0, header.limit());
+                    out.write(load, 5, load.length - 5);
+                }
+                out.flush();
+            } catch (IOException e) {
+                // Closed by the server while the requests were still being sent
+            }
+            // Never reads a single reply
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (server.getActiveSessionCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+        }
+        assertEquals(0, server.getActiveSessionCount());
+        assertEquals(1, server.getMetrics().snapshot().get("connections.timed_out").longValue());
+        // Reading stopped once the replies piled up, long before all the requests were served
+        assertTrue(server.getMetrics().snapshot().get("commands.CHARGER").longValue() < requests);
+    }
+
+    @Test
+    public void answersUnreadableQueriesWithAnEmptyPage() throws Exception
+    {
+        start(true);
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out.writeInt(BinaryCodec.MAGIC_PIPELINED);
+            // A whole frame whose payload stops in the middle of the session's name
+            byte[] truncated = BinaryCodec.frame(BinaryCodec.OP_QUERY, new byte[] {0, 7, 'A', 'u'});
+            ByteBuffer header = BinaryCodec.pipelinedHeader(truncated, 1);
+            out.write(header.array(), 0, header.limit());
+            out.write(truncated, 5, truncated.length - 5);
+            byte[] lookup = BinaryCodec.encodeLookup("Automne", "IFT2255");
+            header = BinaryCodec.pipelinedHeader(lookup, 2);
+            out.write(header.array(), 0, header.limit());
+            out.write(lookup, 5, lookup.length - 5);
+            out.flush();
+            assertEquals(BinaryCodec.MAGIC_PIPELINED, in.readInt());
+
+            BinaryCodec.Frame empty = BinaryCodec.readFrame(in, BinaryCodec.MAX_RESPONSE_FRAME, true);
+            assertEquals(1, empty.getRequestId());
+            assertTrue(BinaryCodec.decodePage(empty).getCourses().isEmpty());
+            // The connection goes on with the next request
+            BinaryCodec.Frame found = BinaryCodec.readFrame(in, BinaryCodec.MAX_RESPONSE_FRAME, true);
+            assertEquals(2, found.getRequestId());
+            assertEquals("Genie_Logiciel", BinaryCodec.decodePage(found).getCourses().get(0).getName());
+        }
+    }
+
+    private void writeLargeCatalog(String suffix) throws Exception
+    {
+        StringBuilder catalog = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            catalog.append("IFT").append(1000 + i).append("\tProgrammation_").append(suffix).append(i).append("\tAutomne\n");
+        }
+        Files.write(courses, catalog.toString().getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(courses, FileTime.fromMillis(System.currentTimeMillis() + 10_000 * suffix.length()));
+        assertTrue(server.getCatalog().reloadIfModified());
+    }
+
+    @Test
+    public void compressesLargeResponsesForClientsThatAskForIt() throws Exception
+    {
+        start(true);
+        BlockingQueue<CatalogDelta> deltas = new LinkedBlockingQueue<>();
+        try (PipelinedConnection connection = new PipelinedConnection("localhost", server.getPort(), 8, true)) {
+            connection.subscribe("Automne", deltas::add);
+            assertEquals(2, deltas.poll(5, TimeUnit.SECONDS).getAdded().size());
+
+            writeLargeCatalog("a");
+            assertEquals(299, deltas.poll(5, TimeUnit.SECONDS).getAdded().size());
+            String plain;
+            try (ServerConnection uncompressed = ServerConnection.open("localhost", server.getPort(), WireFormat.BINARY)) {
+                plain = uncompressed.loadCourses("Automne").toString();
+            }
+            try (BinaryConnection compressed = new BinaryConnection("localhost", server.getPort(), true)) {
+                assertEquals(plain, compressed.loadCourses("Automne").toString());
+                assertEquals(plain, compressed.loadCourses("Automne").toString());
+            }
+            assertEquals(plain, connection.loadCourses("Automne").get(5, TimeUnit.SECONDS).toString());
+
+            // A new catalog brings a new dictionary, sent again before the first frame that needs it
+            writeLargeCatalog("bb");
+            assertEquals(300, deltas.poll(5, TimeUnit.SECONDS).getChanged().size());
+            assertEquals("Programmation_bb0", connection.loadCourses("Automne").get(5, TimeUnit.SECONDS).get(0).getName());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package server.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+import server.registration.RegistrationRecord;
+
+public class EnrollmentAnalyticsTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static RegistrationRecord record(String session, String code, int matricule)
+    {
+        return new RegistrationRecord(session, code, String.valueOf(matricule), "Ada", "Lovelace", "ada@umontreal.ca");
+    }
+
+    private static void awaitRows(EnrollmentAnalytics analytics, int rows) throws Exception
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (analytics.getRows() < rows && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(rows, analytics.getRows());
+    }
+
+    private static AnalyticsResult query(EnrollmentAnalytics analytics, String query) throws Exception
+    {
+        return analytics.query(query).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void aggregatesTheJournalAsItGrows() throws Exception
+    {
+        Path file = folder.getRoot().toPath().resolve("inscription.txt");
+        RegistrationIndex capacities = new RegistrationIndex(RegistrationIndex.UNLIMITED);
+        capacities.setCapacity("Hiver", "IFT1025", 4);
+        capacities.setCapacity("Hiver", "IFT2255", 100);
+        try (RegistrationJournal journal = new RegistrationJournal(file);
+             EnrollmentAnalytics analytics = new EnrollmentAnalytics(journal, capacities::getCapacity, 2)) {
+            // Enough rows for the aggregations to split across several chunks
+            List<RegistrationRecord> records = new ArrayList<>();
+            for (int i = 0; i < 300_000; i++) {
+                records.add(record("Automne", "IFT" + (1000 + i % 7), i));
+            }
+            journal.appendAll(records).get(10, TimeUnit.SECONDS);
+            journal.appendAll(Arrays.asList(record("Hiver", "IFT1025", 1), record("Hiver", "IFT1025", 2),
+                    record("Hiver", "IFT1025", 3), record("Hiver", "IFT2255", 1))).get(5, TimeUnit.SECONDS);
+            awaitRows(analytics, 300_004);
+
+            assertEquals("{Automne=300000, Hiver=4}", query(analytics, "sessions").asMap().toString());
+            assertEquals(42858L, (long) query(analytics, "compte Automne IFT1000").asMap().get("Automne\tIFT1000"));
+            AnalyticsResult top = query(analytics, "top Hiver 1");
+            assertEquals(Arrays.asList("Hiver\tIFT1025"), top.getKeys());
+            assertEquals(3, top.getValue(0));
+            assertEquals(Arrays.asList("Hiver\tIFT1025"), query(analytics, "presque-complets Hiver 0.75").getKeys());
+            assertEquals(Arrays.asList("Hiver\tIFT1025", "Hiver\tIFT2255"), query(analytics, "cours Hiver").getKeys());
+
+            // Student 1 registered in Automne too; new rows are picked up from the journal
+            journal.append(record("Hiver", "IFT3913", 1)).get(5, TimeUnit.SECONDS);
+            awaitRows(analytics, 300_005);
+            assertEquals(Arrays.asList("Automne\tIFT1001", "Hiver\tIFT1025", "Hiver\tIFT2255", "Hiver\tIFT3913"),
+                    query(analytics, "horaire 1").getKeys());
+            assertEquals(300_005, query(analytics, "sessions").getRows());
+        }
+    }
+
+    @Test
+    public void rejectsUnknownQueries() throws Exception
+    {
+        Path file = folder.getRoot().toPath().resolve("inscription.txt");
+        try (RegistrationJournal journal = new RegistrationJournal(file);
+             EnrollmentAnalytics analytics = new EnrollmentAnalytics(journal, (session, code) -> RegistrationIndex.UNLIMITED, 1)) {
+            assertEquals(0, query(analytics, "horaire 42").size());
+            try {
+                query(analytics, "top Hiver beaucoup");
+                fail("La requête aurait dû être refusée");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package server.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import server.exceptions.InvalidLineFormatException;
+import server.models.Course;
+
+public class CourseCatalogTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String content) throws IOException
+    {
+        Path file = folder.getRoot().toPath().resolve("cours.txt");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void groupsCoursesBySession() throws Exception
+    {
+        Path file = write("IFT1015\tProgrammation1\tAutomne\nIFT1025\tProgrammation2\tHiver\nIFT2255\tGenie_Logiciel\tAutomne");
+        CourseCatalog catalog = new CourseCatalog(file);
+
+        List<Course> automne = catalog.getCourses("Automne");
+        assertEquals(2, automne.size());
+        assertEquals("IFT1015", automne.get(0).getCode());
+        assertEquals("Programmation1", automne.get(0).getName());
+        assertEquals(1, catalog.getCourses("Hiver").size());
+        assertTrue(catalog.getCourses("Ete").isEmpty());
+    }
+
+    @Test(expected = InvalidLineFormatException.class)
+    public void rejectsMalformedLines() throws Exception
+    {
+        new CourseCatalog(write("IFT1015\tProgrammation1\n"));
+    }
+
+    @Test
+    public void reloadsOnlyWhenModified() throws Exception
+    {
+        Path file = write("IFT1015\tProgrammation1\tAutomne\n");
+        CourseCatalog catalog = new CourseCatalog(file);
+        long version = catalog.getVersion();
+        assertFalse(catalog.reloadIfModified());
+
+        Files.write(file, "IFT1015\tProgrammation1\tAutomne\nIFT1227\tArchitecture\tAutomne\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+
+        assertTrue(catalog.reloadIfModified());
+        assertEquals(version + 1, catalog.getVersion());
+        assertEquals(2, catalog.getCourses("Automne").size());
+    }
+
+    @Test
+    public void reloadsWhenOnlyTheSizeChanged() throws Exception
+    {
+        Path file = write("IFT1015\tProgrammation1\tAutomne\n");
+        CourseCatalog catalog = new CourseCatalog(file);
+        FileTime modified = Files.getLastModifiedTime(file);
+
+        Files.write(file, "IFT1015\tProgrammation1\tAutomne\nIFT1227\tArchitecture\tAutomne\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, modified);
+
+        assertTrue(catalog.reloadIfModified());
+        assertEquals(2, catalog.getCourses("Automne").size());
+    }
+
+    @Test
+    public void keepsPreviousSnapshotWhenReloadFails() throws Exception
+    {
+        Path file = write("IFT1015\tProgrammation1\tAutomne\n");
+        CourseCatalog catalog = new CourseCatalog(file);
+
+        Files.write(file, "broken line\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+
+        assertFalse(catalog.reloadIfModified());
+        assertEquals(1, catalog.getCourses("Automne").size());
+    }
+}
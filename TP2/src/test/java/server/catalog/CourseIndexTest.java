@@ -0,0 +1,58 @@
+package server.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import server.models.Course;
+
+public class CourseIndexTest
+{
+    private static final List<Course> COURSES = new ArrayList<>();
+    static {
+        COURSES.add(new Course("Genie_Logiciel", "IFT2255", "Automne"));
+        COURSES.add(new Course("Programmation1", "IFT1015", "Automne"));
+        COURSES.add(new Course("Programmation2", "IFT1025", "Automne"));
+        COURSES.add(new Course("Analyse", "MAT1400", "Automne"));
+        COURSES.add(new Course("Logique", "IFT1065", "Automne"));
+    }
+
+    private static List<String> codes(CourseIndex.Page page)
+    {
+        List<String> codes = new ArrayList<>();
+        for (Course course : page.getCourses()) {
+            codes.add(course.getCode());
+        }
+        return codes;
+    }
+
+    @Test
+    public void pagesThroughCodePrefixInCodeOrder() throws Exception
+    {
+        CourseIndex index = new CourseIndex(COURSES);
+        CourseQuery query = new CourseQuery("Automne", "IFT1", "", 2, "");
+
+        CourseIndex.Page first = index.query(query);
+        assertEquals(List.of("IFT1015", "IFT1025"), codes(first));
+        assertTrue(first.hasNext());
+
+        CourseIndex.Page second = index.query(query.next(first.getNextCursor()));
+        assertEquals(List.of("IFT1065"), codes(second));
+        assertFalse(second.hasNext());
+    }
+
+    @Test
+    public void findsNameSubstringsThroughTrigramsAndShortScans() throws Exception
+    {
+        CourseIndex index = new CourseIndex(COURSES);
+        assertEquals(List.of("IFT1065", "IFT2255"), codes(index.query(new CourseQuery("Automne", "", "LOGI", 0, ""))));
+        assertEquals(List.of("IFT2255"), codes(index.query(new CourseQuery("Automne", "IFT2", "logi", 0, ""))));
+        assertEquals(List.of("IFT1015", "IFT1025"), codes(index.query(new CourseQuery("Automne", "IFT1", "n", 0, "IFT1000"))));
+        assertEquals(0, index.query(new CourseQuery("Automne", "", "chimie", 0, "")).getCourses().size());
+    }
+}
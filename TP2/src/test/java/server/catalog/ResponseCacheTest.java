@@ -0,0 +1,82 @@
+package server.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import server.models.Course;
+import server.protocol.WireFormat;
+
+public class ResponseCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CourseCatalog catalog(String content) throws Exception
+    {
+        Path file = folder.getRoot().toPath().resolve("cours.txt");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return new CourseCatalog(file);
+    }
+
+    @Test
+    public void countsHitsAndMissesPerCatalogVersion() throws Exception
+    {
+        CourseCatalog catalog = catalog("IFT1015\tProgrammation1\tAutomne\n");
+        ResponseCache cache = new ResponseCache(catalog, WireFormat.OBJECT_STREAM);
+
+        byte[] first = cache.get("Automne");
+        assertSame(first, cache.get("Automne"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        Files.write(catalog.getFile(), "IFT1015\tProgrammation1\tAutomne\nIFT2255\tGenie\tAutomne\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(catalog.getFile(), FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        catalog.reloadIfModified();
+
+        assertNotSame(first, cache.get("Automne"));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void cachedBytesCanBeSplicedIntoAnOpenObjectStream() throws Exception
+    {
+        ResponseCache cache = new ResponseCache(catalog("IFT1015\tProgrammation1\tAutomne\n"), WireFormat.OBJECT_STREAM);
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(raw);
+
+        // Same sequence as ClientSession: an ordinary object, spliced bytes twice, then an ordinary object again
+        out.writeObject("avant");
+        for (int i = 0; i < 2; i++) {
+            out.reset();
+            out.flush();
+            raw.write(cache.get("Automne"));
+        }
+        out.reset();
+        out.writeObject("après");
+        out.flush();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(raw.toByteArray()));
+        assertEquals("avant", in.readObject());
+        for (int i = 0; i < 2; i++) {
+            List<Course> courses = (List<Course>) in.readObject();
+            assertEquals("IFT1015", courses.get(0).getCode());
+        }
+        assertEquals("après", in.readObject());
+    }
+}
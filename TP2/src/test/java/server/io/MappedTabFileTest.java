@@ -0,0 +1,61 @@
+package server.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import server.exceptions.InvalidLineFormatException;
+
+public class MappedTabFileTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String content) throws Exception
+    {
+        Path file = folder.newFile().toPath();
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void readsRowsAcrossWindowsAndLineEndings() throws Exception
+    {
+        Path file = write("IFT1015\tProgrammation1\tAutomne\r\n\nIFT1025\tProgrammation2\tHiver\nIFT2255\tGénie_Logiciel\tÉté");
+        for (int window : new int[]{MappedTabFile.WINDOW_SIZE, 40, 64}) {
+            List<String> rows = new ArrayList<>();
+            MappedTabFile.scan(file, 3, "format", row -> rows.add(row.getLineNumber() + ":" + row.field(0) + "/" + row.fields(1, 2)), window);
+            assertEquals(3, rows.size());
+            assertEquals("1:IFT1015/Programmation1\tAutomne", rows.get(0));
+            assertEquals("3:IFT1025/Programmation2\tHiver", rows.get(1));
+            assertEquals("4:IFT2255/Génie_Logiciel\tÉté", rows.get(2));
+        }
+    }
+
+    @Test
+    public void reportsTheLineOfTheFirstBadRow() throws Exception
+    {
+        Path file = write("IFT1015\tProgrammation1\tAutomne\n\nIFT1025\tProgrammation2\nIFT2255\tGenie_Logiciel\tAutomne\n");
+        try {
+            MappedTabFile.scan(file, 3, "format", row -> { });
+            fail();
+        } catch (InvalidLineFormatException e) {
+            assertEquals(3, e.getLineNumber());
+        }
+    }
+
+    @Test(expected = InvalidLineFormatException.class)
+    public void rejectsLinesLongerThanAWindow() throws Exception
+    {
+        MappedTabFile.scan(write("IFT1015\tProgrammation1\tAutomne\nIFT1025\tProgrammation2\tHiver\n"), 3, "format", row -> { }, 16);
+    }
+}
@@ -0,0 +1,39 @@
+package server.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest
+{
+    @Test
+    public void percentilesStayWithinTheBucketPrecision()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000000, histogram.getMax());
+        assertWithin(5000000, histogram.getPercentile(50));
+        assertWithin(9900000, histogram.getPercentile(99));
+        assertEquals(10000000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void bucketsCoverTheWholeRange()
+    {
+        for (long value : new long[]{0, 1, 127, 128, 129, 255, 256, 1000003, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.highestValueOf(bucket));
+            assertTrue(bucket == 0 || value > LatencyHistogram.highestValueOf(bucket - 1));
+        }
+        assertEquals(0, new LatencyHistogram().getPercentile(99));
+    }
+
+    private static void assertWithin(long expected, long actual)
+    {
+        assertTrue(actual + " vs " + expected, actual >= expected && actual <= expected + expected / 64);
+    }
+}
@@ -0,0 +1,75 @@
+package server.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import server.models.Course;
+
+public class PayloadCompressorTest
+{
+    private static List<Course> catalog(int count)
+    {
+        String[] sessions = {"Automne", "Hiver", "Ete"};
+        List<Course> courses = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            courses.add(new Course("Introduction_a_la_programmation_" + i, "IFT" + (1000 + i), sessions[i % 3]));
+        }
+        return courses;
+    }
+
+    @Test
+    public void compressesLargeCourseListsWithTheCatalogDictionary() throws Exception
+    {
+        List<Course> courses = catalog(600);
+        PayloadCompressor compressor = PayloadCompressor.forCourses(courses, PayloadCompressor.DEFAULT_THRESHOLD);
+        byte[] frame = BinaryCodec.encodeCourses(courses);
+        byte[] compressed = compressor.compress(frame);
+
+        assertTrue(PayloadCompressor.isCompressed(compressed));
+        assertTrue(compressed.length * 4 < frame.length);
+
+        BinaryCodec.Frame received = new BinaryCodec.Frame(BinaryCodec.OP_COMPRESSED, 7, payloadOf(compressed));
+        byte[] dictionary = PayloadCompressor.decodeDictionary(payloadFrame(compressor.getDictionaryFrame()));
+        BinaryCodec.Frame original = PayloadCompressor.decompress(received,
+                id -> id == PayloadCompressor.dictionaryId(dictionary) ? dictionary : null);
+        assertEquals(BinaryCodec.OP_COURSES, original.getOpcode());
+        assertEquals(7, original.getRequestId());
+        assertArrayEquals(payloadOf(frame), original.getPayload());
+    }
+
+    @Test
+    public void leavesSmallFramesAlone()
+    {
+        PayloadCompressor compressor = PayloadCompressor.forCourses(catalog(600), PayloadCompressor.DEFAULT_THRESHOLD);
+        byte[] frame = BinaryCodec.frame(BinaryCodec.OP_COURSES, new byte[100]);
+        assertSame(frame, compressor.compress(frame));
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesFramesWithoutTheirDictionary() throws Exception
+    {
+        List<Course> courses = catalog(600);
+        byte[] compressed = PayloadCompressor.forCourses(courses, 0).compress(BinaryCodec.encodeCourses(courses));
+        PayloadCompressor.decompress(new BinaryCodec.Frame(BinaryCodec.OP_COMPRESSED, payloadOf(compressed)), id -> null);
+    }
+
+    private static byte[] payloadOf(byte[] frame)
+    {
+        byte[] payload = new byte[frame.length - 5];
+        System.arraycopy(frame, 5, payload, 0, payload.length);
+        return payload;
+    }
+
+    private static BinaryCodec.Frame payloadFrame(byte[] frame)
+    {
+        return new BinaryCodec.Frame(frame[4], payloadOf(frame));
+    }
+}
@@ -0,0 +1,96 @@
+package server.registration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RegistrationIndexTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static RegistrationRecord record(String course, String matricule)
+    {
+        return new RegistrationRecord("Automne", course, matricule, "Ada", "Lovelace", "ada@umontreal.ca");
+    }
+
+    @Test
+    public void rejectsDuplicatesAndFullCourses()
+    {
+        RegistrationIndex index = new RegistrationIndex(2);
+
+        assertEquals(RegistrationIndex.Result.ACCEPTED, index.tryReserve(record("IFT2255", "1")));
+        assertEquals(RegistrationIndex.Result.DUPLICATE, index.tryReserve(record("IFT2255", "1")));
+        assertEquals(RegistrationIndex.Result.ACCEPTED, index.tryReserve(record("IFT2255", "2")));
+        assertEquals(RegistrationIndex.Result.FULL, index.tryReserve(record("IFT2255", "3")));
+        assertEquals(RegistrationIndex.Result.ACCEPTED, index.tryReserve(record("IFT1015", "3")));
+        assertEquals(2, index.getEnrollment("Automne", "IFT2255"));
+
+        index.release(record("IFT2255", "2"));
+        assertEquals(RegistrationIndex.Result.ACCEPTED, index.tryReserve(record("IFT2255", "3")));
+    }
+
+    @Test
+    public void rejectsFieldsThatWouldCorruptTheFile()
+    {
+        RegistrationIndex index = new RegistrationIndex(RegistrationIndex.UNLIMITED);
+        assertEquals(RegistrationIndex.Result.INVALID,
+                index.tryReserve(new RegistrationRecord("Automne", "IFT2255", "1", "Ada\tX", "Lovelace", "a@b.ca")));
+        assertEquals(RegistrationIndex.Result.INVALID,
+                index.tryReserve(new RegistrationRecord("Automne", "IFT2255", "", "Ada", "Lovelace", "a@b.ca")));
+    }
+
+    @Test
+    public void neverOverbooksUnderConcurrentLoad() throws Exception
+    {
+        RegistrationIndex index = new RegistrationIndex(50);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        AtomicInteger accepted = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String matricule = String.valueOf(i % 400);
+            futures.add(pool.submit(() -> {
+                if (index.tryReserve(record("IFT2255", matricule)) == RegistrationIndex.Result.ACCEPTED) {
+                    accepted.incrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        pool.shutdown();
+
+        assertEquals(50, accepted.get());
+        assertEquals(50, index.getEnrollment("Automne", "IFT2255"));
+        assertEquals(50, index.size());
+    }
+
+    @Test
+    public void rebuildsFromTheRegistrationFile() throws Exception
+    {
+        Path file = folder.getRoot().toPath().resolve("inscription.txt");
+        Files.write(file, ("Automne\tIFT2255\t1\tA\tB\ta@b.ca\n"
+                + "Automne\tIFT2255\t1\tA\tB\ta@b.ca\n"
+                + "Hiver\tIFT1025\t2\tC\tD\tc@d.ca").getBytes(StandardCharsets.UTF_8));
+
+        RegistrationIndex index = RegistrationIndex.load(file, RegistrationIndex.UNLIMITED);
+
+        assertEquals(2, index.size());
+        assertEquals(1, index.getEnrollment("Automne", "IFT2255"));
+        assertTrue(index.isRegistered("Hiver", "IFT1025", "2"));
+        assertEquals(RegistrationIndex.Result.DUPLICATE, index.tryReserve(new RegistrationRecord("Hiver", "IFT1025", "2", "C", "D", "c@d.ca")));
+    }
+}
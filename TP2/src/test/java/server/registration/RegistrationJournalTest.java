@@ -0,0 +1,292 @@
+package server.registration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RegistrationJournalTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void groupsConcurrentAppendsIntoFewerBatches() throws Exception
+    {
+        Path file = folder.getRoot().toPath().resolve("inscription.txt");
+        int count = 500;
+        try (RegistrationJournal journal = new RegistrationJournal(file, 64, 5, TimeUnit.MILLISECONDS)) {
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                futures.add(journal.append(new RegistrationRecord("Automne", "IFT2255", String.valueOf(i), "Ada", "Lovelace", "ada@umontreal.ca")));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+            assertTrue(journal.getBatchCount() < count);
+            assertEquals(Files.size(file), journal.getPosition());
+        }
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(count, lines.size());
+        Set<String> matricules = new HashSet<>();
+        for (String line : lines) {
+            matricules.add(RegistrationRecord.parse(line).getMatricule());
+        }
+        assertEquals(count, matricules.size());
+    }
+
+    @Test
+    public void appendsAfterExistingContent() throws Exception
+    {
+        Path file = folder.getRoot().toPath().resolve("inscription.txt");
+        Files.write(file, "Automne\tIFT2255\t1\tA\tB\ta@b.ca\n".getBytes(StandardCharsets.UTF_8));
+        long before = Files.size(file);
+        try (RegistrationJournal journal = new RegistrationJournal(file)) {
+            long end = journal.append(new RegistrationRecord("Hiver", "IFT1025", "2", "C", "D", "c@d.ca")).get(5, TimeUnit.SECONDS);
+            assertTrue(end > before);
+        }
+        assertEquals(2, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void terminatesAnUnfinishedLastLineBeforeAppending() throws Exception
+    {
+        Path file = folder.getRoot().toPath().resolve("inscription.txt");
+        Files.write(file, "Automne\tIFT2255\t1\tA\tB\ta@b.ca".getBytes(StandardCharsets.UTF_8));
+        try (RegistrationJournal journal = new RegistrationJournal(file)) {
+            journal.append(new RegistrationRecord("Hiver", "IFT1025", "2", "C", "D", "c@d.ca")).get(5, TimeUnit.SECONDS);
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertEquals("IFT1025", RegistrationRecord.parse(lines.get(1)).getCourseCode());
+    }
+
+    @Test
+    public void dropsRecordsStillQueuedAtTheirDeadline() throws Exception
+    {
+        Path file = folder.getRoot().toPath().resolve("inscription.txt");
+        // A batch waits up to 500 ms for company, so a 50 ms deadline passes before it is written
+        try (RegistrationJournal journal = new RegistrationJournal(file, 64, 500, TimeUnit.MILLISECONDS)) {
+            CompletableFuture<Long> late = journal.append(new RegistrationRecord("Hiver", "IFT1025", "1", "A", "B", "a@b.ca"), 50, TimeUnit.MILLISECONDS);
+            CompletableFuture<Long> patient = journal.append(new RegistrationRecord("Hiver", "IFT1025", "2", "C", "D", "c@d.ca"));
+            try {
+                late.get(5, TimeUnit.SECONDS);
+                fail("L'échéance aurait dû passer");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            patient.get(5, TimeUnit.SECONDS);
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertEquals("2", RegistrationRecord.parse(lines.get(0)).getMatricule());
+    }
+
+    @Test(expected = java.util.concurrent.ExecutionException.class)
+    public void rejectsAppendsAfterClose() throws Exception
+    {
+        RegistrationJournal journal = new RegistrationJournal(folder.getRoot().toPath().resolve("inscription.txt"));
+        journal.close();
+        journal.append(new RegistrationRecord("Hiver", "IFT1025", "2", "C", "D", "c@d.ca")).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void removesABatchThatFailedToSyncFromTheFile() throws Exception
+    {
+        Path file = folder.getRoot().toPath().resolve("inscription.txt");
+        FailingChannel channel = new FailingChannel(file);
+        try (RegistrationJournal journal = new RegistrationJournal(file, channel, 64, 1, TimeUnit.MILLISECONDS)) {
+            channel.failForce = true;
+            try {
+                journal.append(new RegistrationRecord("Hiver", "IFT1025", "1", "A", "B", "a@b.ca")).get(5, TimeUnit.SECONDS);
+                fail("La synchronisation aurait dû échouer");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            // Written but never confirmed: it must not be replayed, nor shift the next batch
+            assertEquals(0, Files.size(file));
+            assertEquals(0, journal.getPosition());
+
+            channel.failForce = false;
+            long end = journal.append(new RegistrationRecord("Hiver", "IFT1025", "2", "C", "D", "c@d.ca")).get(5, TimeUnit.SECONDS);
+            assertEquals(Files.size(file), end);
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertEquals("2", RegistrationRecord.parse(lines.get(0)).getMatricule());
+    }
+
+    @Test
+    public void refusesAppendsOnceAFailedBatchCannotBeRemoved() throws Exception
+    {
+        Path file = folder.getRoot().toPath().resolve("inscription.txt");
+        FailingChannel channel = new FailingChannel(file);
+        try (RegistrationJournal journal = new RegistrationJournal(file, channel, 64, 1, TimeUnit.MILLISECONDS)) {
+            channel.failForce = true;
+            channel.failTruncate = true;
+            CompletableFuture<Long> failed = journal.append(new RegistrationRecord("Hiver", "IFT1025", "1", "A", "B", "a@b.ca"));
+            try {
+                failed.get(5, TimeUnit.SECONDS);
+                fail("La synchronisation aurait dû échouer");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            channel.failForce = false;
+            CompletableFuture<Long> next = journal.append(new RegistrationRecord("Hiver", "IFT1025", "2", "C", "D", "c@d.ca"));
+            try {
+                next.get(5, TimeUnit.SECONDS);
+                fail("Le journal aurait dû refuser l'ajout");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage().contains("inutilisable"));
+            }
+        }
+    }
+
+    /**
+     * A real file channel whose force or truncate can be made to fail, like a disk that goes away.
+     */
+    private static final class FailingChannel extends FileChannel
+    {
+        private final FileChannel delegate;
+        private volatile boolean failForce;
+        private volatile boolean failTruncate;
+
+        FailingChannel(Path file) throws IOException
+        {
+            delegate = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException
+        {
+            if (failForce) {
+                throw new IOException("Disque indisponible");
+            }
+            delegate.force(metaData);
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException
+        {
+            if (failTruncate) {
+                throw new IOException("Disque indisponible");
+            }
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException
+        {
+            return delegate.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+        {
+            return delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException
+        {
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException
+        {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException
+        {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException
+        {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public long position() throws IOException
+        {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException
+        {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException
+        {
+            return delegate.size();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException
+        {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException
+        {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException
+        {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException
+        {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException
+        {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException
+        {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package server.replication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+import server.registration.RegistrationRecord;
+
+public class ReplicationTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void appendAll(RegistrationJournal journal, int from, int to) throws Exception
+    {
+        List<RegistrationRecord> records = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            records.add(new RegistrationRecord("Automne", "IFT2255", String.valueOf(i), "Ada", "Lovelace", "ada@umontreal.ca"));
+        }
+        journal.appendAll(records).get(5, TimeUnit.SECONDS);
+    }
+
+    private static void awaitSize(RegistrationIndex index, int size) throws Exception
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (index.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, index.size());
+    }
+
+    @Test
+    public void replicaCopiesTheJournalResumesAndCanBePromoted() throws Exception
+    {
+        Path primaryFile = folder.getRoot().toPath().resolve("primaire.txt");
+        Path replicaFile = folder.getRoot().toPath().resolve("replique.txt");
+        RegistrationIndex replicaIndex = new RegistrationIndex(RegistrationIndex.UNLIMITED);
+        AtomicBoolean promoted = new AtomicBoolean();
+        try (RegistrationJournal primary = new RegistrationJournal(primaryFile);
+             ReplicationSource source = new ReplicationSource(primary, 0);
+             RegistrationJournal replica = new RegistrationJournal(replicaFile)) {
+            InetSocketAddress address = InetSocketAddress.createUnresolved("localhost", source.getPort());
+            appendAll(primary, 0, 100);
+
+            ReplicaFollower first = new ReplicaFollower(address, replica, replicaIndex::restore, () -> { });
+            awaitSize(replicaIndex, 100);
+            appendAll(primary, 100, 150);
+            awaitSize(replicaIndex, 150);
+            first.close();
+
+            // Written while no replica is connected: the next one resumes from its own journal's size
+            appendAll(primary, 150, 200);
+            ReplicaFollower second = new ReplicaFollower(address, replica, replicaIndex::restore, () -> promoted.set(true));
+            awaitSize(replicaIndex, 200);
+            assertEquals(0, second.getLagBytes());
+            assertTrue(second.isConnected());
+
+            second.promote();
+            assertTrue(promoted.get());
+            assertFalse(second.isConnected());
+            assertArrayEquals(Files.readAllBytes(primaryFile), Files.readAllBytes(replicaFile));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package server.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import server.catalog.CourseCatalog;
+import server.registration.RegistrationIndex;
+import server.registration.RegistrationJournal;
+import server.registration.RegistrationRecord;
+
+public class StateSnapshotTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path courses;
+    private Path inscriptions;
+    private Path snapshot;
+
+    private void saveWithTwoRegistrations() throws Exception
+    {
+        courses = folder.getRoot().toPath().resolve("cours.txt");
+        Files.write(courses, "IFT1015\tProgrammation1\tAutomne\nIFT2255\tGenie_Logiciel\tAutomne\n".getBytes(StandardCharsets.UTF_8));
+        inscriptions = folder.getRoot().toPath().resolve("inscription.txt");
+        snapshot = folder.getRoot().toPath().resolve("inscription.txt.snapshot");
+        CourseCatalog catalog = new CourseCatalog(courses);
+        RegistrationIndex index = new RegistrationIndex(RegistrationIndex.UNLIMITED);
+        try (RegistrationJournal journal = new RegistrationJournal(inscriptions)) {
+            for (String matricule : new String[] {"1", "2"}) {
+                RegistrationRecord record = new RegistrationRecord("Automne", "IFT2255", matricule, "A", "B", "a@b.ca");
+                index.tryReserve(record);
+                journal.append(record).get(5, TimeUnit.SECONDS);
+            }
+            StateSnapshot.write(snapshot, catalog, index, journal);
+        }
+    }
+
+    @Test
+    public void restoresTheIndexAndReplaysOnlyTheJournalTail() throws Exception
+    {
+        saveWithTwoRegistrations();
+        Files.write(inscriptions, "Automne\tIFT2255\t3\tC\tD\tc@d.ca\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        StateSnapshot saved = StateSnapshot.read(snapshot, RegistrationIndex.UNLIMITED);
+        assertEquals(2, new CourseCatalog(courses, saved.getCatalog()).getCourses("Automne").size());
+        RegistrationIndex index = saved.restoreRegistrations(inscriptions);
+        assertEquals(3, index.size());
+        assertEquals(3, index.getEnrollment("Automne", "IFT2255"));
+        assertTrue(index.isRegistered("Automne", "IFT2255", "3"));
+    }
+
+    @Test
+    public void refusesAJournalThatWasRewritten() throws Exception
+    {
+        saveWithTwoRegistrations();
+        Files.write(inscriptions, "Hiver\tIFT1025\t9\tC\tD\tc@d.ca\n".getBytes(StandardCharsets.UTF_8));
+        assertNull(StateSnapshot.read(snapshot, RegistrationIndex.UNLIMITED).restoreRegistrations(inscriptions));
+    }
+
+    @Test
+    public void ignoresACorruptedSnapshot() throws Exception
+    {
+        saveWithTwoRegistrations();
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(snapshot, bytes);
+        assertNull(StateSnapshot.read(snapshot, RegistrationIndex.UNLIMITED));
+    }
+}